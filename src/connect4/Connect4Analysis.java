@@ -0,0 +1,67 @@
+package connect4;
+
+/**
+ * An immutable result of analysing one position: a score for every column
+ * and the best line found, as of some search depth.
+ * 
+ * <p>Scores are from the point of view of the player to move, as returned by
+ * {@link Connect4Engine#scoreColumns(Connect4Board, int)}.</p>
+ *
+ */
+public final class Connect4Analysis 
+{
+	private final int[] columnScores;
+	private final int[] bestLine;
+	private final int depth;
+	private final long nodes;
+	
+	/**
+	 * Connect4Analysis Constructor. The arrays are kept, not copied.
+	 * @param columnScores score per column, {@link Connect4Engine#ILLEGAL} 
+	 *        for full columns
+	 * @param bestLine best line, starting with the best column
+	 * @param depth depth searched
+	 * @param nodes positions visited
+	 */
+	public Connect4Analysis(int[] columnScores, int[] bestLine, int depth, long nodes)
+	{
+		this.columnScores = columnScores;
+		this.bestLine = bestLine;
+		this.depth = depth;
+		this.nodes = nodes;
+	}
+	
+	public int getDepth() { return depth; }
+	public long getNodes() { return nodes; }
+	public int getBestLineLength() { return bestLine.length; }
+	public int getBestLineMove(int i) { return bestLine[i]; }
+	
+	/**
+	 * Gets the score of a column.
+	 * @param col column index
+	 * @return score, {@link Connect4Engine#ILLEGAL} if the column is full
+	 */
+	public int getColumnScore(int col)
+	{
+		return columnScores[col];
+	}
+	
+	/**
+	 * Formats a score for display: "W3" for a forced win three moves away,
+	 * "L3" for a forced loss, the number otherwise, blank for a full column.
+	 * @param score score to format
+	 * @param discs number of discs on the board when the score was found
+	 * @return display text
+	 */
+	public static String formatScore(int score, int discs)
+	{
+		if (score == Connect4Engine.ILLEGAL)
+			return "";
+		if (Connect4Engine.isWinScore(score))
+		{
+			int plies = Connect4Engine.WIN_SCORE - Math.abs(score) - discs;
+			return (score > 0 ? "W" : "L") + ((plies + 1) / 2);
+		}
+		return Integer.toString(score);
+	}
+}
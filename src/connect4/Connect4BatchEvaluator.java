@@ -0,0 +1,258 @@
+package connect4;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Scores large batches of positions at a fixed depth.
+ * 
+ * <p>Positions are given as boards or as move strings (see 
+ * {@link #parseMoves(String, Connect4GameConfig)}). A batch is deduplicated
+ * by {@link Connect4Board#hash()} first, so a position repeated in the input
+ * is searched once. The distinct positions are then cut into chunks and
+ * searched by a pool of workers, each with its own {@link Connect4Engine} 
+ * but all sharing one {@link Connect4TranspositionTable}. Positions in a 
+ * batch usually share most of their subtrees, so one worker's results cut 
+ * off the others' searches, and the table is kept from batch to batch.</p>
+ * 
+ * <p>Results are handed to the caller's consumer on the calling thread in
+ * input order, as soon as the chunk holding each one is done, so the first
+ * results stream out while later chunks are still being searched.</p>
+ *
+ */
+public class Connect4BatchEvaluator 
+{
+	public static final int DEFAULT_DEPTH = 8;
+	public static final int DEFAULT_TABLE_MEGABYTES = 64;
+	private static final int CHUNK = 16; // distinct positions per task
+	
+	private final int depth;
+	private final Connect4TranspositionTable table;
+	private final ExecutorService workers;
+	private final ThreadLocal<Connect4Engine> engines;
+	
+	/**
+	 * Connect4BatchEvaluator Constructor.
+	 * @param threads number of worker threads
+	 * @param depth search depth in plies
+	 * @param table transposition table shared by the workers
+	 */
+	public Connect4BatchEvaluator(int threads, int depth, Connect4TranspositionTable table)
+	{
+		this.depth = depth;
+		this.table = table;
+		AtomicInteger threadCount = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "connect4-batch-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		this.engines = ThreadLocal.withInitial(() -> new Connect4Engine(table));
+	}
+	
+	/**
+	 * Parses a move string: one character per disc, yellow first, giving the
+	 * column from 1; columns 10 to 16 are the letters a to g.
+	 * @param moves move string, such as "4453"
+	 * @param config board configuration
+	 * @return the position, or null if a move is not playable or ends the game
+	 */
+	public static Connect4Board parseMoves(String moves, Connect4GameConfig config)
+	{
+		Connect4Board board = Connect4Board.create(config);
+		for (int i = 0; i < moves.length(); i++)
+		{
+			int col = Character.digit(moves.charAt(i), Connect4GameConfig.MAX_SIZE + 1) - 1;
+			if (col < 0 || col >= config.getColumns() || !board.canPlay(col) || board.isWinningMove(col))
+				return null;
+			board.play(col);
+		}
+		return board;
+	}
+	
+	/**
+	 * Scores positions given as move strings. Strings that cannot be parsed
+	 * produce invalid results in their place.
+	 * @param moves move strings
+	 * @param config board configuration
+	 * @param sink receives one result per string, in order
+	 * @return totals for the batch
+	 */
+	public Connect4BatchStats evaluateMoves(List<String> moves, Connect4GameConfig config, 
+			Consumer<Connect4BatchResult> sink)
+	{
+		List<Connect4Board> positions = new ArrayList<Connect4Board>(moves.size());
+		for (String line : moves)
+		{
+			positions.add(parseMoves(line.trim(), config));
+		}
+		return evaluate(positions, sink);
+	}
+	
+	/**
+	 * Scores positions. The boards are only read, and not after this 
+	 * returns.
+	 * @param positions positions to score; null entries produce invalid results
+	 * @param sink receives one result per position, in order
+	 * @return totals for the batch
+	 */
+	public Connect4BatchStats evaluate(List<? extends Connect4Board> positions, 
+			Consumer<Connect4BatchResult> sink)
+	{
+		long start = System.nanoTime();
+		int n = positions.size();
+		
+		// dedup: each input maps to the index of its first occurrence
+		Connect4LongIntMap firstSeen = new Connect4LongIntMap(n);
+		List<Connect4Board> distinct = new ArrayList<Connect4Board>();
+		int[] distinctOf = new int[n];
+		int invalid = 0;
+		for (int i = 0; i < n; i++)
+		{
+			Connect4Board board = positions.get(i);
+			if (board == null)
+			{
+				distinctOf[i] = -1;
+				invalid++;
+				continue;
+			}
+			long hash = board.hash();
+			int seen = firstSeen.get(hash);
+			if (seen == Connect4LongIntMap.MISSING)
+			{
+				seen = distinct.size();
+				firstSeen.put(hash, seen);
+				distinct.add(board);
+			}
+			distinctOf[i] = seen;
+		}
+		
+		// shard the distinct positions across the workers
+		int[] scores = new int[distinct.size()];
+		int[] moves = new int[distinct.size()];
+		LongAdder nodes = new LongAdder();
+		LongAdder hits = new LongAdder();
+		List<CompletableFuture<Void>> chunks = new ArrayList<CompletableFuture<Void>>();
+		for (int from = 0; from < distinct.size(); from += CHUNK)
+		{
+			int first = from;
+			int last = Math.min(from + CHUNK, distinct.size());
+			chunks.add(CompletableFuture.runAsync(
+					() -> searchChunk(distinct, first, last, scores, moves, nodes, hits), workers));
+		}
+		
+		// stream results in input order
+		boolean[] reported = new boolean[distinct.size()];
+		for (int i = 0; i < n; i++)
+		{
+			int d = distinctOf[i];
+			if (d < 0)
+			{
+				sink.accept(new Connect4BatchResult(i, 0, Connect4Engine.ILLEGAL, -1, false));
+				continue;
+			}
+			chunks.get(d / CHUNK).join();
+			sink.accept(new Connect4BatchResult(i, distinct.get(d).hash(), scores[d], moves[d], reported[d]));
+			reported[d] = true;
+		}
+		return new Connect4BatchStats(n, distinct.size(), invalid, nodes.sum(), hits.sum(), 
+				System.nanoTime() - start);
+	}
+	
+	/**
+	 * Stops the workers. A batch still running fails.
+	 */
+	public void shutdown()
+	{
+		workers.shutdownNow();
+	}
+	
+	/**
+	 * Gets the transposition table shared by the workers.
+	 * @return table
+	 */
+	public Connect4TranspositionTable getTable()
+	{
+		return table;
+	}
+	
+	private void searchChunk(List<Connect4Board> distinct, int first, int last, int[] scores, int[] moves,
+			LongAdder nodes, LongAdder hits)
+	{
+		Connect4Engine engine = engines.get();
+		long startNodes = engine.getNodes();
+		long startHits = engine.getTableHits();
+		for (int d = first; d < last; d++)
+		{
+			Connect4Board position = distinct.get(d);
+			if (position.getMoveCount() == position.getConfig().getCells())
+			{
+				scores[d] = 0; // full board, a draw
+				moves[d] = -1;
+				continue;
+			}
+			scores[d] = engine.search(position, depth);
+			moves[d] = engine.getBestMove();
+		}
+		nodes.add(engine.getNodes() - startNodes);
+		hits.add(engine.getTableHits() - startHits);
+	}
+	
+	/**
+	 * Scores a file of move strings, one per line, printing a result per
+	 * line and the throughput. Without a file, scores random positions of 
+	 * which many are shared, as analysts' batches usually are.
+	 * @param args [file|-] [depth] [threads]
+	 * @throws IOException if the file cannot be read
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_DEPTH;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) 
+				: Runtime.getRuntime().availableProcessors();
+		Connect4BatchEvaluator evaluator = new Connect4BatchEvaluator(threads, depth,
+				new Connect4TranspositionTable(DEFAULT_TABLE_MEGABYTES));
+		List<String> lines;
+		boolean print = args.length > 0 && !args[0].equals("-");
+		if (print)
+		{
+			lines = Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8);
+		}
+		else
+		{
+			// 5000 positions drawn from 500 short random games
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			List<String> games = new ArrayList<String>();
+			for (int g = 0; g < 500; g++)
+			{
+				StringBuilder game = new StringBuilder();
+				for (int m = 0; m < 12; m++)
+					game.append(1 + random.nextInt(Connect4Model.COLUMNS));
+				games.add(game.toString());
+			}
+			lines = new ArrayList<String>();
+			for (int i = 0; i < 5000; i++)
+			{
+				String game = games.get(random.nextInt(games.size()));
+				lines.add(game.substring(0, 4 + random.nextInt(game.length() - 3)));
+			}
+		}
+		Connect4BatchStats stats = evaluator.evaluateMoves(lines, Connect4GameConfig.STANDARD, result -> {
+			if (print)
+				System.out.println(result);
+		});
+		System.out.println(stats);
+		evaluator.shutdown();
+	}
+}
@@ -0,0 +1,61 @@
+package connect4;
+
+/**
+ * The score of one position of a batch, see {@link Connect4BatchEvaluator}.
+ *
+ */
+public final class Connect4BatchResult 
+{
+	private final int index;
+	private final long hash;
+	private final int score;
+	private final int bestMove;
+	private final boolean duplicate;
+	
+	Connect4BatchResult(int index, long hash, int score, int bestMove, boolean duplicate)
+	{
+		this.index = index;
+		this.hash = hash;
+		this.score = score;
+		this.bestMove = bestMove;
+		this.duplicate = duplicate;
+	}
+	
+	/**
+	 * @return position of the input in the batch
+	 */
+	public int getIndex() { return index; }
+	
+	/**
+	 * @return position hash, 0 if the input was invalid
+	 */
+	public long getHash() { return hash; }
+	
+	/**
+	 * @return score for the player to move, {@link Connect4Engine#ILLEGAL}
+	 *         if the input was invalid
+	 */
+	public int getScore() { return score; }
+	
+	/**
+	 * @return best column, -1 if none
+	 */
+	public int getBestMove() { return bestMove; }
+	
+	/**
+	 * @return true if an earlier input was the same position, so this one 
+	 *         was not searched again
+	 */
+	public boolean isDuplicate() { return duplicate; }
+	
+	/**
+	 * @return false if the input could not be parsed or the game was over
+	 */
+	public boolean isValid() { return score != Connect4Engine.ILLEGAL; }
+	
+	@Override
+	public String toString()
+	{
+		return index + "\t" + (isValid() ? score + "\t" + (bestMove + 1) : "invalid");
+	}
+}
@@ -0,0 +1,49 @@
+package connect4;
+
+/**
+ * Totals for one run of {@link Connect4BatchEvaluator}.
+ *
+ */
+public final class Connect4BatchStats 
+{
+	private final int positions;
+	private final int unique;
+	private final int invalid;
+	private final long nodes;
+	private final long tableHits;
+	private final long elapsedNanos;
+	
+	Connect4BatchStats(int positions, int unique, int invalid, long nodes, long tableHits, long elapsedNanos)
+	{
+		this.positions = positions;
+		this.unique = unique;
+		this.invalid = invalid;
+		this.nodes = nodes;
+		this.tableHits = tableHits;
+		this.elapsedNanos = elapsedNanos;
+	}
+	
+	public int getPositions() { return positions; }
+	public int getUniquePositions() { return unique; }
+	public int getInvalidPositions() { return invalid; }
+	public long getNodes() { return nodes; }
+	public long getTableHits() { return tableHits; }
+	public long getElapsedNanos() { return elapsedNanos; }
+	
+	/**
+	 * Gets the throughput over every input, duplicates included.
+	 * @return positions per second
+	 */
+	public double getPositionsPerSecond()
+	{
+		return elapsedNanos == 0 ? 0 : positions * 1e9 / elapsedNanos;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return String.format("%d positions (%d unique, %d invalid) in %.1f ms: %.0f positions/s, "
+				+ "%d nodes, %d table hits", positions, unique, invalid, elapsedNanos / 1e6,
+				getPositionsPerSecond(), nodes, tableHits);
+	}
+}
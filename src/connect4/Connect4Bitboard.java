@@ -0,0 +1,317 @@
+package connect4;
+
+/**
+ * A compact, reusable Connect 4 position for replay and search on the 
+ * {@link Connect4GameConfig#STANDARD} board.
+ * 
+ * <p>The board is held in two <code>long</code>s. Each column uses 
+ * {@value #HEIGHT} + 1 bits, bottom row in the lowest bit, with the extra bit
+ * acting as a sentinel so that shifted lines never wrap between columns. 
+ * <code>mask</code> has a bit set for every disc, <code>current</code> for
+ * the discs of the player to move. Play alternates between the two colors;
+ * a fresh board starts with {@link Connect4MoveMessage#YELLOW} to move.</p>
+ * 
+ * <p>Rows here count up from the bottom, whereas {@link Connect4Model} rows
+ * count down from the top, so model row <code>r</code> is bitboard row 
+ * <code>HEIGHT - 1 - r</code>.</p>
+ * 
+ * <p>Playing and undoing a move are a handful of bit operations and never
+ * allocate, so one instance can be reused for millions of positions.</p>
+ *
+ */
+public final class Connect4Bitboard implements Connect4Board 
+{
+	public static final int WIDTH = Connect4Model.COLUMNS;
+	public static final int HEIGHT = Connect4Model.ROWS;
+	
+	private static final long BOTTOM_MASK = bottomMask();
+	private static final long BOARD_MASK = BOTTOM_MASK * ((1L << HEIGHT) - 1);
+	
+	private long current; // discs of the player to move
+	private long mask;    // all discs
+	private int moves;
+	private int toMove;   // color of the player to move
+	
+	/**
+	 * Connect4Bitboard Constructor. Creates an empty board.
+	 */
+	public Connect4Bitboard()
+	{
+		reset();
+	}
+	
+	/**
+	 * @return {@link Connect4GameConfig#STANDARD}
+	 */
+	@Override
+	public Connect4GameConfig getConfig()
+	{
+		return Connect4GameConfig.STANDARD;
+	}
+	
+	/**
+	 * Clears the board back to the starting position.
+	 */
+	@Override
+	public void reset()
+	{
+		current = 0;
+		mask = 0;
+		moves = 0;
+		toMove = Connect4MoveMessage.YELLOW;
+	}
+	
+	/**
+	 * Loads a position from a {@link Connect4Model} style grid, where row 0 
+	 * is the top.
+	 * @param grid grid[row][col] of colors
+	 * @param colorToMove color of the player to move next
+	 */
+	@Override
+	public void setPosition(int[][] grid, int colorToMove)
+	{
+		current = 0;
+		mask = 0;
+		moves = 0;
+		for (int r = 0; r < HEIGHT; r++)
+		{
+			for (int c = 0; c < WIDTH; c++)
+			{
+				if (grid[r][c] == Connect4Model.EMPTY)
+					continue;
+				long bit = cell(HEIGHT - 1 - r, c);
+				mask |= bit;
+				if (grid[r][c] == colorToMove)
+					current |= bit;
+				moves++;
+			}
+		}
+		toMove = colorToMove;
+	}
+	
+	/**
+	 * Loads a position from a snapshot.
+	 * @param snapshot board to load
+	 * @param colorToMove color of the player to move next
+	 */
+	public void setPosition(Connect4Snapshot snapshot, int colorToMove)
+	{
+		mask = snapshot.getYellow() | snapshot.getRed();
+		current = colorToMove == Connect4MoveMessage.YELLOW ? snapshot.getYellow() : snapshot.getRed();
+		moves = snapshot.getMoveCount();
+		toMove = colorToMove;
+	}
+	
+	/**
+	 * Copies another board's position into this one.
+	 * @param other board to copy
+	 */
+	@Override
+	public void copyFrom(Connect4Board other)
+	{
+		Connect4Bitboard board = (Connect4Bitboard) other;
+		current = board.current;
+		mask = board.mask;
+		moves = board.moves;
+		toMove = board.toMove;
+	}
+	
+	@Override
+	public Connect4Board copy()
+	{
+		Connect4Bitboard board = new Connect4Bitboard();
+		board.copyFrom(this);
+		return board;
+	}
+	
+	/**
+	 * Checks whether a disc can be played in the column.
+	 * @param col column index
+	 * @return true if the column is not full
+	 */
+	@Override
+	public boolean canPlay(int col)
+	{
+		return (mask & topMask(col)) == 0;
+	}
+	
+	/**
+	 * Plays a disc for the player to move. The column must not be full.
+	 * @param col column index
+	 */
+	@Override
+	public void play(int col)
+	{
+		current ^= mask;
+		mask |= mask + bottomMask(col);
+		moves++;
+		toMove ^= Connect4MoveMessage.YELLOW ^ Connect4MoveMessage.RED;
+	}
+	
+	/**
+	 * Takes back the last disc played in the column.
+	 * @param col column index
+	 */
+	@Override
+	public void undo(int col)
+	{
+		mask ^= Long.highestOneBit(mask & columnMask(col));
+		current ^= mask;
+		moves--;
+		toMove ^= Connect4MoveMessage.YELLOW ^ Connect4MoveMessage.RED;
+	}
+	
+	/**
+	 * Checks whether playing the column wins for the player to move.
+	 * @param col column index, which must not be full
+	 * @return true if the move makes four in a row
+	 */
+	@Override
+	public boolean isWinningMove(int col)
+	{
+		long pos = current | ((mask + bottomMask(col)) & columnMask(col));
+		return hasFour(pos);
+	}
+	
+	/**
+	 * Checks whether the player who made the last move has four in a row.
+	 * @return true if the last move won
+	 */
+	public boolean lastMoveWon()
+	{
+		return hasFour(current ^ mask);
+	}
+	
+	/**
+	 * Gets a bit set of the cells where a disc may be played next, one bit
+	 * per non-full column.
+	 * @return playable cells
+	 */
+	public long possible()
+	{
+		return (mask + BOTTOM_MASK) & BOARD_MASK;
+	}
+	
+	/**
+	 * Gets a key identifying this position uniquely.
+	 * @return position key
+	 */
+	public long key()
+	{
+		return current + mask;
+	}
+	
+	/**
+	 * Scrambles {@link #key()} with a reversible mix, so the hash is as 
+	 * unique as the key but spreads evenly over table slots.
+	 */
+	@Override
+	public long hash()
+	{
+		long h = (key() + 1) * 0x9E37_79B9_7F4A_7C15L;
+		return h ^ (h >>> 31);
+	}
+	
+	public long getCurrent() { return current; }
+	public long getMask() { return mask; }
+	public long getOpponent() { return current ^ mask; }
+	@Override
+	public int getMoveCount() { return moves; }
+	
+	/**
+	 * Gets the color of the player to move.
+	 * @return YELLOW or RED
+	 */
+	@Override
+	public int getPlayerToMove()
+	{
+		return toMove;
+	}
+	
+	/**
+	 * @see Connect4Evaluator#evaluate(Connect4Bitboard)
+	 */
+	@Override
+	public int evaluate()
+	{
+		return Connect4Evaluator.evaluate(current, current ^ mask);
+	}
+	
+	/**
+	 * Checks a set of discs for four in a row in any direction.
+	 * @param pos discs of one player
+	 * @return true if there are four in a row
+	 */
+	public static boolean hasFour(long pos)
+	{
+		// vertical
+		long m = pos & (pos >> 1);
+		if ((m & (m >> 2)) != 0)
+			return true;
+		// horizontal
+		m = pos & (pos >> (HEIGHT + 1));
+		if ((m & (m >> (2 * (HEIGHT + 1)))) != 0)
+			return true;
+		// diagonal, rising to the right
+		m = pos & (pos >> (HEIGHT + 2));
+		if ((m & (m >> (2 * (HEIGHT + 2)))) != 0)
+			return true;
+		// diagonal, falling to the right
+		m = pos & (pos >> HEIGHT);
+		return (m & (m >> (2 * HEIGHT))) != 0;
+	}
+	
+	/**
+	 * Gets the bit of a cell.
+	 * @param row row index, counting up from the bottom
+	 * @param col column index
+	 * @return cell bit
+	 */
+	public static long cell(int row, int col)
+	{
+		return 1L << (col * (HEIGHT + 1) + row);
+	}
+	
+	static long topMask(int col)
+	{
+		return 1L << (HEIGHT - 1 + col * (HEIGHT + 1));
+	}
+	
+	static long bottomMask(int col)
+	{
+		return 1L << (col * (HEIGHT + 1));
+	}
+	
+	static long columnMask(int col)
+	{
+		return ((1L << HEIGHT) - 1) << (col * (HEIGHT + 1));
+	}
+	
+	/**
+	 * Reflects a set of bits left to right, column 0 swapping with the last
+	 * column. Each column's sentinel bit moves with it, so this also
+	 * reflects a {@link #key()}.
+	 * @param bits bits in this layout
+	 * @return mirrored bits
+	 */
+	static long mirror(long bits)
+	{
+		long column = (1L << (HEIGHT + 1)) - 1;
+		long m = 0;
+		for (int c = 0; c < WIDTH; c++)
+		{
+			m |= ((bits >>> (c * (HEIGHT + 1))) & column) << ((WIDTH - 1 - c) * (HEIGHT + 1));
+		}
+		return m;
+	}
+
+	private static long bottomMask()
+	{
+		long m = 0;
+		for (int c = 0; c < WIDTH; c++)
+		{
+			m |= bottomMask(c);
+		}
+		return m;
+	}
+}
@@ -0,0 +1,101 @@
+package connect4;
+
+/**
+ * A mutable position used for search, for any {@link Connect4GameConfig}.
+ * 
+ * <p>Play alternates between the two colors. {@link #create(Connect4GameConfig)}
+ * returns a {@link Connect4Bitboard}, specialised with constant shifts, for
+ * the standard board and a {@link Connect4WideBitboard}, which spans as many
+ * <code>long</code> words as the board needs, for every other size.</p>
+ *
+ */
+public interface Connect4Board 
+{
+	/**
+	 * Creates an empty board for a configuration.
+	 * @param config board configuration
+	 * @return board
+	 */
+	static Connect4Board create(Connect4GameConfig config)
+	{
+		if (config.isStandard())
+			return new Connect4Bitboard();
+		return new Connect4WideBitboard(config);
+	}
+	
+	/**
+	 * @return the configuration of this board
+	 */
+	Connect4GameConfig getConfig();
+	
+	/**
+	 * Clears the board back to the starting position, yellow to move.
+	 */
+	void reset();
+	
+	/**
+	 * Loads a position from a {@link Connect4Model} style grid, where row 0
+	 * is the top. The grid is only read.
+	 * @param grid grid[row][col] of colors
+	 * @param colorToMove color of the player to move next
+	 */
+	void setPosition(int[][] grid, int colorToMove);
+	
+	/**
+	 * Copies another board of the same class and configuration into this one.
+	 * @param other board to copy
+	 */
+	void copyFrom(Connect4Board other);
+	
+	/**
+	 * @return an independent copy of this board
+	 */
+	Connect4Board copy();
+	
+	/**
+	 * @param col column index
+	 * @return true if the column is not full
+	 */
+	boolean canPlay(int col);
+	
+	/**
+	 * Plays a disc for the player to move. The column must not be full.
+	 * @param col column index
+	 */
+	void play(int col);
+	
+	/**
+	 * Takes back the last disc played in the column.
+	 * @param col column index
+	 */
+	void undo(int col);
+	
+	/**
+	 * @param col column index, which must not be full
+	 * @return true if playing the column wins for the player to move
+	 */
+	boolean isWinningMove(int col);
+	
+	/**
+	 * @return number of discs on the board
+	 */
+	int getMoveCount();
+	
+	/**
+	 * @return color of the player to move
+	 */
+	int getPlayerToMove();
+	
+	/**
+	 * Gets a 64-bit hash of the position, including the player to move, for
+	 * {@link Connect4TranspositionTable} lookups and deduplication.
+	 * @return hash
+	 */
+	long hash();
+	
+	/**
+	 * Static evaluation for the player to move; see {@link Connect4Evaluator}.
+	 * @return positive if the player to move is better placed
+	 */
+	int evaluate();
+}
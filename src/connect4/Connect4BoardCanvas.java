@@ -0,0 +1,245 @@
+package connect4;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws one or more Connect 4 boards of one {@link Connect4GameConfig} onto
+ * a single {@link Canvas}.
+ * 
+ * <p>Each board keeps the color of its cells and a bit mask of the cells
+ * changed since the last paint, one <code>long</code> word per 64 cells.
+ * {@link #render()} repaints only those dirty cells, so a move costs one
+ * circle fill instead of a scene graph update, and a wall of many live games
+ * is still a single node.</p>
+ * 
+ * <p>{@link #setCell(int, int, int, int)} may be called from any thread; the
+ * cell is written before its dirty bit is published, always with an atomic
+ * update even if the bit is already set, and the dirty mask is taken
+ * atomically when painting. Painting itself must happen on the JavaFX
+ * Application Thread, either by calling {@link #render()} directly or once
+ * per frame after {@link #startRendering()}.</p>
+ *
+ */
+public class Connect4BoardCanvas extends Canvas {
+    
+    public static final double CIRCLE_RADIUS = 20;
+    public static final double GAP_PADDING = 8;
+    public static final double INSETS_PADDING = 4;
+    public static final double BOARD_SPACING = 12; // between boards on a wall
+    
+    private static final Color BACKGROUND_COLOR = Color.BLUE;
+    private static final Color WALL_COLOR = Color.BLACK;
+    
+    private final int rows;
+    private final int columns;
+    private final int cellsPerBoard;
+    private final int wordsPerBoard;
+    private final int boards;
+    private final int boardsPerRow;
+    private final double scale;
+    private final byte[] cells;           // [board * cellsPerBoard + row * columns + col]
+    private final AtomicLongArray dirty;  // [board * wordsPerBoard + cell / 64], one bit per cell
+    private AnimationTimer timer;
+    
+    /**
+     * Constructor for a single full-size standard board.
+     */
+    public Connect4BoardCanvas() {
+        this(Connect4GameConfig.STANDARD, 1, 1, 1.0);
+    }
+    
+    /**
+     * Constructor for a single full-size board.
+     * 
+     * @param config - the board size
+     */
+    public Connect4BoardCanvas(Connect4GameConfig config) {
+        this(config, 1, 1, 1.0);
+    }
+    
+    /**
+     * Constructor for a wall of standard boards laid out in rows.
+     * 
+     * @param boards - the number of boards
+     * @param boardsPerRow - how many boards are drawn side by side
+     * @param scale - the size of each board relative to the full-size board
+     */
+    public Connect4BoardCanvas(int boards, int boardsPerRow, double scale) {
+        this(Connect4GameConfig.STANDARD, boards, boardsPerRow, scale);
+    }
+    
+    /**
+     * Constructor for a wall of boards laid out in rows.
+     * 
+     * @param config - the board size
+     * @param boards - the number of boards
+     * @param boardsPerRow - how many boards are drawn side by side
+     * @param scale - the size of each board relative to the full-size board
+     */
+    public Connect4BoardCanvas(Connect4GameConfig config, int boards, int boardsPerRow, double scale) {
+        super(boardsPerRow * (boardWidth(config.getColumns()) + BOARD_SPACING) * scale - BOARD_SPACING * scale,
+                ((boards + boardsPerRow - 1) / boardsPerRow) 
+                * (boardHeight(config.getRows()) + BOARD_SPACING) * scale - BOARD_SPACING * scale);
+        this.rows = config.getRows();
+        this.columns = config.getColumns();
+        this.cellsPerBoard = config.getCells();
+        this.wordsPerBoard = (cellsPerBoard + 63) / 64;
+        this.boards = boards;
+        this.boardsPerRow = boardsPerRow;
+        this.scale = scale;
+        this.cells = new byte[boards * cellsPerBoard];
+        this.dirty = new AtomicLongArray(boards * wordsPerBoard);
+        paintBackground();
+    }
+    
+    /**
+     * Width in pixels of one full-size board.
+     * 
+     * @param columns - the number of columns
+     * @return board width
+     */
+    public static double boardWidth(int columns) {
+        return 2 * INSETS_PADDING + columns * 2 * CIRCLE_RADIUS 
+                + (columns - 1) * GAP_PADDING;
+    }
+    
+    /**
+     * Height in pixels of one full-size board.
+     * 
+     * @param rows - the number of rows
+     * @return board height
+     */
+    public static double boardHeight(int rows) {
+        return 2 * INSETS_PADDING + rows * 2 * CIRCLE_RADIUS 
+                + (rows - 1) * GAP_PADDING;
+    }
+    
+    /**
+     * Sets the color of one cell and marks it for repainting.
+     * 
+     * @param board - the board index
+     * @param row - the row index, 0 at the top
+     * @param col - the column index
+     * @param color - {@link Connect4MoveMessage#YELLOW}, {@link Connect4MoveMessage#RED}
+     *                or {@link Connect4Model#EMPTY}
+     */
+    public void setCell(int board, int row, int col, int color) {
+        int cell = row * columns + col;
+        cells[board * cellsPerBoard + cell] = (byte) color;
+        int word = board * wordsPerBoard + cell / 64;
+        // a volatile write even if the bit is set, so a paint that takes
+        // the mask after it sees the new color
+        dirty.getAndAccumulate(word, 1L << cell, (mask, bit) -> mask | bit);
+    }
+    
+    /**
+     * Empties a board and marks every cell for repainting.
+     * 
+     * @param board - the board index
+     */
+    public void clearBoard(int board) {
+        for(int i = 0; i < cellsPerBoard; i++)
+            cells[board * cellsPerBoard + i] = (byte) Connect4Model.EMPTY;
+        markAllDirty(board);
+    }
+    
+    /**
+     * Paints every dirty cell of every board. Must be called on the JavaFX
+     * Application Thread.
+     */
+    public void render() {
+        GraphicsContext gc = getGraphicsContext2D();
+        double radius = CIRCLE_RADIUS * scale;
+        double pitch = (2 * CIRCLE_RADIUS + GAP_PADDING) * scale;
+        for(int w = 0; w < dirty.length(); w++) {
+            if(dirty.get(w) == 0)
+                continue;
+            long mask = dirty.getAndSet(w, 0);
+            int b = w / wordsPerBoard;
+            int firstCell = (w % wordsPerBoard) * 64;
+            double originX = (b % boardsPerRow) * (boardWidth(columns) + BOARD_SPACING) * scale 
+                    + INSETS_PADDING * scale;
+            double originY = (b / boardsPerRow) * (boardHeight(rows) + BOARD_SPACING) * scale 
+                    + INSETS_PADDING * scale;
+            while(mask != 0) {
+                int cell = firstCell + Long.numberOfTrailingZeros(mask);
+                mask &= mask - 1;
+                int row = cell / columns;
+                int col = cell % columns;
+                gc.setFill(paintFor(cells[b * cellsPerBoard + cell]));
+                gc.fillOval(originX + col * pitch, originY + row * pitch, 2 * radius, 2 * radius);
+            }
+        }
+    }
+    
+    /**
+     * Starts repainting dirty cells once per frame, for boards fed from
+     * game threads.
+     */
+    public void startRendering() {
+        if(timer == null) {
+            timer = new AnimationTimer() {
+                @Override
+                public void handle(long now) { render(); }
+            };
+        }
+        timer.start();
+    }
+    
+    /**
+     * Stops the per-frame repaint started by {@link #startRendering()}.
+     */
+    public void stopRendering() {
+        if(timer != null)
+            timer.stop();
+    }
+    
+    /**
+     * Converts an x-coordinate on a single-board canvas to a column index.
+     * 
+     * @param x - the x-coordinate relative to the canvas
+     * @return the column index, clamped to the board
+     */
+    public int columnAt(double x) {
+        double pitch = (2 * CIRCLE_RADIUS + GAP_PADDING) * scale;
+        int column = (int) ((x - INSETS_PADDING * scale + GAP_PADDING * scale / 2) / pitch);
+        return Math.max(0, Math.min(columns - 1, column));
+    }
+    
+    /**
+     * Fills the background of every board and marks all cells dirty.
+     */
+    private void paintBackground() {
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.setFill(WALL_COLOR);
+        gc.fillRect(0, 0, getWidth(), getHeight());
+        gc.setFill(BACKGROUND_COLOR);
+        for(int b = 0; b < boards; b++) {
+            gc.fillRect((b % boardsPerRow) * (boardWidth(columns) + BOARD_SPACING) * scale,
+                    (b / boardsPerRow) * (boardHeight(rows) + BOARD_SPACING) * scale,
+                    boardWidth(columns) * scale, boardHeight(rows) * scale);
+            markAllDirty(b);
+        }
+    }
+    
+    /**
+     * Marks every cell of a board for repainting.
+     */
+    private void markAllDirty(int board) {
+        for(int i = 0; i < wordsPerBoard; i++) {
+            int remaining = cellsPerBoard - i * 64;
+            dirty.set(board * wordsPerBoard + i, remaining >= 64 ? -1L : (1L << remaining) - 1);
+        }
+    }
+    
+    private static Color paintFor(int color) {
+        if(color == Connect4MoveMessage.YELLOW) { return Color.YELLOW; }
+        if(color == Connect4MoveMessage.RED)    { return Color.RED; }
+        return Color.WHITE;
+    }
+}
@@ -0,0 +1,283 @@
+package connect4;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Evaluates many {@link Connect4Bitboard} positions at once, giving the same
+ * scores as {@link Connect4Evaluator}, and counts their line threats.
+ *
+ * <p>Positions are held as two parallel <code>long[]</code> arrays, one for
+ * the discs of the player to score for and one for the opponent, rather than
+ * as board objects. The scalar evaluator tests the 69 windows of a board one
+ * at a time. Here all windows running in one direction are handled together:
+ * shifting a bitboard by the direction's step one to three times lines each
+ * window's four cells up on the window's lowest bit, and a few bitwise adders
+ * then give, for every window at once, whether it holds one, two, three or
+ * four discs. Four directions and eight bit counts per direction replace the
+ * 138 bit counts and branches of the scalar loop.</p>
+ *
+ * <p>Each direction is applied to a block of boards in a loop of the same
+ * straight-line code for every board, which the JIT unrolls and, where the
+ * processor allows, turns into vector instructions. Blocks are sized so a
+ * block's boards and scores stay in the first-level cache.</p>
+ *
+ * <p>Batches smaller than {@link #MIN_BULK} are scored with the scalar
+ * evaluator, which is as fast when there is little to share.</p>
+ *
+ */
+public final class Connect4BulkEvaluator
+{
+	/** smallest batch evaluated a direction at a time */
+	public static final int MIN_BULK = 16;
+	private static final int BLOCK = 512; // boards per cache block
+
+	/** bit distance between neighbouring cells of a window, per direction */
+	private static final int[] STEPS = new int[4];
+	/** lowest bit of every window, per direction */
+	private static final long[] STARTS = new long[4];
+	static
+	{
+		splitWindows();
+	}
+	
+	private static final int WEIGHT_1 = Connect4Evaluator.WINDOW_WEIGHTS[1];
+	private static final int WEIGHT_2 = Connect4Evaluator.WINDOW_WEIGHTS[2];
+	private static final int WEIGHT_3 = Connect4Evaluator.WINDOW_WEIGHTS[3];
+	private static final int WEIGHT_4 = Connect4Evaluator.WINDOW_WEIGHTS[4];
+
+	private long[] own;
+	private long[] opponent;
+	private int size;
+
+	/**
+	 * Connect4BulkEvaluator Constructor.
+	 * @param capacity number of positions held before the arrays grow
+	 */
+	public Connect4BulkEvaluator(int capacity)
+	{
+		own = new long[Math.max(1, capacity)];
+		opponent = new long[own.length];
+	}
+
+	/**
+	 * Adds a position scored for the player to move.
+	 * @param board position
+	 * @return index of the position in the batch
+	 */
+	public int add(Connect4Bitboard board)
+	{
+		return add(board.getCurrent(), board.getOpponent());
+	}
+
+	/**
+	 * Adds a position.
+	 * @param ownDiscs discs of the player to score for
+	 * @param opponentDiscs discs of the other player
+	 * @return index of the position in the batch
+	 */
+	public int add(long ownDiscs, long opponentDiscs)
+	{
+		if (size == own.length)
+		{
+			own = Arrays.copyOf(own, size * 2);
+			opponent = Arrays.copyOf(opponent, size * 2);
+		}
+		own[size] = ownDiscs;
+		opponent[size] = opponentDiscs;
+		return size++;
+	}
+
+	/**
+	 * Empties the batch, keeping its arrays.
+	 */
+	public void clear()
+	{
+		size = 0;
+	}
+
+	/**
+	 * @return number of positions in the batch
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Scores every position in the batch.
+	 * @param scores receives the score of position i at index i; at least
+	 *        {@link #size()} long
+	 */
+	public void evaluate(int[] scores)
+	{
+		if (size < MIN_BULK)
+		{
+			for (int i = 0; i < size; i++)
+				scores[i] = Connect4Evaluator.evaluate(own[i], opponent[i]);
+			return;
+		}
+		Arrays.fill(scores, 0, size, 0);
+		for (int start = 0; start < size; start += BLOCK)
+		{
+			int end = Math.min(size, start + BLOCK);
+			for (int d = 0; d < STEPS.length; d++)
+				scoreDirection(STEPS[d], STARTS[d], start, end, scores);
+		}
+	}
+
+	/**
+	 * Counts line threats: windows holding three discs of one player and
+	 * none of the other, so one more disc there makes four.
+	 * @param ownThreats receives the threats of the player scored for
+	 * @param opponentThreats receives the opponent's threats
+	 */
+	public void countThreats(int[] ownThreats, int[] opponentThreats)
+	{
+		Arrays.fill(ownThreats, 0, size, 0);
+		Arrays.fill(opponentThreats, 0, size, 0);
+		for (int d = 0; d < STEPS.length; d++)
+		{
+			int step = STEPS[d];
+			long starts = STARTS[d];
+			for (int i = 0; i < size; i++)
+			{
+				long mine = own[i];
+				long theirs = opponent[i];
+				ownThreats[i] += Long.bitCount(threes(mine, step) & starts & ~covered(theirs, step));
+				opponentThreats[i] += Long.bitCount(threes(theirs, step) & starts & ~covered(mine, step));
+			}
+		}
+	}
+
+	/**
+	 * Adds the weights of one direction's windows to a block of scores. A
+	 * window counts for a player only when the other has no disc in it.
+	 */
+	private void scoreDirection(int step, long starts, int from, int to, int[] scores)
+	{
+		long[] own = this.own;
+		long[] opponent = this.opponent;
+		for (int i = from; i < to; i++)
+		{
+			long mine = own[i];
+			long theirs = opponent[i];
+			scores[i] += weigh(mine, step, starts & ~covered(theirs, step))
+					- weigh(theirs, step, starts & ~covered(mine, step));
+		}
+	}
+
+	/**
+	 * Sums the weights of the live windows of one player in one direction.
+	 * The four cells of each window are added as bits: ones, twos and fours
+	 * hold, at each window's lowest bit, the binary digits of its disc count.
+	 */
+	private static int weigh(long discs, int step, long live)
+	{
+		long a = discs;
+		long b = discs >>> step;
+		long c = discs >>> (2 * step);
+		long d = discs >>> (3 * step);
+		long sumAB = a ^ b;
+		long carryAB = a & b;
+		long sumCD = c ^ d;
+		long carryCD = c & d;
+		long ones = sumAB ^ sumCD;
+		long carry = sumAB & sumCD;
+		long twos = carryAB ^ carryCD ^ carry;
+		long fours = (carryAB & carryCD) | ((carryAB ^ carryCD) & carry);
+		long one = live & ones & ~twos & ~fours;
+		long two = live & ~ones & twos;
+		long three = live & ones & twos;
+		return WEIGHT_1 * Long.bitCount(one) + WEIGHT_2 * Long.bitCount(two) 
+				+ WEIGHT_3 * Long.bitCount(three) + WEIGHT_4 * Long.bitCount(live & fours);
+	}
+
+	/**
+	 * Marks, at each window's lowest bit, windows holding exactly three of
+	 * the discs.
+	 */
+	private static long threes(long discs, int step)
+	{
+		long a = discs;
+		long b = discs >>> step;
+		long c = discs >>> (2 * step);
+		long d = discs >>> (3 * step);
+		// three of four: not all four, and at least three
+		return ~(a & b & c & d) & ((a & b & (c | d)) | (c & d & (a | b)));
+	}
+
+	/**
+	 * Marks, at each window's lowest bit, windows holding any of the discs.
+	 */
+	private static long covered(long discs, int step)
+	{
+		return discs | (discs >>> step) | (discs >>> (2 * step)) | (discs >>> (3 * step));
+	}
+
+	/**
+	 * Sorts {@link Connect4Evaluator#WINDOWS} by direction, recording each
+	 * direction's step and the lowest bit of each of its windows.
+	 */
+	private static void splitWindows()
+	{
+		int directions = 0;
+		for (long window : Connect4Evaluator.WINDOWS)
+		{
+			long low = window & -window;
+			int step = Long.numberOfTrailingZeros(window & (window - 1)) - Long.numberOfTrailingZeros(low);
+			if (window != low * (1 + (1L << step) + (1L << 2 * step) + (1L << 3 * step)))
+				throw new IllegalStateException("window is not four evenly spaced cells");
+			int d = 0;
+			while (d < directions && STEPS[d] != step)
+				d++;
+			if (d == directions)
+			{
+				STEPS[directions++] = step;
+			}
+			STARTS[d] |= low;
+		}
+	}
+
+	/**
+	 * Benchmark: scores the same random positions with the scalar evaluator
+	 * and in bulk.
+	 * @param args [positions] [rounds]
+	 */
+	public static void main(String[] args)
+	{
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Connect4BulkEvaluator bulk = new Connect4BulkEvaluator(count);
+		Connect4Bitboard board = new Connect4Bitboard();
+		while (bulk.size() < count)
+		{
+			board.reset();
+			int plies = random.nextInt(8, 30);
+			for (int p = 0; p < plies; p++)
+			{
+				int col = random.nextInt(Connect4Bitboard.WIDTH);
+				if (board.canPlay(col) && !board.isWinningMove(col))
+					board.play(col);
+			}
+			bulk.add(board);
+		}
+		int[] scalar = new int[count];
+		int[] scores = new int[count];
+		for (int round = 0; round < rounds; round++)
+		{
+			long t0 = System.nanoTime();
+			for (int i = 0; i < count; i++)
+				scalar[i] = Connect4Evaluator.evaluate(bulk.own[i], bulk.opponent[i]);
+			long t1 = System.nanoTime();
+			bulk.evaluate(scores);
+			long t2 = System.nanoTime();
+			if (!Arrays.equals(scalar, scores))
+				throw new IllegalStateException("bulk scores differ from scalar scores");
+			if (round % 10 == rounds % 10)
+				System.out.printf("scalar %.1f ns/position, bulk %.1f ns/position%n",
+						(t1 - t0) / (double) count, (t2 - t1) / (double) count);
+		}
+	}
+}
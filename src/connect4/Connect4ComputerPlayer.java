@@ -0,0 +1,241 @@
+package connect4;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses moves for a computer player by iterative deepening with a
+ * {@link Connect4Engine}, within a depth limit, a time limit or both.
+ *
+ * <p>Each completed depth is reported to an optional {@link Listener}, and
+ * while a depth is still running a progress report with the node count so
+ * far is made every {@link #PROGRESS_MILLIS}. The time limit and the
+ * progress reports run on the shared {@link Connect4TimerWheel}, so a
+ * player needs no thread of its own.</p>
+ *
+ * <p>{@link #think(Connect4Board, int, long, Listener)} blocks the calling
+ * thread. {@link #stop()} may be called from any other thread; the search
+ * then unwinds at once and the best move of the last completed depth is
+ * returned. A caller that hands the search to another thread arms it with
+ * {@link #arm()} first, so a stop that arrives before thinking starts is
+ * not lost.</p>
+ *
+ */
+public class Connect4ComputerPlayer
+{
+	/** time between progress reports while a depth is running */
+	public static final long PROGRESS_MILLIS = 1000;
+
+	/**
+	 * Receives search progress. Called on the thinking thread for completed
+	 * depths and on the timer thread for progress reports.
+	 */
+	public interface Listener
+	{
+		/**
+		 * @param depth depth reached, the depth in progress for a progress report
+		 * @param score score for the player to move, or 0 for a progress report
+		 * @param nodes nodes searched since thinking started
+		 * @param elapsedMillis time since thinking started
+		 * @param line best line in column indexes, empty for a progress report
+		 */
+		void info(int depth, int score, long nodes, long elapsedMillis, int[] line);
+	}
+
+	private final Connect4Engine engine;
+	private final Connect4TranspositionTable table; // null if none
+	private int lastScore;
+	private int lastDepth;
+
+	/**
+	 * Connect4ComputerPlayer Constructor without a transposition table.
+	 */
+	public Connect4ComputerPlayer()
+	{
+		this(null);
+	}
+
+	/**
+	 * Connect4ComputerPlayer Constructor.
+	 * @param table table kept between moves, or null for none
+	 */
+	public Connect4ComputerPlayer(Connect4TranspositionTable table)
+	{
+		this.table = table;
+		this.engine = new Connect4Engine(table);
+	}
+
+	/**
+	 * Chooses a move, searching one ply deeper at a time until the depth
+	 * limit, the time limit, the end of the game or {@link #stop()}.
+	 * @param position position to move in; not changed
+	 * @param maxDepth deepest search, 0 for no limit
+	 * @param maxMillis time limit, 0 for none
+	 * @param listener receives progress, or null
+	 * @return column index, -1 if every column is full
+	 */
+	public int think(Connect4Board position, int maxDepth, long maxMillis, Listener listener)
+	{
+		return think(position, maxDepth, maxMillis, listener, arm());
+	}
+	
+	/**
+	 * Chooses a move like {@link #think(Connect4Board, int, long, Listener)},
+	 * under a token armed beforehand. Returns the fallback column at once if
+	 * the token was stopped before thinking started.
+	 * @param position position to move in; not changed
+	 * @param maxDepth deepest search, 0 for no limit
+	 * @param maxMillis time limit, 0 for none
+	 * @param listener receives progress, or null; nothing is reported after
+	 *        this returns
+	 * @param token token from {@link #arm()}
+	 * @return column index, -1 if every column is full
+	 */
+	public int think(Connect4Board position, int maxDepth, long maxMillis, Listener listener, long token)
+	{
+		lastScore = 0;
+		lastDepth = 0;
+		int remaining = position.getConfig().getCells() - position.getMoveCount();
+		int limit = maxDepth <= 0 ? remaining : Math.min(maxDepth, remaining);
+		int best = firstLegalColumn(position);
+		long startNodes = engine.getNodes();
+		long start = System.nanoTime();
+
+		Connect4TimerWheel.Timeout deadline = maxMillis <= 0 ? null
+				: Connect4TimerWheel.shared().schedule(() -> engine.stop(token), maxMillis, TimeUnit.MILLISECONDS);
+		Progress progress = listener == null ? null : new Progress(listener, startNodes, start);
+		try
+		{
+			for (int depth = 1; depth <= limit && !engine.isStopped(token); depth++)
+			{
+				if (progress != null)
+					progress.depth = depth;
+				int score = engine.search(position, depth, token);
+				if (engine.isStopped())
+					break;
+				if (engine.getBestMove() >= 0)
+					best = engine.getBestMove();
+				lastScore = score;
+				lastDepth = depth;
+				if (listener != null)
+					listener.info(depth, score, engine.getNodes() - startNodes,
+							(System.nanoTime() - start) / 1_000_000, engine.getBestLine());
+				if (Connect4Engine.isWinScore(score))
+					break; // forced result found, deeper search cannot change it
+			}
+		}
+		finally
+		{
+			if (deadline != null)
+				deadline.cancel();
+			if (progress != null)
+				progress.cancel();
+		}
+		return best;
+	}
+
+	/**
+	 * Hands out a token for a search to be started later, on this or another
+	 * thread.
+	 * @return token for {@link #think(Connect4Board, int, long, Listener, long)}
+	 */
+	public long arm()
+	{
+		return engine.arm();
+	}
+	
+	/**
+	 * Stops the search in progress, and any search armed but not yet
+	 * started. Safe to call from any thread, and when not thinking.
+	 */
+	public void stop()
+	{
+		engine.stop();
+	}
+
+	/**
+	 * Clears the transposition table, if any, before a new game.
+	 */
+	public void newGame()
+	{
+		if (table != null)
+			table.clear();
+	}
+
+	/**
+	 * @return score of the last completed depth of the last move chosen
+	 */
+	public int getLastScore()
+	{
+		return lastScore;
+	}
+
+	/**
+	 * @return last completed depth of the last move chosen, 0 if none
+	 *         completed
+	 */
+	public int getLastDepth()
+	{
+		return lastDepth;
+	}
+
+	/**
+	 * Fallback when not even depth one completes: the playable column
+	 * nearest the center.
+	 */
+	private static int firstLegalColumn(Connect4Board position)
+	{
+		for (int col : Connect4Engine.columnOrder(position.getConfig().getColumns()))
+		{
+			if (position.canPlay(col))
+				return col;
+		}
+		return -1;
+	}
+
+	/**
+	 * Reports the running depth and node count every PROGRESS_MILLIS. The
+	 * engine's node counter is read without synchronization, so the count is
+	 * approximate. A report and cancelling hold the same lock, so once
+	 * cancel returns no report is being made or will be.
+	 */
+	private final class Progress implements Runnable
+	{
+		private final Listener listener;
+		private final long startNodes;
+		private final long start;
+		private volatile int depth;
+		private boolean cancelled; // guarded by this
+		private volatile Connect4TimerWheel.Timeout next;
+
+		Progress(Listener listener, long startNodes, long start)
+		{
+			this.listener = listener;
+			this.startNodes = startNodes;
+			this.start = start;
+			schedule();
+		}
+
+		@Override
+		public synchronized void run()
+		{
+			if (cancelled)
+				return;
+			listener.info(depth, 0, engine.getNodes() - startNodes,
+					(System.nanoTime() - start) / 1_000_000, new int[0]);
+			schedule();
+		}
+
+		synchronized void cancel()
+		{
+			cancelled = true;
+			Connect4TimerWheel.Timeout timeout = next;
+			if (timeout != null)
+				timeout.cancel();
+		}
+
+		private void schedule()
+		{
+			next = Connect4TimerWheel.shared().schedule(this, PROGRESS_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+}
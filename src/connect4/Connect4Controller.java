@@ -1,5 +1,8 @@
 package connect4;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+
 import javafx.application.Platform;
 
 /**
@@ -9,6 +12,27 @@ import javafx.application.Platform;
  * 
  * <p> The controller holds a model and handles the logic for making valid 
  * human and computer turns. Also determines game status.
+ * <p> Moves are exchanged with the other player over a 
+ * {@link Connect4Transport}. Without a transport the controller plays a local
+ * game and no messages are sent. Socket and lobby connections are wrapped in
+ * a {@link Connect4ReliableTransport}, and every received move must land on
+ * top of its column here, so the two boards cannot silently diverge.
+ * <p> The board size and number in a row needed to win come from a 
+ * {@link Connect4GameConfig}. A client joining a server, or the red player of
+ * a lobby match, switches to the configuration of the other player when the
+ * connection is made.
+ * <p> If the configuration has a {@link Connect4TimeControl}, a 
+ * {@link Connect4GameClock} on the shared {@link Connect4TimerWheel} times 
+ * both players from {@link #startClock()}. A player who runs out of time 
+ * loses: the connection is closed, which also releases a read blocked on a
+ * stalled peer, and the model is told through the update executor.
+ * <p> Threading: the controller's column heights and its model are owned by
+ * one thread, the JavaFX Application Thread in the game. Moves received 
+ * from the other player are read on a background thread but applied 
+ * through the update executor, which runs them on that owning thread; 
+ * nothing else should call into the controller from another thread. 
+ * {@link Connect4Controller#chooseComputerColumn(int)} only reads. State that
+ * must be shared across threads belongs in a {@link Connect4GameSession}.
  * 
  * @author Caroline O'Neill
  *
@@ -18,23 +42,135 @@ public class Connect4Controller
     private Connect4Model model;
     private int[] nextOpen;
     
-    private Connect4Network network;
+    private volatile Connect4Transport network; // also closed by the timer thread
+    private Executor updateExecutor; // runs received moves on the UI thread
+    private int assignedColor; // color assigned by a lobby
+    
+    private Connect4GameJournal journal;
+    private int[] playedColumns; // move sequence, recorded for the journal
+    private int movesPlayed;
+    private long gameStartMillis;
+    
+    private Connect4GameClock clock; // null if untimed
+    
+    private volatile Connect4ComputerPlayer computerPlayer; // null plays random columns
+    private volatile int computerDepth;
+    private volatile long computerMillis;
+    private volatile Connect4HintCache hintCache = Connect4HintCache.shared(); // null for none
     
     /**
-     * Connect4Controller Constructor.
+     * Connect4Controller Constructor for the standard board.
      */
     public Connect4Controller()
     {
-        model = new Connect4Model();
-        nextOpen = new int[Connect4Model.COLUMNS];
+        this(Connect4GameConfig.STANDARD);
+    }
+    
+    /**
+     * Connect4Controller Constructor.
+     * @param config board size and number in a row needed to win
+     */
+    public Connect4Controller(Connect4GameConfig config)
+    {
+        this(config, Platform::runLater);
+    }
+    
+    /**
+     * Connect4Controller Constructor with the executor that applies the other
+     * player's moves to the model. The default is Platform.runLater; tests
+     * and benchmarks that run without JavaFX can supply their own.
+     * @param updateExecutor executor for received moves
+     */
+    public Connect4Controller(Executor updateExecutor)
+    {
+        this(Connect4GameConfig.STANDARD, updateExecutor);
+    }
+    
+    /**
+     * Connect4Controller Constructor with a board configuration and the 
+     * executor that applies the other player's moves to the model.
+     * @param config board size and number in a row needed to win
+     * @param updateExecutor executor for received moves
+     */
+    public Connect4Controller(Connect4GameConfig config, Executor updateExecutor)
+    {
+        this.updateExecutor = updateExecutor;
+        model = new Connect4Model(config);
+        configure(config);
+    }
+    
+    /**
+     * Sizes the column heights and move sequence for a configuration, and
+     * sets up its clock.
+     * @param config board configuration
+     */
+    private void configure(Connect4GameConfig config)
+    {
+        Connect4TimeControl timeControl = config.getTimeControl();
+        clock = timeControl == null ? null 
+        		: new Connect4GameClock(timeControl, timeControl, Connect4TimerWheel.shared(), this::onFlag);
+        playedColumns = new int[config.getCells()];
+        nextOpen = new int[config.getColumns()];
         for (int i = 0; i < nextOpen.length; i++)
         {
-        	nextOpen[i] = 5;
+        	nextOpen[i] = config.getRows() - 1;
         }
     }
     
     /**
-     * Build a client/server connection as a {@link Connect4Network}.
+     * Switches to the configuration agreed over the network, if it differs.
+     * Only called before any move is played.
+     * @param config agreed configuration, null if the connection failed
+     */
+    private void adoptConfig(Connect4GameConfig config)
+    {
+    	if (config == null || config.equals(model.getConfig()))
+    		return;
+    	model.reset(config);
+    	configure(config);
+    }
+    
+    /**
+     * Gets the board configuration.
+     * @return configuration
+     */
+    public Connect4GameConfig getConfig()
+    {
+    	return model.getConfig();
+    }
+    
+    /**
+     * Starts the first player's clock in a timed game. Call once the game is
+     * ready to begin, after any network connection has been made.
+     */
+    public void startClock()
+    {
+    	if (clock != null)
+    		clock.start(Connect4MoveMessage.YELLOW);
+    }
+    
+    /**
+     * Gets a player's time left.
+     * @param color player color
+     * @return milliseconds left, -1 in an untimed game
+     */
+    public long getRemainingMillis(int color)
+    {
+    	return clock == null ? -1 : clock.getRemainingMillis(color);
+    }
+    
+    /**
+     * Gets the player who lost on time.
+     * @return color, EMPTY if nobody has run out of time
+     */
+    public int getFlaggedColor()
+    {
+    	return clock == null ? Connect4Model.EMPTY : clock.getFlagged();
+    }
+    
+    /**
+     * Build a client/server connection as a {@link Connect4Network}. A server
+     * sends this controller's configuration; a client adopts the server's.
      * @param isServer is this instance a server
      * @param server the server to connect to (if it's a client)
      * @param port the port to connect to
@@ -42,10 +178,104 @@ public class Connect4Controller
      */
     public boolean buildNetwork(boolean isServer, String server, int port)
     {
-    	network = new Connect4Network(isServer, server, port);
+    	Connect4Network socketNetwork = new Connect4Network(isServer, server, port, model.getConfig());
+    	adoptConfig(socketNetwork.getGameConfig());
+    	network = reliable(socketNetwork);
+    	return network.getStartError();
+    }
+    
+    /**
+     * Joins a {@link Connect4LobbyServer} and waits to be paired. The color
+     * this player was assigned is available from 
+     * {@link Connect4Controller#getAssignedColor()}. The yellow player's 
+     * configuration is used by both.
+     * @param server the lobby to connect to
+     * @param port the port to connect to
+     * @param rating player rating used for pairing
+     * @return start error
+     */
+    public boolean joinLobby(String server, int port, int rating)
+    {
+    	Connect4Network lobbyNetwork = Connect4Network.joinLobby(server, port, rating, model.getConfig());
+    	assignedColor = lobbyNetwork.getAssignedColor();
+    	adoptConfig(lobbyNetwork.getGameConfig());
+    	network = reliable(lobbyNetwork);
+    	return network.getStartError();
+    }
+    
+    /**
+     * Numbers and acknowledges the moves of a connection that started, so a
+     * lost, repeated or diverging move is caught; see 
+     * {@link Connect4ReliableTransport}. A failed connection is kept as it
+     * is, for its error message.
+     * @param socketNetwork connection to the other player
+     * @return transport to use
+     */
+    private Connect4Transport reliable(Connect4Network socketNetwork)
+    {
+    	if (socketNetwork.getStartError())
+    		return socketNetwork;
+    	return new Connect4ReliableTransport(socketNetwork, model.getConfig());
+    }
+    
+    /**
+     * Gets the color assigned by the lobby, EMPTY if not playing through one.
+     * @return color
+     */
+    public int getAssignedColor()
+    {
+    	return assignedColor;
+    }
+    
+    /**
+     * Uses an already connected {@link Connect4Transport}, such as one end of
+     * a {@link Connect4LoopbackTransport} pair, instead of building a socket.
+     * @param transport transport to the other player
+     * @return start error
+     */
+    public boolean setTransport(Connect4Transport transport)
+    {
+    	network = transport;
     	return network.getStartError();
     }
     
+    /**
+     * Records this game in a {@link Connect4GameJournal} when it ends. In a
+     * network game only one of the two instances needs a journal. Journal
+     * records do not carry a configuration, so only games on the standard
+     * board are recorded.
+     * @param journal journal to append to, or null to stop recording
+     */
+    public void setJournal(Connect4GameJournal journal)
+    {
+    	this.journal = journal;
+    }
+    
+    /**
+     * Lets a {@link Connect4ComputerPlayer} choose the computer's columns 
+     * instead of picking them at random.
+     * @param player player to search with, or null for random columns
+     * @param maxDepth deepest search per move, 0 for no limit
+     * @param maxMillis thinking time per move, 0 for no limit
+     */
+    public void setComputerPlayer(Connect4ComputerPlayer player, int maxDepth, long maxMillis)
+    {
+    	this.computerDepth = maxDepth;
+    	this.computerMillis = maxMillis;
+    	this.computerPlayer = player;
+    }
+    
+    /**
+     * Sets the cache of earlier searches the computer player consults before
+     * searching. Every controller uses {@link Connect4HintCache#shared()}
+     * unless given another.
+     * @param cache cache to use, or null to always search
+     */
+    public void setHintCache(Connect4HintCache cache)
+    {
+    	this.hintCache = cache;
+    }
+    
     /**
      * Gets the error message associated with starting up the network.
      * @return error message
@@ -62,6 +292,8 @@ public class Connect4Controller
      */
     public boolean closeNetwork()
     {
+    	if (network == null)
+    		return true;
     	return network.closeConnection();
     }
     
@@ -97,6 +329,26 @@ public class Connect4Controller
 	{
 		return model.getGridCopy();
 	}
+	
+	/**
+	 * Get an immutable snapshot of the underlying model's board, which can be
+	 * handed to other threads. Only kept for the standard board.
+	 * @return snapshot
+	 */
+	public Connect4Snapshot getSnapshot()
+	{
+		return model.getSnapshot();
+	}
+	
+	/**
+	 * Loads the underlying model's board into a search position.
+	 * @param board board of the same configuration
+	 * @param colorToMove color of the player to move next
+	 */
+	public void readPosition(Connect4Board board, int colorToMove)
+	{
+		model.readPosition(board, colorToMove);
+	}
     
     /**
      * Checks if the indicated column is empty.
@@ -136,8 +388,7 @@ public class Connect4Controller
      */
     public boolean computerTurn()
     {
-    	int randCol = ((int) (Math.random() * 100)) % Connect4Model.COLUMNS;
-    	return takeTurn(randCol, Connect4MoveMessage.RED);
+    	return computerTurn(Connect4MoveMessage.RED);
     }
     
     /**
@@ -148,18 +399,70 @@ public class Connect4Controller
      */
     public boolean computerTurn(int color)
     {
-    	int randCol = ((int) (Math.random() * 100)) % Connect4Model.COLUMNS;
-    	return takeTurn(randCol, color);
+    	int col = chooseComputerColumn(color);
+    	if (col < 0)
+    		return false;
+    	return takeTurn(col, color);
+    }
+    
+    /**
+     * Chooses the computer player's column without playing it, so the choice
+     * can be made off the UI thread and played later with 
+     * {@link Connect4Controller#takeTurn(int, int)}. Only reads the board; a
+     * column that fills up in the meantime is rejected by takeTurn. Searches
+     * with the player set by {@link #setComputerPlayer}, if any, unless the
+     * hint cache already holds a search of the position at least as deep.
+     * A player without a depth limit always searches, as no cached depth is
+     * known to be enough for it; its results still go into the cache.
+     * @param color color to play
+     * @return column index, -1 if every column is full
+     */
+    public int chooseComputerColumn(int color)
+    {
+    	Connect4ComputerPlayer player = computerPlayer;
+    	if (player != null)
+    	{
+    		Connect4Board position = Connect4Board.create(model.getConfig());
+    		model.readPosition(position, color);
+    		Connect4HintCache cache = hintCache;
+    		int depth = computerDepth;
+    		if (cache != null && depth > 0)
+    		{
+    			long hint = cache.get(position, depth);
+    			if (hint != Connect4HintCache.MISS && position.canPlay(Connect4HintCache.move(hint)))
+    				return Connect4HintCache.move(hint);
+    		}
+    		int col = player.think(position, depth, computerMillis, null);
+    		if (cache != null && col >= 0 && player.getLastDepth() > 0)
+    			cache.put(position, player.getLastDepth(), col, player.getLastScore());
+    		return col;
+    	}
+    	int open = 0;
+    	for (int i = 0; i < nextOpen.length; i++)
+    	{
+    		if (!isColumnFull(i))
+    			open++;
+    	}
+    	if (open == 0)
+    		return -1;
+    	int pick = ThreadLocalRandom.current().nextInt(open);
+    	for (int i = 0; i < nextOpen.length; i++)
+    	{
+    		if (!isColumnFull(i) && pick-- == 0)
+    			return i;
+    	}
+    	return -1;
     }
     
     /**
      * Plays a disc in the next availible position in the indicated column. No
      * play made if the column is full. Message with new move is sent to the
-     * other instance. 
+     * other instance, if there is one. 
      * <p> A new thread is created to recieve the other player's move in the
      * background. This ensures the main event loop/queue is not blocked. In the
-     * new thread, Platform.runLater is used so the model updates the view in 
-     * the main thread. JavaFX can only update the UI in the main thread.
+     * new thread, the update executor (Platform.runLater by default) is used 
+     * so the model updates the view in the main thread. JavaFX can only update
+     * the UI in the main thread.
      * @param col column index
      * @param color disc color
      * @return true if the disc is played in the column, false otherwise
@@ -170,11 +473,20 @@ public class Connect4Controller
     	if (color == Connect4Model.EMPTY || isColumnFull(col))
     		return false;
     	
+    	// refused once either player is out of time
+    	if (clock != null && !clock.moveMade(color))
+    		return false;
+    	
     	int row = nextOpen[col];
     	
     	// make move --> updates model --> updates view
     	nextOpen[col]--;
     	model.setPosition(row, col, color);
+    	moveApplied(col);
+    	
+    	// local game - no other player to notify
+    	if (network == null)
+    		return true;
     	
     	// send message
     	Connect4MoveMessage sendMessage = new Connect4MoveMessage(row, col, color);
@@ -186,14 +498,23 @@ public class Connect4Controller
     		Connect4MoveMessage recvMessage = network.readMessage();
     		if(recvMessage == null)
     			return;
+    		// the clock stops when the move arrives, not when it is shown
+    		if (clock != null && !clock.moveMade(recvMessage.getColor()))
+    			return;
     		int recvRow = recvMessage.getRow();
             int recvCol = recvMessage.getColumn();
             int recvColor = recvMessage.getColor();
-    		Platform.runLater(() -> 
+    		updateExecutor.execute(() -> 
     		{
     			// model/view update pushed until later in the main thread
-    			nextOpen[recvMessage.getColumn()]--;
+    			if (!isExpectedMove(recvRow, recvCol))
+    			{
+    				closeNetwork();
+    				return;
+    			}
+    			nextOpen[recvCol]--;
     			model.setPosition(recvRow, recvCol, recvColor);
+    			moveApplied(recvCol);
     		});
     	});
     	// new thread started -> run() started
@@ -209,22 +530,108 @@ public class Connect4Controller
     public void initiateListening()
     {
     	Connect4MoveMessage recvMessage = network.readMessage();
+    	if (recvMessage == null)
+    		return; // closed, for example when the server ran out of time
+    	if (clock != null && !clock.moveMade(recvMessage.getColor()))
+    		return;
+    	if (!isExpectedMove(recvMessage.getRow(), recvMessage.getColumn()))
+    	{
+    		closeNetwork();
+    		return;
+    	}
     	nextOpen[recvMessage.getColumn()]--;
     	model.setPosition(recvMessage.getRow(), recvMessage.getColumn(), recvMessage.getColor());
+    	moveApplied(recvMessage.getColumn());
+    }
+    
+    /**
+     * Checks a received move against this board's column heights. The other
+     * player's row is only trusted if it is the next open row here too;
+     * otherwise the boards have diverged and the game cannot continue.
+     * @param row row the other player played
+     * @param col column the other player played
+     * @return true if the move lands on top of the column
+     */
+    private boolean isExpectedMove(int row, int col)
+    {
+    	return col >= 0 && col < nextOpen.length && !isColumnFull(col) && nextOpen[col] == row;
+    }
+    
+    /**
+     * Bookkeeping after a move is applied to the model: records it and stops
+     * the clock once the game is over.
+     * @param col column played
+     */
+    private void moveApplied(int col)
+    {
+    	recordMove(col);
+    	if (clock != null && isGameOver())
+    		clock.stop();
+    }
+    
+    /**
+     * Called on the timer thread when a player runs out of time. Closing the
+     * connection releases any thread blocked reading the other player's 
+     * move; the loss is applied to the model on the owning thread, which
+     * also journals the game.
+     * @param color color of the player out of time
+     */
+    private void onFlag(int color)
+    {
+    	closeNetwork();
+    	updateExecutor.execute(() -> 
+    	{
+    		model.timeOut(color);
+    		recordGameOver();
+    	});
+    }
+    
+    /**
+     * Adds a move to the game's move sequence and, once the game is over, 
+     * hands the finished game to the journal. Appending only queues the 
+     * record, so the move path never waits on disk.
+     * @param col column played
+     */
+    private void recordMove(int col)
+    {
+    	if (journal == null || !model.getConfig().isStandard())
+    		return;
+    	if (movesPlayed == 0)
+    		gameStartMillis = System.currentTimeMillis();
+    	playedColumns[movesPlayed++] = col;
+    	recordGameOver();
+    }
+    
+    /**
+     * Hands the game to the journal once it is over, whether on the board
+     * or on time. A game lost on time is recorded with the moves played so
+     * far, the winner on time and the time loss flag, since replaying the
+     * moves finds no winner.
+     */
+    private void recordGameOver()
+    {
+    	if (journal == null || !model.getConfig().isStandard() || !isGameOver())
+    		return;
+    	if (movesPlayed == 0)
+    		gameStartMillis = System.currentTimeMillis();
+    	journal.append(Connect4GameRecord.fromColumns(playedColumns, movesPlayed, model.getWinner(),
+    			getFlaggedColor() != Connect4Model.EMPTY, gameStartMillis, System.currentTimeMillis()));
+    	journal = null; // one record per game
     }
     
     /**
      * <ul><b><i>setModelObserver</i></b></ul>
      * <ul><ul><p><code> void setModelObserver () </code></p></ul>
      *
-     * Adds a {@link Connect4View} as an observer of the {@link Connect4Model}.
+     * Adds a {@link Connect4GameListener}, such as the {@link Connect4View},
+     * as a listener of the {@link Connect4Model}.
      *
-     * @param view - the <code>Connect4View</code> to observer the <code>Connect4Model</code>
+     * @param listener - the listener to be notified of changes to the <code>Connect4Model</code>
      * 
      * @author Kristopher Rangel
      */
-    public void setModelObserver(Connect4View view) {
-        model.addObserver(view);
+    public void setModelObserver(Connect4GameListener listener) {
+        model.addListener(listener);
     }
     
 }
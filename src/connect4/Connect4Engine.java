@@ -0,0 +1,377 @@
+package connect4;
+
+import java.util.Arrays;
+
+/**
+ * A negamax alpha-beta search over {@link Connect4Board} positions of any
+ * {@link Connect4GameConfig}.
+ * 
+ * <p>Scores are from the point of view of the player to move. A forced win
+ * scores {@link #WIN_SCORE} minus the number of discs on the board when the
+ * winning disc is played, so quicker wins score higher; anything else is a
+ * {@link Connect4Evaluator} estimate well inside that range.</p>
+ * 
+ * <p>An engine may share a {@link Connect4TranspositionTable} with other
+ * engines. Results found by any of them then cut off repeated positions,
+ * and a stored best move is searched first. Bound cutoffs end the principal
+ * variation early, so engines used for analysis lines run without one.</p>
+ * 
+ * <p>An engine searches on a private copy of the position, so the caller's
+ * board is never touched. One engine runs one search at a time, but 
+ * {@link #stop()} may be called from any thread; the search then unwinds
+ * quickly and its result should be discarded.</p>
+ * 
+ * <p>A search runs under a token from {@link #arm()}, and {@link #stop()}
+ * cancels every token handed out so far. A caller that starts a search on
+ * another thread arms it first, on its own thread, so a stop sent before
+ * the search begins still ends it; nothing but a new token clears a
+ * stop.</p>
+ *
+ */
+public class Connect4Engine 
+{
+	public static final int WIN_SCORE = 100_000;
+	public static final int INFINITY = WIN_SCORE + 1;
+	/** score reported for a column that cannot be played */
+	public static final int ILLEGAL = Integer.MIN_VALUE;
+	
+	/** most discs on any board, bounding how far below WIN_SCORE a win can score */
+	static final int MAX_PLY = Connect4GameConfig.MAX_SIZE * Connect4GameConfig.MAX_SIZE;
+	
+	private Connect4Board board;  // private copy, replaced when the configuration changes
+	private int width;
+	private int cells;
+	private int[] columnOrder;
+	private int[][] pv;           // triangular principal variation table
+	private int[] pvLength;
+	private int[] bestLine;
+	private final Connect4TranspositionTable table; // null if none
+	private long nodes;
+	private long tableHits;
+	private volatile long stoppedThrough; // tokens up to this one are stopped
+	private long lastToken;               // tokens handed out, guarded by this
+	private long token;                   // token of the running search
+	private boolean stopped;              // whether the last search was stopped
+	
+	/**
+	 * Connect4Engine Constructor.
+	 */
+	public Connect4Engine()
+	{
+		this(null);
+	}
+	
+	/**
+	 * Connect4Engine Constructor with a shared transposition table.
+	 * @param table table shared with other engines, or null for none
+	 */
+	public Connect4Engine(Connect4TranspositionTable table)
+	{
+		this.table = table;
+		load(new Connect4Bitboard());
+		bestLine = new int[0];
+	}
+	
+	/**
+	 * Searches a position to a fixed depth, under a new token.
+	 * @param position position to search
+	 * @param depth depth in plies
+	 * @return score for the player to move
+	 */
+	public int search(Connect4Board position, int depth)
+	{
+		return search(position, depth, arm());
+	}
+	
+	/**
+	 * Searches a position to a fixed depth, unless the token is stopped.
+	 * @param position position to search
+	 * @param depth depth in plies
+	 * @param token token from {@link #arm()}
+	 * @return score for the player to move
+	 */
+	public int search(Connect4Board position, int depth, long token)
+	{
+		long start = Connect4Telemetry.searchStart();
+		long startNodes = nodes;
+		this.token = token;
+		load(position);
+		int score = negamax(depth, -INFINITY, INFINITY, 0);
+		stopped = isStopped(token);
+		bestLine = Arrays.copyOf(pv[0], pvLength[0]);
+		if (start != 0)
+			Connect4Telemetry.searchDone(start, depth, nodes - startNodes, board.getMoveCount(), stopped);
+		return score;
+	}
+	
+	/**
+	 * Scores every column of a position with a full-window search, so each
+	 * score is exact at the given depth rather than just a bound. Runs under
+	 * a new token.
+	 * @param position position to search
+	 * @param depth depth in plies, counting the column's own move
+	 * @return score per column for the player to move, {@link #ILLEGAL} for
+	 *         full columns
+	 */
+	public int[] scoreColumns(Connect4Board position, int depth)
+	{
+		return scoreColumns(position, depth, arm());
+	}
+	
+	/**
+	 * Scores every column of a position, unless the token is stopped; see
+	 * {@link #scoreColumns(Connect4Board, int)}.
+	 * @param position position to search
+	 * @param depth depth in plies, counting the column's own move
+	 * @param token token from {@link #arm()}
+	 * @return score per column for the player to move, {@link #ILLEGAL} for
+	 *         full columns
+	 */
+	public int[] scoreColumns(Connect4Board position, int depth, long token)
+	{
+		long start = Connect4Telemetry.searchStart();
+		long startNodes = nodes;
+		this.token = token;
+		load(position);
+		int[] scores = new int[width];
+		int best = -INFINITY;
+		for (int col = 0; col < width; col++)
+		{
+			if (!board.canPlay(col))
+			{
+				scores[col] = ILLEGAL;
+				continue;
+			}
+			if (board.isWinningMove(col))
+			{
+				scores[col] = WIN_SCORE - board.getMoveCount() - 1;
+				pvLength[1] = 1;
+			}
+			else
+			{
+				board.play(col);
+				scores[col] = -negamax(depth - 1, -INFINITY, INFINITY, 1);
+				board.undo(col);
+			}
+			if (scores[col] > best)
+			{
+				best = scores[col];
+				bestLine = new int[pvLength[1]];
+				bestLine[0] = col;
+				System.arraycopy(pv[1], 1, bestLine, 1, pvLength[1] - 1);
+			}
+		}
+		stopped = isStopped(token);
+		if (start != 0)
+			Connect4Telemetry.searchDone(start, depth, nodes - startNodes, board.getMoveCount(), stopped);
+		return scores;
+	}
+	
+	/**
+	 * Gets the principal variation found by the last search, starting with
+	 * the best move.
+	 * @return columns of the best line
+	 */
+	public int[] getBestLine()
+	{
+		return bestLine;
+	}
+	
+	/**
+	 * Gets the best move found by the last search.
+	 * @return column index, -1 if there was none
+	 */
+	public int getBestMove()
+	{
+		return bestLine.length == 0 ? -1 : bestLine[0];
+	}
+	
+	/**
+	 * Gets the number of positions visited since the engine was created.
+	 * @return node count
+	 */
+	public long getNodes()
+	{
+		return nodes;
+	}
+	
+	/**
+	 * Gets the number of transposition table lookups that found the position
+	 * since the engine was created.
+	 * @return table hits
+	 */
+	public long getTableHits()
+	{
+		return tableHits;
+	}
+	
+	/**
+	 * Hands out a token for a search that has not started yet. Call it on
+	 * the thread that will later stop the search.
+	 * @return token, stopped by any later {@link #stop()}
+	 */
+	public synchronized long arm()
+	{
+		return ++lastToken;
+	}
+	
+	/**
+	 * Stops the running search, and any search armed but not yet started.
+	 */
+	public synchronized void stop()
+	{
+		stoppedThrough = lastToken;
+	}
+	
+	/**
+	 * Stops the searches armed with a token and those armed before it, but
+	 * none armed after; for a time limit that may fire late.
+	 * @param token token from {@link #arm()}
+	 */
+	public synchronized void stop(long token)
+	{
+		stoppedThrough = Math.max(stoppedThrough, token);
+	}
+	
+	/**
+	 * @param token token from {@link #arm()}
+	 * @return true if a search under the token is to stop
+	 */
+	public boolean isStopped(long token)
+	{
+		return token <= stoppedThrough;
+	}
+	
+	/**
+	 * @return true if the last search was stopped before finishing
+	 */
+	public boolean isStopped()
+	{
+		return stopped;
+	}
+	
+	/**
+	 * Checks whether a score means a forced win or loss.
+	 * @param score search score
+	 * @return true for a forced result
+	 */
+	public static boolean isWinScore(int score)
+	{
+		return Math.abs(score) > WIN_SCORE - MAX_PLY - 1;
+	}
+	
+	private int negamax(int depth, int alpha, int beta, int ply)
+	{
+		nodes++;
+		pvLength[ply] = ply;
+		if (token <= stoppedThrough)
+			return 0;
+		if (board.getMoveCount() == cells)
+			return 0; // draw
+		
+		for (int col = 0; col < width; col++)
+		{
+			if (board.canPlay(col) && board.isWinningMove(col))
+			{
+				pv[ply][ply] = col;
+				pvLength[ply] = ply + 1;
+				return WIN_SCORE - board.getMoveCount() - 1;
+			}
+		}
+		if (depth <= 0)
+			return board.evaluate();
+		
+		long hash = 0;
+		int tableMove = -1;
+		int originalAlpha = alpha;
+		if (table != null)
+		{
+			hash = board.hash();
+			long entry = table.probe(hash);
+			if (entry != Connect4TranspositionTable.MISS)
+			{
+				tableHits++;
+				tableMove = Connect4TranspositionTable.move(entry);
+				if (ply > 0 && Connect4TranspositionTable.depth(entry) >= depth)
+				{
+					int score = Connect4TranspositionTable.score(entry);
+					int flag = Connect4TranspositionTable.flag(entry);
+					if (flag == Connect4TranspositionTable.EXACT)
+						return score;
+					if (flag == Connect4TranspositionTable.LOWER_BOUND && score > alpha)
+						alpha = score;
+					else if (flag == Connect4TranspositionTable.UPPER_BOUND && score < beta)
+						beta = score;
+					if (alpha >= beta)
+						return score;
+				}
+			}
+		}
+		
+		int best = -INFINITY;
+		int bestMove = -1;
+		for (int i = -1; i < columnOrder.length; i++)
+		{
+			// the table's best move first, then center outwards
+			int col = i < 0 ? tableMove : columnOrder[i];
+			if (col < 0 || (i >= 0 && col == tableMove) || !board.canPlay(col))
+				continue;
+			board.play(col);
+			int score = -negamax(depth - 1, -beta, -alpha, ply + 1);
+			board.undo(col);
+			if (score > best)
+			{
+				best = score;
+				bestMove = col;
+				pv[ply][ply] = col;
+				System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+				pvLength[ply] = pvLength[ply + 1];
+				if (score > alpha)
+					alpha = score;
+				if (alpha >= beta)
+					break;
+			}
+		}
+		if (table != null && token > stoppedThrough)
+		{
+			int flag = best <= originalAlpha ? Connect4TranspositionTable.UPPER_BOUND 
+					: best >= beta ? Connect4TranspositionTable.LOWER_BOUND 
+					: Connect4TranspositionTable.EXACT;
+			table.store(hash, best, Math.min(depth, 255), flag, bestMove);
+		}
+		return best;
+	}
+	
+	/**
+	 * Copies a position into the private board, first resizing the search
+	 * tables if its configuration differs from the last one searched.
+	 */
+	private void load(Connect4Board position)
+	{
+		if (board != null && board.getClass() == position.getClass() 
+				&& board.getConfig().sameBoard(position.getConfig()))
+		{
+			board.copyFrom(position);
+			return;
+		}
+		board = position.copy();
+		width = board.getConfig().getColumns();
+		cells = board.getConfig().getCells();
+		columnOrder = columnOrder(width);
+		pv = new int[cells + 1][cells + 1];
+		pvLength = new int[cells + 1];
+	}
+	
+	/**
+	 * Columns ordered from the center outwards, where moves tend to be best.
+	 */
+	static int[] columnOrder(int width)
+	{
+		int[] order = new int[width];
+		for (int i = 0; i < order.length; i++)
+		{
+			order[i] = width / 2 + (1 - 2 * (i % 2)) * (i + 1) / 2;
+		}
+		return order;
+	}
+}
@@ -0,0 +1,299 @@
+package connect4;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Runs a {@link Connect4ComputerPlayer} behind a line-based text protocol,
+ * so tournament managers and other external programs can drive it over
+ * standard input and output. Nothing here touches JavaFX, so the engine
+ * starts in the time it takes to allocate its transposition table.
+ *
+ * <p>Commands, one per line:</p>
+ * <ul>
+ * <li><code>isready</code> - answered with <code>readyok</code></li>
+ * <li><code>newgame</code> - forgets what was learned in the last game</li>
+ * <li><code>position [startpos | size &lt;rows&gt; &lt;columns&gt; &lt;connect&gt;]
+ *     [moves &lt;moves&gt;]</code> - sets the position to search, the moves
+ *     written as in {@link Connect4BatchEvaluator#parseMoves(String, Connect4GameConfig)}</li>
+ * <li><code>go [depth &lt;plies&gt;] [movetime &lt;millis&gt;] [infinite]</code> -
+ *     starts searching and returns at once</li>
+ * <li><code>stop</code> - ends the search, which then reports its move</li>
+ * <li><code>quit</code> - stops any search and exits</li>
+ * </ul>
+ *
+ * <p>While searching the engine sends one line per completed depth,
+ * <code>info depth 9 score 12 nodes 80411 nps 701230 time 114 pv 4 4 5</code>,
+ * and about once a second a progress line without score and pv. A search
+ * always ends with <code>bestmove &lt;column&gt;</code>, or
+ * <code>bestmove none</code> if the board is full. Columns are written as in
+ * the moves of a position command. Errors are reported as
+ * <code>info string error ...</code> and leave the engine as it was.</p>
+ *
+ * <p>Searches run on their own thread so <code>stop</code> is read and
+ * acted on while the engine is thinking.</p>
+ *
+ */
+public class Connect4EngineProtocol
+{
+	public static final int DEFAULT_TABLE_MEGABYTES = 16;
+
+	private final Connect4ComputerPlayer player;
+	private final Consumer<String> out;
+	private final ExecutorService searchThread;
+	private Connect4Board position;
+	private Future<?> search; // null before the first go
+	private volatile boolean searching; // cleared before bestmove is sent
+
+	/**
+	 * Connect4EngineProtocol Constructor.
+	 * @param tableMegabytes transposition table size
+	 * @param out receives each output line; called from the reading thread
+	 *        and the search thread, but never from both at once
+	 */
+	public Connect4EngineProtocol(int tableMegabytes, Consumer<String> out)
+	{
+		this.player = new Connect4ComputerPlayer(new Connect4TranspositionTable(tableMegabytes));
+		this.out = out;
+		this.position = Connect4Board.create(Connect4GameConfig.STANDARD);
+		this.searchThread = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "connect4-engine-search");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Reads and runs commands until <code>quit</code> or the end of input.
+	 * @param in command source
+	 * @throws IOException if reading fails
+	 */
+	public void run(BufferedReader in) throws IOException
+	{
+		String line;
+		while ((line = in.readLine()) != null)
+		{
+			if (!handle(line))
+				return;
+		}
+		handle("quit");
+	}
+
+	/**
+	 * Runs one command.
+	 * @param line command line
+	 * @return false after <code>quit</code>, true otherwise
+	 */
+	public boolean handle(String line)
+	{
+		String[] words = line.trim().split("\\s+");
+		switch (words[0])
+		{
+			case "":
+				return true;
+			case "isready":
+				send("readyok");
+				return true;
+			case "newgame":
+				if (isSearching())
+					send("info string error search in progress");
+				else
+					player.newGame();
+				return true;
+			case "position":
+				if (isSearching())
+					send("info string error search in progress");
+				else
+					setPosition(words);
+				return true;
+			case "go":
+				go(words);
+				return true;
+			case "stop":
+				player.stop();
+				return true;
+			case "quit":
+				player.stop();
+				awaitSearch();
+				searchThread.shutdown();
+				return false;
+			default:
+				send("info string error unknown command " + words[0]);
+				return true;
+		}
+	}
+
+	/**
+	 * Blocks until the search in progress, if any, has sent its bestmove.
+	 */
+	public void awaitSearch()
+	{
+		Future<?> running = search;
+		if (running == null)
+			return;
+		try
+		{
+			running.get();
+		}
+		catch (Exception e)
+		{
+			send("info string error " + e);
+		}
+	}
+
+	private boolean isSearching()
+	{
+		return searching;
+	}
+
+	private void setPosition(String[] words)
+	{
+		Connect4GameConfig config = Connect4GameConfig.STANDARD;
+		String moves = "";
+		try
+		{
+			int i = 1;
+			if (i < words.length && words[i].equals("startpos"))
+			{
+				i++;
+			}
+			else if (i < words.length && words[i].equals("size"))
+			{
+				config = new Connect4GameConfig(Integer.parseInt(words[i + 1]),
+						Integer.parseInt(words[i + 2]), Integer.parseInt(words[i + 3]));
+				i += 4;
+			}
+			if (i < words.length && words[i].equals("moves"))
+			{
+				// moves may also be written separated by spaces
+				StringBuilder joined = new StringBuilder();
+				for (i++; i < words.length; i++)
+					joined.append(words[i]);
+				moves = joined.toString();
+			}
+			else if (i < words.length)
+			{
+				send("info string error unexpected " + words[i]);
+				return;
+			}
+		}
+		catch (RuntimeException e)
+		{
+			// bad number, missing size value or unplayable size
+			send("info string error bad position size");
+			return;
+		}
+		Connect4Board board = Connect4BatchEvaluator.parseMoves(moves, config);
+		if (board == null)
+		{
+			send("info string error illegal or game ending move in " + moves);
+			return;
+		}
+		position = board;
+	}
+
+	private void go(String[] words)
+	{
+		if (isSearching())
+		{
+			send("info string error search in progress");
+			return;
+		}
+		int depth = 0;
+		long millis = 0;
+		try
+		{
+			for (int i = 1; i < words.length; i++)
+			{
+				switch (words[i])
+				{
+					case "depth":
+						depth = Integer.parseInt(words[++i]);
+						break;
+					case "movetime":
+						millis = Long.parseLong(words[++i]);
+						break;
+					case "infinite":
+						break;
+					default:
+						send("info string error unexpected " + words[i]);
+						return;
+				}
+			}
+		}
+		catch (RuntimeException e)
+		{
+			send("info string error bad go limit");
+			return;
+		}
+		Connect4Board root = position.copy();
+		int maxDepth = depth;
+		long maxMillis = millis;
+		// armed here, so a stop read before the search thread starts still ends it
+		long token = player.arm();
+		searching = true;
+		search = searchThread.submit(() -> {
+			int col;
+			try
+			{
+				col = player.think(root, maxDepth, maxMillis, this::info, token);
+			}
+			finally
+			{
+				// a driver may answer bestmove at once, so be ready before sending it
+				searching = false;
+			}
+			send(col < 0 ? "bestmove none" : "bestmove " + column(col));
+		});
+	}
+
+	private void info(int depth, int score, long nodes, long elapsedMillis, int[] line)
+	{
+		StringBuilder sb = new StringBuilder("info depth ").append(depth);
+		if (line.length > 0)
+			sb.append(" score ").append(score);
+		sb.append(" nodes ").append(nodes)
+			.append(" nps ").append(nodes * 1000 / Math.max(1, elapsedMillis))
+			.append(" time ").append(elapsedMillis);
+		if (line.length > 0)
+		{
+			sb.append(" pv");
+			for (int col : line)
+				sb.append(' ').append(column(col));
+		}
+		send(sb.toString());
+	}
+
+	private synchronized void send(String line)
+	{
+		out.accept(line);
+	}
+
+	/**
+	 * Writes a column index as a move character.
+	 */
+	static char column(int col)
+	{
+		return Character.forDigit(col + 1, Connect4GameConfig.MAX_SIZE + 1);
+	}
+
+	/**
+	 * Runs the engine on standard input and output.
+	 * @param args optional transposition table size in megabytes
+	 * @throws IOException if standard input cannot be read
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TABLE_MEGABYTES;
+		PrintStream stdout = new PrintStream(System.out, true, "UTF-8");
+		Connect4EngineProtocol engine = new Connect4EngineProtocol(megabytes, stdout::println);
+		engine.run(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+	}
+}
@@ -0,0 +1,86 @@
+package connect4;
+
+import java.util.Arrays;
+
+/**
+ * Static evaluation of a {@link Connect4Bitboard} position.
+ * 
+ * <p>The score sums, over every window of four cells that could still become
+ * four in a row, a weight for how many of its cells one player already holds.
+ * Windows containing discs of both players are dead and count for nothing.
+ * The score is from the point of view of the player whose discs are passed
+ * first.</p>
+ *
+ */
+public final class Connect4Evaluator 
+{
+	/** score weight of a live window by number of own discs in it */
+	static final int[] WINDOW_WEIGHTS = {0, 1, 8, 40, 0};
+	
+	/** every line of four cells on the board, one bit mask each */
+	static final long[] WINDOWS = windows();
+	
+	private Connect4Evaluator()
+	{
+	}
+	
+	/**
+	 * Evaluates a position.
+	 * @param own discs of the player to score for
+	 * @param opponent discs of the other player
+	 * @return positive if own is better placed
+	 */
+	public static int evaluate(long own, long opponent)
+	{
+		int score = 0;
+		for (long window : WINDOWS)
+		{
+			int mine = Long.bitCount(own & window);
+			int theirs = Long.bitCount(opponent & window);
+			if (theirs == 0)
+				score += WINDOW_WEIGHTS[mine];
+			else if (mine == 0)
+				score -= WINDOW_WEIGHTS[theirs];
+		}
+		return score;
+	}
+	
+	/**
+	 * Evaluates a position for the player to move.
+	 * @param board position
+	 * @return positive if the player to move is better placed
+	 */
+	public static int evaluate(Connect4Bitboard board)
+	{
+		return evaluate(board.getCurrent(), board.getOpponent());
+	}
+	
+	private static long[] windows()
+	{
+		int w = Connect4Bitboard.WIDTH;
+		int h = Connect4Bitboard.HEIGHT;
+		int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {-1, 1}}; // {dRow, dCol}
+		long[] result = new long[4 * w * h];
+		int n = 0;
+		for (int[] d : directions)
+		{
+			for (int r = 0; r < h; r++)
+			{
+				for (int c = 0; c < w; c++)
+				{
+					int endRow = r + 3 * d[0];
+					int endCol = c + 3 * d[1];
+					if (endRow < 0 || endRow >= h || endCol >= w)
+						continue;
+					long window = 0;
+					for (int i = 0; i < 4; i++)
+					{
+						window |= Connect4Bitboard.cell(r + i * d[0], c + i * d[1]);
+					}
+					result[n++] = window;
+				}
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+}
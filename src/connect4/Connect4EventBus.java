@@ -0,0 +1,163 @@
+package connect4;
+
+import java.util.Arrays;
+
+/**
+ * Dispatches {@link Connect4Model} events to {@link Connect4GameListener}s.
+ * 
+ * <p>Listeners are held in a copy-on-write array: adding or removing one
+ * replaces the array under a lock, while dispatch reads the current array
+ * once and loops over it with no lock and no allocation.</p>
+ * 
+ * <p>With batching on, events are appended to a primitive buffer instead of
+ * being dispatched, and {@link #flush()} delivers them all in order. This
+ * lets a fast producer, such as a computer-vs-computer game, hand its
+ * listeners one burst per frame. Batching and flushing belong to the thread
+ * that changes the model.</p>
+ *
+ */
+public class Connect4EventBus 
+{
+	private static final int MOVE = 0;
+	private static final int WIN = 1;
+	private static final int RESET = 2;
+	private static final int FIELDS = 4; // type, row, col, color
+	
+	private volatile Connect4GameListener[] listeners = new Connect4GameListener[0];
+	private boolean batching;
+	private int[] pending = new int[FIELDS * 64];
+	private int pendingLength;
+	
+	/**
+	 * Adds a listener.
+	 * @param listener listener to add
+	 */
+	public synchronized void addListener(Connect4GameListener listener)
+	{
+		Connect4GameListener[] copy = Arrays.copyOf(listeners, listeners.length + 1);
+		copy[copy.length - 1] = listener;
+		listeners = copy;
+	}
+	
+	/**
+	 * Removes a listener.
+	 * @param listener listener to remove
+	 */
+	public synchronized void removeListener(Connect4GameListener listener)
+	{
+		for (int i = 0; i < listeners.length; i++)
+		{
+			if (listeners[i] == listener)
+			{
+				Connect4GameListener[] copy = new Connect4GameListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, copy, 0, i);
+				System.arraycopy(listeners, i + 1, copy, i, copy.length - i);
+				listeners = copy;
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * @return number of listeners
+	 */
+	public int getListenerCount()
+	{
+		return listeners.length;
+	}
+	
+	/**
+	 * Turns batching on or off. Turning it off flushes pending events.
+	 * @param batching whether to buffer events until {@link #flush()}
+	 */
+	public void setBatching(boolean batching)
+	{
+		this.batching = batching;
+		if (!batching)
+			flush();
+	}
+	
+	/**
+	 * Publishes a move event.
+	 * @param row row index
+	 * @param col column index
+	 * @param color disc color
+	 */
+	public void moveMade(int row, int col, int color)
+	{
+		if (batching)
+		{
+			buffer(MOVE, row, col, color);
+			return;
+		}
+		for (Connect4GameListener listener : listeners)
+		{
+			listener.moveMade(row, col, color);
+		}
+	}
+	
+	/**
+	 * Publishes a win event.
+	 * @param color winning color
+	 */
+	public void gameWon(int color)
+	{
+		if (batching)
+		{
+			buffer(WIN, 0, 0, color);
+			return;
+		}
+		for (Connect4GameListener listener : listeners)
+		{
+			listener.gameWon(color);
+		}
+	}
+	
+	/**
+	 * Publishes a reset event.
+	 */
+	public void gameReset()
+	{
+		if (batching)
+		{
+			buffer(RESET, 0, 0, 0);
+			return;
+		}
+		for (Connect4GameListener listener : listeners)
+		{
+			listener.gameReset();
+		}
+	}
+	
+	/**
+	 * Delivers every buffered event, oldest first.
+	 */
+	public void flush()
+	{
+		Connect4GameListener[] current = listeners;
+		for (int i = 0; i < pendingLength; i += FIELDS)
+		{
+			int type = pending[i];
+			for (Connect4GameListener listener : current)
+			{
+				if (type == MOVE)
+					listener.moveMade(pending[i + 1], pending[i + 2], pending[i + 3]);
+				else if (type == WIN)
+					listener.gameWon(pending[i + 3]);
+				else
+					listener.gameReset();
+			}
+		}
+		pendingLength = 0;
+	}
+	
+	private void buffer(int type, int row, int col, int color)
+	{
+		if (pendingLength + FIELDS > pending.length)
+			pending = Arrays.copyOf(pending, pending.length * 2);
+		pending[pendingLength++] = type;
+		pending[pendingLength++] = row;
+		pending[pendingLength++] = col;
+		pending[pendingLength++] = color;
+	}
+}
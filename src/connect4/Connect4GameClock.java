@@ -0,0 +1,192 @@
+package connect4;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * The two players' clocks for one game.
+ * 
+ * <p>Only the clock of the player to move runs. Making a move stops the
+ * mover's clock, adds their increment and starts the other player's. A
+ * player who runs out of time is flagged: the flag listener is called with
+ * their color on the {@link Connect4TimerWheel} thread, and every later move
+ * is refused.</p>
+ * 
+ * <p>A clock holds one timeout at a time on a shared timer, for the player
+ * to move, so thousands of games cost no threads of their own. All methods
+ * may be called from any thread.</p>
+ *
+ */
+public class Connect4GameClock 
+{
+	private final Connect4TimeControl[] controls; // by color - 1
+	private final long[] remainingNanos;          // by color - 1, as of turnStartNanos
+	private final Connect4TimerWheel wheel;
+	private final IntConsumer flagListener;
+	
+	private int running;      // color whose clock runs, EMPTY if stopped
+	private long turnStartNanos;
+	private Connect4TimerWheel.Timeout timeout;
+	private volatile int flagged;
+	
+	/**
+	 * Connect4GameClock Constructor. The clock starts stopped.
+	 * @param yellow time control of the yellow player
+	 * @param red time control of the red player
+	 * @param wheel timer that detects flags
+	 * @param flagListener called with the color of a player who runs out of time
+	 */
+	public Connect4GameClock(Connect4TimeControl yellow, Connect4TimeControl red, 
+			Connect4TimerWheel wheel, IntConsumer flagListener)
+	{
+		this.controls = new Connect4TimeControl[] {yellow, red};
+		this.remainingNanos = new long[] {
+				TimeUnit.MILLISECONDS.toNanos(yellow.getBaseMillis()),
+				TimeUnit.MILLISECONDS.toNanos(red.getBaseMillis())};
+		this.wheel = wheel;
+		this.flagListener = flagListener;
+		this.running = Connect4Model.EMPTY;
+		this.flagged = Connect4Model.EMPTY;
+	}
+	
+	/**
+	 * Starts a player's clock, stopping the other's without an increment.
+	 * @param color color of the player to move
+	 */
+	public synchronized void start(int color)
+	{
+		if (flagged != Connect4Model.EMPTY)
+			return;
+		long now = System.nanoTime();
+		pause(now);
+		startTurn(color, now);
+	}
+	
+	/**
+	 * Records a move: stops the mover's clock, adds their increment and 
+	 * starts the other player's clock.
+	 * @param color color of the player who moved
+	 * @return false if the move is refused because a player has been 
+	 *         flagged or the mover's time had already run out
+	 */
+	public synchronized boolean moveMade(int color)
+	{
+		if (flagged != Connect4Model.EMPTY)
+			return false;
+		long now = System.nanoTime();
+		if (running == color)
+		{
+			cancelTimeout();
+			int i = color - 1;
+			remainingNanos[i] -= now - turnStartNanos;
+			if (remainingNanos[i] <= 0)
+			{
+				flag(color);
+				return false;
+			}
+			remainingNanos[i] += TimeUnit.MILLISECONDS.toNanos(controls[i].getIncrementMillis());
+			running = Connect4Model.EMPTY;
+		}
+		else
+		{
+			// a move out of turn, such as yellow's first before start()
+			pause(now);
+		}
+		startTurn(other(color), now);
+		return true;
+	}
+	
+	/**
+	 * Stops both clocks, for example at the end of the game.
+	 */
+	public synchronized void stop()
+	{
+		pause(System.nanoTime());
+	}
+	
+	/**
+	 * Gets a player's time left.
+	 * @param color player color
+	 * @return milliseconds left, zero once flagged
+	 */
+	public synchronized long getRemainingMillis(int color)
+	{
+		long nanos = remainingNanos[color - 1];
+		if (running == color)
+			nanos -= System.nanoTime() - turnStartNanos;
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(nanos));
+	}
+	
+	/**
+	 * @return color of the player whose clock runs, EMPTY if stopped
+	 */
+	public synchronized int getRunningColor()
+	{
+		return running;
+	}
+	
+	/**
+	 * @return color of the player who ran out of time, EMPTY if none
+	 */
+	public int getFlagged()
+	{
+		return flagged;
+	}
+	
+	private void startTurn(int color, long now)
+	{
+		running = color;
+		turnStartNanos = now;
+		timeout = wheel.schedule(() -> expire(color), remainingNanos[color - 1], TimeUnit.NANOSECONDS);
+	}
+	
+	private void pause(long now)
+	{
+		cancelTimeout();
+		if (running != Connect4Model.EMPTY)
+			remainingNanos[running - 1] -= now - turnStartNanos;
+		running = Connect4Model.EMPTY;
+	}
+	
+	private void cancelTimeout()
+	{
+		if (timeout != null)
+			timeout.cancel();
+		timeout = null;
+	}
+	
+	/**
+	 * Timer task. Ignored if the player moved in the meantime.
+	 */
+	private void expire(int color)
+	{
+		synchronized (this)
+		{
+			if (running != color || flagged != Connect4Model.EMPTY 
+					|| remainingNanos[color - 1] > System.nanoTime() - turnStartNanos)
+				return;
+			remainingNanos[color - 1] = 0;
+			running = Connect4Model.EMPTY;
+			timeout = null;
+			flagged = color;
+		}
+		flagListener.accept(color);
+	}
+	
+	/**
+	 * Flags the mover from inside moveMade; the listener runs on the timer
+	 * thread like every other flag.
+	 */
+	private void flag(int color)
+	{
+		remainingNanos[color - 1] = 0;
+		running = Connect4Model.EMPTY;
+		flagged = color;
+		wheel.schedule(() -> flagListener.accept(color), 0, TimeUnit.NANOSECONDS);
+	}
+	
+	private static int other(int color)
+	{
+		return color == Connect4MoveMessage.YELLOW ? Connect4MoveMessage.RED : Connect4MoveMessage.YELLOW;
+	}
+}
@@ -0,0 +1,161 @@
+package connect4;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * The dimensions of a board and the number in a row needed to win.
+ * 
+ * <p>{@link #STANDARD} is the classic 6x7 connect-4 game. Larger variants
+ * such as 8x9 connect-5 are played with the same classes; the server of a
+ * network game sends its configuration to the client when they connect.</p>
+ * 
+ * <p>A configuration may also carry a {@link Connect4TimeControl} for both
+ * players; without one the game is untimed.</p>
+ * 
+ * <p>A deserialized configuration is checked like a constructed one, as it
+ * may come from the other end of a network game.</p>
+ *
+ */
+public final class Connect4GameConfig implements Serializable 
+{
+	private static final long serialVersionUID = 1L;
+	
+	public static final int MIN_SIZE = 4;
+	public static final int MAX_SIZE = 16;
+	public static final int MIN_CONNECT = 3;
+	
+	public static final Connect4GameConfig STANDARD = 
+			new Connect4GameConfig(Connect4Model.ROWS, Connect4Model.COLUMNS, 4);
+	
+	private final int rows;
+	private final int columns;
+	private final int connect;
+	private final Connect4TimeControl timeControl; // null if untimed
+	
+	/**
+	 * Connect4GameConfig Constructor.
+	 * @param rows number of rows, {@value #MIN_SIZE} to {@value #MAX_SIZE}
+	 * @param columns number of columns, {@value #MIN_SIZE} to {@value #MAX_SIZE}
+	 * @param connect discs in a row needed to win, at least 
+	 *        {@value #MIN_CONNECT} and no more than rows or columns
+	 * @throws IllegalArgumentException if the values are out of range
+	 */
+	public Connect4GameConfig(int rows, int columns, int connect)
+	{
+		this(rows, columns, connect, null);
+	}
+	
+	/**
+	 * Connect4GameConfig Constructor for a timed game.
+	 * @param rows number of rows, {@value #MIN_SIZE} to {@value #MAX_SIZE}
+	 * @param columns number of columns, {@value #MIN_SIZE} to {@value #MAX_SIZE}
+	 * @param connect discs in a row needed to win
+	 * @param timeControl time control of both players, or null if untimed
+	 * @throws IllegalArgumentException if the values are out of range
+	 */
+	public Connect4GameConfig(int rows, int columns, int connect, Connect4TimeControl timeControl)
+	{
+		if (rows < MIN_SIZE || rows > MAX_SIZE || columns < MIN_SIZE || columns > MAX_SIZE)
+			throw new IllegalArgumentException("Board must be between " + MIN_SIZE + " and " 
+					+ MAX_SIZE + " rows and columns.");
+		if (connect < MIN_CONNECT || connect > Math.max(rows, columns))
+			throw new IllegalArgumentException("Cannot connect " + connect + " on a " 
+					+ rows + "x" + columns + " board.");
+		this.rows = rows;
+		this.columns = columns;
+		this.connect = connect;
+		this.timeControl = timeControl;
+	}
+	
+	public int getRows() { return rows; }
+	public int getColumns() { return columns; }
+	public int getConnect() { return connect; }
+	
+	/**
+	 * @return time control of both players, null if untimed
+	 */
+	public Connect4TimeControl getTimeControl()
+	{
+		return timeControl;
+	}
+	
+	/**
+	 * Gets the same board with a different time control.
+	 * @param timeControl time control, or null if untimed
+	 * @return configuration
+	 */
+	public Connect4GameConfig withTimeControl(Connect4TimeControl timeControl)
+	{
+		return new Connect4GameConfig(rows, columns, connect, timeControl);
+	}
+	
+	/**
+	 * @return number of cells on the board
+	 */
+	public int getCells()
+	{
+		return rows * columns;
+	}
+	
+	/**
+	 * @return true for the standard 6x7 connect-4 board, timed or not
+	 */
+	public boolean isStandard()
+	{
+		return sameBoard(STANDARD);
+	}
+	
+	/**
+	 * Compares board size and N, ignoring the time control.
+	 * @param other configuration to compare
+	 * @return true if both are played on the same board
+	 */
+	public boolean sameBoard(Connect4GameConfig other)
+	{
+		return rows == other.rows && columns == other.columns && connect == other.connect;
+	}
+	
+	@Override
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof Connect4GameConfig))
+			return false;
+		Connect4GameConfig other = (Connect4GameConfig) o;
+		return sameBoard(other) && Objects.equals(timeControl, other.timeControl);
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return ((rows * 31 + columns) * 31 + connect) * 31 + Objects.hashCode(timeControl);
+	}
+	
+	/**
+	 * Runs the constructor's checks on a deserialized configuration, which
+	 * would otherwise size arrays and win checks from unchecked fields.
+	 * @return the checked configuration
+	 * @throws InvalidObjectException if the values are out of range
+	 */
+	private Object readResolve() throws ObjectStreamException
+	{
+		try
+		{
+			Connect4TimeControl checked = timeControl == null ? null 
+					: new Connect4TimeControl(timeControl.getBaseMillis(), timeControl.getIncrementMillis());
+			return new Connect4GameConfig(rows, columns, connect, checked);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new InvalidObjectException(e.getMessage());
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		return rows + "x" + columns + " connect " + connect + (timeControl == null ? "" : " " + timeControl);
+	}
+}
@@ -0,0 +1,360 @@
+package connect4;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Holds a large number of games in one JVM with a small, fixed footprint per
+ * game.
+ * 
+ * <p>Instead of a {@link Connect4Controller} and {@link Connect4Model} per
+ * game, every game lives in one slot of a set of parallel primitive arrays:
+ * a bitboard per color, the move list packed three bits per move into two
+ * <code>long</code>s, the move count and a status byte. Session IDs are
+ * mapped to slots by a {@link Connect4LongIntMap}, and freed slots are reused,
+ * so the host allocates only when it grows.</p>
+ * 
+ * <p>A slot costs {@value #SLOT_BYTES} bytes and the ID map 24 to 48 more,
+ * depending on its load; {@link #main(String[])} measures the real heap 
+ * cost.</p>
+ * 
+ * <p>Not thread-safe: a host is driven by one thread, for example the task
+ * of a {@link Connect4GameSession} that owns a shard of games.</p>
+ *
+ */
+public class Connect4GameHost 
+{
+	/** result of {@link #play(long, int)} */
+	public static final int PLAYED = 0, NO_SUCH_GAME = 1, COLUMN_FULL = 2, GAME_OVER = 3, BAD_COLUMN = 4;
+	
+	static final int SLOT_BYTES = 8 + 8 + 8 + 8 + 1 + 1 + 4;
+	static final int GAME_RECORD_BYTES = 8 + 8 + 8 + 1;
+	private static final int BITS_PER_MOVE = 3;
+	private static final int MOVES_PER_WORD = 21;
+	private static final byte ACTIVE = 4; // status bit; the low bits hold the winner
+	
+	private long[] yellow;
+	private long[] red;
+	private long[] movesLow;   // moves 0-20
+	private long[] movesHigh;  // moves 21-41
+	private byte[] moveCount;
+	private byte[] status;
+	private int[] freeSlots;   // stack of released slots
+	private int freeCount;
+	private int usedSlots;     // slots ever handed out
+	
+	private final Connect4LongIntMap slotsById;
+	private long nextId;
+	private Connect4HostCheckpoint checkpoint; // null if not checkpointed
+	
+	/**
+	 * Connect4GameHost Constructor.
+	 * @param expectedGames number of games to size the arrays for
+	 */
+	public Connect4GameHost(int expectedGames)
+	{
+		int capacity = Math.max(16, expectedGames);
+		yellow = new long[capacity];
+		red = new long[capacity];
+		movesLow = new long[capacity];
+		movesHigh = new long[capacity];
+		moveCount = new byte[capacity];
+		status = new byte[capacity];
+		freeSlots = new int[capacity];
+		slotsById = new Connect4LongIntMap(capacity);
+	}
+	
+	/**
+	 * Creates a new game with an empty board.
+	 * @return session ID
+	 */
+	public long createGame()
+	{
+		int slot;
+		if (freeCount > 0)
+			slot = freeSlots[--freeCount];
+		else
+		{
+			if (usedSlots == yellow.length)
+				grow();
+			slot = usedSlots++;
+		}
+		yellow[slot] = 0;
+		red[slot] = 0;
+		movesLow[slot] = 0;
+		movesHigh[slot] = 0;
+		moveCount[slot] = 0;
+		status[slot] = ACTIVE;
+		
+		long id = ++nextId;
+		slotsById.put(id, slot);
+		if (checkpoint != null)
+			checkpoint.created(id);
+		return id;
+	}
+	
+	/**
+	 * Removes a game and frees its slot.
+	 * @param id session ID
+	 * @return true if the game existed
+	 */
+	public boolean removeGame(long id)
+	{
+		int slot = slotsById.remove(id);
+		if (slot == Connect4LongIntMap.MISSING)
+			return false;
+		status[slot] = 0;
+		freeSlots[freeCount++] = slot;
+		if (checkpoint != null)
+			checkpoint.removed(id);
+		return true;
+	}
+	
+	/**
+	 * Plays a disc for the player to move, yellow first.
+	 * @param id session ID
+	 * @param col column index
+	 * @return {@link #PLAYED}, {@link #NO_SUCH_GAME}, {@link #BAD_COLUMN}, 
+	 *         {@link #COLUMN_FULL} or {@link #GAME_OVER}
+	 */
+	public int play(long id, int col)
+	{
+		int slot = slotsById.get(id);
+		if (slot == Connect4LongIntMap.MISSING)
+			return NO_SUCH_GAME;
+		// outside the board the masks would set bits of another column, and
+		// the move would not fit its three bits
+		if (col < 0 || col >= Connect4Model.COLUMNS)
+			return BAD_COLUMN;
+		if (status[slot] != ACTIVE || moveCount[slot] == Connect4Model.ROWS * Connect4Model.COLUMNS)
+			return GAME_OVER;
+		long occupied = yellow[slot] | red[slot];
+		if ((occupied & Connect4Bitboard.topMask(col)) != 0)
+			return COLUMN_FULL;
+		
+		long bit = (occupied + Connect4Bitboard.bottomMask(col)) & Connect4Bitboard.columnMask(col);
+		int n = moveCount[slot];
+		boolean yellowMoves = (n & 1) == 0;
+		if (yellowMoves)
+			yellow[slot] |= bit;
+		else
+			red[slot] |= bit;
+		
+		long packed = (long) col << (BITS_PER_MOVE * (n % MOVES_PER_WORD));
+		if (n < MOVES_PER_WORD)
+			movesLow[slot] |= packed;
+		else
+			movesHigh[slot] |= packed;
+		moveCount[slot] = (byte) (n + 1);
+		
+		if (Connect4Bitboard.hasFour(yellowMoves ? yellow[slot] : red[slot]))
+			status[slot] = (byte) (yellowMoves ? Connect4MoveMessage.YELLOW : Connect4MoveMessage.RED);
+		if (checkpoint != null)
+			checkpoint.played(id, col);
+		return PLAYED;
+	}
+	
+	/**
+	 * Checks whether a game exists.
+	 * @param id session ID
+	 * @return true if hosted
+	 */
+	public boolean contains(long id)
+	{
+		return slotsById.get(id) != Connect4LongIntMap.MISSING;
+	}
+	
+	/**
+	 * Gets the number of moves played in a game.
+	 * @param id session ID
+	 * @return move count, -1 if there is no such game
+	 */
+	public int getMoveCount(long id)
+	{
+		int slot = slotsById.get(id);
+		return slot == Connect4LongIntMap.MISSING ? -1 : moveCount[slot];
+	}
+	
+	/**
+	 * Gets the column of the i-th move of a game.
+	 * @param id session ID, which must exist
+	 * @param i move index
+	 * @return column index
+	 */
+	public int getMove(long id, int i)
+	{
+		int slot = slotsById.get(id);
+		long word = i < MOVES_PER_WORD ? movesLow[slot] : movesHigh[slot];
+		return (int) (word >>> (BITS_PER_MOVE * (i % MOVES_PER_WORD))) & 7;
+	}
+	
+	/**
+	 * Gets the winner of a game.
+	 * @param id session ID, which must exist
+	 * @return winning color, EMPTY if none yet
+	 */
+	public int getWinner(long id)
+	{
+		int s = status[slotsById.get(id)];
+		return s == ACTIVE ? Connect4Model.EMPTY : s;
+	}
+	
+	/**
+	 * Gets an immutable snapshot of a game's board.
+	 * @param id session ID
+	 * @return snapshot, null if there is no such game
+	 */
+	public Connect4Snapshot getSnapshot(long id)
+	{
+		int slot = slotsById.get(id);
+		if (slot == Connect4LongIntMap.MISSING)
+			return null;
+		return new Connect4Snapshot(yellow[slot], red[slot], moveCount[slot]);
+	}
+	
+	/**
+	 * Attaches or detaches the checkpoint that records every change. Called
+	 * by {@link Connect4HostCheckpoint}.
+	 */
+	void setCheckpoint(Connect4HostCheckpoint checkpoint)
+	{
+		this.checkpoint = checkpoint;
+	}
+	
+	/**
+	 * Writes every hosted game as its ID, packed move list and move count,
+	 * {@value #GAME_RECORD_BYTES} bytes each, for a checkpoint.
+	 * @param out buffer with room for {@link #size()} games
+	 */
+	void writeGames(ByteBuffer out)
+	{
+		for (int i = 0; i < slotsById.tableLength(); i++)
+		{
+			long id = slotsById.keyAt(i);
+			if (id == 0)
+				continue;
+			int slot = slotsById.valueAt(i);
+			out.putLong(id);
+			out.putLong(movesLow[slot]);
+			out.putLong(movesHigh[slot]);
+			out.put(moveCount[slot]);
+		}
+	}
+	
+	/**
+	 * Re-creates a game from a checkpoint by replaying its moves.
+	 * @param id session ID, which must not be hosted
+	 * @param low packed moves 0-20
+	 * @param high packed moves 21-41
+	 * @param count number of moves
+	 * @return true if every move replayed, false if the record is corrupt
+	 */
+	boolean restoreGame(long id, long low, long high, int count)
+	{
+		if (id <= 0 || contains(id) || count < 0 || count > Connect4Model.ROWS * Connect4Model.COLUMNS)
+			return false;
+		long saved = nextId;
+		nextId = id - 1;
+		createGame();
+		nextId = Math.max(saved, id);
+		for (int i = 0; i < count; i++)
+		{
+			long word = i < MOVES_PER_WORD ? low : high;
+			int col = (int) (word >>> (BITS_PER_MOVE * (i % MOVES_PER_WORD))) & 7;
+			if (col >= Connect4Model.COLUMNS || play(id, col) != PLAYED)
+			{
+				removeGame(id);
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	long getLastId() { return nextId; }
+	
+	void setLastId(long id) { nextId = Math.max(nextId, id); }
+	
+	/**
+	 * @return number of hosted games
+	 */
+	public int size()
+	{
+		return slotsById.size();
+	}
+	
+	/**
+	 * Gets the bytes held by the host's arrays and ID map, per hosted game.
+	 * Counts allocated capacity, so it includes headroom from growth.
+	 * @return bytes per game
+	 */
+	public double bytesPerGame()
+	{
+		long bytes = (long) yellow.length * SLOT_BYTES + slotsById.tableBytes();
+		return size() == 0 ? 0.0 : (double) bytes / size();
+	}
+	
+	private void grow()
+	{
+		int capacity = yellow.length * 2;
+		yellow = Arrays.copyOf(yellow, capacity);
+		red = Arrays.copyOf(red, capacity);
+		movesLow = Arrays.copyOf(movesLow, capacity);
+		movesHigh = Arrays.copyOf(movesHigh, capacity);
+		moveCount = Arrays.copyOf(moveCount, capacity);
+		status = Arrays.copyOf(status, capacity);
+		freeSlots = Arrays.copyOf(freeSlots, capacity);
+	}
+	
+	/**
+	 * Measures heap used per game for a range of game counts, each game 
+	 * played ten random moves in, and compares with one 
+	 * {@link Connect4Controller} per game.
+	 * @param args optional largest game count, default 1,000,000
+	 */
+	public static void main(String[] args)
+	{
+		int largest = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		Random random = new Random(1);
+		System.out.println("games    host bytes/game (heap)  host bytes/game (arrays)");
+		for (int games = 1000; games <= largest; games *= 10)
+		{
+			long before = usedHeap();
+			Connect4GameHost host = new Connect4GameHost(16);
+			for (int g = 0; g < games; g++)
+			{
+				long id = host.createGame();
+				for (int m = 0; m < 10; m++)
+					host.play(id, random.nextInt(Connect4Bitboard.WIDTH));
+			}
+			long after = usedHeap();
+			System.out.printf("%-8d %-23.1f %.1f%n", games, (double) (after - before) / games, 
+					host.bytesPerGame());
+			if (host.size() != games)
+				throw new IllegalStateException();
+		}
+		
+		int controllers = Math.min(largest, 100_000);
+		long before = usedHeap();
+		Connect4Controller[] games = new Connect4Controller[controllers];
+		for (int g = 0; g < controllers; g++)
+		{
+			games[g] = new Connect4Controller(Runnable::run);
+			for (int m = 0; m < 10; m++)
+				games[g].humanTurn(m % 2 + 1, random.nextInt(Connect4Bitboard.WIDTH));
+		}
+		long after = usedHeap();
+		System.out.printf("controller per game, %d games: %.1f bytes/game%n", controllers,
+				(double) (after - before) / controllers);
+		if (games[controllers - 1] == null)
+			throw new IllegalStateException();
+	}
+	
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
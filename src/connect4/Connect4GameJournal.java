@@ -0,0 +1,350 @@
+package connect4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of finished games, stored as a series of fixed-size
+ * memory-mapped segment files.
+ * 
+ * <p>{@link #append(Connect4GameRecord)} only places the record on a queue;
+ * a single writer thread copies queued records into the current segment and
+ * forces the segment to disk once per batch, so every game waiting at that
+ * moment shares one flush (group commit).</p>
+ * 
+ * <p>Each entry is laid out as:</p>
+ * <pre>
+ *   int  length      payload length in bytes, never 0
+ *   long startMillis
+ *   long endMillis
+ *   byte winner      winner color, plus TIME_LOSS if the loser ran out of time
+ *   byte moveCount
+ *   byte[] moves     two columns per byte, see {@link Connect4GameRecord}
+ *   int  crc32       over the payload
+ * </pre>
+ * <p>Segments are zero-filled when created, so a length of 0 marks the end
+ * of the written data. On {@link #open()} the newest segment is scanned and
+ * anything after the last entry with a valid checksum (a torn write from a
+ * crash) is zeroed before appending resumes.</p>
+ * 
+ * <p>Errors are reported like {@link Connect4Network}, through a status
+ * result and {@link #getErrorMessage()}.</p>
+ *
+ */
+public class Connect4GameJournal 
+{
+	public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+	static final String SEGMENT_PREFIX = "journal-";
+	static final String SEGMENT_SUFFIX = ".log";
+	static final int HEADER_BYTES = 4;
+	static final int FIXED_PAYLOAD_BYTES = 8 + 8 + 1 + 1;
+	static final int CRC_BYTES = 4;
+	static final int TIME_LOSS = 0x40; // flag in the winner byte
+	
+	private static final int QUEUE_CAPACITY = 8192;
+	private static final long POLL_MILLIS = 50;
+	
+	private final Path directory;
+	private final int segmentBytes;
+	private final BlockingQueue<Connect4GameRecord> queue;
+	private final CRC32 crc; // writer thread only
+	
+	private FileChannel channel;
+	private MappedByteBuffer segment;
+	private int segmentIndex;
+	private Thread writer;
+	private volatile boolean closed;
+	private volatile boolean writeFailed;
+	private long lostGames; // writer thread only
+	private volatile String errorMessage;
+	
+	/**
+	 * Connect4GameJournal Constructor.
+	 * @param directory directory holding the segment files
+	 * @param segmentBytes size of each segment file
+	 */
+	public Connect4GameJournal(Path directory, int segmentBytes)
+	{
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		this.queue = new ArrayBlockingQueue<Connect4GameRecord>(QUEUE_CAPACITY);
+		this.crc = new CRC32();
+		this.errorMessage = "No error occurred.";
+	}
+	
+	/**
+	 * Opens the newest segment (recovering its tail) or creates the first
+	 * one, then starts the writer thread.
+	 * @return true if no error occurred, false otherwise
+	 */
+	public boolean open()
+	{
+		try
+		{
+			Files.createDirectories(directory);
+			List<Path> segments = listSegments(directory);
+			if (segments.isEmpty())
+			{
+				mapSegment(0);
+			}
+			else
+			{
+				Path last = segments.get(segments.size() - 1);
+				mapSegment(segmentIndexOf(last));
+				segment.position(recover(segment));
+			}
+		}
+		catch (IOException e)
+		{
+			errorMessage = "IOException occurred while opening journal.";
+			return false;
+		}
+		writer = new Thread(this::writeLoop, "connect4-journal-writer");
+		writer.setDaemon(true);
+		writer.start();
+		return true;
+	}
+	
+	/**
+	 * Queues a finished game to be written. Returns immediately unless the
+	 * writer has fallen a full queue behind, in which case the caller waits
+	 * for space rather than the game being lost.
+	 * @param record game to journal
+	 * @return true if queued, false if the journal is closed
+	 */
+	public boolean append(Connect4GameRecord record)
+	{
+		if (closed)
+			return false;
+		try
+		{
+			queue.put(record);
+			return true;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/**
+	 * Writes everything still queued, forces it to disk and stops the writer.
+	 * @return true if no error occurred, false otherwise, including a batch
+	 *         the writer failed to write earlier
+	 */
+	public boolean close()
+	{
+		closed = true;
+		if (writer != null)
+		{
+			try
+			{
+				writer.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		try
+		{
+			if (channel != null)
+				channel.close();
+		}
+		catch (IOException e)
+		{
+			errorMessage = "IOException occurred while closing journal.";
+			return false;
+		}
+		return !writeFailed;
+	}
+	
+	/**
+	 * Gets the message associated with the last journal error.
+	 * @return error message
+	 */
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+	
+	/**
+	 * Takes batches off the queue, appends them and forces once per batch.
+	 */
+	private void writeLoop()
+	{
+		List<Connect4GameRecord> batch = new ArrayList<Connect4GameRecord>();
+		while (!closed || !queue.isEmpty())
+		{
+			try
+			{
+				// poll rather than take so close() never has to interrupt a
+				// thread that may be mapping a segment
+				Connect4GameRecord first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (first != null)
+					batch.add(first);
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			queue.drainTo(batch);
+			if (batch.isEmpty())
+				continue;
+			try
+			{
+				for (Connect4GameRecord record : batch)
+				{
+					write(record);
+				}
+				segment.force();
+			}
+			catch (IOException e)
+			{
+				// the whole batch may be lost, as it was not forced
+				lostGames += batch.size();
+				errorMessage = "IOException occurred while writing journal; up to " + lostGames 
+						+ " games were not written.";
+				writeFailed = true;
+			}
+			batch.clear();
+		}
+	}
+	
+	/**
+	 * Encodes one entry into the current segment, rolling to a new segment
+	 * when it does not fit.
+	 */
+	private void write(Connect4GameRecord record) throws IOException
+	{
+		int packedLength = Connect4GameRecord.packedLength(record.getMoveCount());
+		int payload = FIXED_PAYLOAD_BYTES + packedLength;
+		// keep room for a zero length terminator after the entry
+		if (segment.remaining() < HEADER_BYTES + payload + CRC_BYTES + HEADER_BYTES)
+		{
+			segment.force();
+			channel.close();
+			mapSegment(segmentIndex + 1);
+		}
+		
+		int start = segment.position();
+		segment.putInt(payload);
+		segment.putLong(record.getStartMillis());
+		segment.putLong(record.getEndMillis());
+		segment.put((byte) (record.getWinner() | (record.isTimeLoss() ? TIME_LOSS : 0)));
+		segment.put((byte) record.getMoveCount());
+		segment.put(record.getPackedMoves(), 0, packedLength);
+		
+		crc.reset();
+		crc.update(segment.duplicate().position(start + HEADER_BYTES).limit(start + HEADER_BYTES + payload));
+		segment.putInt((int) crc.getValue());
+	}
+	
+	private void mapSegment(int index) throws IOException
+	{
+		segmentIndex = index;
+		channel = FileChannel.open(segmentPath(directory, index), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+	}
+	
+	/**
+	 * Finds the end of the valid entries in a segment and zeroes anything
+	 * after it.
+	 * @param buffer mapped segment, positioned at 0
+	 * @return offset to resume appending at
+	 */
+	static int recover(MappedByteBuffer buffer)
+	{
+		int end = scanValid(buffer, new CRC32());
+		// a crash can leave a torn entry, and later entries of the same batch,
+		// after the valid ones; zero everything up to the last non-zero byte
+		int highWater = buffer.limit();
+		while (highWater > end && buffer.get(highWater - 1) == 0)
+		{
+			highWater--;
+		}
+		for (int i = end; i < highWater; i++)
+		{
+			buffer.put(i, (byte) 0);
+		}
+		buffer.force();
+		return end;
+	}
+	
+	/**
+	 * Walks entries from the start of a segment, checking lengths and
+	 * checksums.
+	 * @param buffer segment contents
+	 * @param crc scratch checksum
+	 * @return offset just past the last valid entry
+	 */
+	static int scanValid(ByteBuffer buffer, CRC32 crc)
+	{
+		int position = 0;
+		int limit = buffer.limit();
+		while (position + HEADER_BYTES <= limit)
+		{
+			int payload = buffer.getInt(position);
+			if (payload < FIXED_PAYLOAD_BYTES || position + HEADER_BYTES + payload + CRC_BYTES > limit)
+				break;
+			int moveCount = buffer.get(position + HEADER_BYTES + FIXED_PAYLOAD_BYTES - 1) & 0xFF;
+			if (payload != FIXED_PAYLOAD_BYTES + Connect4GameRecord.packedLength(moveCount))
+				break;
+			crc.reset();
+			crc.update(buffer.duplicate().position(position + HEADER_BYTES)
+					.limit(position + HEADER_BYTES + payload));
+			if ((int) crc.getValue() != buffer.getInt(position + HEADER_BYTES + payload))
+				break;
+			position += HEADER_BYTES + payload + CRC_BYTES;
+		}
+		return position;
+	}
+	
+	/**
+	 * Lists the segment files in a journal directory, oldest first.
+	 * @param directory journal directory
+	 * @return segment paths
+	 * @throws IOException if the directory cannot be read
+	 */
+	static List<Path> listSegments(Path directory) throws IOException
+	{
+		List<Path> segments = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, 
+				SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX))
+		{
+			for (Path p : stream)
+			{
+				segments.add(p);
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+	
+	static Path segmentPath(Path directory, int index)
+	{
+		return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+	}
+	
+	private static int segmentIndexOf(Path segment)
+	{
+		String name = segment.getFileName().toString();
+		return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), 
+				name.length() - SEGMENT_SUFFIX.length()));
+	}
+}
@@ -0,0 +1,37 @@
+package connect4;
+
+/**
+ * Receives changes to a {@link Connect4Model} through its 
+ * {@link Connect4EventBus}.
+ * 
+ * <p>Events carry only primitives, so dispatching them allocates nothing.
+ * Listeners are called on the thread that changed the model, or on the
+ * thread that calls {@link Connect4EventBus#flush()} when batching is on.</p>
+ *
+ */
+public interface Connect4GameListener 
+{
+	/**
+	 * A disc was placed.
+	 * @param row row index, 0 at the top
+	 * @param col column index
+	 * @param color color of the disc
+	 */
+	void moveMade(int row, int col, int color);
+	
+	/**
+	 * A player made four in a row. Follows the {@link #moveMade} event of the
+	 * winning disc.
+	 * @param color winning color
+	 */
+	default void gameWon(int color)
+	{
+	}
+	
+	/**
+	 * The board was cleared for a new game.
+	 */
+	default void gameReset()
+	{
+	}
+}
@@ -0,0 +1,124 @@
+package connect4;
+
+/**
+ * An immutable record of one finished game: the columns played in order, the
+ * winner, whether the loser ran out of time, and the wall-clock start and end
+ * times.
+ * 
+ * <p>Moves are stored packed two to a byte, one column index per nibble, so a
+ * full 6x7 game takes 21 bytes. This is also the layout written by
+ * {@link Connect4GameJournal}.</p>
+ *
+ */
+public final class Connect4GameRecord 
+{
+	private final byte[] packedMoves;
+	private final int moveCount;
+	private final int winner;
+	private final boolean timeLoss;
+	private final long startMillis;
+	private final long endMillis;
+	
+	/**
+	 * Connect4GameRecord Constructor.
+	 * @param packedMoves columns played, packed two per byte (low nibble first)
+	 * @param moveCount number of moves in the game
+	 * @param winner winning color, EMPTY for a draw
+	 * @param startMillis time of the first move
+	 * @param endMillis time of the last move
+	 */
+	public Connect4GameRecord(byte[] packedMoves, int moveCount, int winner, 
+			long startMillis, long endMillis)
+	{
+		this(packedMoves, moveCount, winner, false, startMillis, endMillis);
+	}
+	
+	/**
+	 * Connect4GameRecord Constructor.
+	 * @param packedMoves columns played, packed two per byte (low nibble first)
+	 * @param moveCount number of moves in the game
+	 * @param winner winning color, EMPTY for a draw
+	 * @param timeLoss true if the game ended with the loser out of time
+	 *                 rather than on the board
+	 * @param startMillis time of the first move
+	 * @param endMillis time of the last move
+	 */
+	public Connect4GameRecord(byte[] packedMoves, int moveCount, int winner, boolean timeLoss,
+			long startMillis, long endMillis)
+	{
+		this.packedMoves = packedMoves;
+		this.moveCount = moveCount;
+		this.winner = winner;
+		this.timeLoss = timeLoss;
+		this.startMillis = startMillis;
+		this.endMillis = endMillis;
+	}
+	
+	/**
+	 * Builds a record from unpacked column indices.
+	 * @param columns columns played, one per move
+	 * @param moveCount number of moves used from columns
+	 * @param winner winning color, EMPTY for a draw
+	 * @param startMillis time of the first move
+	 * @param endMillis time of the last move
+	 * @return record
+	 */
+	public static Connect4GameRecord fromColumns(int[] columns, int moveCount, int winner,
+			long startMillis, long endMillis)
+	{
+		return fromColumns(columns, moveCount, winner, false, startMillis, endMillis);
+	}
+	
+	/**
+	 * Builds a record from unpacked column indices.
+	 * @param columns columns played, one per move
+	 * @param moveCount number of moves used from columns
+	 * @param winner winning color, EMPTY for a draw
+	 * @param timeLoss true if the loser ran out of time
+	 * @param startMillis time of the first move
+	 * @param endMillis time of the last move
+	 * @return record
+	 */
+	public static Connect4GameRecord fromColumns(int[] columns, int moveCount, int winner,
+			boolean timeLoss, long startMillis, long endMillis)
+	{
+		byte[] packed = new byte[packedLength(moveCount)];
+		for (int i = 0; i < moveCount; i++)
+		{
+			packed[i >> 1] |= (byte) ((columns[i] & 0xF) << ((i & 1) << 2));
+		}
+		return new Connect4GameRecord(packed, moveCount, winner, timeLoss, startMillis, endMillis);
+	}
+	
+	/**
+	 * Number of bytes needed to pack the given number of moves.
+	 * @param moveCount number of moves
+	 * @return packed length
+	 */
+	public static int packedLength(int moveCount)
+	{
+		return (moveCount + 1) >> 1;
+	}
+	
+	/**
+	 * Gets the column of the i-th move.
+	 * @param i move index, starting at 0
+	 * @return column index
+	 */
+	public int getMove(int i)
+	{
+		return (packedMoves[i >> 1] >> ((i & 1) << 2)) & 0xF;
+	}
+	
+	public int getMoveCount() { return moveCount; }
+	public int getWinner() { return winner; }
+	public boolean isTimeLoss() { return timeLoss; }
+	public long getStartMillis() { return startMillis; }
+	public long getEndMillis() { return endMillis; }
+	
+	/**
+	 * Gets the packed move bytes. The array is shared, not copied.
+	 * @return packed moves
+	 */
+	byte[] getPackedMoves() { return packedMoves; }
+}
@@ -0,0 +1,225 @@
+package connect4;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A game whose state is owned by a single writer: an actor that applies
+ * commands one at a time and publishes an immutable {@link Connect4Snapshot}
+ * after each.
+ * 
+ * <p>Any thread may submit commands; they are placed on a lock-free 
+ * {@link Connect4MpscQueue} and applied in arrival order. The session runs on
+ * a shared {@link Executor} rather than a thread of its own: the first
+ * command to arrive at an idle session schedules a drain task, and an
+ * atomic flag guarantees at most one drain task runs at a time. All board
+ * state is only touched from inside that task, so it needs no locks.</p>
+ * 
+ * <p>Readers such as renderers, spectators and metrics call 
+ * {@link #getSnapshot()}, a single volatile read, and always see a complete
+ * position. Snapshot listeners are called on the session's drain task after
+ * every applied move.</p>
+ * 
+ * <p>Moves are validated against the session's own state: the color must be
+ * the one to move (yellow first), the column must have room and the game
+ * must not be over. Rejected moves leave the state unchanged and are
+ * counted.</p>
+ *
+ */
+public class Connect4GameSession 
+{
+	private static final int PLAY = 0;
+	private static final int RESET = 1;
+	private static final int SYNC = 2;
+	
+	private final long id;
+	private final Executor executor;
+	private final Connect4MpscQueue<Command> commands;
+	private final AtomicBoolean scheduled;
+	private final CopyOnWriteArrayList<Consumer<Connect4Snapshot>> listeners;
+	private volatile Connect4Snapshot snapshot;
+	private volatile long rejectedMoves;
+	
+	// owned by the drain task
+	private long yellow;
+	private long red;
+	private int moves;
+	private int winner;
+	
+	/**
+	 * Connect4GameSession Constructor.
+	 * @param id session ID
+	 * @param executor executor the session's commands are applied on
+	 */
+	public Connect4GameSession(long id, Executor executor)
+	{
+		this.id = id;
+		this.executor = executor;
+		this.commands = new Connect4MpscQueue<Command>();
+		this.scheduled = new AtomicBoolean();
+		this.listeners = new CopyOnWriteArrayList<Consumer<Connect4Snapshot>>();
+		this.snapshot = Connect4Snapshot.EMPTY;
+		Connect4Telemetry.session(id, "started", 0, Connect4Model.EMPTY);
+	}
+	
+	public long getId() { return id; }
+	
+	/**
+	 * Gets the latest published state. Safe from any thread.
+	 * @return snapshot
+	 */
+	public Connect4Snapshot getSnapshot()
+	{
+		return snapshot;
+	}
+	
+	/**
+	 * Gets the number of moves rejected as invalid so far.
+	 * @return rejected move count
+	 */
+	public long getRejectedMoves()
+	{
+		return rejectedMoves;
+	}
+	
+	/**
+	 * Adds a listener called with each new snapshot on the session's task.
+	 * @param listener listener
+	 */
+	public void addSnapshotListener(Consumer<Connect4Snapshot> listener)
+	{
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Submits a move. Returns immediately; the result is visible in a later
+	 * snapshot.
+	 * @param col column index
+	 * @param color color to play
+	 */
+	public void play(int col, int color)
+	{
+		submit(new Command(PLAY, col, color, null));
+	}
+	
+	/**
+	 * Submits a reset to the empty board.
+	 */
+	public void reset()
+	{
+		submit(new Command(RESET, 0, 0, null));
+	}
+	
+	/**
+	 * Gets a future completed with the snapshot once every command submitted
+	 * before this call has been applied.
+	 * @return future snapshot
+	 */
+	public CompletableFuture<Connect4Snapshot> sync()
+	{
+		CompletableFuture<Connect4Snapshot> done = new CompletableFuture<Connect4Snapshot>();
+		submit(new Command(SYNC, 0, 0, done));
+		return done;
+	}
+	
+	private void submit(Command command)
+	{
+		commands.offer(command);
+		if (scheduled.compareAndSet(false, true))
+			executor.execute(this::drain);
+	}
+	
+	/**
+	 * Applies queued commands. Only ever running once at a time per session.
+	 */
+	private void drain()
+	{
+		Command command;
+		while ((command = commands.poll()) != null)
+		{
+			apply(command);
+		}
+		scheduled.set(false);
+		// a producer may have offered after the last poll but lost the race
+		// to schedule; pick its command up now
+		if (!commands.isEmpty() && scheduled.compareAndSet(false, true))
+			executor.execute(this::drain);
+	}
+	
+	private void apply(Command command)
+	{
+		switch (command.type)
+		{
+			case PLAY:
+				if (!isValidMove(command.col, command.color))
+				{
+					rejectedMoves++;
+					return;
+				}
+				long occupied = yellow | red;
+				long bit = (occupied + Connect4Bitboard.bottomMask(command.col)) 
+						& Connect4Bitboard.columnMask(command.col);
+				if (command.color == Connect4MoveMessage.YELLOW)
+					yellow |= bit;
+				else
+					red |= bit;
+				moves++;
+				if (Connect4Bitboard.hasFour(command.color == Connect4MoveMessage.YELLOW ? yellow : red))
+					winner = command.color;
+				if (winner != Connect4Model.EMPTY || moves == Connect4Bitboard.WIDTH * Connect4Bitboard.HEIGHT)
+					Connect4Telemetry.session(id, "finished", moves, winner);
+				publish();
+				break;
+			case RESET:
+				yellow = 0;
+				red = 0;
+				moves = 0;
+				winner = Connect4Model.EMPTY;
+				Connect4Telemetry.session(id, "reset", 0, Connect4Model.EMPTY);
+				publish();
+				break;
+			case SYNC:
+				command.done.complete(snapshot);
+				break;
+		}
+	}
+	
+	private boolean isValidMove(int col, int color)
+	{
+		if (winner != Connect4Model.EMPTY || col < 0 || col >= Connect4Bitboard.WIDTH)
+			return false;
+		if (((yellow | red) & Connect4Bitboard.topMask(col)) != 0)
+			return false;
+		int toMove = (moves & 1) == 0 ? Connect4MoveMessage.YELLOW : Connect4MoveMessage.RED;
+		return color == toMove;
+	}
+	
+	private void publish()
+	{
+		Connect4Snapshot published = new Connect4Snapshot(yellow, red, moves);
+		snapshot = published;
+		for (Consumer<Connect4Snapshot> listener : listeners)
+		{
+			listener.accept(published);
+		}
+	}
+	
+	private static final class Command
+	{
+		final int type;
+		final int col;
+		final int color;
+		final CompletableFuture<Connect4Snapshot> done;
+		
+		Command(int type, int col, int color, CompletableFuture<Connect4Snapshot> done)
+		{
+			this.type = type;
+			this.col = col;
+			this.color = color;
+			this.done = done;
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package connect4;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A process-wide cache of search results, from a position to the best move
+ * and score found for it, shared by every computer player so a position
+ * reached in many games is searched once.
+ *
+ * <p>The cache holds a fixed number of entries split over independent
+ * stripes, each with its own lock, so players touching different positions
+ * rarely wait for each other. A stripe finds entries through a
+ * {@link Connect4LongIntMap} and, once full, makes room by the CLOCK rule:
+ * a hand sweeps the entries, clearing the referenced mark of each one used
+ * since the last sweep and evicting the first one that was not. That
+ * approximates least-recently-used eviction without reordering anything on
+ * a hit.</p>
+ *
+ * <p>Positions are told apart by {@link Connect4Board#hash()} together with
+ * the board configuration. A hint records the depth it was searched to, is
+ * only returned to callers asking for that depth or less, and is only
+ * replaced by a search at least as deep.</p>
+ *
+ */
+public final class Connect4HintCache
+{
+	public static final long MISS = -1; // no entry holds all bits set
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	public static final int DEFAULT_STRIPES = 16;
+
+	private final Stripe[] stripes;
+	private final int stripeShift; // 64 minus log2 of the stripe count
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder evictions;
+
+	/**
+	 * Holds the cache shared by the whole process, created on first use.
+	 */
+	private static final class Shared
+	{
+		static final Connect4HintCache CACHE = new Connect4HintCache(DEFAULT_CAPACITY, DEFAULT_STRIPES);
+	}
+
+	/**
+	 * Gets the cache shared by the whole process.
+	 * @return shared cache
+	 */
+	public static Connect4HintCache shared()
+	{
+		return Shared.CACHE;
+	}
+
+	/**
+	 * Connect4HintCache Constructor.
+	 * @param capacity most entries held
+	 * @param stripes number of independently locked stripes, rounded up to a
+	 *        power of two
+	 */
+	public Connect4HintCache(int capacity, int stripes)
+	{
+		int count = Integer.highestOneBit(Math.max(1, stripes) * 2 - 1);
+		this.stripes = new Stripe[count];
+		for (int i = 0; i < count; i++)
+		{
+			this.stripes[i] = new Stripe(Math.max(1, capacity / count));
+		}
+		this.stripeShift = 64 - Integer.numberOfTrailingZeros(count);
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.evictions = new LongAdder();
+	}
+
+	/**
+	 * Looks up a hint.
+	 * @param position position searched
+	 * @param minDepth shallowest search that will do
+	 * @return packed hint, read with {@link #move(long)}, {@link #score(long)}
+	 *         and {@link #depth(long)}; {@link #MISS} if there is none
+	 */
+	public long get(Connect4Board position, int minDepth)
+	{
+		long key = key(position);
+		Stripe stripe = stripeFor(key);
+		long hint;
+		synchronized (stripe)
+		{
+			int slot = stripe.index.get(key);
+			if (slot == Connect4LongIntMap.MISSING || depth(stripe.values[slot]) < minDepth)
+			{
+				hint = MISS;
+			}
+			else
+			{
+				stripe.referenced[slot] = true;
+				hint = stripe.values[slot];
+			}
+		}
+		if (hint == MISS)
+			misses.increment();
+		else
+			hits.increment();
+		return hint;
+	}
+
+	/**
+	 * Records a search result, unless a deeper one is already held.
+	 * @param position position searched
+	 * @param depth depth searched to, 1 to 255
+	 * @param move best column
+	 * @param score score for the player to move
+	 */
+	public void put(Connect4Board position, int depth, int move, int score)
+	{
+		long key = key(position);
+		long value = ((long) score << 32) | ((depth & 0xFF) << 8) | (move & 0xFF);
+		Stripe stripe = stripeFor(key);
+		boolean evicted;
+		synchronized (stripe)
+		{
+			evicted = stripe.put(key, value);
+		}
+		if (evicted)
+			evictions.increment();
+	}
+
+	public static int move(long hint) { return (int) (hint & 0xFF); }
+	public static int depth(long hint) { return (int) ((hint >>> 8) & 0xFF); }
+	public static int score(long hint) { return (int) (hint >> 32); }
+
+	/**
+	 * @return lookups that found a hint
+	 */
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * @return lookups that found nothing deep enough
+	 */
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * @return fraction of lookups that found a hint, 0 before any lookup
+	 */
+	public double getHitRate()
+	{
+		long found = hits.sum();
+		long total = found + misses.sum();
+		return total == 0 ? 0 : (double) found / total;
+	}
+
+	/**
+	 * @return entries evicted to make room
+	 */
+	public long getEvictions()
+	{
+		return evictions.sum();
+	}
+
+	/**
+	 * @return entries held now
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				size += stripe.used;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return most entries held
+	 */
+	public int getCapacity()
+	{
+		return stripes.length * stripes[0].keys.length;
+	}
+
+	/**
+	 * Removes every entry. The counters are kept.
+	 */
+	public void clear()
+	{
+		for (Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				stripe.clear();
+			}
+		}
+	}
+
+	private Stripe stripeFor(long key)
+	{
+		// top bits of the product depend on every bit of the key
+		return stripeShift == 64 ? stripes[0] : stripes[(int) ((key * 0x9E3779B97F4A7C15L) >>> stripeShift)];
+	}
+
+	/**
+	 * Combines a position's hash with its board size, never giving 0, which
+	 * the index reserves.
+	 */
+	private static long key(Connect4Board position)
+	{
+		Connect4GameConfig config = position.getConfig();
+		long size = (config.getRows() << 16) | (config.getColumns() << 8) | config.getConnect();
+		long key = position.hash() ^ (size * 0xC2B2AE3D27D4EB4FL);
+		return key == 0 ? 1 : key;
+	}
+
+	/**
+	 * One independently locked part of the cache. All access is synchronized
+	 * on the stripe.
+	 */
+	private static final class Stripe
+	{
+		final Connect4LongIntMap index; // key to slot
+		final long[] keys;
+		final long[] values;
+		final boolean[] referenced;
+		int used;
+		int hand;
+
+		Stripe(int capacity)
+		{
+			index = new Connect4LongIntMap(capacity);
+			keys = new long[capacity];
+			values = new long[capacity];
+			referenced = new boolean[capacity];
+		}
+
+		/**
+		 * @return true if an entry was evicted to make room
+		 */
+		boolean put(long key, long value)
+		{
+			int slot = index.get(key);
+			if (slot != Connect4LongIntMap.MISSING)
+			{
+				if (depth(value) >= depth(values[slot]))
+					values[slot] = value;
+				referenced[slot] = true;
+				return false;
+			}
+			boolean evicted = used == keys.length;
+			if (evicted)
+			{
+				slot = sweep();
+				index.remove(keys[slot]);
+			}
+			else
+			{
+				slot = used++;
+			}
+			keys[slot] = key;
+			values[slot] = value;
+			referenced[slot] = false;
+			index.put(key, slot);
+			return evicted;
+		}
+
+		/**
+		 * Advances the clock hand to the first entry not used since its last
+		 * pass, clearing marks on the way.
+		 */
+		int sweep()
+		{
+			while (referenced[hand])
+			{
+				referenced[hand] = false;
+				hand = (hand + 1) % keys.length;
+			}
+			int victim = hand;
+			hand = (hand + 1) % keys.length;
+			return victim;
+		}
+
+		void clear()
+		{
+			for (int i = 0; i < used; i++)
+			{
+				index.remove(keys[i]);
+				referenced[i] = false;
+			}
+			used = 0;
+			hand = 0;
+		}
+	}
+}
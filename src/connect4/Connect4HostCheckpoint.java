@@ -0,0 +1,623 @@
+package connect4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the games of a {@link Connect4GameHost} on disk, so a restarted
+ * server picks up every game in progress where it stopped.
+ *
+ * <p>State is kept in generations. Each generation starts with a snapshot
+ * file holding every hosted game, {@value Connect4GameHost#GAME_RECORD_BYTES}
+ * bytes per game, followed by a log of the changes since: games created,
+ * moves played and games removed. Restoring reads the newest valid snapshot
+ * and replays its log, a few milliseconds for thousands of games.</p>
+ *
+ * <p>The host's thread records each change by appending a few bytes to a
+ * buffer. A writer thread swaps the buffer out every
+ * {@value #FLUSH_MILLIS} ms, or sooner when it fills, appends it to the log
+ * as one checksummed batch and forces the log to disk, so all the moves of
+ * a batch share one fsync. A crash loses at most the last batch. A torn
+ * batch fails its checksum and is ignored on restore, along with anything
+ * after it.</p>
+ *
+ * <p>A new generation is started after a set number of changes or a set
+ * time, whichever comes first. The snapshot is encoded on the host's thread,
+ * between two of its operations, so it is consistent without locking the
+ * host. The writer then writes it to a temporary file, forces it and renames
+ * it into place before deleting the previous generation.</p>
+ *
+ * <p>Snapshot layout:</p>
+ * <pre>
+ *   int  magic, int version, long last session ID, int game count
+ *   per game: long id, long moves 0-20, long moves 21-41, byte move count
+ *   int  crc32 over everything before it
+ * </pre>
+ * <p>Log batches: <code>int length, byte[] records, int crc32</code>; a
+ * record is a type byte and a session ID, and for a move a column byte.</p>
+ *
+ * <p>Errors are reported like {@link Connect4GameJournal}, through a status
+ * result and {@link #getErrorMessage()}.</p>
+ *
+ */
+public class Connect4HostCheckpoint
+{
+	public static final long DEFAULT_SNAPSHOT_RECORDS = 100_000;
+	public static final long DEFAULT_SNAPSHOT_MILLIS = 60_000;
+	static final int MAGIC = 0x43344350; // "C4CP"
+	static final int VERSION = 1;
+	static final String PREFIX = "checkpoint-";
+	static final String SNAPSHOT_SUFFIX = ".snap";
+	static final String LOG_SUFFIX = ".log";
+	static final byte CREATED = 1, PLAYED = 2, REMOVED = 3;
+
+	private static final int SNAPSHOT_HEADER_BYTES = 4 + 4 + 8 + 4;
+	private static final int BUFFER_BYTES = 64 * 1024;
+	private static final int RECORD_BYTES = 1 + 8 + 1; // largest record
+	private static final long FLUSH_MILLIS = 5;
+
+	private final Path directory;
+	private long snapshotRecords = DEFAULT_SNAPSHOT_RECORDS;
+	private long snapshotNanos = DEFAULT_SNAPSHOT_MILLIS * 1_000_000;
+	private volatile String errorMessage = "No error occurred.";
+	private volatile boolean writeFailed; // set by the writer, never cleared
+	private int restoredGames;
+
+	// host thread only
+	private Connect4GameHost host;
+	private long recordsSinceSnapshot;
+	private long lastSnapshotNanos;
+
+	// guarded by this
+	private ByteBuffer filling = ByteBuffer.allocate(BUFFER_BYTES);
+	private ByteBuffer spare = ByteBuffer.allocate(BUFFER_BYTES);
+	private ByteBuffer sealed;         // changes before a pending snapshot
+	private ByteBuffer pendingSnapshot;
+	private long recorded;             // changes recorded so far
+	private long durable;              // changes forced to disk so far
+	private boolean closed;
+
+	// set by restore, then by the writer thread under this
+	private int generation;
+	// writer thread only, after open
+	private FileChannel log;
+	private final CRC32 crc = new CRC32();
+	private Thread writer;
+
+	/**
+	 * Connect4HostCheckpoint Constructor.
+	 * @param directory directory holding the checkpoint files
+	 */
+	public Connect4HostCheckpoint(Path directory)
+	{
+		this.directory = directory;
+	}
+
+	/**
+	 * Sets how often a new snapshot is taken.
+	 * @param records changes recorded since the last snapshot
+	 * @param millis time since the last snapshot
+	 */
+	public void setSnapshotInterval(long records, long millis)
+	{
+		this.snapshotRecords = records;
+		this.snapshotNanos = millis * 1_000_000;
+	}
+
+	/**
+	 * Rebuilds a host from the newest valid snapshot and its log. An empty
+	 * or missing directory gives an empty host.
+	 * @param expectedGames number of games to size the host for
+	 * @return restored host, null if an error occurred
+	 */
+	public Connect4GameHost restore(int expectedGames)
+	{
+		Connect4GameHost restored = new Connect4GameHost(expectedGames);
+		restoredGames = 0;
+		try
+		{
+			if (!Files.isDirectory(directory))
+				return restored;
+			List<Path> snapshots = list(SNAPSHOT_SUFFIX);
+			for (int i = snapshots.size() - 1; i >= 0; i--)
+			{
+				Connect4GameHost candidate = new Connect4GameHost(expectedGames);
+				if (readSnapshot(snapshots.get(i), candidate))
+				{
+					restored = candidate;
+					generation = generationOf(snapshots.get(i));
+					break;
+				}
+			}
+			Path logPath = path(generation, LOG_SUFFIX);
+			if (Files.exists(logPath))
+				replay(ByteBuffer.wrap(Files.readAllBytes(logPath)), restored);
+		}
+		catch (IOException e)
+		{
+			errorMessage = "IOException occurred while restoring checkpoint.";
+			return null;
+		}
+		restoredGames = restored.size();
+		return restored;
+	}
+
+	/**
+	 * @return games held by the host returned from the last restore
+	 */
+	public int getRestoredGames()
+	{
+		return restoredGames;
+	}
+
+	/**
+	 * Writes a snapshot of the host as a new generation, then starts
+	 * recording its changes. From here on the host must only be used from
+	 * one thread, as usual, which also runs the periodic snapshots.
+	 * @param host host to keep on disk
+	 * @return true if no error occurred, false otherwise
+	 */
+	public boolean open(Connect4GameHost host)
+	{
+		try
+		{
+			Files.createDirectories(directory);
+			writeGeneration(generation + 1, encode(host));
+		}
+		catch (IOException e)
+		{
+			errorMessage = "IOException occurred while opening checkpoint.";
+			return false;
+		}
+		this.host = host;
+		lastSnapshotNanos = System.nanoTime();
+		host.setCheckpoint(this);
+		writer = new Thread(this::writeLoop, "connect4-checkpoint-writer");
+		writer.setDaemon(true);
+		writer.start();
+		return true;
+	}
+
+	void created(long id)
+	{
+		record(CREATED, id, 0);
+	}
+
+	void played(long id, int col)
+	{
+		record(PLAYED, id, col);
+	}
+
+	void removed(long id)
+	{
+		record(REMOVED, id, 0);
+	}
+
+	/**
+	 * Starts a new generation with a snapshot of the host. Call from the
+	 * host's thread; snapshots are also taken automatically.
+	 * @return true if a snapshot was handed to the writer, false if one is
+	 *         still being written or the checkpoint is closed
+	 */
+	public boolean checkpoint()
+	{
+		synchronized (this)
+		{
+			if (host == null || closed || pendingSnapshot != null)
+				return false;
+		}
+		// only this thread sets a pending snapshot, so it is still clear
+		ByteBuffer snapshot = encode(host);
+		synchronized (this)
+		{
+			sealed = filling;
+			filling = ByteBuffer.allocate(BUFFER_BYTES);
+			pendingSnapshot = snapshot;
+			notifyAll();
+		}
+		recordsSinceSnapshot = 0;
+		lastSnapshotNanos = System.nanoTime();
+		return true;
+	}
+
+	/**
+	 * Waits until every change recorded so far, and any snapshot taken, is
+	 * on disk.
+	 * @return true if no error occurred, false otherwise
+	 */
+	public boolean sync()
+	{
+		synchronized (this)
+		{
+			long target = recorded;
+			notifyAll();
+			try
+			{
+				while ((durable < target || pendingSnapshot != null) && !writeFailed && writer.isAlive())
+					wait();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return !writeFailed;
+	}
+
+	/**
+	 * Writes everything recorded, stops the writer and detaches from the
+	 * host. The files are kept for the next restore.
+	 * @return true if no error occurred, false otherwise
+	 */
+	public boolean close()
+	{
+		if (host == null)
+			return true;
+		host.setCheckpoint(null);
+		synchronized (this)
+		{
+			closed = true;
+			notifyAll();
+		}
+		try
+		{
+			writer.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		host = null;
+		return !writeFailed;
+	}
+
+	/**
+	 * @return number of the current generation
+	 */
+	public synchronized int getGeneration()
+	{
+		return generation;
+	}
+
+	/**
+	 * Gets the message associated with the last checkpoint error.
+	 * @return error message
+	 */
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	/**
+	 * Appends a change for the writer, waiting only if it has fallen a full
+	 * buffer behind, then starts a new generation if one is due.
+	 */
+	private void record(byte type, long id, int col)
+	{
+		synchronized (this)
+		{
+			while (filling.remaining() < RECORD_BYTES && !closed)
+			{
+				notifyAll();
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			if (closed)
+				return;
+			filling.put(type);
+			filling.putLong(id);
+			if (type == PLAYED)
+				filling.put((byte) col);
+			recorded++;
+		}
+		if (++recordsSinceSnapshot >= snapshotRecords
+				|| System.nanoTime() - lastSnapshotNanos >= snapshotNanos)
+			checkpoint();
+	}
+
+	/**
+	 * Swaps out recorded changes and snapshots and writes them, forcing the
+	 * log once per swap. After a failed write nothing more is written, as
+	 * later changes would follow a gap in the log, and nothing more counts
+	 * as durable.
+	 */
+	private void writeLoop()
+	{
+		while (true)
+		{
+			ByteBuffer changes;
+			ByteBuffer before;
+			ByteBuffer snapshot;
+			long target;
+			boolean stopping;
+			synchronized (this)
+			{
+				if (!closed && filling.position() == 0 && pendingSnapshot == null)
+				{
+					try
+					{
+						wait(FLUSH_MILLIS);
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+				}
+				before = sealed;
+				snapshot = pendingSnapshot;
+				changes = filling;
+				filling = spare;
+				target = recorded;
+				stopping = closed;
+				notifyAll(); // room for a host thread waiting on a full buffer
+			}
+			try
+			{
+				if (writeFailed)
+					changes.clear();
+				else
+				{
+					if (before != null)
+						append(before);
+					if (snapshot != null)
+						writeGeneration(generation + 1, snapshot);
+					append(changes);
+				}
+			}
+			catch (IOException e)
+			{
+				errorMessage = "IOException occurred while writing checkpoint.";
+				writeFailed = true;
+				changes.clear(); // not appended if an earlier write failed
+			}
+			synchronized (this)
+			{
+				spare = changes;
+				if (snapshot != null)
+				{
+					sealed = null;
+					pendingSnapshot = null;
+				}
+				if (!writeFailed)
+					durable = target;
+				notifyAll();
+				if (stopping && filling.position() == 0 && pendingSnapshot == null)
+					break;
+			}
+		}
+		try
+		{
+			if (log != null)
+				log.close();
+		}
+		catch (IOException e)
+		{
+			errorMessage = "IOException occurred while closing checkpoint.";
+			writeFailed = true;
+		}
+	}
+
+	/**
+	 * Appends a batch of changes to the current log and forces it.
+	 */
+	private void append(ByteBuffer changes) throws IOException
+	{
+		changes.flip();
+		try
+		{
+			if (!changes.hasRemaining())
+				return;
+			crc.reset();
+			crc.update(changes.duplicate());
+			ByteBuffer frame = ByteBuffer.allocate(4 + changes.remaining() + 4);
+			frame.putInt(changes.remaining()).put(changes).putInt((int) crc.getValue()).flip();
+			while (frame.hasRemaining())
+				log.write(frame);
+			log.force(false);
+		}
+		finally
+		{
+			changes.clear(); // reused for filling, written or not
+		}
+	}
+
+	/**
+	 * Makes a snapshot the start of a new generation: writes and forces it
+	 * under a temporary name, renames it into place, opens its log and
+	 * deletes the generation before.
+	 */
+	private void writeGeneration(int next, ByteBuffer snapshot) throws IOException
+	{
+		Path temporary = directory.resolve(PREFIX + next + ".tmp");
+		try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			ByteBuffer data = snapshot.duplicate();
+			while (data.hasRemaining())
+				out.write(data);
+			out.force(true);
+		}
+		Files.move(temporary, path(next, SNAPSHOT_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+		FileChannel nextLog = FileChannel.open(path(next, LOG_SUFFIX), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		FileChannel previousLog = log;
+		int previous;
+		synchronized (this)
+		{
+			previous = generation;
+			generation = next;
+			log = nextLog;
+		}
+		if (previousLog != null)
+			previousLog.close();
+		// anything older than the new snapshot is no longer needed
+		for (String suffix : new String[] {SNAPSHOT_SUFFIX, LOG_SUFFIX})
+		{
+			for (Path old : list(suffix))
+			{
+				if (generationOf(old) <= previous)
+					Files.deleteIfExists(old);
+			}
+		}
+	}
+
+	/**
+	 * Encodes every game of a host, with header and checksum.
+	 */
+	private static ByteBuffer encode(Connect4GameHost host)
+	{
+		ByteBuffer out = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES
+				+ host.size() * Connect4GameHost.GAME_RECORD_BYTES + 4);
+		out.putInt(MAGIC).putInt(VERSION).putLong(host.getLastId()).putInt(host.size());
+		host.writeGames(out);
+		CRC32 crc = new CRC32();
+		crc.update(out.duplicate().flip());
+		out.putInt((int) crc.getValue());
+		return out.flip();
+	}
+
+	/**
+	 * Loads a snapshot into an empty host.
+	 * @return true if the snapshot was complete and valid
+	 */
+	private static boolean readSnapshot(Path path, Connect4GameHost into) throws IOException
+	{
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+		if (in.remaining() < SNAPSHOT_HEADER_BYTES + 4)
+			return false;
+		CRC32 crc = new CRC32();
+		crc.update(in.duplicate().limit(in.limit() - 4));
+		if ((int) crc.getValue() != in.getInt(in.limit() - 4))
+			return false;
+		if (in.getInt() != MAGIC || in.getInt() != VERSION)
+			return false;
+		long lastId = in.getLong();
+		int count = in.getInt();
+		if (in.remaining() != (long) count * Connect4GameHost.GAME_RECORD_BYTES + 4)
+			return false;
+		for (int i = 0; i < count; i++)
+		{
+			if (!into.restoreGame(in.getLong(), in.getLong(), in.getLong(), in.get()))
+				return false;
+		}
+		into.setLastId(lastId);
+		return true;
+	}
+
+	/**
+	 * Applies the valid batches of a log to a host, stopping at the first
+	 * torn or corrupt one.
+	 */
+	static void replay(ByteBuffer in, Connect4GameHost into)
+	{
+		CRC32 crc = new CRC32();
+		while (in.remaining() >= 8)
+		{
+			int length = in.getInt(in.position());
+			if (length <= 0 || length > in.remaining() - 8)
+				return;
+			ByteBuffer batch = in.duplicate().position(in.position() + 4).limit(in.position() + 4 + length);
+			crc.reset();
+			crc.update(batch.duplicate());
+			if ((int) crc.getValue() != in.getInt(in.position() + 4 + length))
+				return;
+			while (batch.hasRemaining())
+			{
+				byte type = batch.get();
+				long id = batch.getLong();
+				if (type == CREATED)
+					into.restoreGame(id, 0, 0, 0);
+				else if (type == PLAYED)
+					into.play(id, batch.get());
+				else if (type == REMOVED)
+					into.removeGame(id);
+				else
+					return;
+			}
+			in.position(in.position() + 8 + length);
+		}
+	}
+
+	private List<Path> list(String suffix) throws IOException
+	{
+		List<Path> paths = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + suffix))
+		{
+			for (Path p : stream)
+			{
+				paths.add(p);
+			}
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	private Path path(int generation, String suffix)
+	{
+		return directory.resolve(String.format("%s%08d%s", PREFIX, generation, suffix));
+	}
+
+	private static int generationOf(Path path)
+	{
+		String name = path.getFileName().toString();
+		return Integer.parseInt(name.substring(PREFIX.length(), name.lastIndexOf('.')));
+	}
+
+	/**
+	 * Benchmark: checkpoints a host of many games in progress, then times a
+	 * restore.
+	 * @param args [directory] [games]
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		Path dir = args.length > 0 ? Path.of(args[0]) : Files.createTempDirectory("connect4-checkpoint");
+		int games = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+		Random random = new Random(1);
+		Connect4HostCheckpoint checkpoint = new Connect4HostCheckpoint(dir);
+		Connect4GameHost host = checkpoint.restore(games);
+		if (host == null || !checkpoint.open(host))
+		{
+			System.err.println(checkpoint.getErrorMessage());
+			return;
+		}
+		long t0 = System.nanoTime();
+		for (int g = 0; g < games; g++)
+		{
+			long id = host.createGame();
+			for (int m = 0; m < 20; m++)
+				host.play(id, random.nextInt(Connect4Model.COLUMNS));
+		}
+		checkpoint.sync();
+		long t1 = System.nanoTime();
+		checkpoint.close();
+		System.out.printf("recorded %d games in %.1f ms, generation %d%n", host.size(), (t1 - t0) / 1e6,
+				checkpoint.getGeneration());
+
+		for (int round = 0; round < 5; round++)
+		{
+			long t2 = System.nanoTime();
+			Connect4GameHost restored = new Connect4HostCheckpoint(dir).restore(games);
+			long t3 = System.nanoTime();
+			System.out.printf("restored %d games in %.1f ms%n", restored.size(), (t3 - t2) / 1e6);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package connect4;
+
+import java.util.Arrays;
+
+/**
+ * A map from <code>int</code> keys to <code>long</code> counts, using open
+ * addressing over primitive arrays so counting never boxes or allocates once
+ * the table has grown to fit its keys.
+ * 
+ * <p>Not thread-safe. Parallel aggregation gives each worker its own counter
+ * and combines them with {@link #addAll(Connect4IntCounter)}.</p>
+ *
+ */
+public class Connect4IntCounter 
+{
+	private static final int FREE = Integer.MIN_VALUE; // key value marking an empty slot
+	
+	private int[] keys;
+	private long[] counts;
+	private int size;
+	
+	/**
+	 * Connect4IntCounter Constructor.
+	 */
+	public Connect4IntCounter()
+	{
+		this(16);
+	}
+	
+	/**
+	 * Connect4IntCounter Constructor with an expected number of keys.
+	 * @param expectedKeys number of keys to size the table for
+	 */
+	public Connect4IntCounter(int expectedKeys)
+	{
+		int capacity = Integer.highestOneBit(Math.max(4, expectedKeys * 2 - 1)) << 1;
+		keys = new int[capacity];
+		counts = new long[capacity];
+		Arrays.fill(keys, FREE);
+	}
+	
+	/**
+	 * Adds to the count of a key. {@link Integer#MIN_VALUE} is reserved and
+	 * cannot be used as a key.
+	 * @param key key
+	 * @param delta amount to add
+	 */
+	public void add(int key, long delta)
+	{
+		int slot = slot(key);
+		if (keys[slot] == FREE)
+		{
+			keys[slot] = key;
+			if (++size * 2 > keys.length)
+			{
+				counts[slot] = delta;
+				grow();
+				return;
+			}
+		}
+		counts[slot] += delta;
+	}
+	
+	/**
+	 * Adds one to the count of a key.
+	 * @param key key
+	 */
+	public void increment(int key)
+	{
+		add(key, 1);
+	}
+	
+	/**
+	 * Gets the count of a key.
+	 * @param key key
+	 * @return count, 0 if the key was never added
+	 */
+	public long get(int key)
+	{
+		int slot = slot(key);
+		return keys[slot] == FREE ? 0 : counts[slot];
+	}
+	
+	/**
+	 * Adds every count of another counter to this one.
+	 * @param other counter to add
+	 */
+	public void addAll(Connect4IntCounter other)
+	{
+		for (int i = 0; i < other.keys.length; i++)
+		{
+			if (other.keys[i] != FREE)
+				add(other.keys[i], other.counts[i]);
+		}
+	}
+	
+	/**
+	 * Gets the keys present, in ascending order.
+	 * @return keys
+	 */
+	public int[] keys()
+	{
+		int[] result = new int[size];
+		int n = 0;
+		for (int key : keys)
+		{
+			if (key != FREE)
+				result[n++] = key;
+		}
+		Arrays.sort(result);
+		return result;
+	}
+	
+	public int size() { return size; }
+	
+	private int slot(int key)
+	{
+		int m = keys.length - 1;
+		int h = key * 0x9E3779B9;
+		int slot = (h ^ (h >>> 16)) & m;
+		while (keys[slot] != FREE && keys[slot] != key)
+		{
+			slot = (slot + 1) & m;
+		}
+		return slot;
+	}
+	
+	private void grow()
+	{
+		int[] oldKeys = keys;
+		long[] oldCounts = counts;
+		keys = new int[oldKeys.length * 2];
+		counts = new long[oldKeys.length * 2];
+		Arrays.fill(keys, FREE);
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if (oldKeys[i] != FREE)
+			{
+				int slot = slot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package connect4;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Streams the entries of one {@link Connect4GameJournal} segment.
+ * 
+ * <p>The segment is mapped read-only, so only the pages being read are
+ * brought into memory, and the reader acts as a cursor: {@link #next()} 
+ * advances to the following entry and the accessors describe the current
+ * one. Nothing is allocated per game. Reading stops at the first entry that
+ * fails its checksum, the same point journal recovery truncates to.</p>
+ *
+ */
+public class Connect4JournalReader implements AutoCloseable
+{
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final CRC32 crc;
+	private int position; // start of the next entry
+	private int entry;    // start of the current entry's payload
+	private boolean verifyChecksums;
+	
+	/**
+	 * Connect4JournalReader Constructor.
+	 * @param segment segment file to read
+	 * @throws IOException if the segment cannot be opened
+	 */
+	public Connect4JournalReader(Path segment) throws IOException
+	{
+		channel = FileChannel.open(segment, StandardOpenOption.READ);
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		crc = new CRC32();
+		verifyChecksums = true;
+		entry = -1;
+	}
+	
+	/**
+	 * Turns checksum verification on or off. Verification is on by default;
+	 * turning it off trades safety against torn data for read speed on
+	 * segments already known to be good.
+	 * @param verify whether to verify each entry
+	 */
+	public void setVerifyChecksums(boolean verify)
+	{
+		verifyChecksums = verify;
+	}
+	
+	/**
+	 * Advances to the next entry.
+	 * @return true if there is an entry, false at the end of the segment
+	 */
+	public boolean next()
+	{
+		int limit = buffer.limit();
+		if (position + Connect4GameJournal.HEADER_BYTES > limit)
+			return false;
+		int payload = buffer.getInt(position);
+		int start = position + Connect4GameJournal.HEADER_BYTES;
+		if (payload < Connect4GameJournal.FIXED_PAYLOAD_BYTES 
+				|| start + payload + Connect4GameJournal.CRC_BYTES > limit)
+			return false;
+		if (verifyChecksums)
+		{
+			crc.reset();
+			crc.update(buffer.duplicate().position(start).limit(start + payload));
+			if ((int) crc.getValue() != buffer.getInt(start + payload))
+				return false;
+		}
+		entry = start;
+		position = start + payload + Connect4GameJournal.CRC_BYTES;
+		return true;
+	}
+	
+	public long getStartMillis() { return buffer.getLong(entry); }
+	public long getEndMillis() { return buffer.getLong(entry + 8); }
+	public int getWinner() { return buffer.get(entry + 16) & ~Connect4GameJournal.TIME_LOSS; }
+	public boolean isTimeLoss() { return (buffer.get(entry + 16) & Connect4GameJournal.TIME_LOSS) != 0; }
+	public int getMoveCount() { return buffer.get(entry + 17) & 0xFF; }
+	
+	/**
+	 * Gets the column of the i-th move of the current entry.
+	 * @param i move index, starting at 0
+	 * @return column index
+	 */
+	public int getMove(int i)
+	{
+		int packed = buffer.get(entry + Connect4GameJournal.FIXED_PAYLOAD_BYTES + (i >> 1));
+		return (packed >> ((i & 1) << 2)) & 0xF;
+	}
+	
+	/**
+	 * Copies the current entry into a {@link Connect4GameRecord}.
+	 * @return record
+	 */
+	public Connect4GameRecord toRecord()
+	{
+		byte[] packed = new byte[Connect4GameRecord.packedLength(getMoveCount())];
+		buffer.get(entry + Connect4GameJournal.FIXED_PAYLOAD_BYTES, packed);
+		return new Connect4GameRecord(packed, getMoveCount(), getWinner(), isTimeLoss(),
+				getStartMillis(), getEndMillis());
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}
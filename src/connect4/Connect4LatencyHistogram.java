@@ -0,0 +1,214 @@
+package connect4;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with fixed relative precision, in the manner of
+ * HdrHistogram: recording is a few shifts and one atomic increment, takes no
+ * lock and allocates nothing, so many threads can record into one histogram
+ * while another reads it.
+ *
+ * <p>Values below 2<sup>b</sup>, for <code>b</code> precision bits, are
+ * counted exactly. Above that, each power of two is split into
+ * 2<sup>b-1</sup> equal buckets, so every value is counted within one part
+ * in 2<sup>b-1</sup> of its true size whatever its magnitude. With the
+ * default 7 bits that is under 1.6%, over a range from nanoseconds to hours
+ * in a few thousand counters. Values are in whatever unit the caller
+ * records; percentiles are reported as the highest value of their bucket.</p>
+ *
+ * <p>Interval statistics are taken by copying the histogram and subtracting
+ * the previous copy with {@link #since(Connect4LatencyHistogram)}.</p>
+ *
+ */
+public final class Connect4LatencyHistogram
+{
+	public static final int DEFAULT_PRECISION_BITS = 7;
+
+	private final int bits;
+	private final long subBuckets; // 2^bits
+	private final long highest;
+	private final AtomicLongArray counts;
+
+	/**
+	 * Connect4LatencyHistogram Constructor, with the default precision.
+	 * @param highestValue largest value told apart; larger ones are counted
+	 *        as this
+	 */
+	public Connect4LatencyHistogram(long highestValue)
+	{
+		this(highestValue, DEFAULT_PRECISION_BITS);
+	}
+
+	/**
+	 * Connect4LatencyHistogram Constructor.
+	 * @param highestValue largest value told apart; larger ones are counted
+	 *        as this
+	 * @param precisionBits 2 to 16; each value is counted within one part in
+	 *        2<sup>precisionBits-1</sup>
+	 */
+	public Connect4LatencyHistogram(long highestValue, int precisionBits)
+	{
+		if (precisionBits < 2 || precisionBits > 16)
+			throw new IllegalArgumentException("precision bits must be 2 to 16");
+		if (highestValue < 1)
+			throw new IllegalArgumentException("highest value must be positive");
+		this.bits = precisionBits;
+		this.subBuckets = 1L << precisionBits;
+		this.highest = highestValue;
+		this.counts = new AtomicLongArray(index(highestValue) + 1);
+	}
+
+	/**
+	 * Counts a value. Negative values are counted as 0.
+	 * @param value value to count
+	 */
+	public void record(long value)
+	{
+		counts.incrementAndGet(index(Math.max(0, Math.min(value, highest))));
+	}
+
+	/**
+	 * @return number of values counted
+	 */
+	public long getTotalCount()
+	{
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++)
+			total += counts.get(i);
+		return total;
+	}
+
+	/**
+	 * Gets the value at or below which a share of the counted values fall.
+	 * @param percentile 0 to 100
+	 * @return highest value of the bucket reaching the share, 0 if empty
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		long total = getTotalCount();
+		if (total == 0)
+			return 0;
+		long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++)
+		{
+			seen += counts.get(i);
+			if (seen >= target)
+				return highestEquivalent(i);
+		}
+		return highestEquivalent(counts.length() - 1);
+	}
+
+	/**
+	 * @return highest value of the highest bucket counted, 0 if empty
+	 */
+	public long getMax()
+	{
+		for (int i = counts.length() - 1; i >= 0; i--)
+		{
+			if (counts.get(i) != 0)
+				return highestEquivalent(i);
+		}
+		return 0;
+	}
+
+	/**
+	 * @return mean of the counted values, taking each bucket's middle; 0 if
+	 *         empty
+	 */
+	public double getMean()
+	{
+		long total = 0;
+		double sum = 0;
+		for (int i = 0; i < counts.length(); i++)
+		{
+			long n = counts.get(i);
+			if (n != 0)
+			{
+				total += n;
+				sum += n * ((lowestEquivalent(i) + highestEquivalent(i)) / 2.0);
+			}
+		}
+		return total == 0 ? 0 : sum / total;
+	}
+
+	/**
+	 * Copies the counts as they are now. Values recorded meanwhile may or
+	 * may not be in the copy.
+	 * @return new histogram
+	 */
+	public Connect4LatencyHistogram copy()
+	{
+		Connect4LatencyHistogram copy = new Connect4LatencyHistogram(highest, bits);
+		for (int i = 0; i < counts.length(); i++)
+			copy.counts.set(i, counts.get(i));
+		return copy;
+	}
+
+	/**
+	 * Gets the values counted since an earlier copy of this histogram.
+	 * @param earlier copy taken before, with the same range and precision
+	 * @return new histogram holding the difference
+	 */
+	public Connect4LatencyHistogram since(Connect4LatencyHistogram earlier)
+	{
+		if (earlier.bits != bits || earlier.highest != highest)
+			throw new IllegalArgumentException("histograms differ in range or precision");
+		Connect4LatencyHistogram interval = new Connect4LatencyHistogram(highest, bits);
+		for (int i = 0; i < counts.length(); i++)
+			interval.counts.set(i, counts.get(i) - earlier.counts.get(i));
+		return interval;
+	}
+
+	/**
+	 * Removes every count.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < counts.length(); i++)
+			counts.set(i, 0);
+	}
+
+	/**
+	 * Gets the counter of a value: below 2^bits the value itself, otherwise
+	 * the top bits of the value, offset by how far it had to be shifted.
+	 */
+	private int index(long value)
+	{
+		if (value < subBuckets)
+			return (int) value;
+		int shift = 64 - Long.numberOfLeadingZeros(value) - bits;
+		long half = subBuckets >>> 1;
+		return (int) (subBuckets + (shift - 1) * half + ((value >>> shift) - half));
+	}
+
+	private long lowestEquivalent(int index)
+	{
+		if (index < subBuckets)
+			return index;
+		long half = subBuckets >>> 1;
+		int shift = (int) ((index - subBuckets) / half) + 1;
+		long top = (index - subBuckets) % half + half;
+		return top << shift;
+	}
+
+	private long highestEquivalent(int index)
+	{
+		if (index < subBuckets)
+			return index;
+		long half = subBuckets >>> 1;
+		int shift = (int) ((index - subBuckets) / half) + 1;
+		return lowestEquivalent(index) + (1L << shift) - 1;
+	}
+
+	/**
+	 * @return count, mean, percentiles and maximum on one line
+	 */
+	@Override
+	public String toString()
+	{
+		return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d",
+				getTotalCount(), getMean(), getValueAtPercentile(50), getValueAtPercentile(90),
+				getValueAtPercentile(99), getValueAtPercentile(99.9), getMax());
+	}
+}
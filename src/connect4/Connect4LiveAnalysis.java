@@ -0,0 +1,164 @@
+package connect4;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javafx.application.Platform;
+
+/**
+ * Analyses the current position in the background while a game is played.
+ * 
+ * <p>Each call to {@link #analyze(Connect4Board)} stops the search in
+ * progress and starts a new one on the analysis thread, deepening one ply at
+ * a time up to the maximum depth. Every completed depth replaces the latest
+ * result. A delivery tick running at a fixed interval hands only the newest
+ * undelivered result to the consumer through the delivery executor 
+ * (Platform.runLater by default), so the UI thread receives at most one
+ * batch per interval however fast the engine produces them, and never waits
+ * on the search.</p>
+ * 
+ * <p>A result carries the generation of the request it answers and is
+ * checked again on the delivery executor, so once {@link #analyze(Connect4Board)} or
+ * {@link #clear()} has been called on that thread, no result for an earlier
+ * position reaches the consumer.</p>
+ *
+ */
+public class Connect4LiveAnalysis 
+{
+	private final Connect4Engine engine;
+	private final ExecutorService searchThread;
+	private final ScheduledExecutorService deliveryTimer;
+	private final Executor deliveryExecutor;
+	private final Consumer<Connect4Analysis> consumer;
+	private final AtomicReference<Result> undelivered;
+	private final int maxDepth;
+	private volatile int generation; // bumped by every analyze/clear
+	
+	/**
+	 * Connect4LiveAnalysis Constructor delivering on the JavaFX thread.
+	 * @param maxDepth deepest search to run
+	 * @param intervalMillis minimum time between deliveries
+	 * @param consumer receives results
+	 */
+	public Connect4LiveAnalysis(int maxDepth, long intervalMillis, Consumer<Connect4Analysis> consumer)
+	{
+		this(maxDepth, intervalMillis, consumer, Platform::runLater);
+	}
+	
+	/**
+	 * Connect4LiveAnalysis Constructor.
+	 * @param maxDepth deepest search to run
+	 * @param intervalMillis minimum time between deliveries
+	 * @param consumer receives results
+	 * @param deliveryExecutor runs the consumer
+	 */
+	public Connect4LiveAnalysis(int maxDepth, long intervalMillis, Consumer<Connect4Analysis> consumer,
+			Executor deliveryExecutor)
+	{
+		this.engine = new Connect4Engine();
+		this.maxDepth = maxDepth;
+		this.consumer = consumer;
+		this.deliveryExecutor = deliveryExecutor;
+		this.undelivered = new AtomicReference<Result>();
+		this.searchThread = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "connect4-analysis");
+			t.setDaemon(true);
+			return t;
+		});
+		this.deliveryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "connect4-analysis-delivery");
+			t.setDaemon(true);
+			return t;
+		});
+		deliveryTimer.scheduleAtFixedRate(this::deliver, intervalMillis, intervalMillis, 
+				TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Restarts analysis on a new position. Returns immediately.
+	 * @param position position to analyse; copied before returning
+	 */
+	public void analyze(Connect4Board position)
+	{
+		Connect4Board copy = position.copy();
+		int id = ++generation;
+		engine.stop();
+		long token = engine.arm();
+		undelivered.set(null);
+		searchThread.execute(() -> run(copy, id, token));
+	}
+	
+	/**
+	 * Stops analysing without starting a new search.
+	 */
+	public void clear()
+	{
+		++generation;
+		engine.stop();
+		undelivered.set(null);
+	}
+	
+	/**
+	 * Stops analysis permanently.
+	 */
+	public void shutdown()
+	{
+		clear();
+		searchThread.shutdownNow();
+		deliveryTimer.shutdownNow();
+	}
+	
+	/**
+	 * Iterative deepening on the analysis thread. Gives up as soon as a newer
+	 * position has been requested.
+	 */
+	private void run(Connect4Board position, int id, long token)
+	{
+		for (int depth = 1; depth <= maxDepth && id == generation; depth++)
+		{
+			int[] scores = engine.scoreColumns(position, depth, token);
+			if (engine.isStopped() || id != generation)
+				return;
+			// may still land after a newer request; deliver() drops it then
+			undelivered.set(new Result(id, new Connect4Analysis(scores, engine.getBestLine(), depth,
+					engine.getNodes())));
+			if (position.getMoveCount() + depth >= position.getConfig().getCells())
+				return; // searched to the end of the game
+		}
+	}
+	
+	/**
+	 * Delivery tick: hands the newest result, if any, to the consumer. Results
+	 * replaced before a tick, or for a position no longer analysed when the
+	 * delivery runs, are never delivered.
+	 */
+	private void deliver()
+	{
+		Result result = undelivered.getAndSet(null);
+		if (result != null && result.generation == generation)
+			deliveryExecutor.execute(() -> {
+				if (result.generation == generation)
+					consumer.accept(result.analysis);
+			});
+	}
+	
+	/**
+	 * An analysis and the generation of the request it answers.
+	 */
+	private static final class Result
+	{
+		final int generation;
+		final Connect4Analysis analysis;
+		
+		Result(int generation, Connect4Analysis analysis)
+		{
+			this.generation = generation;
+			this.analysis = analysis;
+		}
+	}
+}
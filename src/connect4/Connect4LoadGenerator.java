@@ -0,0 +1,477 @@
+package connect4;
+
+import java.net.InetAddress;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A headless load test: opens many {@link Connect4Network} connections on
+ * localhost, plays games over them at a set rate, and reports throughput,
+ * errors and move latency while it runs.
+ *
+ * <p>Two servers can be loaded. Against the single-game server, each client
+ * gets its own server end, a {@link Connect4Network} accepting one
+ * connection on the next port up from the base port, and the generator
+ * plays that end too, as yellow. Against a {@link Connect4LobbyServer},
+ * every client joins the lobby and plays whichever of the other clients it
+ * is paired with; an odd client out waits until the run ends.</p>
+ *
+ * <p>Clients speak the game's own protocol: each connection agrees the
+ * board configuration, always the standard board here, and carries its
+ * moves as {@link Connect4ReliableTransport} frames, so the generator can
+ * play against real clients in a lobby. As in the game, a connection plays
+ * one game. When it ends, the player who made the last move waits for its
+ * acknowledgement and the other end to close, then both reconnect: a
+ * direct client to its server end, which listens again, and a lobby
+ * client by joining the lobby again.</p>
+ *
+ * <p>Each client has its own thread, blocked on its socket between moves.
+ * Moves are random, or the engine's choice at a set depth, and are paced to
+ * a rate per client against a fixed schedule. Both ends of every game run
+ * in this process, so latency is measured one way, from the time a move was
+ * due to be sent to the time the opponent read it. Measuring from the due
+ * time rather than the actual send keeps a stalled sender from hiding its
+ * own delay. Latencies go into a {@link Connect4LatencyHistogram} in
+ * microseconds, reported per interval and for the whole run.</p>
+ *
+ */
+public final class Connect4LoadGenerator
+{
+	public enum Target { DIRECT, LOBBY }
+
+	private static final int CONNECT_ATTEMPTS = 50;
+	private static final long CONNECT_RETRY_MILLIS = 20;
+	private static final long STACK_BYTES = 256 * 1024;
+	private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+	private final Target target;
+	private final String host;
+	private final int port;
+	private final int clients;
+	private double movesPerSecond;
+	private int engineDepth;
+	private long rampMillis;
+	private long reportMillis = 1000;
+	private Consumer<String> report = line -> { };
+
+	private final Connect4LatencyHistogram latency = new Connect4LatencyHistogram(HIGHEST_MICROS);
+	private final LongAdder moves = new LongAdder();
+	private final LongAdder games = new LongAdder();
+	private final AtomicInteger connected = new AtomicInteger();
+	private final LongAdder connectErrors = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final Queue<Connect4Network> networks = new ConcurrentLinkedQueue<Connect4Network>();
+	private final ConcurrentHashMap<Long, Game> lobbyGames = new ConcurrentHashMap<Long, Game>();
+	private volatile boolean running;
+	private String errorMessage;
+
+	/**
+	 * Connect4LoadGenerator Constructor.
+	 * @param target server to load
+	 * @param host server host, for a lobby; the single-game servers are
+	 *        always on this machine
+	 * @param port lobby port, or first port of the single-game servers
+	 * @param clients client connections to open
+	 */
+	public Connect4LoadGenerator(Target target, String host, int port, int clients)
+	{
+		if (clients < 1)
+			throw new IllegalArgumentException("at least one client is needed");
+		this.target = target;
+		this.host = host;
+		this.port = port;
+		this.clients = clients;
+	}
+
+	/**
+	 * @param movesPerSecond moves each client makes per second, 0 for as
+	 *        fast as the opponent answers
+	 */
+	public void setMoveRate(double movesPerSecond)
+	{
+		this.movesPerSecond = movesPerSecond;
+	}
+
+	/**
+	 * @param depth engine search depth for choosing moves, 0 for random moves
+	 */
+	public void setEngineDepth(int depth)
+	{
+		this.engineDepth = depth;
+	}
+
+	/**
+	 * @param millis time over which client connections are spread, so
+	 *        thousands of clients do not overflow the server's accept queue
+	 */
+	public void setRampUp(long millis)
+	{
+		this.rampMillis = millis;
+	}
+
+	/**
+	 * @param millis time between report lines
+	 * @param out receives a line per interval and a summary at the end
+	 */
+	public void setReport(long millis, Consumer<String> out)
+	{
+		this.reportMillis = Math.max(1, millis);
+		this.report = out;
+	}
+
+	/**
+	 * Opens the connections, plays until the time is up, then closes them.
+	 * @param durationMillis time to play, from the first connection
+	 * @return true if at least one client connected, false otherwise; the
+	 *         error can be retrieved by invoking {@link #getErrorMessage()}
+	 */
+	public boolean run(long durationMillis) throws InterruptedException
+	{
+		running = true;
+		CountDownLatch finished = new CountDownLatch(target == Target.DIRECT ? 2 * clients : clients);
+		long start = System.nanoTime();
+		for (int i = 0; i < clients; i++)
+		{
+			int client = i;
+			long delay = rampMillis * i / clients;
+			if (target == Target.DIRECT)
+			{
+				Game game = new Game();
+				startThread("connect4-load-server-" + i, finished,
+						() -> serve(port + client, game));
+				startThread("connect4-load-client-" + i, finished,
+						() -> connectDirect(delay, port + client, game));
+			}
+			else
+			{
+				startThread("connect4-load-client-" + i, finished, () -> joinLobby(delay));
+			}
+		}
+
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(rampMillis + durationMillis);
+		Connect4LatencyHistogram previous = latency.copy();
+		long previousMoves = 0;
+		long previousTime = start;
+		while (System.nanoTime() < deadline)
+		{
+			long wait = Math.min(reportMillis, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+			if (finished.await(Math.max(1, wait), TimeUnit.MILLISECONDS))
+				break;
+			long now = System.nanoTime();
+			Connect4LatencyHistogram snapshot = latency.copy();
+			long movesNow = moves.sum();
+			report.accept(line(now - start, (movesNow - previousMoves) * 1e9 / (now - previousTime),
+					snapshot.since(previous)));
+			previous = snapshot;
+			previousMoves = movesNow;
+			previousTime = now;
+		}
+
+		running = false;
+		Connect4Network network;
+		while ((network = networks.poll()) != null)
+			network.closeConnection();
+		// a client still waiting to connect or to be paired is left behind
+		finished.await(2, TimeUnit.SECONDS);
+		long elapsed = System.nanoTime() - start;
+		report.accept("total " + line(elapsed, moves.sum() * 1e9 / elapsed, latency));
+
+		if (connectErrors.sum() == clients)
+		{
+			errorMessage = "No client could connect.";
+			return false;
+		}
+		errorMessage = "No error occurred.";
+		return true;
+	}
+
+	private String line(long elapsedNanos, double movesPerSecond, Connect4LatencyHistogram interval)
+	{
+		return String.format("%7.1fs moves/s=%.0f games=%d connected=%d connectErrors=%d dropped=%d "
+				+ "latency(us) p50=%d p90=%d p99=%d max=%d",
+				elapsedNanos / 1e9, movesPerSecond, games.sum(), connected.get(), connectErrors.sum(),
+				dropped.sum(), interval.getValueAtPercentile(50), interval.getValueAtPercentile(90),
+				interval.getValueAtPercentile(99), interval.getMax());
+	}
+
+	private void startThread(String name, CountDownLatch finished, Runnable task)
+	{
+		Thread thread = new Thread(null, () ->
+		{
+			try
+			{
+				task.run();
+			}
+			finally
+			{
+				finished.countDown();
+			}
+		}, name, STACK_BYTES);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Hosts a single-game server and plays yellow on it, listening again
+	 * after each game.
+	 */
+	private void serve(int serverPort, Game game)
+	{
+		boolean finished = true;
+		while (running && finished)
+		{
+			Connect4Network network = new Connect4Network(true, null, serverPort);
+			if (network.getStartError())
+				return; // the client counts the failure
+			finished = play(network, Connect4MoveMessage.YELLOW, game);
+		}
+	}
+
+	/**
+	 * Connects to a single-game server for each game, retrying while it
+	 * starts listening.
+	 */
+	private void connectDirect(long delayMillis, int serverPort, Game game)
+	{
+		pause(delayMillis);
+		boolean finished = true;
+		while (running && finished)
+		{
+			Connect4Network network = null;
+			for (int attempt = 0; attempt < CONNECT_ATTEMPTS && running && network == null; attempt++)
+			{
+				network = new Connect4Network(false, "localhost", serverPort);
+				if (network.getStartError())
+				{
+					network = null;
+					pause(CONNECT_RETRY_MILLIS);
+				}
+			}
+			if (network == null)
+			{
+				if (running)
+					connectErrors.increment();
+				return;
+			}
+			finished = play(network, Connect4MoveMessage.RED, game);
+		}
+	}
+
+	/**
+	 * Joins the lobby and plays whichever client it is paired with, joining
+	 * again after each game.
+	 */
+	private void joinLobby(long delayMillis)
+	{
+		pause(delayMillis);
+		boolean finished = true;
+		while (running && finished)
+		{
+			Connect4Network network = Connect4Network.joinLobby(host, port, 1500);
+			if (network.getStartError())
+			{
+				if (running)
+					connectErrors.increment();
+				return;
+			}
+			long sessionId = network.getSessionId();
+			Game game = lobbyGames.computeIfAbsent(sessionId, id -> new Game());
+			try
+			{
+				finished = play(network, network.getAssignedColor(), game);
+			}
+			finally
+			{
+				lobbyGames.remove(sessionId);
+			}
+		}
+	}
+
+	/**
+	 * Plays one game over a connection, then closes it.
+	 * @return true if the game was played to the end, false if the run
+	 *         ended or the connection dropped
+	 */
+	private boolean play(Connect4Network network, int color, Game game)
+	{
+		networks.add(network);
+		if (!running || !network.getGameConfig().isStandard())
+		{
+			if (running)
+				connectErrors.increment(); // a board this generator cannot play
+			networks.remove(network);
+			network.closeConnection();
+			return false;
+		}
+		Connect4Transport transport = new Connect4ReliableTransport(network, network.getGameConfig());
+		connected.incrementAndGet();
+		Connect4Bitboard board = new Connect4Bitboard();
+		Connect4Engine engine = engineDepth > 0 ? new Connect4Engine() : null;
+		SplittableRandom random = new SplittableRandom();
+		long interval = movesPerSecond > 0 ? (long) (1e9 / movesPerSecond) : 0;
+		long due = System.nanoTime();
+		try
+		{
+			while (running)
+			{
+				if (board.getPlayerToMove() == color)
+				{
+					if (interval > 0)
+					{
+						due += interval;
+						long wait;
+						while ((wait = due - System.nanoTime()) > 0 && running)
+							LockSupport.parkNanos(wait);
+					}
+					else
+					{
+						due = System.nanoTime();
+					}
+					int col = chooseColumn(board, engine, random);
+					int row = Connect4Model.ROWS - 1
+							- Long.bitCount(board.getMask() & Connect4Bitboard.columnMask(col));
+					game.due = due;
+					if (!transport.writeMessage(new Connect4MoveMessage(row, col, color)))
+						break;
+					board.play(col);
+				}
+				else
+				{
+					Connect4MoveMessage message = transport.readMessage();
+					if (message == null)
+						break;
+					latency.record((System.nanoTime() - game.due) / 1000);
+					moves.increment();
+					board.play(message.getColumn());
+				}
+				if (board.lastMoveWon() || board.getMoveCount() == Connect4Model.ROWS * Connect4Model.COLUMNS)
+				{
+					if (color == Connect4MoveMessage.YELLOW)
+						games.increment();
+					// the last mover reads the acknowledgement, then the close
+					if (board.getPlayerToMove() != color)
+						transport.readMessage();
+					return true;
+				}
+			}
+			if (running)
+				dropped.increment();
+			return false;
+		}
+		finally
+		{
+			connected.decrementAndGet();
+			networks.remove(network);
+			transport.closeConnection();
+		}
+	}
+
+	private int chooseColumn(Connect4Bitboard board, Connect4Engine engine, SplittableRandom random)
+	{
+		if (engine != null)
+		{
+			engine.search(board, engineDepth);
+			if (engine.getBestMove() >= 0)
+				return engine.getBestMove();
+		}
+		int col;
+		do
+		{
+			col = random.nextInt(Connect4Model.COLUMNS);
+		} while (!board.canPlay(col));
+		return col;
+	}
+
+	private void pause(long millis)
+	{
+		if (millis > 0)
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	/**
+	 * @return move latencies of the whole run in microseconds
+	 */
+	public Connect4LatencyHistogram getLatency() { return latency; }
+
+	/**
+	 * @return moves delivered to the opponent
+	 */
+	public long getMoves() { return moves.sum(); }
+
+	/**
+	 * @return games played to a result
+	 */
+	public long getGames() { return games.sum(); }
+
+	/**
+	 * @return clients that stopped because they could not connect
+	 */
+	public long getConnectErrors() { return connectErrors.sum(); }
+
+	/**
+	 * @return connections lost before the run ended
+	 */
+	public long getDropped() { return dropped.sum(); }
+
+	public String getErrorMessage() { return errorMessage; }
+
+	/**
+	 * The time the last move of a game was due, written by the player who
+	 * made it and read by the other, who moves only after reading it.
+	 */
+	private static final class Game
+	{
+		volatile long due;
+	}
+
+	/**
+	 * Runs a load test.
+	 * @param args direct|lobby [clients] [seconds] [moves per second per
+	 *        client] [engine depth] [port]; a lobby test without a port
+	 *        starts its own lobby on the loopback address
+	 */
+	public static void main(String[] args) throws InterruptedException
+	{
+		Target target = args.length > 0 ? Target.valueOf(args[0].toUpperCase()) : Target.LOBBY;
+		int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		double rate = args.length > 3 ? Double.parseDouble(args[3]) : 2;
+		int depth = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+		int port = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+
+		Connect4LobbyServer lobby = null;
+		if (target == Target.LOBBY && port == 0)
+		{
+			lobby = new Connect4LobbyServer(Connect4LobbyServer.PairingPolicy.FIFO, 100);
+			if (!lobby.start(InetAddress.getLoopbackAddress(), 0))
+			{
+				System.err.println(lobby.getErrorMessage());
+				return;
+			}
+			port = lobby.getPort();
+		}
+		else if (port == 0)
+		{
+			port = 6000;
+		}
+
+		Connect4LoadGenerator generator = new Connect4LoadGenerator(target, "localhost", port, clients);
+		generator.setMoveRate(rate);
+		generator.setEngineDepth(depth);
+		generator.setRampUp(Math.min(5000, clients * 2L));
+		generator.setReport(1000, System.out::println);
+		if (!generator.run(TimeUnit.SECONDS.toMillis(seconds)))
+			System.err.println(generator.getErrorMessage());
+		System.out.println("latency(us) " + generator.getLatency());
+		if (lobby != null)
+			lobby.stop();
+	}
+}
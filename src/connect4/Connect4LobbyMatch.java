@@ -0,0 +1,27 @@
+package connect4;
+
+import java.io.Serializable;
+
+/**
+ * Connect4LobbyMatch Class.
+ * 
+ * <p>Sent by the {@link Connect4LobbyServer} to each player once they have been
+ * paired. The player assigned {@link Connect4MoveMessage#YELLOW} moves first,
+ * just like the server side of a direct {@link Connect4Network} game.</p>
+ *
+ */
+public class Connect4LobbyMatch implements Serializable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private long sessionId;
+    private int color;
+    
+    public Connect4LobbyMatch(long sessionId, int color) {
+        this.sessionId = sessionId;
+        this.color = color;
+    }
+    
+    public long getSessionId() { return sessionId; }
+    public int getColor() { return color; }
+}
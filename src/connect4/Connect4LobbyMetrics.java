@@ -0,0 +1,102 @@
+package connect4;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters published by a {@link Connect4LobbyServer}.
+ * 
+ * <p>All values are updated lock-free by the lobby threads and may be read
+ * from any thread. Pairing latency is the time a player spent in the queue,
+ * from the lobby reading its {@link Connect4LobbyTicket} to the pair being
+ * formed, and is recorded once per paired player.</p>
+ * 
+ * <p>While the lobby is running the counters are also published over JMX,
+ * under {@link Connect4LobbyServer#metricsName()}.</p>
+ *
+ */
+public class Connect4LobbyMetrics implements Connect4LobbyMetricsMXBean {
+    
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final LongAdder playersJoined = new LongAdder();
+    private final LongAdder sessionsStarted = new LongAdder();
+    private final LongAdder pairingLatencyTotalNanos = new LongAdder();
+    private final LongAdder pairingLatencyCount = new LongAdder();
+    private final AtomicLong pairingLatencyMaxNanos = new AtomicLong();
+    
+    void playerQueued() {
+        playersJoined.increment();
+        queueDepth.incrementAndGet();
+    }
+    
+    void playerLeftQueue() {
+        queueDepth.decrementAndGet();
+    }
+    
+    void playerPaired(long waitedNanos) {
+        queueDepth.decrementAndGet();
+        pairingLatencyTotalNanos.add(waitedNanos);
+        pairingLatencyCount.increment();
+        pairingLatencyMaxNanos.accumulateAndGet(waitedNanos, Math::max);
+    }
+    
+    void sessionStarted() {
+        sessionsStarted.increment();
+        activeSessions.incrementAndGet();
+    }
+    
+    void sessionEnded() {
+        activeSessions.decrementAndGet();
+    }
+    
+    /**
+     * @return number of players currently waiting to be paired
+     */
+    @Override
+    public int getQueueDepth() { return queueDepth.get(); }
+    
+    /**
+     * @return number of game sessions currently being relayed
+     */
+    @Override
+    public int getActiveSessions() { return activeSessions.get(); }
+    
+    /**
+     * @return total players that have entered the queue
+     */
+    @Override
+    public long getPlayersJoined() { return playersJoined.sum(); }
+    
+    /**
+     * @return total game sessions started
+     */
+    @Override
+    public long getSessionsStarted() { return sessionsStarted.sum(); }
+    
+    /**
+     * @return mean time spent in the queue by paired players, in milliseconds
+     */
+    @Override
+    public double getMeanPairingLatencyMillis() {
+        long count = pairingLatencyCount.sum();
+        return count == 0 ? 0.0 : pairingLatencyTotalNanos.sum() / (count * 1e6);
+    }
+    
+    /**
+     * @return longest time spent in the queue by a paired player, in milliseconds
+     */
+    @Override
+    public double getMaxPairingLatencyMillis() {
+        return pairingLatencyMaxNanos.get() / 1e6;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("queueDepth=%d activeSessions=%d playersJoined=%d sessionsStarted=%d "
+                + "pairingLatencyMeanMs=%.3f pairingLatencyMaxMs=%.3f",
+                getQueueDepth(), getActiveSessions(), getPlayersJoined(), getSessionsStarted(),
+                getMeanPairingLatencyMillis(), getMaxPairingLatencyMillis());
+    }
+}
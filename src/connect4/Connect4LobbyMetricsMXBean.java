@@ -0,0 +1,39 @@
+package connect4;
+
+/**
+ * Management interface of {@link Connect4LobbyMetrics}, registered by a
+ * running {@link Connect4LobbyServer}.
+ *
+ */
+public interface Connect4LobbyMetricsMXBean {
+    
+    /**
+     * @return number of players currently waiting to be paired
+     */
+    int getQueueDepth();
+    
+    /**
+     * @return number of game sessions currently being relayed
+     */
+    int getActiveSessions();
+    
+    /**
+     * @return total players that have entered the queue
+     */
+    long getPlayersJoined();
+    
+    /**
+     * @return total game sessions started
+     */
+    long getSessionsStarted();
+    
+    /**
+     * @return mean time spent in the queue by paired players, in milliseconds
+     */
+    double getMeanPairingLatencyMillis();
+    
+    /**
+     * @return longest time spent in the queue by a paired player, in milliseconds
+     */
+    double getMaxPairingLatencyMillis();
+}
@@ -0,0 +1,367 @@
+package connect4;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A matchmaking lobby that pairs waiting players and relays their games.
+ * 
+ * <p>Players (human or computer) connect with
+ * {@link Connect4Network#joinLobby(String, int, int)} and send a
+ * {@link Connect4LobbyTicket}. Arrivals are handed to a single pairing thread
+ * through a concurrent queue. Once two players are paired, each is sent a
+ * {@link Connect4LobbyMatch} with its color and the lobby relays
+ * {@link Connect4MoveMessage}s between them for the rest of that session.</p>
+ * 
+ * <p>Pairing is either first-come first-served ({@link PairingPolicy#FIFO}),
+ * or restricted to players whose ratings are within a band
+ * ({@link PairingPolicy#RATING_BANDED}). The band widens by its own width for
+ * every second a player has waited, so nobody waits forever.</p>
+ * 
+ * <p>A waiting player sends nothing until matched, so before pairing two
+ * players the lobby reads each with a very short timeout: end of stream
+ * means the player has left, and it is dropped from the queue rather than
+ * handed to an opponent.</p>
+ * 
+ * <p>Queue depth and pairing latency are available from {@link #getMetrics()}.
+ * Errors are reported like {@link Connect4Network}, through a status result
+ * and {@link #getErrorMessage()}.</p>
+ *
+ */
+public class Connect4LobbyServer {
+    
+    /**
+     * How waiting players are matched.
+     */
+    public enum PairingPolicy { FIFO, RATING_BANDED }
+    
+    private static final long POLL_MILLIS = 100;
+    
+    private final PairingPolicy policy;
+    private final int ratingBand;
+    private final Connect4LobbyMetrics metrics;
+    private final BlockingQueue<Waiting> arrivals;
+    private final ArrayList<Waiting> waiting; // owned by the pairing thread
+    private final AtomicLong nextSessionId;
+    
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+    private String errorMessage;
+    
+    /**
+     * Constructor.
+     * 
+     * @param policy - how waiting players are paired
+     * @param ratingBand - the largest rating difference paired immediately,
+     *                     used by {@link PairingPolicy#RATING_BANDED}
+     */
+    public Connect4LobbyServer(PairingPolicy policy, int ratingBand) {
+        this.policy = policy;
+        this.ratingBand = ratingBand;
+        this.metrics = new Connect4LobbyMetrics();
+        this.arrivals = new LinkedBlockingQueue<Waiting>();
+        this.waiting = new ArrayList<Waiting>();
+        this.nextSessionId = new AtomicLong();
+        this.errorMessage = "No error occurred.";
+    }
+    
+    /**
+     * Starts accepting players on the given port. A port of 0 picks a free
+     * port, which can be read back with {@link #getPort()}.
+     * 
+     * @param bindAddress - the local address to listen on, or null for all
+     * @param port - the port number
+     * @return true if no exception, false otherwise
+     */
+    public boolean start(InetAddress bindAddress, int port) {
+        try {
+            serverSocket = new ServerSocket(port, 50, bindAddress);
+        }catch(IOException e) {
+            errorMessage = "IOException occurred while trying to establish lobby.";
+            return false;
+        }
+        running = true;
+        Connect4Telemetry.register(metrics, metricsName());
+        Thread acceptThread = new Thread(this::acceptLoop, "connect4-lobby-accept");
+        Thread pairingThread = new Thread(this::pairingLoop, "connect4-lobby-pairing");
+        acceptThread.setDaemon(true);
+        pairingThread.setDaemon(true);
+        acceptThread.start();
+        pairingThread.start();
+        return true;
+    }
+    
+    /**
+     * Stops accepting players. Sessions already in progress run to completion.
+     * 
+     * @return true if no exception, false otherwise
+     */
+    public boolean stop() {
+        running = false;
+        if(serverSocket != null)
+            Connect4Telemetry.unregister(metricsName());
+        try {
+            if(serverSocket != null)
+                serverSocket.close();
+        }catch(IOException e) {
+            errorMessage = "IOException occurred while trying to close lobby.";
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * @return the JMX name the metrics are registered under while the lobby runs
+     */
+    public String metricsName() { return "connect4:type=Lobby,port=" + getPort(); }
+    
+    /**
+     * @return the local port the lobby is listening on
+     */
+    public int getPort() { return serverSocket.getLocalPort(); }
+    
+    /**
+     * @return the lobby metrics
+     */
+    public Connect4LobbyMetrics getMetrics() { return metrics; }
+    
+    /**
+     * @return the message associated with the last error
+     */
+    public String getErrorMessage() { return errorMessage; }
+    
+    /**
+     * Accepts connections and starts a handshake thread for each, so a slow
+     * client cannot hold up the accept loop.
+     */
+    private void acceptLoop() {
+        while(running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread handshake = new Thread(() -> handshake(socket), "connect4-lobby-handshake");
+                handshake.setDaemon(true);
+                handshake.start();
+            }catch(IOException e) {
+                if(running)
+                    errorMessage = "IOException occurred while accepting a player.";
+            }
+        }
+    }
+    
+    /**
+     * Reads the player's ticket and queues the player for pairing.
+     */
+    private void handshake(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            // buffered so each message leaves in one piece on flush
+            ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            output.flush();
+            ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
+            Connect4LobbyTicket ticket = (Connect4LobbyTicket) input.readObject();
+            metrics.playerQueued();
+            arrivals.add(new Waiting(socket, output, input, ticket.getRating(), System.nanoTime()));
+        }catch(IOException | ClassNotFoundException | ClassCastException e) {
+            closeQuietly(socket);
+        }
+    }
+    
+    /**
+     * Moves arrivals into the waiting list and forms pairs. Also wakes up
+     * periodically so rating bands widen while nobody new arrives.
+     */
+    private void pairingLoop() {
+        while(running) {
+            try {
+                Waiting arrival = arrivals.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if(arrival != null) {
+                    waiting.add(arrival);
+                    arrivals.drainTo(waiting);
+                }
+            }catch(InterruptedException e) {
+                return;
+            }
+            pairWaiting(System.nanoTime());
+        }
+        for(Waiting w : waiting)
+            leaveQueue(w);
+    }
+    
+    /**
+     * Pairs as many waiting players as the policy allows, oldest first.
+     */
+    private void pairWaiting(long now) {
+        int i = 0;
+        while(i < waiting.size()) {
+            Waiting first = waiting.get(i);
+            int partner = -1;
+            for(int j = i + 1; j < waiting.size() && partner < 0; j++) {
+                if(policy == PairingPolicy.FIFO || withinBand(first, waiting.get(j), now))
+                    partner = j;
+            }
+            if(partner < 0) {
+                i++;
+            }else if(!isConnected(first)) {
+                leaveQueue(waiting.remove(i));
+            }else if(!isConnected(waiting.get(partner))) {
+                leaveQueue(waiting.remove(partner));
+            }else {
+                Waiting second = waiting.remove(partner);
+                waiting.remove(i);
+                startSession(first, second, now);
+            }
+        }
+    }
+    
+    /**
+     * Checks a waiting player is still connected. A read that times out finds
+     * the socket open; end of stream, or data sent before the match, means
+     * the player cannot be paired.
+     */
+    private static boolean isConnected(Waiting w) {
+        try {
+            w.socket.setSoTimeout(1);
+            try {
+                w.socket.getInputStream().read();
+                return false;
+            }finally {
+                w.socket.setSoTimeout(0);
+            }
+        }catch(SocketTimeoutException e) {
+            return true;
+        }catch(IOException e) {
+            return false;
+        }
+    }
+    
+    private void leaveQueue(Waiting w) {
+        metrics.playerLeftQueue();
+        closeQuietly(w.socket);
+    }
+    
+    private boolean withinBand(Waiting a, Waiting b, long now) {
+        long waitedSeconds = (now - Math.min(a.queuedNanos, b.queuedNanos)) / 1_000_000_000L;
+        long band = ratingBand * (1 + waitedSeconds);
+        return Math.abs(a.rating - b.rating) <= band;
+    }
+    
+    /**
+     * Tells both players their colors and starts relaying between them. The
+     * player who waited longer moves first.
+     */
+    private void startSession(Waiting yellow, Waiting red, long now) {
+        metrics.playerPaired(now - yellow.queuedNanos);
+        metrics.playerPaired(now - red.queuedNanos);
+        
+        long sessionId = nextSessionId.incrementAndGet();
+        try {
+            yellow.output.writeObject(new Connect4LobbyMatch(sessionId, Connect4MoveMessage.YELLOW));
+            yellow.output.flush();
+            red.output.writeObject(new Connect4LobbyMatch(sessionId, Connect4MoveMessage.RED));
+            red.output.flush();
+        }catch(IOException e) {
+            closeQuietly(yellow.socket);
+            closeQuietly(red.socket);
+            return;
+        }
+        
+        metrics.sessionStarted();
+        Connect4Telemetry.session(sessionId, "started", 0, Connect4Model.EMPTY);
+        AtomicBoolean ended = new AtomicBoolean();
+        Thread yellowToRed = new Thread(() -> relay(sessionId, yellow, red, ended), "connect4-session-" + sessionId + "-y");
+        Thread redToYellow = new Thread(() -> relay(sessionId, red, yellow, ended), "connect4-session-" + sessionId + "-r");
+        yellowToRed.setDaemon(true);
+        redToYellow.setDaemon(true);
+        yellowToRed.start();
+        redToYellow.start();
+    }
+    
+    /**
+     * Forwards messages from one player to the other until either side
+     * disconnects, then closes both. Whichever direction stops first ends
+     * the session in the metrics.
+     */
+    private void relay(long sessionId, Waiting from, Waiting to, AtomicBoolean ended) {
+        try {
+            while(true) {
+                Object message = from.input.readObject();
+                to.output.writeObject(message);
+                to.output.flush();
+            }
+        }catch(IOException | ClassNotFoundException e) {
+            // either player left - session over
+        }finally {
+            closeQuietly(from.socket);
+            closeQuietly(to.socket);
+            if(ended.compareAndSet(false, true)) {
+                metrics.sessionEnded();
+                Connect4Telemetry.session(sessionId, "ended", 0, Connect4Model.EMPTY);
+            }
+        }
+    }
+    
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        }catch(IOException e) {
+            // already closed
+        }
+    }
+    
+    /**
+     * A connected player waiting in the queue.
+     */
+    private static final class Waiting {
+        final Socket socket;
+        final ObjectOutputStream output;
+        final ObjectInputStream input;
+        final int rating;
+        final long queuedNanos;
+        
+        Waiting(Socket socket, ObjectOutputStream output, ObjectInputStream input, int rating, long queuedNanos) {
+            this.socket = socket;
+            this.output = output;
+            this.input = input;
+            this.rating = rating;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+    
+    /**
+     * Runs a lobby from the command line.
+     * <p>Arguments: <code>[port] [FIFO|RATING_BANDED] [ratingBand]</code>,
+     * defaulting to port 4000, FIFO pairing and a band of 100. Metrics are
+     * printed every ten seconds.</p>
+     * 
+     * @param args command line arguments
+     * @throws InterruptedException if interrupted while running
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        PairingPolicy policy = args.length > 1 ? PairingPolicy.valueOf(args[1]) : PairingPolicy.FIFO;
+        int band = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        
+        Connect4LobbyServer lobby = new Connect4LobbyServer(policy, band);
+        if(!lobby.start(null, port)) {
+            System.err.println(lobby.getErrorMessage());
+            return;
+        }
+        System.out.println("Lobby listening on port " + lobby.getPort() + " (" + policy + ")");
+        while(true) {
+            Thread.sleep(10_000);
+            System.out.println(lobby.getMetrics());
+        }
+    }
+}
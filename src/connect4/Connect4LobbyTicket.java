@@ -0,0 +1,24 @@
+package connect4;
+
+import java.io.Serializable;
+
+/**
+ * Connect4LobbyTicket Class.
+ * 
+ * <p>Sent by a player to the {@link Connect4LobbyServer} immediately after
+ * connecting, to enter the pairing queue. The rating is only used by the
+ * rating-banded pairing policy.</p>
+ *
+ */
+public class Connect4LobbyTicket implements Serializable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private int rating;
+    
+    public Connect4LobbyTicket(int rating) {
+        this.rating = rating;
+    }
+    
+    public int getRating() { return rating; }
+}
@@ -0,0 +1,143 @@
+package connect4;
+
+/**
+ * A map from <code>long</code> keys to <code>int</code> values using open
+ * addressing with linear probing over primitive arrays, so lookups neither
+ * box nor allocate. Removal shifts later entries back instead of leaving
+ * tombstones, so the table never degrades.
+ * 
+ * <p>Key 0 is reserved to mark free slots. Not thread-safe.</p>
+ *
+ */
+public class Connect4LongIntMap 
+{
+	public static final int MISSING = -1;
+	
+	private long[] keys;
+	private int[] values;
+	private int size;
+	
+	/**
+	 * Connect4LongIntMap Constructor.
+	 * @param expectedKeys number of keys to size the table for
+	 */
+	public Connect4LongIntMap(int expectedKeys)
+	{
+		int capacity = Integer.highestOneBit(Math.max(4, expectedKeys * 2 - 1)) << 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+	}
+	
+	/**
+	 * Gets the value of a key.
+	 * @param key key, not 0
+	 * @return value, {@link #MISSING} if absent
+	 */
+	public int get(long key)
+	{
+		int slot = slot(key);
+		return keys[slot] == 0 ? MISSING : values[slot];
+	}
+	
+	/**
+	 * Sets the value of a key.
+	 * @param key key, not 0
+	 * @param value value
+	 */
+	public void put(long key, int value)
+	{
+		int slot = slot(key);
+		if (keys[slot] == 0)
+		{
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] = value;
+		if (size * 2 > keys.length)
+			grow();
+	}
+	
+	/**
+	 * Removes a key.
+	 * @param key key
+	 * @return the removed value, {@link #MISSING} if absent
+	 */
+	public int remove(long key)
+	{
+		int slot = slot(key);
+		if (keys[slot] == 0)
+			return MISSING;
+		int removed = values[slot];
+		int m = keys.length - 1;
+		// shift back any entry whose probe sequence passes through the hole
+		int hole = slot;
+		int next = (hole + 1) & m;
+		while (keys[next] != 0)
+		{
+			int home = hash(keys[next]) & m;
+			if (((next - home) & m) >= ((next - hole) & m))
+			{
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+			next = (next + 1) & m;
+		}
+		keys[hole] = 0;
+		size--;
+		return removed;
+	}
+	
+	public int size() { return size; }
+	
+	/*
+	 * Walking the table: every index below tableLength() whose key is not 0
+	 * holds an entry. Only valid until the next put or remove.
+	 */
+	int tableLength() { return keys.length; }
+	long keyAt(int index) { return keys[index]; }
+	int valueAt(int index) { return values[index]; }
+	
+	/**
+	 * Gets the number of bytes held by the table's arrays.
+	 * @return table bytes
+	 */
+	public long tableBytes()
+	{
+		return (long) keys.length * (Long.BYTES + Integer.BYTES);
+	}
+	
+	private int slot(long key)
+	{
+		int m = keys.length - 1;
+		int slot = hash(key) & m;
+		while (keys[slot] != 0 && keys[slot] != key)
+		{
+			slot = (slot + 1) & m;
+		}
+		return slot;
+	}
+	
+	private static int hash(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+	
+	private void grow()
+	{
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if (oldKeys[i] != 0)
+			{
+				int slot = slot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package connect4;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * An in-process {@link Connect4Transport} for running two controllers against
+ * each other without a socket.
+ * 
+ * <p>Endpoints are created in connected pairs by {@link #createPair()}. Each
+ * endpoint writes into its peer's inbox queue and reads from its own, so a
+ * message is handed over by reference with no serialization or kernel
+ * round-trip.</p>
+ * 
+ * <p>Closing either endpoint closes the pair: any reader blocked in
+ * {@link #readMessage()} on either side is woken and returns null, matching
+ * how {@link Connect4Network#readMessage()} reports a closed connection.</p>
+ *
+ */
+public class Connect4LoopbackTransport implements Connect4Transport {
+    
+    // placed in an inbox to wake a blocked reader when the pair is closed
+    private static final Connect4MoveMessage CLOSED = new Connect4MoveMessage(-1, -1, -1);
+    
+    private final BlockingQueue<Connect4MoveMessage> inbox;
+    private Connect4LoopbackTransport peer;
+    private volatile boolean closed;
+    private String errorMessage;
+    
+    private Connect4LoopbackTransport() {
+        inbox = new LinkedBlockingQueue<Connect4MoveMessage>();
+        errorMessage = "No error occurred.";
+    }
+    
+    /**
+     * Creates two connected endpoints. A message written to one is read from
+     * the other.
+     * 
+     * @return a two element array holding the connected endpoints
+     */
+    public static Connect4LoopbackTransport[] createPair() {
+        Connect4LoopbackTransport first = new Connect4LoopbackTransport();
+        Connect4LoopbackTransport second = new Connect4LoopbackTransport();
+        first.peer = second;
+        second.peer = first;
+        return new Connect4LoopbackTransport[] {first, second};
+    }
+    
+    @Override
+    public boolean writeMessage(Connect4MoveMessage message) {
+        if(closed) {
+            errorMessage = "Attempted to write to a closed connection.";
+            return false;
+        }
+        errorMessage = "No error occurred.";
+        peer.inbox.add(message);
+        return true;
+    }
+    
+    @Override
+    public Connect4MoveMessage readMessage() {
+        Connect4MoveMessage message = null;
+        errorMessage = "No error occurred.";
+        try {
+            message = inbox.take();
+        }catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errorMessage = "Interrupted while waiting for message.";
+            return null;
+        }
+        if(message == CLOSED) {
+            inbox.add(CLOSED); // leave the marker for any other reader
+            errorMessage = "Connection Closed.";
+            return null;
+        }
+        return message;
+    }
+    
+    @Override
+    public boolean closeConnection() {
+        if(!closed) {
+            closed = true;
+            inbox.add(CLOSED);
+            peer.closeConnection();
+        }
+        return true;
+    }
+    
+    @Override
+    public boolean getStartError() { return false; }
+    
+    @Override
+    public String getErrorMessage() { return errorMessage; }
+}
@@ -1,48 +1,69 @@
 package connect4;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Observable;
 
 /**
  * This class serves as the underlying Model for the Connect4 Program.
  * 
- * <p> Observers of a Connect4Model will be notifed of changes with each
- * position set. The {@link Observable#notifyObservers()} method will pass an
- * {@link Connect4MoveMessage} to Observers.
+ * <p> {@link Connect4GameListener}s of a Connect4Model are notified of each
+ * position set, each win and each reset through the model's
+ * {@link Connect4EventBus}. Events carry primitive values, so setting a
+ * position allocates nothing.
  * <p> Top left of the grid acts as the anchor at (0,0). The grid is checked for
- * four-in-a-row after each position is set.
+ * N-in-a-row after each position is set. The size of the grid and N come from
+ * the model's {@link Connect4GameConfig}; ROWS and COLUMNS are the size of the
+ * standard board used by default.
  * <p> {@link Connect4Model} tracks the winner throughout the game. Until a
  * four-in-a-row is created, the winner is considered a draw, indicated by
  * EMPTY.
- * <p> A list of all red/yellow discs in play in maintained to expedite checking
- * the grid for a winner.
+ * <p> On the standard board the discs of each color are also kept as a 
+ * bitboard. Checking for a winner is a few shifts of the mover's bitboard, and
+ * {@link #getSnapshot()} can hand out an immutable {@link Connect4Snapshot} 
+ * with a single small allocation. Other sizes count the mover's line through
+ * the new disc in the grid instead, and have no snapshots.
  * 
  * @author Caroline O'Neill
  * 
  */
-public class Connect4Model extends Observable 
+public class Connect4Model 
 {
 	public static final int ROWS = 6;
 	public static final int COLUMNS = 7;
 	public static final int EMPTY = 0;
 	
+	private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {-1, 1}}; // {dRow, dCol}
+	
+	private Connect4GameConfig config;
+	private boolean standard; // bitboards are kept
 	private int[][] grid; // grid[row][col]
 	private int winner;
+	private long yellowBits; // Connect4Bitboard layout
+	private long redBits;
+	private int moveCount;
 	
-	private ArrayList<int[]> redList; // lists all red positions [row, col]
-	private ArrayList<int[]> yellowList; // lists all yellow positions [row, col]
+	private final Connect4EventBus events;
 	
 	/**
-	 * Connect4Model Constructor.
+	 * Connect4Model Constructor for the standard board.
 	 */
 	public Connect4Model()
+	{
+		this(Connect4GameConfig.STANDARD);
+	}
+	
+	/**
+	 * Connect4Model Constructor.
+	 * @param config board size and number in a row needed to win
+	 */
+	public Connect4Model(Connect4GameConfig config)
 	{
 		// setting empty grid
-		grid = new int[6][7];
-		for (int r = 0; r < ROWS; r++)
+		this.config = config;
+		standard = config.isStandard();
+		grid = new int[config.getRows()][config.getColumns()];
+		for (int r = 0; r < grid.length; r++)
 		{
-			for (int c = 0; c < COLUMNS; c++)
+			for (int c = 0; c < grid[r].length; c++)
 			{
 				grid[r][c] = EMPTY;
 			}
@@ -50,18 +71,139 @@ public class Connect4Model extends Observable
 		// set as draw - no winner yet
 		winner = EMPTY;
 		
-		// initialize position lists
-		redList = new ArrayList<int[]>();
-		yellowList = new ArrayList<int[]>();
+		events = new Connect4EventBus();
+	}
+	
+	/**
+	 * Gets the board configuration.
+	 * @return configuration
+	 */
+	public Connect4GameConfig getConfig()
+	{
+		return config;
+	}
+	
+	public int getRows() { return grid.length; }
+	public int getColumns() { return grid[0].length; }
+	
+	/**
+	 * Adds a listener to be notified of changes.
+	 * @param listener listener
+	 */
+	public void addListener(Connect4GameListener listener)
+	{
+		events.addListener(listener);
+	}
+	
+	/**
+	 * Removes a listener.
+	 * @param listener listener
+	 */
+	public void removeListener(Connect4GameListener listener)
+	{
+		events.removeListener(listener);
+	}
+	
+	/**
+	 * Gets the event bus, for example to batch events.
+	 * @return event bus
+	 */
+	public Connect4EventBus getEventBus()
+	{
+		return events;
 	}
 	
 	/**
-	 * Get a copy of the underlying grid.
+	 * Clears the board for a new game and notifies listeners.
+	 */
+	public void reset()
+	{
+		for (int[] row : grid)
+		{
+			Arrays.fill(row, EMPTY);
+		}
+		winner = EMPTY;
+		yellowBits = 0;
+		redBits = 0;
+		moveCount = 0;
+		events.gameReset();
+	}
+	
+	/**
+	 * Clears the board for a new game with a different configuration and
+	 * notifies listeners.
+	 * @param config board size and number in a row needed to win
+	 */
+	public void reset(Connect4GameConfig config)
+	{
+		if (!config.sameBoard(this.config))
+		{
+			standard = config.isStandard();
+			grid = new int[config.getRows()][config.getColumns()];
+		}
+		this.config = config;
+		reset();
+	}
+	
+	/**
+	 * Ends the game with a loss on time and notifies listeners. Ignored if
+	 * the game has already been won.
+	 * @param color color of the player who ran out of time
+	 */
+	public void timeOut(int color)
+	{
+		if (winner != EMPTY)
+			return;
+		winner = color == Connect4MoveMessage.YELLOW ? Connect4MoveMessage.RED : Connect4MoveMessage.YELLOW;
+		events.gameWon(winner);
+	}
+	
+	/**
+	 * Get a copy of the underlying grid. Every row is copied, so the result
+	 * shares nothing with the model; prefer {@link #getSnapshot()} where a
+	 * grid is not required.
 	 * @return grid
 	 */
 	public int[][] getGridCopy()
 	{
-		return Arrays.copyOf(grid, grid.length);
+		int[][] copy = new int[grid.length][];
+		for (int r = 0; r < grid.length; r++)
+		{
+			copy[r] = Arrays.copyOf(grid[r], grid[r].length);
+		}
+		return copy;
+	}
+	
+	/**
+	 * Get an immutable snapshot of the board.
+	 * @return snapshot
+	 * @throws IllegalStateException if the board is not the standard size
+	 */
+	public Connect4Snapshot getSnapshot()
+	{
+		checkStandard();
+		return new Connect4Snapshot(yellowBits, redBits, moveCount);
+	}
+	
+	/**
+	 * Copies the board into a reusable holder without allocating.
+	 * @param holder holder to fill
+	 * @throws IllegalStateException if the board is not the standard size
+	 */
+	public void readSnapshot(Connect4SnapshotHolder holder)
+	{
+		checkStandard();
+		holder.set(yellowBits, redBits, moveCount);
+	}
+	
+	/**
+	 * Loads the board into a search position without allocating.
+	 * @param board board of the same configuration
+	 * @param colorToMove color of the player to move next
+	 */
+	public void readPosition(Connect4Board board, int colorToMove)
+	{
+		board.setPosition(grid, colorToMove);
 	}
 	
 	/**
@@ -87,92 +229,83 @@ public class Connect4Model extends Observable
 	}
 	
 	/**
-	 * Set the color at the position (row, col). After position is set, updates
-	 * position lists, checks for four-in-a-row, and notifies observers.
+	 * Set the color at the position (row, col). After position is set, checks
+	 * for N-in-a-row, and notifies listeners.
 	 * @param row row index
 	 * @param col col index
 	 * @param color color to set
 	 */
 	public void setPosition(int row, int col, int color)
 	{
+		long start = Connect4Telemetry.moveStart();
 		grid[row][col] = color;
-			
-		// update disc positon lists
-		if (color == Connect4MoveMessage.RED)
-			redList.add(new int[] {row, col});
-		if (color == Connect4MoveMessage.YELLOW)
-			yellowList.add(new int[] {row, col});
+		boolean won = false;
+		if (standard)
+		{
+			long bit = Connect4Bitboard.cell(ROWS - 1 - row, col);
+			if (color == Connect4MoveMessage.YELLOW)
+			{
+				yellowBits |= bit;
+				won = Connect4Bitboard.hasFour(yellowBits);
+			}
+			if (color == Connect4MoveMessage.RED)
+			{
+				redBits |= bit;
+				won = Connect4Bitboard.hasFour(redBits);
+			}
+		}
+		else if (color != EMPTY)
+		{
+			won = connects(row, col, color);
+		}
+		moveCount++;
 		
 		// check for winner
-		if (checkForStreak(color))
+		boolean newWinner = won && winner != color;
+		if (won)
 			winner = color;
+		if (start != 0)
+			Connect4Telemetry.moveApplied(start, row, col, color);
 
-		// notify observers of changes
-		Connect4MoveMessage message = new Connect4MoveMessage(row, col, color);
-		setChanged();
-		notifyObservers(message);
+		// notify listeners of changes
+		events.moveMade(row, col, color);
+		if (newWinner)
+			events.gameWon(color);
 	}
 	
 	/**
-	 * Checks the grid to for-four-in-a-row discs, matching the color(int) passed. 
-	 * Only iterates through known disc positons.
-	 * @param row row index
-	 * @param col col index
-	 * @param color which disc set is checked
-	 * @return
+	 * Checks whether the disc at (row, col) is part of a line of N.
 	 */
-	private boolean checkForStreak(int color)
+	private boolean connects(int row, int col, int color)
 	{
-		ArrayList<int[]> list;
-		
-		if (color == Connect4MoveMessage.RED)
-			list = redList;
-		else if (color == Connect4MoveMessage.YELLOW)
-			list = yellowList;
-		else
-			return false;
-				
-		for (int[] pair : list)
+		for (int[] d : DIRECTIONS)
 		{
-			int row = pair[0];
-			int col = pair[1];
-			// check down
-			if (row + 3 < ROWS 
-					&& grid[row + 1][col] == color
-					&& grid[row + 2][col] == color
-					&& grid[row + 3][col] == color)
-			{
-				return true;
-			}
-		
-			// check right
-			if (col + 3 < COLUMNS 
-					&& grid[row][col + 1] == color
-					&& grid[row][col + 2] == color
-					&& grid[row][col + 3] == color)
-			{
-				return true;
-			}
-		
-			// check left/down
-			if (row - 3 >= 0 && col + 3 < COLUMNS
-					&& grid[row - 1][col + 1] == color
-					&& grid[row - 2][col + 2] == color
-					&& grid[row - 3][col + 3] == color)
-			{
-				return true; 
-			}
-		
-			// check right/down
-			if (row + 3 < ROWS && col + 3 < COLUMNS 
-					&& grid[row + 1][col + 1] == color
-					&& grid[row + 2][col + 2] == color
-					&& grid[row + 3][col + 3] == color)
-			{
+			int run = 1 + count(row, col, d[0], d[1], color) + count(row, col, -d[0], -d[1], color);
+			if (run >= config.getConnect())
 				return true;
-			}
 		}
 		return false;
 	}
 	
+	/**
+	 * Counts discs of a color in a direction from (row, col), not counting
+	 * the disc at (row, col) itself.
+	 */
+	private int count(int row, int col, int dRow, int dCol, int color)
+	{
+		int n = 0;
+		for (int r = row + dRow, c = col + dCol; 
+				r >= 0 && r < grid.length && c >= 0 && c < grid[r].length && grid[r][c] == color; 
+				r += dRow, c += dCol)
+		{
+			n++;
+		}
+		return n;
+	}
+	
+	private void checkStandard()
+	{
+		if (!standard)
+			throw new IllegalStateException("Snapshots are only kept for the standard board, not " + config);
+	}
 }
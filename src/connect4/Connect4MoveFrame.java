@@ -0,0 +1,57 @@
+package connect4;
+
+/**
+ * A {@link Connect4MoveMessage} as sent by {@link Connect4ReliableTransport}:
+ * a move numbered in sending order, or the acknowledgement of one.
+ *
+ * <p>Both kinds carry the sender's running board hash after the move, so
+ * the two ends compare boards on every move and every acknowledgement.
+ * Being a <code>Connect4MoveMessage</code>, a frame passes through any
+ * {@link Connect4Transport} and through a lobby relay unchanged.</p>
+ *
+ */
+public class Connect4MoveFrame extends Connect4MoveMessage {
+    public static final int MOVE = 0;
+    public static final int ACK = 1;
+
+    private static final long serialVersionUID = 1L;
+
+    private final int kind;
+    private final long sequence;
+    private final long boardHash;
+
+    /**
+     * Creates a move frame.
+     *
+     * @param row - row of the disc, with row 0 at the top
+     * @param col - column of the disc
+     * @param color - color of the disc
+     * @param sequence - number of this move among the sender's moves, from 1
+     * @param boardHash - the sender's board hash with this move played
+     */
+    public Connect4MoveFrame(int row, int col, int color, long sequence, long boardHash) {
+        this(MOVE, row, col, color, sequence, boardHash);
+    }
+
+    private Connect4MoveFrame(int kind, int row, int col, int color, long sequence, long boardHash) {
+        super(row, col, color);
+        this.kind = kind;
+        this.sequence = sequence;
+        this.boardHash = boardHash;
+    }
+
+    /**
+     * Creates the acknowledgement of a move frame.
+     *
+     * @param sequence - sequence number of the move received
+     * @param boardHash - the receiver's board hash with that move played
+     * @return acknowledgement frame
+     */
+    public static Connect4MoveFrame ack(long sequence, long boardHash) {
+        return new Connect4MoveFrame(ACK, -1, -1, Connect4Model.EMPTY, sequence, boardHash);
+    }
+
+    public int getKind() { return kind; }
+    public long getSequence() { return sequence; }
+    public long getBoardHash() { return boardHash; }
+}
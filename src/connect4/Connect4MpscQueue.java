@@ -0,0 +1,81 @@
+package connect4;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An unbounded, lock-free queue for many producer threads and a single
+ * consumer thread.
+ * 
+ * <p>Producers swap themselves in as the tail with one atomic exchange and
+ * then link the previous tail to the new node, so an offer never retries or
+ * blocks. Only one thread at a time may call {@link #poll()} or 
+ * {@link #isEmpty()}.</p>
+ * 
+ * <p>Between the exchange and the link an element is not yet visible to the
+ * consumer. A producer that has returned from {@link #offer(Object)} has
+ * always finished linking, which is what {@link Connect4GameSession} relies
+ * on when deciding whether to reschedule itself.</p>
+ *
+ * @param <E> element type
+ */
+public class Connect4MpscQueue<E> 
+{
+	private final AtomicReference<Node<E>> tail;
+	private Node<E> head; // consumer only; a spent node whose next is the first element
+	
+	/**
+	 * Connect4MpscQueue Constructor.
+	 */
+	public Connect4MpscQueue()
+	{
+		Node<E> stub = new Node<E>(null);
+		head = stub;
+		tail = new AtomicReference<Node<E>>(stub);
+	}
+	
+	/**
+	 * Adds an element. Safe to call from any thread.
+	 * @param element element to add, not null
+	 */
+	public void offer(E element)
+	{
+		Node<E> node = new Node<E>(element);
+		Node<E> previous = tail.getAndSet(node);
+		previous.next = node;
+	}
+	
+	/**
+	 * Removes the oldest element. Consumer thread only.
+	 * @return the element, or null if none is visible
+	 */
+	public E poll()
+	{
+		Node<E> next = head.next;
+		if (next == null)
+			return null;
+		E element = next.value;
+		next.value = null;
+		head = next;
+		return element;
+	}
+	
+	/**
+	 * Checks for visible elements. Consumer thread only.
+	 * @return true if {@link #poll()} would return null
+	 */
+	public boolean isEmpty()
+	{
+		return head.next == null;
+	}
+	
+	private static final class Node<E>
+	{
+		E value;
+		volatile Node<E> next;
+		
+		Node(E value)
+		{
+			this.value = value;
+		}
+	}
+}
@@ -1,7 +1,9 @@
 package connect4;
 
+import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
@@ -16,23 +18,32 @@ import java.net.SocketException;
  * connected server or client, and closing the network connection.</p>
  * <p>Additionally error information can be retrieved in the by invoking the
  * {@link #getErrorMessage()} method.</p>
+ * <p>This is the socket-backed {@link Connect4Transport}.</p>
+ * <p>Once connected, the server (or the yellow player of a lobby match) sends
+ * its {@link Connect4GameConfig} and the other end adopts it, so both play
+ * on the same size of board.</p>
  * 
  * @author Kristopher Rangel
  *
  */
-public class Connect4Network {
+public class Connect4Network implements Connect4Transport {
     
     private Socket connection;
     private ObjectOutputStream output;
     private ObjectInputStream input;
+    private Connect4Telemetry.CountingOutputStream outputBytes; // bytes written, for telemetry
+    private Connect4Telemetry.CountingInputStream inputBytes; // bytes read, for telemetry
     
     private boolean startedWithoutError; // true if connection started without error
     private String errorMessage; // error message associated with the last error occurring
+    private int assignedColor; // color assigned by a lobby, EMPTY for direct connections
+    private long sessionId; // session ID assigned by a lobby, 0 for direct connections
+    private Connect4GameConfig gameConfig; // configuration agreed with the other end
     
     /**
      * Constructor.
      * <p>This constructor starts a server connections or client connection as
-     * appropriate on the given port.
+     * appropriate on the given port, playing on the standard board.
      * 
      * @param isServer - whether a server connection should be established
      *                   <li>if True, a server connection will be established
@@ -44,14 +55,139 @@ public class Connect4Network {
      * 
      */
     public Connect4Network(boolean isServer, String server, int port) {
+        this(isServer, server, port, Connect4GameConfig.STANDARD);
+    }
+    
+    /**
+     * Constructor.
+     * <p>Starts a server or client connection and agrees the board 
+     * configuration: a server sends <code>config</code>, a client ignores it
+     * and adopts the server's. The agreed configuration can be retrieved by 
+     * invoking {@link #getGameConfig()}.
+     * 
+     * @param isServer - whether a server connection should be established
+     * @param server - the hostname
+     * @param port - the port number
+     * @param config - the board configuration, if this is the server
+     */
+    public Connect4Network(boolean isServer, String server, int port, Connect4GameConfig config) {
         
         if(isServer) {
-            startedWithoutError = startServer(port);
+            startedWithoutError = startServer(port) && exchangeConfig(true, config);
         }else {
-            startedWithoutError = startClient(server, port);
+            startedWithoutError = startClient(server, port) && exchangeConfig(false, config);
         }
     }
     
+    /**
+     * Constructor used by {@link #joinLobby(String, int, int)}.
+     */
+    private Connect4Network() {
+    }
+    
+    /**
+     * <ul><b><i>joinLobby</i></b></ul>
+     * <ul><ul><p><code>public static Connect4Network joinLobby (String server, int port, int rating) </code></p></ul>
+     *
+     * Connects to a {@link Connect4LobbyServer} and waits to be paired with
+     * another player.
+     *
+     * <p>Blocks until the lobby sends a {@link Connect4LobbyMatch}. The color
+     * to play can then be retrieved by invoking {@link #getAssignedColor()};
+     * the player assigned {@link Connect4MoveMessage#YELLOW} moves first.
+     * Start errors are reported through {@link #getStartError()} as with the
+     * direct constructor.</p>
+     *
+     * @param server - the lobby host name, or null for the loopback address
+     * @param port - the lobby port number
+     * @param rating - the player's rating, used for rating-banded pairing
+     * @return the network connection to the paired opponent
+     */
+    public static Connect4Network joinLobby(String server, int port, int rating) {
+        return joinLobby(server, port, rating, Connect4GameConfig.STANDARD);
+    }
+    
+    /**
+     * <ul><b><i>joinLobby</i></b></ul>
+     * <ul><ul><p><code>public static Connect4Network joinLobby (String server, int port, int rating, Connect4GameConfig config) </code></p></ul>
+     *
+     * Overloads {@link #joinLobby(String, int, int)} with a board 
+     * configuration. Once paired, the yellow player's configuration is sent
+     * to the red player and used by both.
+     *
+     * @param server - the lobby host name, or null for the loopback address
+     * @param port - the lobby port number
+     * @param rating - the player's rating, used for rating-banded pairing
+     * @param config - the board configuration, if assigned yellow
+     * @return the network connection to the paired opponent
+     */
+    public static Connect4Network joinLobby(String server, int port, int rating, Connect4GameConfig config) {
+        Connect4Network network = new Connect4Network();
+        network.startedWithoutError = network.startClient(server, port) 
+                && network.awaitMatch(rating)
+                && network.exchangeConfig(network.assignedColor == Connect4MoveMessage.YELLOW, config);
+        return network;
+    }
+    
+    /**
+     * <ul><b><i>exchangeConfig</i></b></ul>
+     * <ul><ul><p><code>private boolean exchangeConfig (boolean send, Connect4GameConfig config) </code></p></ul>
+     *
+     * Sends the board configuration, or reads the other end's.
+     *
+     * @param send - true to send <code>config</code>, false to read one
+     * @param config - the configuration to send
+     * @return true if no exception, false otherwise
+     */
+    private boolean exchangeConfig(boolean send, Connect4GameConfig config) {
+        boolean hasNoException = true;
+        try {
+            if(send) {
+                output.writeObject(config);
+                output.flush();
+                gameConfig = config;
+            }else {
+                gameConfig = (Connect4GameConfig) input.readObject();
+                if(gameConfig == null)
+                    throw new InvalidObjectException("No board configuration received.");
+            }
+        }catch(InvalidObjectException e) {
+            hasNoException = false;
+            errorMessage = "Received an invalid board configuration: " + e.getMessage();
+            closeConnection();
+        }catch(IOException | ClassNotFoundException | ClassCastException e) {
+            hasNoException = false;
+            errorMessage = "Exception occurred while agreeing the board size.";
+            closeConnection();
+        }
+        return hasNoException;
+    }
+    
+    /**
+     * <ul><b><i>awaitMatch</i></b></ul>
+     * <ul><ul><p><code>private boolean awaitMatch (int rating) </code></p></ul>
+     *
+     * Sends the lobby ticket and reads the match assignment.
+     *
+     * @param rating - the player's rating
+     * @return true if no exception, false otherwise
+     */
+    private boolean awaitMatch(int rating) {
+        boolean hasNoException = true;
+        try {
+            output.writeObject(new Connect4LobbyTicket(rating));
+            output.flush();
+            Connect4LobbyMatch match = (Connect4LobbyMatch) input.readObject();
+            assignedColor = match.getColor();
+            sessionId = match.getSessionId();
+        }catch(IOException | ClassNotFoundException | ClassCastException e) {
+            hasNoException = false;
+            errorMessage = "Exception occurred while waiting to be paired by the lobby.";
+            closeConnection();
+        }
+        return hasNoException;
+    }
+    
     /**
      * <ul><b><i>startServer</i></b></ul>
      * <ul><ul><p><code>private boolean startServer () </code></p></ul>
@@ -70,8 +206,7 @@ public class Connect4Network {
         boolean hasNoException = true;
         try (ServerSocket serverSocket = new ServerSocket(port)) {
             connection = serverSocket.accept();
-            output = new ObjectOutputStream(connection.getOutputStream());
-            input = new ObjectInputStream(connection.getInputStream());
+            openStreams();
  
         }catch(IOException e) {
             hasNoException = false;
@@ -80,6 +215,30 @@ public class Connect4Network {
         return hasNoException;
     }
 
+    /**
+     * <ul><b><i>openStreams</i></b></ul>
+     * <ul><ul><p><code>private void openStreams () throws IOException </code></p></ul>
+     *
+     * Creates the object streams of the connection over byte counters, so
+     * telemetry can report the bytes each message takes.
+     *
+     * <p>An object stream writes a message in several small pieces. Sent
+     * straight to the socket, each piece waits for the acknowledgement of the
+     * one before (Nagle's algorithm against delayed acknowledgements), which
+     * costs tens of milliseconds a move. The output is therefore buffered
+     * and flushed once per message, and Nagle's algorithm is turned off.</p>
+     *
+     * @throws IOException if the socket streams cannot be opened
+     */
+    private void openStreams() throws IOException {
+        connection.setTcpNoDelay(true);
+        outputBytes = new Connect4Telemetry.CountingOutputStream(connection.getOutputStream());
+        inputBytes = new Connect4Telemetry.CountingInputStream(connection.getInputStream());
+        output = new ObjectOutputStream(new BufferedOutputStream(outputBytes));
+        output.flush(); // the stream header, which the other end's input stream waits for
+        input = new ObjectInputStream(inputBytes);
+    }
+
     /**
      * <ul><b><i>startClient</i></b></ul>
      * <ul><ul><p><code>private boolean startClient (String server, int port) </code></p></ul>
@@ -102,8 +261,7 @@ public class Connect4Network {
         boolean hasNoException = true;
         try {
             connection = new Socket(server, port);
-            output = new ObjectOutputStream(connection.getOutputStream());
-            input = new ObjectInputStream(connection.getInputStream());
+            openStreams();
         }catch(IOException e) {
             hasNoException = false;
             errorMessage = "IOException occurred while trying to establish connection to server.";
@@ -125,6 +283,7 @@ public class Connect4Network {
      * 
      * @author Kristopher Rangel
      */
+    @Override
     public boolean closeConnection() {
         boolean hasNoException = true;
         try { 
@@ -158,15 +317,21 @@ public class Connect4Network {
      * 
      * @author Kristopher Rangel
      */
+    @Override
     public boolean writeMessage(Connect4MoveMessage message) {
         boolean hasNoException = true;
         errorMessage = "No error occurred";
+        long start = Connect4Telemetry.networkStart();
+        long bytes = outputBytes.getCount();
         try {
             output.writeObject(message);
+            output.flush();
         }catch(IOException e) {
             hasNoException = false;
             errorMessage = "IOException occured while writing message.";
         }
+        if(start != 0)
+            Connect4Telemetry.networkDone(start, Connect4Telemetry.WRITE, outputBytes.getCount() - bytes, hasNoException);
         return hasNoException;
     }
     
@@ -184,9 +349,12 @@ public class Connect4Network {
      * @author Kristopher Rangel
      * @author Caroline O'Neill
      */
+    @Override
     public Connect4MoveMessage readMessage() {
         Connect4MoveMessage message = null;
         errorMessage = "No error occurred.";
+        long start = Connect4Telemetry.networkStart();
+        long bytes = inputBytes.getCount();
         try {
             message = (Connect4MoveMessage) input.readObject();
             errorMessage = "No error message.";
@@ -198,6 +366,8 @@ public class Connect4Network {
         }catch(ClassNotFoundException e) {
             errorMessage = "ClassNotFoundException occured while trying to read message.";
         }
+        if(start != 0)
+            Connect4Telemetry.networkDone(start, Connect4Telemetry.READ, inputBytes.getCount() - bytes, message != null);
         return message;
     }
     
@@ -211,8 +381,42 @@ public class Connect4Network {
      * 
      * @author Kristopher Rangel
      */
+    @Override
     public boolean getStartError() { return !startedWithoutError; }
     
+    /**
+     * <ul><b><i>getAssignedColor</i></b></ul>
+     * <ul><ul><p><code> int getAssignedColor () </code></p></ul>
+     *
+     * Returns the color assigned by the lobby, or {@value Connect4Model#EMPTY}
+     * if this connection was not made through a lobby.
+     *
+     * @return the assigned color
+     */
+    public int getAssignedColor() { return assignedColor; }
+    
+    /**
+     * <ul><b><i>getSessionId</i></b></ul>
+     * <ul><ul><p><code> long getSessionId () </code></p></ul>
+     *
+     * Returns the session ID assigned by the lobby, shared by both players 
+     * of the match, or 0 if this connection was not made through a lobby.
+     *
+     * @return the session ID
+     */
+    public long getSessionId() { return sessionId; }
+    
+    /**
+     * <ul><b><i>getGameConfig</i></b></ul>
+     * <ul><ul><p><code> Connect4GameConfig getGameConfig () </code></p></ul>
+     *
+     * Returns the board configuration agreed with the other end, or null if
+     * the connection did not start.
+     *
+     * @return the agreed configuration
+     */
+    public Connect4GameConfig getGameConfig() { return gameConfig; }
+    
     /**
      * <ul><b><i>getErrorMessage</i></b></ul>
      * <ul><ul><p><code> String getErrorMessage () </code></p></ul>
@@ -221,5 +425,6 @@ public class Connect4Network {
      *
      * @return a <code>String</code> representing the message associated with the last occurring network error.
      */
+    @Override
     public String getErrorMessage() { return errorMessage; }
 }
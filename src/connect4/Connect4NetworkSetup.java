@@ -12,7 +12,8 @@ import javafx.geometry.*;
  * 
  * <p>This class presents options for the user to select whether to create a game
  * as a Server or Client, play as a Human or Computer, as well as enter the Server
- * and Port number to connect to.</p>
+ * and Port number to connect to and the size of the board. A client plays on
+ * the server's board, whatever size it enters.</p>
  * 
  * <p>User selections can be retrieved via accessor methods included.</p>
  * 
@@ -28,10 +29,16 @@ public class Connect4NetworkSetup extends Stage{
     private Scene scene;
     private RadioButton serverRB;
     private RadioButton clientRB;
+    private RadioButton lobbyRB;
     private RadioButton humanRB;
     private RadioButton computerRB;
     private TextField serverTF;
     private TextField portTF;
+    private TextField rowsTF;
+    private TextField columnsTF;
+    private TextField connectTF;
+    private TextField minutesTF;
+    private TextField incrementTF;
     private boolean hitOK;
     
     /**
@@ -58,7 +65,7 @@ public class Connect4NetworkSetup extends Stage{
      * Sets up the 'Create:' row of the Network Setup options.
      * 
      * <p>These elements are added to in an HBox for uniformity of display. The elements
-     * include a Label and two toggle options: Server and Client.</p>
+     * include a Label and three toggle options: Server, Client and Lobby.</p>
      *
      * @return - the <code>HBox</code> containing the elements of the 'Create' row of options
      * 
@@ -72,8 +79,10 @@ public class Connect4NetworkSetup extends Stage{
         serverRB.setSelected(true);
         clientRB = new RadioButton("Client");
         clientRB.setToggleGroup(createTG);
+        lobbyRB = new RadioButton("Lobby");
+        lobbyRB.setToggleGroup(createTG);
         
-        HBox row = new HBox(createLabel, serverRB, clientRB);
+        HBox row = new HBox(createLabel, serverRB, clientRB, lobbyRB);
         row.setSpacing(PADDING);
         return row;
     }
@@ -110,7 +119,7 @@ public class Connect4NetworkSetup extends Stage{
      *
      * Sets up the elements on the scene.
      * 
-     * <p>The basic structure of the scene is a {@link VBox} with four rows. Each row is a
+     * <p>The basic structure of the scene is a {@link VBox} with six rows. Each row is a
      * {@link HBox} that contains all elements on that row.</p>
      * 
      * <p>The default server is {@value #DEFAULT_SERVER} and the default port is {@value #DEFAULT_PORT}.</p>
@@ -131,6 +140,28 @@ public class Connect4NetworkSetup extends Stage{
         HBox row3 = new HBox(serverLabel, serverTF, portLabel, portTF);
         row3.setSpacing(PADDING);
         
+        // board size row
+        Connect4GameConfig standard = Connect4GameConfig.STANDARD;
+        rowsTF = new TextField(String.valueOf(standard.getRows()));
+        columnsTF = new TextField(String.valueOf(standard.getColumns()));
+        connectTF = new TextField(String.valueOf(standard.getConnect()));
+        rowsTF.setPrefColumnCount(2);
+        columnsTF.setPrefColumnCount(2);
+        connectTF.setPrefColumnCount(2);
+        
+        HBox sizeRow = new HBox(new Label("Rows"), rowsTF, new Label("Columns"), columnsTF, 
+                new Label("Connect"), connectTF);
+        sizeRow.setSpacing(PADDING);
+        
+        // clock row, zero minutes for an untimed game
+        minutesTF = new TextField("0");
+        incrementTF = new TextField("0");
+        minutesTF.setPrefColumnCount(3);
+        incrementTF.setPrefColumnCount(3);
+        
+        HBox clockRow = new HBox(new Label("Minutes"), minutesTF, new Label("Increment (s)"), incrementTF);
+        clockRow.setSpacing(PADDING);
+        
         
         // row4 (button row)
         Button okay = new Button("OK");
@@ -143,13 +174,15 @@ public class Connect4NetworkSetup extends Stage{
   
         
         // Adding rows to Vbox
-        VBox box = new VBox(row1, row2, row3, row4);;
+        VBox box = new VBox(row1, row2, row3, sizeRow, clockRow, row4);
         
         // Setting padding for Vbox
         Insets boxInsets = new Insets(PADDING);
         VBox.setMargin(row1, boxInsets);
         VBox.setMargin(row2, boxInsets);
         VBox.setMargin(row3, boxInsets);
+        VBox.setMargin(sizeRow, boxInsets);
+        VBox.setMargin(clockRow, boxInsets);
         VBox.setMargin(row4, boxInsets);
         box.setSpacing(PADDING);
         
@@ -172,6 +205,19 @@ public class Connect4NetworkSetup extends Stage{
         return serverRB.isSelected();
     }
     
+    /**
+     * <ul><b><i>getLobbySelection</i></b></ul>
+     * <ul><ul><p><code>public boolean getLobbySelection () </code></p></ul>
+     *
+     * Getter for whether the user chose to join a matchmaking lobby, in which
+     * case the server and port are those of the {@link Connect4LobbyServer}.
+     *
+     * @return <li><code>True</code> if 'Lobby' was selected,<li><code>False</code> otherwise
+     */
+    public boolean getLobbySelection() {
+        return lobbyRB.isSelected();
+    }
+    
     /**
      * <ul><b><i>getPlayAsSelection</i></b></ul>
      * <ul><ul><p><code>public boolean getPlayAsSelection () </code></p></ul>
@@ -214,6 +260,26 @@ public class Connect4NetworkSetup extends Stage{
         return Integer.valueOf(portTF.getText());
     }
     
+    /**
+     * <ul><b><i>getGameConfig</i></b></ul>
+     * <ul><ul><p><code>public Connect4GameConfig getGameConfig () </code></p></ul>
+     *
+     * Gets the user-entered board size, number in a row needed to win and
+     * time control. Zero minutes means an untimed game.
+     *
+     * @return - the board configuration
+     * @throws IllegalArgumentException if a value is not a number or the board is not playable
+     */
+    public Connect4GameConfig getGameConfig() {
+        double minutes = Double.valueOf(minutesTF.getText().trim());
+        double increment = Double.valueOf(incrementTF.getText().trim());
+        Connect4TimeControl timeControl = minutes <= 0 ? null
+                : new Connect4TimeControl((long) (minutes * 60_000), (long) (increment * 1000));
+        return new Connect4GameConfig(Integer.valueOf(rowsTF.getText().trim()), 
+                Integer.valueOf(columnsTF.getText().trim()), Integer.valueOf(connectTF.getText().trim()),
+                timeControl);
+    }
+    
     /**
      * <ul><b><i>userHitOK</i></b></ul>
      * <ul><ul><p><code> boolean userHitOK () </code></p></ul>
@@ -0,0 +1,477 @@
+package connect4;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An on-disk table of every distinct position seen, with how often each
+ * was reached and how the games through it ended, for opening research.
+ *
+ * <p>A position and its mirror image are the same position for play, so
+ * both are stored under one canonical key: the smaller of the
+ * {@link Connect4Bitboard#key()} style keys of the position and of its
+ * reflection. Counts are kept by color, which reflection does not change.</p>
+ *
+ * <p>The file is an open-addressing hash table with linear probing,
+ * {@value #ENTRY_BYTES} bytes per entry, mapped into memory. A lookup or an
+ * upsert touches one or two pages and allocates nothing, and the operating
+ * system keeps hot pages cached and writes dirty ones back; {@link #flush()}
+ * forces them out. When the table is three quarters full it is rehashed
+ * into a file twice the size, which replaces the old one by an atomic
+ * rename.</p>
+ *
+ * <p>Only the standard board is stored. The store is not thread-safe; use
+ * it from one thread.</p>
+ *
+ * <pre>
+ *   header, {@value #HEADER_BYTES} bytes: int magic, int version,
+ *           long capacity, long size
+ *   entry:  long canonical key + 1 (0 when free), long yellow wins,
+ *           long red wins, long draws
+ * </pre>
+ *
+ */
+public class Connect4PositionStore
+{
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	static final int MAGIC = 0x43345053; // "C4PS"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 64;
+	static final int ENTRY_BYTES = 32;
+	/** largest table that fits one mapping */
+	static final int MAX_CAPACITY = 1 << 25;
+
+	private final Path file;
+	private FileChannel channel;
+	private MappedByteBuffer table;
+	private int mask;
+	private int size;
+	private final Connect4SnapshotHolder holder = new Connect4SnapshotHolder();
+	private final Connect4Bitboard board = new Connect4Bitboard();
+	private String errorMessage = "No error occurred.";
+
+	/**
+	 * Connect4PositionStore Constructor.
+	 * @param file table file, created on open if missing
+	 */
+	public Connect4PositionStore(Path file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Opens the table file, creating an empty table if there is none.
+	 * @param initialCapacity entries in a new table, rounded up to a power
+	 *        of two; ignored when the file exists
+	 * @return true if no error occurred, false otherwise
+	 */
+	public boolean open(int initialCapacity)
+	{
+		try
+		{
+			if (Files.exists(file))
+				return map(file);
+			int capacity = Integer.highestOneBit(Math.max(16, Math.min(initialCapacity, MAX_CAPACITY) * 2 - 1));
+			create(file, capacity);
+			return map(file);
+		}
+		catch (IOException e)
+		{
+			errorMessage = "IOException occurred while opening position store.";
+			return false;
+		}
+	}
+
+	/**
+	 * Forces the table to disk and closes it.
+	 * @return true if no error occurred, false otherwise
+	 */
+	public boolean close()
+	{
+		if (channel == null)
+			return true;
+		boolean ok = flush();
+		try
+		{
+			channel.close();
+		}
+		catch (IOException e)
+		{
+			errorMessage = "IOException occurred while closing position store.";
+			ok = false;
+		}
+		channel = null;
+		table = null;
+		return ok;
+	}
+
+	/**
+	 * Forces every change so far to disk.
+	 * @return true if no error occurred, false otherwise
+	 */
+	public boolean flush()
+	{
+		try
+		{
+			table.force();
+			return true;
+		}
+		catch (RuntimeException e) // UncheckedIOException from force
+		{
+			errorMessage = "IOException occurred while flushing position store.";
+			return false;
+		}
+	}
+
+	/**
+	 * Counts one visit to a position, adding the position if it is new.
+	 * @param yellow yellow discs, in the {@link Connect4Bitboard} layout
+	 * @param red red discs
+	 * @param winner color that went on to win, EMPTY for a draw
+	 * @return true if no error occurred, false otherwise
+	 */
+	public boolean record(long yellow, long red, int winner)
+	{
+		if (size + 1 > (mask + 1) / 4 * 3 && !grow())
+			return false;
+		long stored = canonicalKey(yellow, red) + 1;
+		int i = slot(stored);
+		while (true)
+		{
+			int at = offset(i);
+			long key = table.getLong(at);
+			if (key == 0)
+			{
+				table.putLong(at, stored);
+				table.putLong(16, ++size);
+				break;
+			}
+			if (key == stored)
+				break;
+			i = (i + 1) & mask;
+		}
+		int counter = offset(i) + 8 * (winner == Connect4MoveMessage.YELLOW ? 1
+				: winner == Connect4MoveMessage.RED ? 2 : 3);
+		table.putLong(counter, table.getLong(counter) + 1);
+		return true;
+	}
+
+	/**
+	 * Finds a position.
+	 * @param yellow yellow discs, in the {@link Connect4Bitboard} layout
+	 * @param red red discs
+	 * @return entry for the accessors, valid until the next record; -1 if
+	 *         the position was never recorded
+	 */
+	public int find(long yellow, long red)
+	{
+		long stored = canonicalKey(yellow, red) + 1;
+		int i = slot(stored);
+		while (true)
+		{
+			long key = table.getLong(offset(i));
+			if (key == stored)
+				return i;
+			if (key == 0)
+				return -1;
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * Finds the current position of a game.
+	 * @param model game on the standard board
+	 * @return entry for the accessors, -1 if never recorded
+	 * @throws IllegalStateException if the board is not the standard size
+	 */
+	public int find(Connect4Model model)
+	{
+		model.readSnapshot(holder);
+		return find(holder.getYellow(), holder.getRed());
+	}
+
+	public long getYellowWins(int entry) { return table.getLong(offset(entry) + 8); }
+	public long getRedWins(int entry) { return table.getLong(offset(entry) + 16); }
+	public long getDraws(int entry) { return table.getLong(offset(entry) + 24); }
+
+	/**
+	 * @param entry entry from a find
+	 * @return number of times the position was recorded
+	 */
+	public long getVisits(int entry)
+	{
+		return getYellowWins(entry) + getRedWins(entry) + getDraws(entry);
+	}
+
+	/**
+	 * @return number of distinct positions stored
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return number of entries in the table, which grows when three
+	 *         quarters are used
+	 */
+	public int capacity()
+	{
+		return mask + 1;
+	}
+
+	/**
+	 * Records every position of every valid game in a
+	 * {@link Connect4GameJournal} directory, from the empty board to the
+	 * final position. Games with an illegal move are skipped.
+	 * @param directory journal directory
+	 * @return number of games recorded, -1 if an error occurred
+	 */
+	public long addJournal(Path directory)
+	{
+		long games = 0;
+		try
+		{
+			for (Path segment : Connect4GameJournal.listSegments(directory))
+			{
+				try (Connect4JournalReader reader = new Connect4JournalReader(segment))
+				{
+					while (reader.next())
+					{
+						if (!isValid(reader))
+							continue;
+						if (!addGame(reader))
+							return -1;
+						games++;
+					}
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			errorMessage = "IOException occurred while reading journal.";
+			return -1;
+		}
+		return games;
+	}
+
+	/**
+	 * Records every position of a {@link Connect4SelfPlay} chunk, with the
+	 * outcome of its game.
+	 * @param chunk chunk file
+	 * @return number of positions recorded, -1 if an error occurred
+	 */
+	public long addSelfPlay(Path chunk)
+	{
+		long positions = 0;
+		try (Connect4SelfPlayReader reader = new Connect4SelfPlayReader(chunk))
+		{
+			while (reader.next())
+			{
+				int toMove = reader.getPlayerToMove();
+				int other = toMove == Connect4MoveMessage.YELLOW ? Connect4MoveMessage.RED
+						: Connect4MoveMessage.YELLOW;
+				int winner = reader.getOutcome() > 0 ? toMove
+						: reader.getOutcome() < 0 ? other : Connect4Model.EMPTY;
+				if (!record(reader.getYellow(), reader.getRed(), winner))
+					return -1;
+				positions++;
+			}
+		}
+		catch (IOException e)
+		{
+			errorMessage = "IOException occurred while reading self-play chunk.";
+			return -1;
+		}
+		return positions;
+	}
+
+	/**
+	 * Gets the message associated with the last store error.
+	 * @return error message
+	 */
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	/**
+	 * Gets the key shared by a position and its mirror image.
+	 * @param yellow yellow discs, in the {@link Connect4Bitboard} layout
+	 * @param red red discs
+	 * @return canonical key, below 2<sup>49</sup>
+	 */
+	static long canonicalKey(long yellow, long red)
+	{
+		// yellow plus all discs sets the bit above each column's top disc,
+		// so the key is unique; nothing carries between columns
+		long key = yellow + (yellow | red);
+		return Math.min(key, Connect4Bitboard.mirror(key));
+	}
+
+	private boolean isValid(Connect4JournalReader reader)
+	{
+		board.reset();
+		for (int i = 0; i < reader.getMoveCount(); i++)
+		{
+			int col = reader.getMove(i);
+			if (col >= Connect4Bitboard.WIDTH || !board.canPlay(col))
+				return false;
+			board.play(col);
+		}
+		return true;
+	}
+
+	private boolean addGame(Connect4JournalReader reader)
+	{
+		int winner = reader.getWinner();
+		board.reset();
+		for (int i = 0; ; i++)
+		{
+			long yellow = board.getPlayerToMove() == Connect4MoveMessage.YELLOW
+					? board.getCurrent() : board.getOpponent();
+			if (!record(yellow, board.getMask() ^ yellow, winner))
+				return false;
+			if (i == reader.getMoveCount())
+				return true;
+			board.play(reader.getMove(i));
+		}
+	}
+
+	/**
+	 * Rehashes the table into a file of twice the capacity, then renames it
+	 * over the current one.
+	 */
+	private boolean grow()
+	{
+		if (mask + 1 >= MAX_CAPACITY)
+		{
+			errorMessage = "Position store is full.";
+			return false;
+		}
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try
+		{
+			create(temporary, (mask + 1) * 2);
+			MappedByteBuffer old = table;
+			int oldCapacity = mask + 1;
+			int oldSize = size;
+			FileChannel oldChannel = channel;
+			if (!map(temporary))
+				return false;
+			for (int i = 0; i < oldCapacity; i++)
+			{
+				int from = HEADER_BYTES + i * ENTRY_BYTES;
+				long key = old.getLong(from);
+				if (key == 0)
+					continue;
+				int j = slot(key);
+				while (table.getLong(offset(j)) != 0)
+					j = (j + 1) & mask;
+				for (int k = 0; k < ENTRY_BYTES; k += 8)
+					table.putLong(offset(j) + k, old.getLong(from + k));
+			}
+			size = oldSize;
+			table.putLong(16, size);
+			table.force();
+			oldChannel.close();
+			Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			errorMessage = "IOException occurred while growing position store.";
+			return false;
+		}
+	}
+
+	private static void create(Path path, int capacity) throws IOException
+	{
+		try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE))
+		{
+			MappedByteBuffer header = out.map(FileChannel.MapMode.READ_WRITE, 0,
+					HEADER_BYTES + (long) capacity * ENTRY_BYTES);
+			header.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, capacity).putLong(16, 0);
+		}
+	}
+
+	/**
+	 * Maps a table file and reads its header.
+	 */
+	private boolean map(Path path) throws IOException
+	{
+		FileChannel opened = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long length = opened.size();
+		if (length < HEADER_BYTES || length > Integer.MAX_VALUE)
+		{
+			opened.close();
+			errorMessage = "Not a position store: " + path;
+			return false;
+		}
+		MappedByteBuffer mapped = opened.map(FileChannel.MapMode.READ_WRITE, 0, length);
+		long capacity = mapped.getLong(8);
+		if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION || capacity > MAX_CAPACITY
+				|| Long.bitCount(capacity) != 1 || length != HEADER_BYTES + capacity * ENTRY_BYTES)
+		{
+			opened.close();
+			errorMessage = "Not a position store: " + path;
+			return false;
+		}
+		channel = opened;
+		table = mapped;
+		mask = (int) capacity - 1;
+		size = (int) mapped.getLong(16);
+		return true;
+	}
+
+	private int slot(long stored)
+	{
+		long h = stored * 0x9E37_79B9_7F4A_7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private static int offset(int entry)
+	{
+		return HEADER_BYTES + entry * ENTRY_BYTES;
+	}
+
+	/**
+	 * Builds or extends a store from a journal directory and prints the
+	 * statistics of the first moves.
+	 * @param args store file, journal directory
+	 */
+	public static void main(String[] args)
+	{
+		Connect4PositionStore store = new Connect4PositionStore(Paths.get(args[0]));
+		if (!store.open(DEFAULT_CAPACITY))
+		{
+			System.err.println(store.getErrorMessage());
+			return;
+		}
+		long start = System.nanoTime();
+		long games = store.addJournal(Paths.get(args[1]));
+		if (games < 0)
+			System.err.println(store.getErrorMessage());
+		System.out.printf("games=%d positions=%d in %.1f ms%n", games, store.size(),
+				(System.nanoTime() - start) / 1e6);
+		Connect4Bitboard board = new Connect4Bitboard();
+		for (int col = 0; col < (Connect4Bitboard.WIDTH + 1) / 2; col++)
+		{
+			board.play(col);
+			int entry = store.find(board.getOpponent(), 0);
+			if (entry >= 0)
+				System.out.printf("opening %d visits=%d yellow=%d red=%d draws=%d%n", col,
+						store.getVisits(entry), store.getYellowWins(entry), store.getRedWins(entry),
+						store.getDraws(entry));
+			board.undo(col);
+		}
+		store.close();
+	}
+}
@@ -0,0 +1,543 @@
+package connect4;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Decides whether the player to move in a standard position can force a
+ * win, by depth-first proof-number search (df-pn).
+ *
+ * <p>Alpha-beta has to settle the exact value of a position. A proof only
+ * needs one winning reply at each of the attacker's turns and every reply
+ * at the defender's, and proof numbers steer the search to the part of the
+ * tree where that is cheapest to show. The attacker is the player to move
+ * in the root position; a position is <i>proven</i> if the attacker wins
+ * with best play and <i>disproven</i> if the defender can hold a draw or
+ * win. Only moves that stop an immediate loss are tried when there is a
+ * threat on the board.</p>
+ *
+ * <p>Proof and disproof numbers live in a node store of fixed capacity, four
+ * entries per bucket, each entry remembering the number of nodes spent
+ * below it. A bucket that is full gives up its cheapest entry. When the
+ * store passes {@link #GC_HIGH_WATER} of its capacity it is garbage
+ * collected: entries are dropped, cheapest first, until it is down to
+ * {@link #GC_LOW_WATER}. Anything dropped can be searched again, so memory
+ * stays bounded and only time is traded.</p>
+ *
+ * <p>The store and counters belong to one solver; a solver is not for use by
+ * more than one thread at a time.</p>
+ *
+ */
+public class Connect4ProofSolver
+{
+	public static final int PROVEN = 1;
+	public static final int DISPROVEN = -1;
+	public static final int UNKNOWN = 0; // node limit reached
+
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+	static final double GC_HIGH_WATER = 0.9;
+	static final double GC_LOW_WATER = 0.5;
+
+	private static final int INFINITE = Integer.MAX_VALUE / 4;
+	private static final int WAYS = 4;
+	private static final long EMPTY = 0; // keys are stored plus one, as the empty board's key() is 0
+	private static final int[] ORDER = Connect4Engine.columnOrder(Connect4Bitboard.WIDTH);
+
+	// node store, one bucket per WAYS consecutive slots
+	private final long[] keys;
+	private final int[] proof;
+	private final int[] disproof;
+	private final long[] work;
+	private final int bucketShift; // 64 minus log2 of the bucket count
+	private int stored;
+
+	private final Connect4Bitboard board;
+	private final int[][] moves; // candidate moves per ply, reused
+	private long nodes;
+	private long maxNodes;
+	private int gcRuns;
+	private long evictions;
+	private int[] winningLine;
+
+	/**
+	 * Connect4ProofSolver Constructor with the default store capacity.
+	 */
+	public Connect4ProofSolver()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Connect4ProofSolver Constructor.
+	 * @param capacity node store entries, rounded up to a power of two; each
+	 *        takes 24 bytes
+	 */
+	public Connect4ProofSolver(int capacity)
+	{
+		int buckets = Integer.highestOneBit(Math.max(WAYS, capacity) - 1) * 2 / WAYS;
+		keys = new long[buckets * WAYS];
+		proof = new int[keys.length];
+		disproof = new int[keys.length];
+		work = new long[keys.length];
+		bucketShift = 64 - Integer.numberOfTrailingZeros(buckets);
+		board = new Connect4Bitboard();
+		moves = new int[Connect4Bitboard.WIDTH * Connect4Bitboard.HEIGHT + 1][Connect4Bitboard.WIDTH + 1];
+		winningLine = new int[0];
+	}
+
+	/**
+	 * Tries to prove that the player to move can force a win. A position
+	 * read from a {@link Connect4Model} comes from
+	 * {@link Connect4Model#readPosition(Connect4Board, int)}. The store is
+	 * kept between calls, so related positions solve faster.
+	 * @param position position to solve; not changed
+	 * @param nodeLimit most nodes to search, 0 for no limit
+	 * @return {@link #PROVEN}, {@link #DISPROVEN} or {@link #UNKNOWN} if the
+	 *         limit was reached first
+	 */
+	public int solve(Connect4Bitboard position, long nodeLimit)
+	{
+		board.copyFrom(position);
+		maxNodes = nodeLimit <= 0 ? Long.MAX_VALUE : nodes + nodeLimit;
+		winningLine = new int[0];
+		search(INFINITE, INFINITE, true);
+		long slot = find(key());
+		int pn = slot < 0 ? 1 : proof[(int) slot];
+		int dn = slot < 0 ? 1 : disproof[(int) slot];
+		if (pn == 0)
+		{
+			winningLine = buildLine();
+			return PROVEN;
+		}
+		return dn == 0 ? DISPROVEN : UNKNOWN;
+	}
+
+	/**
+	 * Gets the attacker's win found by the last {@link #solve} that proved
+	 * its position: the attacker's moves and the defender's most stubborn
+	 * replies, ending with the winning disc.
+	 * @return columns of the line, empty unless the position was proven
+	 */
+	public int[] getWinningLine()
+	{
+		return winningLine;
+	}
+
+	/**
+	 * @return positions searched since the solver was created
+	 */
+	public long getNodes()
+	{
+		return nodes;
+	}
+
+	/**
+	 * @return number of times the store has been garbage collected
+	 */
+	public int getGcRuns()
+	{
+		return gcRuns;
+	}
+
+	/**
+	 * @return entries replaced because their bucket was full
+	 */
+	public long getEvictions()
+	{
+		return evictions;
+	}
+
+	/**
+	 * @return entries in the store now
+	 */
+	public int getStored()
+	{
+		return stored;
+	}
+
+	/**
+	 * @return most entries the store can hold
+	 */
+	public int getCapacity()
+	{
+		return keys.length;
+	}
+
+	/**
+	 * Empties the store.
+	 */
+	public void clear()
+	{
+		Arrays.fill(keys, EMPTY);
+		stored = 0;
+	}
+
+	/**
+	 * Multiple iterative deepening on the current board. Works in phi/delta
+	 * form: phi is the proof number of the player to move's goal and delta
+	 * its disproof number, so the same code serves both players. The
+	 * node's numbers are stored before returning.
+	 * @param thPhi search until phi reaches this
+	 * @param thDelta or delta reaches this
+	 * @param attacker true if the root's player is to move
+	 * @return nodes spent
+	 */
+	private long search(int thPhi, int thDelta, boolean attacker)
+	{
+		long start = nodes++;
+		long key = key();
+		int ply = board.getMoveCount();
+		int[] candidates = moves[ply];
+		int count = generate(candidates);
+		if (count < 0)
+		{
+			// the player to move wins now, or the board is full and the attacker failed
+			boolean attackerWins = count == -1 && attacker;
+			store(key, attackerWins ? 0 : INFINITE, attackerWins ? INFINITE : 0, 1);
+			return 1;
+		}
+
+		long spent = 0;
+		while (true)
+		{
+			int phi = INFINITE;
+			long delta = 0;
+			int best = -1;
+			int bestPhi = 0;
+			int bestDelta = INFINITE;
+			int secondDelta = INFINITE;
+			for (int i = 0; i < count; i++)
+			{
+				board.play(candidates[i]);
+				long slot = find(key());
+				board.undo(candidates[i]);
+				// a child's phi/delta is from its own mover's side, so swapped for ours
+				int childPhi = slot < 0 ? 1 : phiOf(slot, !attacker);
+				int childDelta = slot < 0 ? 1 : deltaOf(slot, !attacker);
+				phi = Math.min(phi, childDelta);
+				delta += childPhi;
+				if (childDelta < bestDelta)
+				{
+					secondDelta = bestDelta;
+					bestDelta = childDelta;
+					bestPhi = childPhi;
+					best = candidates[i];
+				}
+				else if (childDelta < secondDelta)
+				{
+					secondDelta = childDelta;
+				}
+			}
+			int cappedDelta = (int) Math.min(delta, INFINITE);
+			if (phi >= thPhi || cappedDelta >= thDelta || nodes >= maxNodes)
+			{
+				spent = nodes - start;
+				storeFor(key, attacker, phi, cappedDelta, spent);
+				return spent;
+			}
+			long childThPhi = (long) thDelta - cappedDelta + bestPhi;
+			int childThDelta = (int) Math.min(thPhi, (long) secondDelta + 1);
+			board.play(best);
+			search((int) Math.min(childThPhi, INFINITE), childThDelta, !attacker);
+			board.undo(best);
+		}
+	}
+
+	/**
+	 * Lists the moves worth trying, centre first.
+	 * @param into receives the columns
+	 * @return the number of moves, -1 if the player to move can win at once,
+	 *         -2 if the board is full
+	 */
+	private int generate(int[] into)
+	{
+		if (board.getMoveCount() == Connect4Bitboard.WIDTH * Connect4Bitboard.HEIGHT)
+			return -2;
+		int count = 0;
+		int threats = 0;
+		for (int col : ORDER)
+		{
+			if (!board.canPlay(col))
+				continue;
+			if (board.isWinningMove(col))
+				return -1;
+			into[count++] = col;
+		}
+		// against an immediate threat, only blocking it is worth trying
+		int blocks = 0;
+		for (int i = 0; i < count; i++)
+		{
+			if (opponentWinsAt(into[i]))
+			{
+				threats++;
+				into[blocks++] = into[i];
+			}
+		}
+		return threats > 0 ? blocks : count;
+	}
+
+	/**
+	 * Checks whether the opponent would win by playing in a column now.
+	 */
+	private boolean opponentWinsAt(int col)
+	{
+		long cell = (board.getMask() + Connect4Bitboard.bottomMask(col)) & Connect4Bitboard.columnMask(col);
+		return Connect4Bitboard.hasFour(board.getOpponent() | cell);
+	}
+
+	private int phiOf(long slot, boolean attacker)
+	{
+		return attacker ? proof[(int) slot] : disproof[(int) slot];
+	}
+
+	private int deltaOf(long slot, boolean attacker)
+	{
+		return attacker ? disproof[(int) slot] : proof[(int) slot];
+	}
+
+	private void storeFor(long key, boolean attacker, int phi, int delta, long spent)
+	{
+		if (attacker)
+			store(key, phi, delta, spent);
+		else
+			store(key, delta, phi, spent);
+	}
+
+	/**
+	 * Finds a position's slot.
+	 * @return slot index, -1 if not stored
+	 */
+	private long find(long key)
+	{
+		int base = bucket(key);
+		for (int i = base; i < base + WAYS; i++)
+		{
+			if (keys[i] == key)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Stores a position's numbers, adding to the work already spent on it.
+	 * Takes a free slot in the bucket, or else the one with the least work.
+	 */
+	private void store(long key, int pn, int dn, long spent)
+	{
+		int base = bucket(key);
+		int slot = -1;
+		int cheapest = base;
+		for (int i = base; i < base + WAYS; i++)
+		{
+			if (keys[i] == key)
+			{
+				slot = i;
+				spent += work[i];
+				break;
+			}
+			if (slot < 0 && keys[i] == EMPTY)
+				slot = i;
+			if (work[i] < work[cheapest])
+				cheapest = i;
+		}
+		if (slot < 0)
+		{
+			slot = cheapest;
+			evictions++;
+		}
+		else if (keys[slot] == EMPTY)
+		{
+			stored++;
+		}
+		keys[slot] = key;
+		proof[slot] = pn;
+		disproof[slot] = dn;
+		work[slot] = spent;
+		if (stored > keys.length * GC_HIGH_WATER)
+			collect();
+	}
+
+	/**
+	 * Drops the entries with the least work until the store is down to
+	 * GC_LOW_WATER. Work is bucketed by powers of two, so one pass finds the
+	 * cut-off and a second drops everything below it, plus as many at the
+	 * cut-off as are needed.
+	 */
+	private void collect()
+	{
+		gcRuns++;
+		int[] histogram = new int[65];
+		for (int i = 0; i < keys.length; i++)
+		{
+			if (keys[i] != EMPTY)
+				histogram[64 - Long.numberOfLeadingZeros(work[i])]++;
+		}
+		int excess = stored - (int) (keys.length * GC_LOW_WATER);
+		int cutoff = 0;
+		int below = 0;
+		while (below + histogram[cutoff] < excess)
+			below += histogram[cutoff++];
+		int atCutoff = excess - below;
+		for (int i = 0; i < keys.length; i++)
+		{
+			if (keys[i] == EMPTY)
+				continue;
+			int level = 64 - Long.numberOfLeadingZeros(work[i]);
+			if (level < cutoff || (level == cutoff && atCutoff-- > 0))
+			{
+				keys[i] = EMPTY;
+				stored--;
+			}
+		}
+	}
+
+	/**
+	 * Gets the stored key of the board's position: its
+	 * {@link Connect4Bitboard#key()} plus one, so no position is stored as
+	 * EMPTY.
+	 */
+	private long key()
+	{
+		return board.key() + 1;
+	}
+
+	private int bucket(long key)
+	{
+		// top bits of the product depend on every bit of the key
+		return bucketShift == 64 ? 0 : (int) ((key * 0x9E3779B97F4A7C15L) >>> bucketShift) * WAYS;
+	}
+
+	/**
+	 * Follows a proof from the root: a proven move at each attacker turn and
+	 * the reply with the most work behind it at each defender turn. Entries
+	 * dropped by the store are solved again on the way.
+	 */
+	private int[] buildLine()
+	{
+		int[] line = new int[Connect4Bitboard.WIDTH * Connect4Bitboard.HEIGHT];
+		int length = 0;
+		int rootMoves = board.getMoveCount();
+		boolean attacker = true;
+		while (true)
+		{
+			int[] candidates = new int[Connect4Bitboard.WIDTH + 1];
+			int count = generate(candidates);
+			if (count == -1)
+			{
+				// the attacker's winning disc
+				for (int col : ORDER)
+				{
+					if (board.canPlay(col) && board.isWinningMove(col))
+					{
+						line[length++] = col;
+						break;
+					}
+				}
+				break;
+			}
+			int next = -1;
+			long mostWork = -1;
+			for (int i = 0; i < count && (attacker ? next < 0 : true); i++)
+			{
+				board.play(candidates[i]);
+				long slot = find(key());
+				if (slot < 0 || (proof[(int) slot] != 0 && disproof[(int) slot] != 0))
+				{
+					search(INFINITE, INFINITE, !attacker);
+					slot = find(key());
+				}
+				board.undo(candidates[i]);
+				if (slot < 0)
+					continue; // dropped again straight away; only with a tiny store
+				if (attacker && proof[(int) slot] == 0)
+					next = candidates[i];
+				else if (!attacker && work[(int) slot] > mostWork)
+				{
+					mostWork = work[(int) slot];
+					next = candidates[i];
+				}
+			}
+			if (next < 0)
+				break;
+			line[length++] = next;
+			board.play(next);
+			attacker = !attacker;
+		}
+		while (board.getMoveCount() > rootMoves)
+			board.undo(line[board.getMoveCount() - rootMoves - 1]);
+		return Arrays.copyOf(line, length);
+	}
+
+	/**
+	 * Builds the benchmark set: late-game positions with no immediate win,
+	 * reached by seeded random play so every run uses the same positions.
+	 * @param count number of positions
+	 * @param minDiscs fewest discs on a position
+	 * @param maxDiscs most discs on a position
+	 * @param seed random seed
+	 * @return positions
+	 */
+	public static Connect4Bitboard[] latePositions(int count, int minDiscs, int maxDiscs, long seed)
+	{
+		Random random = new Random(seed);
+		Connect4Bitboard[] positions = new Connect4Bitboard[count];
+		int n = 0;
+		while (n < count)
+		{
+			Connect4Bitboard board = new Connect4Bitboard();
+			int target = minDiscs + random.nextInt(maxDiscs - minDiscs + 1);
+			for (int tries = 0; tries < 200 && board.getMoveCount() < target; tries++)
+			{
+				int col = random.nextInt(Connect4Bitboard.WIDTH);
+				if (board.canPlay(col) && !board.isWinningMove(col))
+					board.play(col);
+			}
+			if (board.getMoveCount() != target)
+				continue;
+			boolean immediate = false;
+			for (int col = 0; col < Connect4Bitboard.WIDTH; col++)
+				immediate |= board.canPlay(col) && board.isWinningMove(col);
+			if (!immediate)
+				positions[n++] = board;
+		}
+		return positions;
+	}
+
+	/**
+	 * Benchmark: solves a fixed set of late-game positions with df-pn and
+	 * checks each against a full-depth alpha-beta search.
+	 * @param args [positions] [min discs] [max discs]
+	 */
+	public static void main(String[] args)
+	{
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int minDiscs = args.length > 1 ? Integer.parseInt(args[1]) : 24;
+		int maxDiscs = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		Connect4Bitboard[] positions = latePositions(count, minDiscs, maxDiscs, 43);
+		Connect4ProofSolver solver = new Connect4ProofSolver();
+		Connect4Engine engine = new Connect4Engine();
+		int proven = 0;
+		long solveNanos = 0;
+		long searchNanos = 0;
+		for (Connect4Bitboard position : positions)
+		{
+			solver.clear();
+			long t0 = System.nanoTime();
+			int result = solver.solve(position, 0);
+			long t1 = System.nanoTime();
+			int score = engine.search(position, Connect4Bitboard.WIDTH * Connect4Bitboard.HEIGHT);
+			long t2 = System.nanoTime();
+			solveNanos += t1 - t0;
+			searchNanos += t2 - t1;
+			if ((result == PROVEN) != (score > 0 && Connect4Engine.isWinScore(score)))
+				throw new IllegalStateException("df-pn and alpha-beta disagree on a position");
+			if (result == PROVEN)
+				proven++;
+		}
+		System.out.printf("%d positions with %d-%d discs: %d proven, %d disproven%n",
+				count, minDiscs, maxDiscs, proven, count - proven);
+		System.out.printf("df-pn %.2f ms/position, %d nodes, %d gc runs; alpha-beta to the end %.2f ms/position, %d nodes%n",
+				solveNanos / 1e6 / count, solver.getNodes(), solver.getGcRuns(),
+				searchNanos / 1e6 / count, engine.getNodes());
+	}
+}
@@ -0,0 +1,208 @@
+package connect4;
+
+/**
+ * A {@link Connect4Transport} that numbers moves, acknowledges them and
+ * checks that both ends still have the same board, on top of another
+ * transport.
+ *
+ * <p>Each move goes out as a {@link Connect4MoveFrame} with a sequence
+ * number and the sender's running board hash. The receiver checks the
+ * number follows the last one it saw and the move lands on top of its own
+ * column, replays the move on its hash and compares, then replies with an
+ * acknowledgement carrying its hash, which the sender compares in turn. A
+ * repeated move is dropped. A lost move, a lost acknowledgement, a move that
+ * does not fit the board or a hash that differs closes the connection, so
+ * {@link #readMessage()} returns null with the reason in
+ * {@link #getErrorMessage()} instead of handing a bad move to the model.</p>
+ *
+ * <p>Writing a move does not wait for its acknowledgement. Acknowledgements
+ * are read along with the other end's moves, and in turn-based play the
+ * acknowledgement of a move always arrives before the reply to it. Nothing
+ * is retransmitted: the transports underneath deliver in order or not at
+ * all, so a gap means the connection is broken.</p>
+ *
+ * <p>The board hash is the XOR of a fixed random number per cell and color,
+ * so it costs a few multiplications per move and depends only on the
+ * discs on the board.</p>
+ *
+ */
+public class Connect4ReliableTransport implements Connect4Transport {
+
+    // moves that may be awaiting acknowledgement; a power of two
+    private static final int PENDING = 64;
+
+    private final Connect4Transport transport;
+    private final int rows;
+    private final int columns;
+    private final Object writeLock = new Object(); // moves and acks share the transport
+
+    // guarded by this
+    private final int[] heights;
+    private final long[] sentHashes = new long[PENDING];
+    private long boardHash;
+    private int lastColor = Connect4Model.EMPTY;
+    private long sentSequence;
+    private long acknowledged;
+    private long receivedSequence;
+    private long duplicates;
+
+    private volatile String errorMessage = "No error occurred.";
+
+    /**
+     * Wraps a connected transport.
+     *
+     * @param transport - the transport to the other end, which must be
+     *                    wrapped the same way
+     * @param config - the board configuration both ends play
+     */
+    public Connect4ReliableTransport(Connect4Transport transport, Connect4GameConfig config) {
+        this.transport = transport;
+        this.rows = config.getRows();
+        this.columns = config.getColumns();
+        this.heights = new int[columns];
+    }
+
+    /**
+     * Numbers a move, plays it on the running board and sends it.
+     *
+     * @param message - the move to transmit
+     * @return true if no error occurred, false if the move does not fit the
+     *         board or the transport failed
+     */
+    @Override
+    public boolean writeMessage(Connect4MoveMessage message) {
+        Connect4MoveFrame frame;
+        synchronized(this) {
+            if(!fits(message.getRow(), message.getColumn(), message.getColor())) {
+                errorMessage = "Move in column " + message.getColumn() + ", row " + message.getRow()
+                        + " does not fit the board.";
+                return false;
+            }
+            if(sentSequence - acknowledged >= PENDING) {
+                errorMessage = "Too many moves awaiting acknowledgement.";
+                return false;
+            }
+            long hash = play(message.getRow(), message.getColumn(), message.getColor());
+            long sequence = ++sentSequence;
+            sentHashes[(int) sequence & (PENDING - 1)] = hash;
+            frame = new Connect4MoveFrame(message.getRow(), message.getColumn(), message.getColor(),
+                    sequence, hash);
+        }
+        return send(frame);
+    }
+
+    /**
+     * Receives the other end's next move, checking and acknowledging it and
+     * any acknowledgements received before it.
+     *
+     * @return the move, or null if the transport was closed or the ends no
+     *         longer agree
+     */
+    @Override
+    public Connect4MoveMessage readMessage() {
+        while(true) {
+            Connect4MoveMessage message = transport.readMessage();
+            if(message == null) {
+                errorMessage = transport.getErrorMessage();
+                return null;
+            }
+            if(!(message instanceof Connect4MoveFrame))
+                return fail("Received a move without a sequence number.");
+            Connect4MoveFrame frame = (Connect4MoveFrame) message;
+            long sequence = frame.getSequence();
+            Connect4MoveFrame ack;
+            synchronized(this) {
+                if(frame.getKind() == Connect4MoveFrame.ACK) {
+                    if(sequence != acknowledged + 1 || sequence > sentSequence)
+                        return fail("Unexpected acknowledgement of move " + sequence + ".");
+                    if(frame.getBoardHash() != sentHashes[(int) sequence & (PENDING - 1)])
+                        return fail("Boards differ after move " + sequence + ".");
+                    acknowledged = sequence;
+                    continue;
+                }
+                if(sequence <= receivedSequence) {
+                    duplicates++;
+                    continue;
+                }
+                if(sequence != receivedSequence + 1)
+                    return fail("Move " + (receivedSequence + 1) + " from the other end was lost.");
+                if(acknowledged != sentSequence)
+                    return fail("Acknowledgement of move " + (acknowledged + 1) + " was lost.");
+                if(!fits(frame.getRow(), frame.getColumn(), frame.getColor()))
+                    return fail("Received move in column " + frame.getColumn() + ", row " + frame.getRow()
+                            + " does not fit the board.");
+                long hash = play(frame.getRow(), frame.getColumn(), frame.getColor());
+                if(hash != frame.getBoardHash())
+                    return fail("Boards differ after received move " + sequence + ".");
+                receivedSequence = sequence;
+                ack = Connect4MoveFrame.ack(sequence, hash);
+            }
+            if(!send(ack))
+                return null;
+            errorMessage = "No error occurred.";
+            return frame;
+        }
+    }
+
+    @Override
+    public boolean closeConnection() {
+        return transport.closeConnection();
+    }
+
+    @Override
+    public boolean getStartError() { return transport.getStartError(); }
+
+    @Override
+    public String getErrorMessage() { return errorMessage; }
+
+    public synchronized long getSentSequence() { return sentSequence; }
+    public synchronized long getAcknowledged() { return acknowledged; }
+    public synchronized long getReceivedSequence() { return receivedSequence; }
+    public synchronized long getDuplicates() { return duplicates; }
+    public synchronized long getBoardHash() { return boardHash; }
+
+    /**
+     * Checks that a move lands on top of its column and alternates color.
+     */
+    private boolean fits(int row, int col, int color) {
+        return col >= 0 && col < columns && heights[col] < rows && row == rows - 1 - heights[col]
+                && (color == Connect4MoveMessage.YELLOW || color == Connect4MoveMessage.RED)
+                && color != lastColor;
+    }
+
+    /**
+     * Plays a move that fits on the running board.
+     *
+     * @return board hash with the move played
+     */
+    private long play(int row, int col, int color) {
+        heights[col]++;
+        lastColor = color;
+        long z = ((long) (row * columns + col) * 4 + color) * 0x9E37_79B9_7F4A_7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58_476D_1CE4_E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D0_49BB_1331_11EBL;
+        boardHash ^= z ^ (z >>> 31);
+        return boardHash;
+    }
+
+    private boolean send(Connect4MoveFrame frame) {
+        synchronized(writeLock) {
+            if(!transport.writeMessage(frame)) {
+                errorMessage = transport.getErrorMessage();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records why the ends disagree and closes the connection.
+     *
+     * @return null, for readMessage to return
+     */
+    private Connect4MoveMessage fail(String reason) {
+        errorMessage = reason;
+        transport.closeConnection();
+        return null;
+    }
+}
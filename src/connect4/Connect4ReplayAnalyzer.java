@@ -0,0 +1,139 @@
+package connect4;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Replays every game in a {@link Connect4GameJournal} directory and 
+ * aggregates statistics such as win rate by opening and average game length.
+ * 
+ * <p>Segments are processed in parallel on the common fork-join pool, one
+ * task per segment. Each task streams its segment through a 
+ * {@link Connect4JournalReader} and replays the moves on a single reused
+ * {@link Connect4Bitboard}, so memory use does not grow with the number of
+ * games. Replaying checks that every move was legal and that the recorded
+ * winner matches the final position.</p>
+ *
+ */
+public class Connect4ReplayAnalyzer 
+{
+	/**
+	 * Replays all segments of a journal.
+	 * @param directory journal directory
+	 * @return aggregated statistics
+	 * @throws IOException if the directory or a segment cannot be read
+	 */
+	public Connect4ReplayStats analyze(Path directory) throws IOException
+	{
+		long start = System.nanoTime();
+		List<Path> segments = Connect4GameJournal.listSegments(directory);
+		Connect4ReplayStats stats;
+		try
+		{
+			stats = segments.parallelStream()
+					.map(this::analyzeSegmentUnchecked)
+					.reduce(Connect4ReplayStats::merge)
+					.orElseGet(Connect4ReplayStats::new);
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+		stats.setElapsedNanos(System.nanoTime() - start);
+		return stats;
+	}
+	
+	/**
+	 * Replays the games of a single segment.
+	 * @param segment segment file
+	 * @return statistics for the segment
+	 * @throws IOException if the segment cannot be read
+	 */
+	public Connect4ReplayStats analyzeSegment(Path segment) throws IOException
+	{
+		Connect4ReplayStats stats = new Connect4ReplayStats();
+		Connect4Bitboard board = new Connect4Bitboard();
+		try (Connect4JournalReader reader = new Connect4JournalReader(segment))
+		{
+			while (reader.next())
+			{
+				replay(reader, board, stats);
+			}
+		}
+		return stats;
+	}
+	
+	private Connect4ReplayStats analyzeSegmentUnchecked(Path segment)
+	{
+		try
+		{
+			return analyzeSegment(segment);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Replays the reader's current game on the board and counts it.
+	 */
+	private void replay(Connect4JournalReader reader, Connect4Bitboard board, 
+			Connect4ReplayStats stats)
+	{
+		int length = reader.getMoveCount();
+		int winner = Connect4Model.EMPTY;
+		board.reset();
+		for (int i = 0; i < length; i++)
+		{
+			int col = reader.getMove(i);
+			if (col >= Connect4Bitboard.WIDTH || !board.canPlay(col) || winner != Connect4Model.EMPTY)
+			{
+				stats.addInvalidGame();
+				return;
+			}
+			int player = board.getPlayerToMove();
+			if (board.isWinningMove(col))
+				winner = player;
+			board.play(col);
+		}
+		
+		// a game lost on time ends before anyone has four in a row
+		if (reader.isTimeLoss())
+		{
+			if (winner != Connect4Model.EMPTY || reader.getWinner() == Connect4Model.EMPTY)
+				stats.addWinnerMismatch();
+			stats.addTimeLoss();
+		}
+		else if (winner != reader.getWinner())
+			stats.addWinnerMismatch();
+		int opening = length < 2 ? -1 
+				: Connect4ReplayStats.openingKey(reader.getMove(0), reader.getMove(1));
+		stats.addGame(opening, length, reader.getWinner());
+	}
+	
+	/**
+	 * Replays a journal directory from the command line and prints a summary.
+	 * @param args journal directory
+	 * @throws IOException if the journal cannot be read
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		Connect4ReplayStats stats = new Connect4ReplayAnalyzer().analyze(Paths.get(args[0]));
+		System.out.printf("games=%d yellow=%d red=%d draws=%d timeLosses=%d invalid=%d mismatched=%d%n",
+				stats.getGames(), stats.getYellowWins(), stats.getRedWins(), stats.getDraws(),
+				stats.getTimeLosses(), stats.getInvalidGames(), stats.getWinnerMismatches());
+		System.out.printf("averageLength=%.2f gamesPerSecond=%.0f%n", 
+				stats.getAverageLength(), stats.getGamesPerSecond());
+		for (int opening : stats.getOpenings())
+		{
+			System.out.printf("opening %d-%d games=%d yellow=%.3f red=%.3f%n",
+					opening / Connect4Model.COLUMNS, opening % Connect4Model.COLUMNS,
+					stats.getGames(opening), stats.getYellowWinRate(opening), 
+					stats.getRedWinRate(opening));
+		}
+	}
+}
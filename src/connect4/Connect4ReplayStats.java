@@ -0,0 +1,170 @@
+package connect4;
+
+/**
+ * Aggregated results of replaying journaled games with
+ * {@link Connect4ReplayAnalyzer}.
+ * 
+ * <p>Openings are keyed by the first two columns played, as
+ * <code>first * COLUMNS + second</code>. Per-opening counts are kept in 
+ * {@link Connect4IntCounter}s so aggregation stays on primitives.</p>
+ * 
+ * <p>Each worker fills its own instance; instances are then combined with
+ * {@link #merge(Connect4ReplayStats)}.</p>
+ *
+ */
+public class Connect4ReplayStats 
+{
+	private long games;
+	private long moves;
+	private long yellowWins;
+	private long redWins;
+	private long draws;
+	private long timeLosses;        // won on time, not on the board
+	private long invalidGames;      // illegal move sequences
+	private long winnerMismatches;  // recorded winner differs from replay
+	private long elapsedNanos;
+	
+	private final Connect4IntCounter gamesByOpening = new Connect4IntCounter(64);
+	private final Connect4IntCounter yellowWinsByOpening = new Connect4IntCounter(64);
+	private final Connect4IntCounter redWinsByOpening = new Connect4IntCounter(64);
+	
+	/**
+	 * Builds the opening key for two first moves.
+	 * @param first first column played
+	 * @param second second column played
+	 * @return opening key
+	 */
+	public static int openingKey(int first, int second)
+	{
+		return first * Connect4Model.COLUMNS + second;
+	}
+	
+	/**
+	 * Counts one replayed game.
+	 * @param opening opening key, or -1 if the game had under two moves
+	 * @param length number of moves
+	 * @param winner recorded winner
+	 */
+	void addGame(int opening, int length, int winner)
+	{
+		games++;
+		moves += length;
+		if (winner == Connect4MoveMessage.YELLOW)
+			yellowWins++;
+		else if (winner == Connect4MoveMessage.RED)
+			redWins++;
+		else
+			draws++;
+		
+		if (opening < 0)
+			return;
+		gamesByOpening.increment(opening);
+		if (winner == Connect4MoveMessage.YELLOW)
+			yellowWinsByOpening.increment(opening);
+		else if (winner == Connect4MoveMessage.RED)
+			redWinsByOpening.increment(opening);
+	}
+	
+	void addInvalidGame()
+	{
+		invalidGames++;
+	}
+	
+	void addWinnerMismatch()
+	{
+		winnerMismatches++;
+	}
+	
+	void addTimeLoss()
+	{
+		timeLosses++;
+	}
+	
+	void setElapsedNanos(long elapsedNanos)
+	{
+		this.elapsedNanos = elapsedNanos;
+	}
+	
+	/**
+	 * Adds another set of results into this one.
+	 * @param other results to add
+	 * @return this
+	 */
+	public Connect4ReplayStats merge(Connect4ReplayStats other)
+	{
+		games += other.games;
+		moves += other.moves;
+		yellowWins += other.yellowWins;
+		redWins += other.redWins;
+		draws += other.draws;
+		timeLosses += other.timeLosses;
+		invalidGames += other.invalidGames;
+		winnerMismatches += other.winnerMismatches;
+		gamesByOpening.addAll(other.gamesByOpening);
+		yellowWinsByOpening.addAll(other.yellowWinsByOpening);
+		redWinsByOpening.addAll(other.redWinsByOpening);
+		return this;
+	}
+	
+	public long getGames() { return games; }
+	public long getYellowWins() { return yellowWins; }
+	public long getRedWins() { return redWins; }
+	public long getDraws() { return draws; }
+	public long getTimeLosses() { return timeLosses; }
+	public long getInvalidGames() { return invalidGames; }
+	public long getWinnerMismatches() { return winnerMismatches; }
+	public long getElapsedNanos() { return elapsedNanos; }
+	
+	/**
+	 * @return mean number of moves per game
+	 */
+	public double getAverageLength()
+	{
+		return games == 0 ? 0.0 : (double) moves / games;
+	}
+	
+	/**
+	 * @return games replayed per second of wall-clock time
+	 */
+	public double getGamesPerSecond()
+	{
+		return elapsedNanos == 0 ? 0.0 : games * 1e9 / elapsedNanos;
+	}
+	
+	/**
+	 * @return the opening keys seen, ascending
+	 */
+	public int[] getOpenings()
+	{
+		return gamesByOpening.keys();
+	}
+	
+	/**
+	 * @param opening opening key
+	 * @return number of games with that opening
+	 */
+	public long getGames(int opening)
+	{
+		return gamesByOpening.get(opening);
+	}
+	
+	/**
+	 * @param opening opening key
+	 * @return fraction of games with that opening won by yellow
+	 */
+	public double getYellowWinRate(int opening)
+	{
+		long n = gamesByOpening.get(opening);
+		return n == 0 ? 0.0 : (double) yellowWinsByOpening.get(opening) / n;
+	}
+	
+	/**
+	 * @param opening opening key
+	 * @return fraction of games with that opening won by red
+	 */
+	public double getRedWinRate(int opening)
+	{
+		long n = gamesByOpening.get(opening);
+		return n == 0 ? 0.0 : (double) redWinsByOpening.get(opening) / n;
+	}
+}
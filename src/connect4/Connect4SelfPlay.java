@@ -0,0 +1,435 @@
+package connect4;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates labelled training positions by self-play and streams them to
+ * compressed chunk files.
+ *
+ * <p>Each worker thread plays games on its own {@link Connect4Bitboard} with
+ * its own {@link Connect4Engine}. Every position before the end of a game is
+ * searched to a fixed depth, the score becoming its label, and then either
+ * the engine's move or, to keep the games varied, a random one is played.
+ * When the game ends every position also gets the final outcome.</p>
+ *
+ * <p>Workers fill chunk buffers taken from a fixed pool and hand full ones
+ * to a single writer thread through a bounded queue. Memory is therefore
+ * fixed at {@link #POOLED_CHUNKS_PER_WORKER} chunks per worker whatever
+ * the number of positions, and when the disk falls behind the workers wait
+ * for a free buffer instead of queueing more. A chunk is written to a
+ * temporary file and renamed into place, so a reader never sees a partial
+ * chunk.</p>
+ *
+ * <p>Each chunk file is GZIP compressed and holds:</p>
+ * <pre>
+ *   int  magic       {@value #MAGIC}
+ *   int  version     {@value #VERSION}
+ *   int  count       number of records
+ *   count records of {@value #RECORD_BYTES} bytes:
+ *     long yellow      yellow discs, {@link Connect4Snapshot} layout
+ *     long red         red discs
+ *     byte moveCount
+ *     byte toMove      color of the player to move
+ *     int  score       engine score for the player to move
+ *     byte outcome     1 if the player to move went on to win, -1 if they lost, 0 for a draw
+ * </pre>
+ * <p>{@link Connect4SelfPlayReader} reads them back. Errors are reported
+ * like {@link Connect4GameJournal}, through a status result and
+ * {@link #getErrorMessage()}.</p>
+ *
+ */
+public class Connect4SelfPlay
+{
+	public static final int MAGIC = 0x43345350; // "C4SP"
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 4 + 4 + 4;
+	public static final int RECORD_BYTES = 8 + 8 + 1 + 1 + 4 + 1;
+	public static final int DEFAULT_DEPTH = 6;
+	public static final int DEFAULT_CHUNK_POSITIONS = 1 << 16;
+	static final String CHUNK_PREFIX = "selfplay-";
+	static final String CHUNK_SUFFIX = ".bin.gz";
+
+	/** buffers per worker: one being filled, one queued, one being written */
+	static final int POOLED_CHUNKS_PER_WORKER = 3;
+	private static final int MAX_OPENING_PLIES = 8;  // random moves at the start
+	private static final int EXPLORE_PERCENT = 10;   // random moves after that
+
+	private final Path directory;
+	private final int threads;
+	private final int depth;
+	private final int chunkPositions;
+	private final BlockingQueue<ByteBuffer> free;
+	private final BlockingQueue<ByteBuffer> full;
+	private final AtomicInteger chunks;   // written by this generator
+	private int nextChunk;                // writer thread only
+	private final LongAdder positions;
+	private final LongAdder games;
+	private volatile long target;
+	private volatile boolean stopped;
+	private volatile boolean failed;
+	private volatile String errorMessage;
+	private long elapsedNanos;
+
+	/**
+	 * Connect4SelfPlay Constructor.
+	 * @param directory directory for the chunk files
+	 * @param threads number of worker threads
+	 * @param depth search depth used for labels and moves
+	 * @param chunkPositions records per chunk file
+	 */
+	public Connect4SelfPlay(Path directory, int threads, int depth, int chunkPositions)
+	{
+		this.directory = directory;
+		this.threads = threads;
+		this.depth = depth;
+		this.chunkPositions = chunkPositions;
+		int pooled = threads * POOLED_CHUNKS_PER_WORKER;
+		this.free = new ArrayBlockingQueue<ByteBuffer>(pooled);
+		this.full = new ArrayBlockingQueue<ByteBuffer>(pooled);
+		for (int i = 0; i < pooled; i++)
+		{
+			free.add(ByteBuffer.allocate(chunkPositions * RECORD_BYTES));
+		}
+		this.chunks = new AtomicInteger();
+		this.nextChunk = -1;
+		this.positions = new LongAdder();
+		this.games = new LongAdder();
+		this.errorMessage = "No error occurred.";
+	}
+
+	/**
+	 * Plays games until at least the given number of positions has been
+	 * written, or {@link #stop()} is called. Games in progress are finished
+	 * and written, so a little more than the target may be produced.
+	 * @param count number of positions wanted
+	 * @return true if no error occurred, false otherwise
+	 */
+	public boolean generate(long count)
+	{
+		try
+		{
+			Files.createDirectories(directory);
+			if (nextChunk < 0)
+				nextChunk = nextChunkIndex(directory);
+		}
+		catch (IOException e)
+		{
+			errorMessage = "IOException occurred while creating the output directory.";
+			return false;
+		}
+		stopped = false;
+		target = positions.sum() + count;
+		long start = System.nanoTime();
+		Thread writer = new Thread(this::writeLoop, "connect4-selfplay-writer");
+		writer.setDaemon(true);
+		writer.start();
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++)
+		{
+			long seed = System.nanoTime() ^ (i * 0x9E3779B97F4A7C15L);
+			workers[i] = new Thread(() -> playLoop(new SplittableRandom(seed)), "connect4-selfplay-" + (i + 1));
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		try
+		{
+			for (Thread worker : workers)
+				worker.join();
+			full.put(ByteBuffer.allocate(0)); // tells the writer to finish
+			writer.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			stopped = true;
+			writer.interrupt();
+			errorMessage = "Interrupted while generating.";
+			return false;
+		}
+		elapsedNanos += System.nanoTime() - start;
+		return !failed;
+	}
+
+	/**
+	 * Asks a running {@link #generate(long)} to finish its games and return.
+	 * May be called from any thread.
+	 */
+	public void stop()
+	{
+		stopped = true;
+	}
+
+	/**
+	 * @return positions written so far
+	 */
+	public long getPositions()
+	{
+		return positions.sum();
+	}
+
+	/**
+	 * @return games played so far
+	 */
+	public long getGames()
+	{
+		return games.sum();
+	}
+
+	/**
+	 * @return chunk files written so far
+	 */
+	public int getChunks()
+	{
+		return chunks.get();
+	}
+
+	/**
+	 * Gets the generation rate per worker thread, the figure to compare
+	 * across machines.
+	 * @return positions per second per worker
+	 */
+	public double getPositionsPerSecondPerThread()
+	{
+		return elapsedNanos == 0 ? 0 : positions.sum() * 1e9 / elapsedNanos / threads;
+	}
+
+	/**
+	 * Gets the message associated with the last error.
+	 * @return error message
+	 */
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	/**
+	 * Worker loop: plays whole games into chunk buffers until the target is
+	 * reached, then hands over its partly filled chunk.
+	 */
+	private void playLoop(SplittableRandom random)
+	{
+		Connect4Bitboard board = new Connect4Bitboard();
+		Connect4Engine engine = new Connect4Engine();
+		int cells = board.getConfig().getCells();
+		// the current game's records, labelled with the outcome when it ends
+		long[] yellow = new long[cells];
+		long[] red = new long[cells];
+		int[] scores = new int[cells];
+		ByteBuffer chunk = null;
+		try
+		{
+			while (!stopped && positions.sum() < target)
+			{
+				board.reset();
+				int openingPlies = random.nextInt(MAX_OPENING_PLIES + 1);
+				int winner = Connect4Model.EMPTY;
+				int plies = 0;
+				while (board.getMoveCount() < cells)
+				{
+					int score = engine.search(board, depth);
+					yellow[plies] = board.getPlayerToMove() == Connect4MoveMessage.YELLOW
+							? board.getCurrent() : board.getOpponent();
+					red[plies] = board.getMask() ^ yellow[plies];
+					scores[plies] = score;
+					plies++;
+
+					int col = engine.getBestMove();
+					if (plies <= openingPlies || random.nextInt(100) < EXPLORE_PERCENT)
+						col = randomColumn(board, random);
+					if (board.isWinningMove(col))
+					{
+						winner = board.getPlayerToMove();
+						break;
+					}
+					board.play(col);
+				}
+
+				for (int i = 0; i < plies; i++)
+				{
+					if (chunk == null)
+						chunk = free.take();
+					// yellow moves first, so even plies are yellow's
+					int toMove = i % 2 == 0 ? Connect4MoveMessage.YELLOW : Connect4MoveMessage.RED;
+					chunk.putLong(yellow[i]);
+					chunk.putLong(red[i]);
+					chunk.put((byte) i);
+					chunk.put((byte) toMove);
+					chunk.putInt(scores[i]);
+					chunk.put((byte) (winner == Connect4Model.EMPTY ? 0 : winner == toMove ? 1 : -1));
+					if (!chunk.hasRemaining())
+					{
+						full.put(chunk);
+						chunk = null;
+					}
+				}
+				positions.add(plies);
+				games.increment();
+			}
+			if (chunk != null && chunk.position() > 0)
+				full.put(chunk);
+			else if (chunk != null)
+				free.put(chunk);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A random playable column, avoiding ones that give the opponent an
+	 * immediate win when there is a choice.
+	 */
+	private static int randomColumn(Connect4Bitboard board, SplittableRandom random)
+	{
+		int width = Connect4Bitboard.WIDTH;
+		int start = random.nextInt(width);
+		int fallback = -1;
+		for (int i = 0; i < width; i++)
+		{
+			int col = (start + i) % width;
+			if (!board.canPlay(col))
+				continue;
+			if (board.isWinningMove(col))
+				return col;
+			board.play(col);
+			boolean losing = false;
+			for (int reply = 0; reply < width && !losing; reply++)
+				losing = board.canPlay(reply) && board.isWinningMove(reply);
+			board.undo(col);
+			if (!losing)
+				return col;
+			if (fallback < 0)
+				fallback = col;
+		}
+		return fallback;
+	}
+
+	/**
+	 * Writer thread: compresses each full chunk to its own file and returns
+	 * the buffer to the pool, until handed an empty buffer.
+	 */
+	private void writeLoop()
+	{
+		byte[] header = new byte[HEADER_BYTES];
+		try
+		{
+			while (true)
+			{
+				ByteBuffer chunk = full.take();
+				if (chunk.capacity() == 0)
+					return;
+				int count = chunk.position() / RECORD_BYTES;
+				ByteBuffer.wrap(header).putInt(MAGIC).putInt(VERSION).putInt(count);
+				Path file = directory.resolve(String.format("%s%06d%s", CHUNK_PREFIX,
+						nextChunk, CHUNK_SUFFIX));
+				Path temporary = directory.resolve(file.getFileName() + ".tmp");
+				try (OutputStream out = new GZIPOutputStream(
+						new BufferedOutputStream(Files.newOutputStream(temporary)), 1 << 16))
+				{
+					out.write(header);
+					out.write(chunk.array(), 0, chunk.position());
+				}
+				Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+				nextChunk++;
+				chunks.incrementAndGet();
+				chunk.clear();
+				free.put(chunk);
+			}
+		}
+		catch (IOException e)
+		{
+			errorMessage = "IOException occurred while writing a chunk.";
+			failed = true;
+			stopped = true;
+			drain();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * After a write error, keeps recycling buffers so no worker stays blocked
+	 * until the empty buffer marking the end arrives.
+	 */
+	private void drain()
+	{
+		try
+		{
+			ByteBuffer chunk;
+			while ((chunk = full.take()).capacity() != 0)
+			{
+				chunk.clear();
+				free.put(chunk);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Finds the index after the highest chunk already in a directory, so a
+	 * new run adds to earlier output instead of replacing it.
+	 */
+	private static int nextChunkIndex(Path directory) throws IOException
+	{
+		int next = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, CHUNK_PREFIX + "*" + CHUNK_SUFFIX))
+		{
+			for (Path file : files)
+			{
+				String name = file.getFileName().toString();
+				try
+				{
+					int index = Integer.parseInt(name.substring(CHUNK_PREFIX.length(), 
+							name.length() - CHUNK_SUFFIX.length()));
+					next = Math.max(next, index + 1);
+				}
+				catch (NumberFormatException e)
+				{
+					// not one of ours
+				}
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Benchmark and command-line generator.
+	 * @param args [directory] [positions] [threads] [depth]
+	 */
+	public static void main(String[] args)
+	{
+		Path directory = Paths.get(args.length > 0 ? args[0] : "selfplay");
+		long count = args.length > 1 ? Long.parseLong(args[1]) : 50_000;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int depth = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_DEPTH;
+		Connect4SelfPlay selfPlay = new Connect4SelfPlay(directory, threads, depth, DEFAULT_CHUNK_POSITIONS);
+		if (!selfPlay.generate(count))
+		{
+			System.out.println(selfPlay.getErrorMessage());
+			return;
+		}
+		System.out.printf("%d positions from %d games in %d chunks, %.0f positions/s per thread (%d threads, depth %d)%n",
+				selfPlay.getPositions(), selfPlay.getGames(), selfPlay.getChunks(),
+				selfPlay.getPositionsPerSecondPerThread(), threads, depth);
+	}
+}
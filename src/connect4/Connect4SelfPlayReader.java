@@ -0,0 +1,113 @@
+package connect4;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams the records of one {@link Connect4SelfPlay} chunk file.
+ *
+ * <p>The file is decompressed as it is read, so memory use does not depend
+ * on the chunk size, and the reader acts as a cursor like
+ * {@link Connect4JournalReader}: {@link #next()} advances to the following
+ * record and the accessors describe the current one. Nothing is allocated
+ * per record.</p>
+ *
+ */
+public class Connect4SelfPlayReader implements AutoCloseable
+{
+	private final DataInputStream in;
+	private final int count;
+	private int read;
+	private long yellow;
+	private long red;
+	private int moveCount;
+	private int toMove;
+	private int score;
+	private int outcome;
+
+	/**
+	 * Connect4SelfPlayReader Constructor.
+	 * @param chunk chunk file to read
+	 * @throws IOException if the file cannot be opened or is not a chunk
+	 */
+	public Connect4SelfPlayReader(Path chunk) throws IOException
+	{
+		in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(Files.newInputStream(chunk), 1 << 16)));
+		if (in.readInt() != Connect4SelfPlay.MAGIC || in.readInt() != Connect4SelfPlay.VERSION)
+		{
+			in.close();
+			throw new IOException("Not a self-play chunk: " + chunk);
+		}
+		count = in.readInt();
+	}
+
+	/**
+	 * @return number of records in the chunk
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Advances to the next record.
+	 * @return true if there is a record, false at the end of the chunk
+	 * @throws IOException if reading fails or the chunk is cut short
+	 */
+	public boolean next() throws IOException
+	{
+		if (read == count)
+			return false;
+		try
+		{
+			yellow = in.readLong();
+			red = in.readLong();
+			moveCount = in.readUnsignedByte();
+			toMove = in.readByte();
+			score = in.readInt();
+			outcome = in.readByte();
+		}
+		catch (EOFException e)
+		{
+			throw new IOException("Chunk ends after " + read + " of " + count + " records", e);
+		}
+		read++;
+		return true;
+	}
+
+	public long getYellow() { return yellow; }
+	public long getRed() { return red; }
+	public int getMoveCount() { return moveCount; }
+	public int getPlayerToMove() { return toMove; }
+	public int getScore() { return score; }
+
+	/**
+	 * @return 1 if the player to move went on to win, -1 if they lost, 0
+	 *         for a draw
+	 */
+	public int getOutcome()
+	{
+		return outcome;
+	}
+
+	/**
+	 * Gets the current record's board.
+	 * @return snapshot of the position
+	 */
+	public Connect4Snapshot getSnapshot()
+	{
+		return new Connect4Snapshot(yellow, red, moveCount);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+}
@@ -0,0 +1,148 @@
+package connect4;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An immutable picture of a board: one bitboard per color plus the number of
+ * discs played.
+ * 
+ * <p>Bits use the {@link Connect4Bitboard} layout. Because a snapshot never
+ * changes, it can be handed to any number of threads without copying or
+ * locking. It costs one small object, compared with seven row arrays for a
+ * copy of a {@link Connect4Model} grid, and encodes to 
+ * {@value #ENCODED_BYTES} bytes for the wire.</p>
+ *
+ */
+public final class Connect4Snapshot 
+{
+	public static final Connect4Snapshot EMPTY = new Connect4Snapshot(0, 0, 0);
+	public static final int ENCODED_BYTES = 8 + 8 + 1;
+	
+	private final long yellow;
+	private final long red;
+	private final int moveCount;
+	
+	/**
+	 * Connect4Snapshot Constructor.
+	 * @param yellow yellow discs
+	 * @param red red discs
+	 * @param moveCount number of discs on the board
+	 */
+	public Connect4Snapshot(long yellow, long red, int moveCount)
+	{
+		this.yellow = yellow;
+		this.red = red;
+		this.moveCount = moveCount;
+	}
+	
+	public long getYellow() { return yellow; }
+	public long getRed() { return red; }
+	public int getMoveCount() { return moveCount; }
+	
+	/**
+	 * Gets the color at position (row, col), with row 0 at the top as in
+	 * {@link Connect4Model}.
+	 * @param row row index
+	 * @param col col index
+	 * @return position color, EMPTY if no disc
+	 */
+	public int getColor(int row, int col)
+	{
+		long bit = Connect4Bitboard.cell(Connect4Bitboard.HEIGHT - 1 - row, col);
+		if ((yellow & bit) != 0)
+			return Connect4MoveMessage.YELLOW;
+		if ((red & bit) != 0)
+			return Connect4MoveMessage.RED;
+		return Connect4Model.EMPTY;
+	}
+	
+	/**
+	 * Gets the number of discs in a column.
+	 * @param col column index
+	 * @return column height
+	 */
+	public int getHeight(int col)
+	{
+		return Long.bitCount((yellow | red) & Connect4Bitboard.columnMask(col));
+	}
+	
+	/**
+	 * Checks if a column is full.
+	 * @param col column index
+	 * @return true if full
+	 */
+	public boolean isColumnFull(int col)
+	{
+		return ((yellow | red) & Connect4Bitboard.topMask(col)) != 0;
+	}
+	
+	/**
+	 * Gets the winner, EMPTY if nobody has four in a row.
+	 * @return winner
+	 */
+	public int getWinner()
+	{
+		if (Connect4Bitboard.hasFour(yellow))
+			return Connect4MoveMessage.YELLOW;
+		if (Connect4Bitboard.hasFour(red))
+			return Connect4MoveMessage.RED;
+		return Connect4Model.EMPTY;
+	}
+	
+	/**
+	 * Writes this snapshot to a buffer as {@value #ENCODED_BYTES} bytes.
+	 * @param buffer buffer to write at its position
+	 */
+	public void encode(ByteBuffer buffer)
+	{
+		buffer.putLong(yellow);
+		buffer.putLong(red);
+		buffer.put((byte) moveCount);
+	}
+	
+	/**
+	 * Reads a snapshot written by {@link #encode(ByteBuffer)}.
+	 * @param buffer buffer to read at its position
+	 * @return snapshot
+	 */
+	public static Connect4Snapshot decode(ByteBuffer buffer)
+	{
+		long yellow = buffer.getLong();
+		long red = buffer.getLong();
+		int moveCount = buffer.get() & 0xFF;
+		return new Connect4Snapshot(yellow, red, moveCount);
+	}
+	
+	/**
+	 * Expands this snapshot into a {@link Connect4Model} style grid, for
+	 * callers that still need one.
+	 * @return grid[row][col] of colors
+	 */
+	public int[][] toGrid()
+	{
+		int[][] grid = new int[Connect4Model.ROWS][Connect4Model.COLUMNS];
+		for (int r = 0; r < Connect4Model.ROWS; r++)
+		{
+			for (int c = 0; c < Connect4Model.COLUMNS; c++)
+			{
+				grid[r][c] = getColor(r, c);
+			}
+		}
+		return grid;
+	}
+	
+	@Override
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof Connect4Snapshot))
+			return false;
+		Connect4Snapshot other = (Connect4Snapshot) o;
+		return yellow == other.yellow && red == other.red && moveCount == other.moveCount;
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return Long.hashCode(yellow * 31 + red) * 31 + moveCount;
+	}
+}
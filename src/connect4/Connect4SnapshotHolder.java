@@ -0,0 +1,43 @@
+package connect4;
+
+/**
+ * A mutable, reusable counterpart of {@link Connect4Snapshot} for hot paths
+ * that read a board repeatedly and cannot afford even one allocation per
+ * read, such as a renderer polling every frame.
+ * 
+ * <p>A holder belongs to the thread that fills it; it is not safe to share.
+ * Call {@link #toSnapshot()} to get an immutable copy that is.</p>
+ *
+ */
+public final class Connect4SnapshotHolder 
+{
+	private long yellow;
+	private long red;
+	private int moveCount;
+	
+	/**
+	 * Sets the held board.
+	 * @param yellow yellow discs
+	 * @param red red discs
+	 * @param moveCount number of discs on the board
+	 */
+	public void set(long yellow, long red, int moveCount)
+	{
+		this.yellow = yellow;
+		this.red = red;
+		this.moveCount = moveCount;
+	}
+	
+	public long getYellow() { return yellow; }
+	public long getRed() { return red; }
+	public int getMoveCount() { return moveCount; }
+	
+	/**
+	 * Creates an immutable snapshot of the held board.
+	 * @return snapshot
+	 */
+	public Connect4Snapshot toSnapshot()
+	{
+		return new Connect4Snapshot(yellow, red, moveCount);
+	}
+}
@@ -0,0 +1,519 @@
+package connect4;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Production instrumentation: JMX counters and JDK Flight Recorder events
+ * for applied moves, engine searches, network messages and game sessions.
+ *
+ * <p>The two halves are switched separately. Counters are updated only
+ * while telemetry is enabled, by {@link #enable()}, by the system property
+ * <code>connect4.telemetry=true</code> or through the MBean. Events are
+ * emitted only while a flight recording has them enabled, for example with
+ * <code>-XX:StartFlightRecording</code> or <code>jcmd JFR.start</code>;
+ * they are in the "Connect4" category. When neither is on, each
+ * instrumented call costs two static field reads and allocates nothing, so
+ * the hooks can stay in place under load. The hooks below are called by the
+ * instrumented classes; only the switches are public.</p>
+ *
+ */
+public final class Connect4Telemetry implements Connect4TelemetryMXBean
+{
+	public static final String OBJECT_NAME = "connect4:type=Telemetry";
+
+	static final int WRITE = 0;
+	static final int READ = 1;
+
+	private static final Connect4Telemetry INSTANCE = new Connect4Telemetry();
+	private static volatile boolean enabled;
+	private static boolean registered; // guarded by INSTANCE
+
+	private final LongAdder moves = new LongAdder();
+	private final LongAdder moveNanos = new LongAdder();
+	private final LongAdder searches = new LongAdder();
+	private final LongAdder searchNodes = new LongAdder();
+	private final LongAdder searchNanos = new LongAdder();
+	private final AtomicInteger maxSearchDepth = new AtomicInteger();
+	private final LongAdder messagesWritten = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder writeNanos = new LongAdder();
+	private final LongAdder messagesRead = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder readNanos = new LongAdder();
+	private final LongAdder sessionsStarted = new LongAdder();
+	private final LongAdder sessionsFinished = new LongAdder();
+
+	static
+	{
+		if (Boolean.getBoolean("connect4.telemetry"))
+			enable();
+	}
+
+	private Connect4Telemetry()
+	{
+	}
+
+	/**
+	 * Gets the counters, as also published over JMX.
+	 * @return telemetry counters
+	 */
+	public static Connect4TelemetryMXBean get()
+	{
+		return INSTANCE;
+	}
+
+	/**
+	 * Starts updating counters and registers {@value #OBJECT_NAME} with the
+	 * platform MBean server, if not yet registered.
+	 */
+	public static void enable()
+	{
+		synchronized (INSTANCE)
+		{
+			if (!registered)
+				registered = register(INSTANCE, OBJECT_NAME);
+		}
+		enabled = true;
+	}
+
+	/**
+	 * Stops updating counters. The MBean stays registered, so it can be
+	 * enabled again from a JMX console.
+	 */
+	public static void disable()
+	{
+		enabled = false;
+	}
+
+	/**
+	 * Registers an MBean with the platform MBean server, replacing any
+	 * registered under the same name.
+	 * @param bean MBean or MXBean
+	 * @param name object name
+	 * @return true if registered, false otherwise
+	 */
+	static boolean register(Object bean, String name)
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+			server.registerMBean(bean, objectName);
+			return true;
+		}
+		catch (JMException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Removes an MBean from the platform MBean server, if registered.
+	 * @param name object name
+	 */
+	static void unregister(String name)
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+		}
+		catch (JMException e)
+		{
+			// not registered
+		}
+	}
+
+	/**
+	 * Loading an event class starts the flight recorder, which takes a
+	 * noticeable part of a second, so event types are only looked at once a
+	 * recorder is running anyway.
+	 */
+	private static boolean recording()
+	{
+		return FlightRecorder.isInitialized();
+	}
+
+	/**
+	 * Holds the event types, loaded on first use once a recorder runs.
+	 */
+	private static final class Events
+	{
+		static final EventType MOVE = EventType.getEventType(MoveEvent.class);
+		static final EventType SEARCH = EventType.getEventType(SearchEvent.class);
+		static final EventType NETWORK = EventType.getEventType(NetworkEvent.class);
+		static final EventType SESSION = EventType.getEventType(SessionEvent.class);
+	}
+
+	// ---- hooks: each start returns 0 when nothing would be recorded ----
+
+	static long moveStart()
+	{
+		return enabled || recording() && Events.MOVE.isEnabled() ? System.nanoTime() : 0;
+	}
+
+	static void moveApplied(long start, int row, int col, int color)
+	{
+		long elapsed = System.nanoTime() - start;
+		if (enabled)
+		{
+			INSTANCE.moves.increment();
+			INSTANCE.moveNanos.add(elapsed);
+		}
+		if (recording() && Events.MOVE.isEnabled())
+		{
+			MoveEvent event = new MoveEvent();
+			event.row = row;
+			event.column = col;
+			event.color = color;
+			event.applyTime = elapsed;
+			event.commit();
+		}
+	}
+
+	static long searchStart()
+	{
+		return enabled || recording() && Events.SEARCH.isEnabled() ? System.nanoTime() : 0;
+	}
+
+	static void searchDone(long start, int depth, long nodes, int discs, boolean stopped)
+	{
+		long elapsed = System.nanoTime() - start;
+		if (enabled)
+		{
+			INSTANCE.searches.increment();
+			INSTANCE.searchNodes.add(nodes);
+			INSTANCE.searchNanos.add(elapsed);
+			INSTANCE.maxSearchDepth.accumulateAndGet(depth, Math::max);
+		}
+		if (recording() && Events.SEARCH.isEnabled())
+		{
+			SearchEvent event = new SearchEvent();
+			event.depth = depth;
+			event.nodes = nodes;
+			event.discs = discs;
+			event.stopped = stopped;
+			event.searchTime = elapsed;
+			event.commit();
+		}
+	}
+
+	static long networkStart()
+	{
+		return enabled || recording() && Events.NETWORK.isEnabled() ? System.nanoTime() : 0;
+	}
+
+	static void networkDone(long start, int direction, long bytes, boolean ok)
+	{
+		long elapsed = System.nanoTime() - start;
+		if (enabled)
+		{
+			if (direction == WRITE)
+			{
+				INSTANCE.messagesWritten.increment();
+				INSTANCE.writeNanos.add(elapsed);
+			}
+			else
+			{
+				INSTANCE.messagesRead.increment();
+				INSTANCE.readNanos.add(elapsed);
+			}
+		}
+		if (recording() && Events.NETWORK.isEnabled())
+		{
+			NetworkEvent event = new NetworkEvent();
+			event.direction = direction == WRITE ? "write" : "read";
+			event.bytes = bytes;
+			event.ok = ok;
+			event.ioTime = elapsed;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Counts bytes moved by a connection; called by the counting streams
+	 * whatever the message.
+	 */
+	static void bytes(int direction, long count)
+	{
+		if (enabled)
+		{
+			if (direction == WRITE)
+				INSTANCE.bytesWritten.add(count);
+			else
+				INSTANCE.bytesRead.add(count);
+		}
+	}
+
+	/**
+	 * Records a step in a game session's life.
+	 * @param id session ID
+	 * @param action "started", "reset", "finished" or "ended"
+	 * @param moves discs on the board
+	 * @param winner winning color, EMPTY if none
+	 */
+	static void session(long id, String action, int moves, int winner)
+	{
+		if (enabled)
+		{
+			if (action.equals("started"))
+				INSTANCE.sessionsStarted.increment();
+			else if (action.equals("finished"))
+				INSTANCE.sessionsFinished.increment();
+		}
+		if (recording() && Events.SESSION.isEnabled())
+		{
+			SessionEvent event = new SessionEvent();
+			event.sessionId = id;
+			event.action = action;
+			event.moves = moves;
+			event.winner = winner;
+			event.commit();
+		}
+	}
+
+	// ---- MXBean ----
+
+	@Override
+	public boolean isEnabled() { return enabled; }
+
+	@Override
+	public void setEnabled(boolean on)
+	{
+		if (on)
+			enable();
+		else
+			disable();
+	}
+
+	@Override
+	public long getMovesApplied() { return moves.sum(); }
+
+	@Override
+	public double getMeanMoveApplyMicros() { return mean(moveNanos, moves) / 1e3; }
+
+	@Override
+	public long getSearches() { return searches.sum(); }
+
+	@Override
+	public long getSearchNodes() { return searchNodes.sum(); }
+
+	@Override
+	public double getMeanSearchMillis() { return mean(searchNanos, searches) / 1e6; }
+
+	@Override
+	public int getMaxSearchDepth() { return maxSearchDepth.get(); }
+
+	@Override
+	public long getMessagesWritten() { return messagesWritten.sum(); }
+
+	@Override
+	public long getBytesWritten() { return bytesWritten.sum(); }
+
+	@Override
+	public double getMeanWriteMicros() { return mean(writeNanos, messagesWritten) / 1e3; }
+
+	@Override
+	public long getMessagesRead() { return messagesRead.sum(); }
+
+	@Override
+	public long getBytesRead() { return bytesRead.sum(); }
+
+	@Override
+	public double getMeanReadMillis() { return mean(readNanos, messagesRead) / 1e6; }
+
+	@Override
+	public long getSessionsStarted() { return sessionsStarted.sum(); }
+
+	@Override
+	public long getSessionsFinished() { return sessionsFinished.sum(); }
+
+	@Override
+	public void resetCounters()
+	{
+		for (LongAdder adder : new LongAdder[] {moves, moveNanos, searches, searchNodes, searchNanos,
+				messagesWritten, bytesWritten, writeNanos, messagesRead, bytesRead, readNanos,
+				sessionsStarted, sessionsFinished})
+		{
+			adder.reset();
+		}
+		maxSearchDepth.set(0);
+	}
+
+	private static double mean(LongAdder total, LongAdder count)
+	{
+		long n = count.sum();
+		return n == 0 ? 0.0 : (double) total.sum() / n;
+	}
+
+	// ---- flight recorder events ----
+
+	@Name("connect4.MoveApplied")
+	@Label("Move Applied")
+	@Category("Connect4")
+	@Description("A disc placed on a Connect4Model, timed before listeners run")
+	@StackTrace(false)
+	static final class MoveEvent extends Event
+	{
+		@Label("Row")
+		int row;
+		@Label("Column")
+		int column;
+		@Label("Color")
+		int color;
+		@Label("Apply Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long applyTime;
+	}
+
+	@Name("connect4.Search")
+	@Label("Engine Search")
+	@Category("Connect4")
+	@StackTrace(false)
+	static final class SearchEvent extends Event
+	{
+		@Label("Depth")
+		int depth;
+		@Label("Nodes")
+		long nodes;
+		@Label("Discs On Board")
+		int discs;
+		@Label("Stopped")
+		boolean stopped;
+		@Label("Search Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long searchTime;
+	}
+
+	@Name("connect4.NetworkMessage")
+	@Label("Network Message")
+	@Category("Connect4")
+	@Description("A move message written to or read from a Connect4Network connection")
+	@StackTrace(false)
+	static final class NetworkEvent extends Event
+	{
+		@Label("Direction")
+		String direction;
+		@Label("Bytes")
+		long bytes;
+		@Label("Succeeded")
+		boolean ok;
+		@Label("I/O Time")
+		@Description("For reads, includes waiting for the peer to move")
+		@Timespan(Timespan.NANOSECONDS)
+		long ioTime;
+	}
+
+	@Name("connect4.Session")
+	@Label("Game Session")
+	@Category("Connect4")
+	@StackTrace(false)
+	static final class SessionEvent extends Event
+	{
+		@Label("Session ID")
+		long sessionId;
+		@Label("Action")
+		String action;
+		@Label("Discs On Board")
+		int moves;
+		@Label("Winner")
+		int winner;
+	}
+
+	// ---- byte counting for network connections ----
+
+	/**
+	 * Counts the bytes written through it, for a connection's telemetry.
+	 */
+	static final class CountingOutputStream extends FilterOutputStream
+	{
+		private long count;
+
+		CountingOutputStream(OutputStream out)
+		{
+			super(out);
+		}
+
+		long getCount() { return count; }
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			out.write(b);
+			count++;
+			bytes(WRITE, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			out.write(b, off, len);
+			count += len;
+			bytes(WRITE, len);
+		}
+	}
+
+	/**
+	 * Counts the bytes read through it, for a connection's telemetry.
+	 */
+	static final class CountingInputStream extends FilterInputStream
+	{
+		private long count;
+
+		CountingInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		long getCount() { return count; }
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = in.read();
+			if (b >= 0)
+			{
+				count++;
+				bytes(READ, 1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int n = in.read(b, off, len);
+			if (n > 0)
+			{
+				count += n;
+				bytes(READ, n);
+			}
+			return n;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package connect4;
+
+/**
+ * Management interface of {@link Connect4Telemetry}, registered as
+ * {@value Connect4Telemetry#OBJECT_NAME}. Counts only grow while telemetry
+ * is enabled.
+ *
+ */
+public interface Connect4TelemetryMXBean
+{
+	/** @return true if counters are being updated */
+	boolean isEnabled();
+
+	/** @param enabled whether to update counters */
+	void setEnabled(boolean enabled);
+
+	/** @return discs placed through Connect4Model.setPosition */
+	long getMovesApplied();
+
+	/** @return mean time to apply a disc, before listeners run, in microseconds */
+	double getMeanMoveApplyMicros();
+
+	/** @return engine searches finished or stopped */
+	long getSearches();
+
+	/** @return positions visited by those searches */
+	long getSearchNodes();
+
+	/** @return mean search time in milliseconds */
+	double getMeanSearchMillis();
+
+	/** @return deepest search started */
+	int getMaxSearchDepth();
+
+	/** @return move messages written to network connections */
+	long getMessagesWritten();
+
+	/** @return bytes written to network connections, handshakes included */
+	long getBytesWritten();
+
+	/** @return mean time to write a move message in microseconds */
+	double getMeanWriteMicros();
+
+	/** @return move messages read from network connections */
+	long getMessagesRead();
+
+	/** @return bytes read from network connections, handshakes included */
+	long getBytesRead();
+
+	/** @return mean time blocked reading a move message, waiting for the peer included, in milliseconds */
+	double getMeanReadMillis();
+
+	/** @return game sessions created */
+	long getSessionsStarted();
+
+	/** @return game sessions that reached a result */
+	long getSessionsFinished();
+
+	/** Sets every counter back to zero. */
+	void resetCounters();
+}
@@ -1,10 +1,48 @@
 package connect4;
 
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Observable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import com.sun.management.ThreadMXBean;
 
 /**
  * This class provides test cases for the {@link Connect4Controller} with full
@@ -315,7 +353,7 @@ public class Connect4Test
 	}
 	
 	/**
-	 * Tests Observer/Observable relationship.
+	 * Tests the model listener relationship.
 	 */
 	@Test
 	public void test_setModelObserver()
@@ -329,9 +367,1450 @@ public class Connect4Test
 		assertTrue(observed);
 	}
 	
+	/**
+	 * Plays two controllers against each other over a loopback transport. 
+	 * Received moves are queued and applied on the test thread, standing in
+	 * for the JavaFX event loop.
+	 */
+	@Test
+	public void test_loopbackTransport() throws InterruptedException
+	{
+		System.out.println("Test: loopbackTransport");
+		BlockingQueue<Runnable> serverUpdates = new LinkedBlockingQueue<Runnable>();
+		BlockingQueue<Runnable> clientUpdates = new LinkedBlockingQueue<Runnable>();
+		Connect4Controller server = new Connect4Controller(serverUpdates::add);
+		Connect4Controller client = new Connect4Controller(clientUpdates::add);
+		Connect4LoopbackTransport[] pair = Connect4LoopbackTransport.createPair();
+		assertFalse(server.setTransport(pair[0]));
+		assertFalse(client.setTransport(pair[1]));
+		
+		// yellow (server) stacks column 0, red (client) stacks column 1
+		assertTrue(server.humanTurn(Connect4MoveMessage.YELLOW, 0));
+		client.initiateListening();
+		for (int i = 0; i < 3; i++)
+		{
+			assertTrue(client.humanTurn(Connect4MoveMessage.RED, 1));
+			serverUpdates.poll(5, TimeUnit.SECONDS).run();
+			assertTrue(server.humanTurn(Connect4MoveMessage.YELLOW, 0));
+			clientUpdates.poll(5, TimeUnit.SECONDS).run();
+		}
+		
+		assertEquals(Connect4MoveMessage.YELLOW, server.getWinner());
+		assertEquals(Connect4MoveMessage.YELLOW, client.getWinner());
+		assertArrayEquals(server.getGridCopy(), client.getGridCopy());
+		
+		// closing releases the receive thread still waiting on the server
+		assertTrue(client.closeNetwork());
+		assertTrue(server.closeNetwork());
+	}
+	
+	/**
+	 * Plays a game over reliable transports on a loopback pair, then feeds
+	 * one end repeated, lost, misplaced and diverging moves straight through
+	 * the loopback, and checks that a controller refuses a move that does
+	 * not land on top of its column.
+	 */
+	@Test
+	public void test_reliableTransport() throws InterruptedException
+	{
+		System.out.println("Test: reliableTransport");
+		BlockingQueue<Runnable> serverUpdates = new LinkedBlockingQueue<Runnable>();
+		BlockingQueue<Runnable> clientUpdates = new LinkedBlockingQueue<Runnable>();
+		Connect4Controller server = new Connect4Controller(serverUpdates::add);
+		Connect4Controller client = new Connect4Controller(clientUpdates::add);
+		Connect4LoopbackTransport[] pair = Connect4LoopbackTransport.createPair();
+		Connect4ReliableTransport serverEnd = new Connect4ReliableTransport(pair[0], Connect4GameConfig.STANDARD);
+		Connect4ReliableTransport clientEnd = new Connect4ReliableTransport(pair[1], Connect4GameConfig.STANDARD);
+		assertFalse(server.setTransport(serverEnd));
+		assertFalse(client.setTransport(clientEnd));
+		assertTrue(server.humanTurn(Connect4MoveMessage.YELLOW, 0));
+		client.initiateListening();
+		for (int i = 0; i < 3; i++)
+		{
+			assertTrue(client.humanTurn(Connect4MoveMessage.RED, 1));
+			serverUpdates.poll(5, TimeUnit.SECONDS).run();
+			assertTrue(server.humanTurn(Connect4MoveMessage.YELLOW, 0));
+			clientUpdates.poll(5, TimeUnit.SECONDS).run();
+		}
+		assertEquals(Connect4MoveMessage.YELLOW, client.getWinner());
+		assertArrayEquals(server.getGridCopy(), client.getGridCopy());
+		assertEquals(4, serverEnd.getSentSequence());
+		assertEquals(3, clientEnd.getAcknowledged());
+		assertEquals(serverEnd.getBoardHash(), clientEnd.getBoardHash());
+		assertTrue(server.closeNetwork());
+
+		// a repeated move is dropped; a lost one closes the connection
+		pair = Connect4LoopbackTransport.createPair();
+		Connect4ReliableTransport sender = new Connect4ReliableTransport(pair[0], Connect4GameConfig.STANDARD);
+		Connect4ReliableTransport receiver = new Connect4ReliableTransport(pair[1], Connect4GameConfig.STANDARD);
+		assertTrue(sender.writeMessage(new Connect4MoveMessage(5, 3, Connect4MoveMessage.YELLOW)));
+		assertEquals(3, receiver.readMessage().getColumn());
+		pair[0].writeMessage(new Connect4MoveFrame(5, 3, Connect4MoveMessage.YELLOW, 1, 0));
+		assertTrue(receiver.writeMessage(new Connect4MoveMessage(4, 3, Connect4MoveMessage.RED)));
+		assertEquals(4, sender.readMessage().getRow());
+		assertTrue(sender.writeMessage(new Connect4MoveMessage(5, 2, Connect4MoveMessage.YELLOW)));
+		assertEquals(2, receiver.readMessage().getColumn());
+		assertEquals(1, receiver.getDuplicates());
+		pair[0].writeMessage(new Connect4MoveFrame(5, 4, Connect4MoveMessage.YELLOW, 4, 0));
+		assertNull(receiver.readMessage());
+		assertTrue(receiver.getErrorMessage().contains("lost"));
+		assertNull(sender.readMessage()); // closed with the pair
+
+		// a disc in mid-air, and a board that differs, are both refused
+		pair = Connect4LoopbackTransport.createPair();
+		receiver = new Connect4ReliableTransport(pair[1], Connect4GameConfig.STANDARD);
+		pair[0].writeMessage(new Connect4MoveFrame(2, 3, Connect4MoveMessage.YELLOW, 1, 0));
+		assertNull(receiver.readMessage());
+		assertTrue(receiver.getErrorMessage().contains("does not fit"));
+		pair = Connect4LoopbackTransport.createPair();
+		receiver = new Connect4ReliableTransport(pair[1], Connect4GameConfig.STANDARD);
+		pair[0].writeMessage(new Connect4MoveFrame(5, 3, Connect4MoveMessage.YELLOW, 1, 12345));
+		assertNull(receiver.readMessage());
+		assertTrue(receiver.getErrorMessage().contains("differ"));
+		assertFalse(receiver.writeMessage(new Connect4MoveMessage(3, 0, Connect4MoveMessage.RED)));
+
+		// without frames, the controller still checks the row it is sent
+		pair = Connect4LoopbackTransport.createPair();
+		client = new Connect4Controller(clientUpdates::add);
+		assertFalse(client.setTransport(pair[1]));
+		pair[0].writeMessage(new Connect4MoveMessage(2, 3, Connect4MoveMessage.YELLOW));
+		client.initiateListening();
+		assertEquals(Connect4Model.EMPTY, client.getGridCopy()[2][3]);
+		assertNull(pair[0].readMessage()); // the client closed the pair
+	}
+
+	/**
+	 * Pairs two controllers through a lobby on localhost and relays a move,
+	 * passing over a player who left while waiting.
+	 */
+	@Test
+	public void test_lobby() throws Exception
+	{
+		System.out.println("Test: lobby");
+		Connect4LobbyServer lobby = new Connect4LobbyServer(
+				Connect4LobbyServer.PairingPolicy.RATING_BANDED, 100);
+		assertTrue(lobby.start(InetAddress.getLoopbackAddress(), 0));
+		int port = lobby.getPort();
+		
+		// queued first, and within both players' band, but gone
+		try (Socket gone = new Socket(InetAddress.getLoopbackAddress(), port))
+		{
+			ObjectOutputStream ticket = new ObjectOutputStream(gone.getOutputStream());
+			ticket.writeObject(new Connect4LobbyTicket(1500));
+			ticket.flush();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (lobby.getMetrics().getQueueDepth() == 0 && System.nanoTime() < deadline)
+				Thread.sleep(5);
+			assertEquals(1, lobby.getMetrics().getQueueDepth());
+		}
+		
+		BlockingQueue<Runnable> updates = new LinkedBlockingQueue<Runnable>();
+		Connect4Controller first = new Connect4Controller(new Connect4GameConfig(8, 9, 5), updates::add);
+		Connect4Controller second = new Connect4Controller(updates::add);
+		CompletableFuture<Boolean> firstJoin = CompletableFuture.supplyAsync(
+				() -> first.joinLobby("localhost", port, 1500));
+		CompletableFuture<Boolean> secondJoin = CompletableFuture.supplyAsync(
+				() -> second.joinLobby("localhost", port, 1550));
+		assertFalse(firstJoin.get(5, TimeUnit.SECONDS));
+		assertFalse(secondJoin.get(5, TimeUnit.SECONDS));
+		
+		// one yellow, one red
+		assertEquals(Connect4MoveMessage.YELLOW + Connect4MoveMessage.RED, 
+				first.getAssignedColor() + second.getAssignedColor());
+		Connect4Controller yellow = first.getAssignedColor() == Connect4MoveMessage.YELLOW ? first : second;
+		Connect4Controller red = yellow == first ? second : first;
+		// red plays on yellow's board
+		assertEquals(yellow.getConfig(), red.getConfig());
+		
+		assertTrue(yellow.humanTurn(Connect4MoveMessage.YELLOW, 3));
+		red.initiateListening();
+		assertArrayEquals(yellow.getGridCopy(), red.getGridCopy());
+		assertEquals(0, lobby.getMetrics().getQueueDepth());
+		assertEquals(1, lobby.getMetrics().getSessionsStarted());
+		
+		yellow.closeNetwork();
+		red.closeNetwork();
+		lobby.stop();
+	}
+	
+	/**
+	 * Journals two games, simulates a torn write after them, and checks that
+	 * reopening the journal drops the torn tail and keeps appending.
+	 */
+	@Test
+	public void test_journalRecovery(@TempDir Path dir) throws IOException
+	{
+		System.out.println("Test: journalRecovery");
+		int segmentBytes = 4096;
+		Connect4GameJournal journal = new Connect4GameJournal(dir, segmentBytes);
+		assertTrue(journal.open());
+		for (int game = 0; game < 2; game++)
+		{
+			initialize();
+			controller.setJournal(journal);
+			while (!controller.isGameOver())
+			{
+				controller.humanTurn(Connect4MoveMessage.YELLOW, game);
+			}
+		}
+		assertTrue(journal.close());
+		
+		Path segment = Connect4GameJournal.segmentPath(dir, 0);
+		ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(segment));
+		int validEnd = Connect4GameJournal.scanValid(contents, new CRC32());
+		// two four-move games: header, fixed fields, two move bytes, checksum
+		assertEquals(2 * (4 + 18 + 2 + 4), validEnd);
+		
+		// torn entry: plausible length, garbage payload, no checksum
+		byte[] bytes = contents.array();
+		ByteBuffer.wrap(bytes).putInt(validEnd, 20);
+		bytes[validEnd + 10] = 42;
+		Files.write(segment, bytes);
+		assertEquals(validEnd, Connect4GameJournal.scanValid(ByteBuffer.wrap(bytes), new CRC32()));
+		
+		journal = new Connect4GameJournal(dir, segmentBytes);
+		assertTrue(journal.open());
+		journal.append(Connect4GameRecord.fromColumns(new int[] {3, 3, 3, 3}, 4, 
+				Connect4MoveMessage.YELLOW, 0, 1));
+		assertTrue(journal.close());
+		contents = ByteBuffer.wrap(Files.readAllBytes(segment));
+		assertEquals(3 * (4 + 18 + 2 + 4), Connect4GameJournal.scanValid(contents, new CRC32()));
+	}
+	
+	/**
+	 * Journals games across several segments and replays them.
+	 */
+	@Test
+	public void test_replayAnalyzer(@TempDir Path dir) throws IOException
+	{
+		System.out.println("Test: replayAnalyzer");
+		Connect4GameJournal journal = new Connect4GameJournal(dir, 1024);
+		assertTrue(journal.open());
+		// yellow stacks column c, red stacks column c + 1: yellow wins in 7
+		for (int c = 0; c < Connect4Model.COLUMNS - 1; c++)
+		{
+			for (int game = 0; game < 20; game++)
+			{
+				initialize();
+				controller.setJournal(journal);
+				while (!controller.isGameOver())
+				{
+					controller.humanTurn(Connect4MoveMessage.YELLOW, c);
+					if (!controller.isGameOver())
+						controller.humanTurn(Connect4MoveMessage.RED, c + 1);
+				}
+			}
+		}
+		assertTrue(journal.close());
+		assertTrue(Connect4GameJournal.listSegments(dir).size() > 1);
+		
+		Connect4ReplayStats stats = new Connect4ReplayAnalyzer().analyze(dir);
+		assertEquals(120, stats.getGames());
+		assertEquals(120, stats.getYellowWins());
+		assertEquals(0, stats.getInvalidGames());
+		assertEquals(0, stats.getWinnerMismatches());
+		assertEquals(7.0, stats.getAverageLength());
+		assertEquals(20, stats.getGames(Connect4ReplayStats.openingKey(2, 3)));
+		assertEquals(1.0, stats.getYellowWinRate(Connect4ReplayStats.openingKey(2, 3)));
+	}
+	
+	/**
+	 * Checks the engine finds the immediate win for whichever side is to 
+	 * move, on a position loaded from the controller's grid, and that live
+	 * analysis drops a result whose position is no longer analysed.
+	 */
+	@Test
+	public void test_engine() throws InterruptedException
+	{
+		System.out.println("Test: engine");
+		// yellow has three in column 2, red three along the bottom of 4-6
+		for (int i = 0; i < 3; i++)
+		{
+			controller.humanTurn(Connect4MoveMessage.YELLOW, 2);
+			controller.humanTurn(Connect4MoveMessage.RED, 4 + i);
+		}
+		Connect4Bitboard position = new Connect4Bitboard();
+		Connect4Engine engine = new Connect4Engine();
+		
+		position.setPosition(controller.getGridCopy(), Connect4MoveMessage.YELLOW);
+		int[] scores = engine.scoreColumns(position, 4);
+		assertEquals(2, engine.getBestMove());
+		assertTrue(Connect4Engine.isWinScore(scores[2]) && scores[2] > 0);
+		
+		position.setPosition(controller.getGridCopy(), Connect4MoveMessage.RED);
+		scores = engine.scoreColumns(position, 4);
+		assertTrue(scores[3] > 0);
+		assertEquals("W1", Connect4Analysis.formatScore(scores[3], position.getMoveCount()));
+		engine.search(position, 4);
+		assertEquals(3, engine.getBestMove());
+		
+		// a delivery queued before clear() shows nothing when it runs
+		BlockingQueue<Runnable> deliveries = new LinkedBlockingQueue<Runnable>();
+		int[] shown = new int[1];
+		Connect4LiveAnalysis live = new Connect4LiveAnalysis(4, 10, analysis -> shown[0]++, deliveries::add);
+		live.analyze(position);
+		Runnable stale = deliveries.poll(2, TimeUnit.SECONDS);
+		assertNotNull(stale);
+		live.clear();
+		stale.run();
+		assertEquals(0, shown[0]);
+		live.analyze(position);
+		while (shown[0] == 0) // past any other delivery queued before clear()
+		{
+			Runnable next = deliveries.poll(2, TimeUnit.SECONDS);
+			assertNotNull(next);
+			next.run();
+		}
+		live.shutdown();
+	}
+	
+	/**
+	 * Submits moves to a session from several threads at once and checks the
+	 * published snapshots are never torn or invalid.
+	 */
+	@Test
+	public void test_gameSession() throws Exception
+	{
+		System.out.println("Test: gameSession");
+		Connect4GameSession session = new Connect4GameSession(1, ForkJoinPool.commonPool());
+		int threads = 4;
+		int movesPerThread = 2000;
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] producers = new Thread[threads];
+		for (int t = 0; t < threads; t++)
+		{
+			int color = (t % 2 == 0) ? Connect4MoveMessage.YELLOW : Connect4MoveMessage.RED;
+			int col = t;
+			producers[t] = new Thread(() -> 
+			{
+				try { start.await(); } catch (InterruptedException e) { return; }
+				for (int i = 0; i < movesPerThread; i++)
+				{
+					session.play((col + i) % Connect4Model.COLUMNS, color);
+					if (i % 100 == 99)
+						session.reset();
+				}
+			});
+			producers[t].start();
+		}
+		start.countDown();
+		while (producers[0].isAlive())
+		{
+			// concurrent reader: every snapshot must be self-consistent
+			Connect4Snapshot s = session.getSnapshot();
+			assertEquals(0, s.getYellow() & s.getRed());
+			assertEquals(s.getMoveCount(), Long.bitCount(s.getYellow() | s.getRed()));
+		}
+		for (Thread p : producers)
+			p.join();
+		
+		Connect4Snapshot last = session.sync().get(5, TimeUnit.SECONDS);
+		assertSame(last, session.getSnapshot());
+		assertEquals(last.getMoveCount(), Long.bitCount(last.getYellow() | last.getRed()));
+		int yellowDiscs = Long.bitCount(last.getYellow());
+		int redDiscs = Long.bitCount(last.getRed());
+		assertTrue(yellowDiscs == redDiscs || yellowDiscs == redDiscs + 1);
+	}
+	
+	/**
+	 * Checks grid copies are independent of the model, and that snapshots
+	 * match the grid and survive a round trip through their wire encoding.
+	 */
+	@Test
+	public void test_snapshot()
+	{
+		System.out.println("Test: snapshot");
+		controller.humanTurn(Connect4MoveMessage.YELLOW, 3);
+		controller.humanTurn(Connect4MoveMessage.RED, 3);
+		controller.humanTurn(Connect4MoveMessage.YELLOW, 0);
+		
+		int[][] copy = controller.getGridCopy();
+		copy[5][6] = Connect4MoveMessage.RED;
+		assertEquals(Connect4Model.EMPTY, controller.getGridCopy()[5][6]);
+		
+		Connect4Snapshot snapshot = controller.getSnapshot();
+		assertArrayEquals(controller.getGridCopy(), snapshot.toGrid());
+		assertEquals(3, snapshot.getMoveCount());
+		assertEquals(2, snapshot.getHeight(3));
+		
+		ByteBuffer wire = ByteBuffer.allocate(Connect4Snapshot.ENCODED_BYTES);
+		snapshot.encode(wire);
+		wire.flip();
+		assertEquals(snapshot, Connect4Snapshot.decode(wire));
+	}
+	
+	/**
+	 * Plays games in a host, checks the packed move list and winner, and 
+	 * checks removed games free their slots for reuse.
+	 */
+	@Test
+	public void test_gameHost()
+	{
+		System.out.println("Test: gameHost");
+		Connect4GameHost host = new Connect4GameHost(4);
+		long[] ids = new long[100];
+		for (int g = 0; g < ids.length; g++)
+		{
+			ids[g] = host.createGame();
+			// yellow in column g % 4, red in column 6: yellow wins on move 7
+			for (int m = 0; m < 7; m++)
+				assertEquals(Connect4GameHost.PLAYED, host.play(ids[g], m % 2 == 0 ? g % 4 : 6));
+			assertEquals(Connect4GameHost.GAME_OVER, host.play(ids[g], 0));
+		}
+		assertEquals(100, host.size());
+		assertEquals(Connect4MoveMessage.YELLOW, host.getWinner(ids[42]));
+		assertEquals(7, host.getMoveCount(ids[42]));
+		assertEquals(42 % 4, host.getMove(ids[42], 6));
+		assertEquals(6, host.getMove(ids[42], 5));
+		assertEquals(4, host.getSnapshot(ids[42]).getHeight(42 % 4));
+		
+		for (int g = 0; g < ids.length; g += 2)
+			assertTrue(host.removeGame(ids[g]));
+		assertFalse(host.contains(ids[0]));
+		assertEquals(Connect4GameHost.NO_SUCH_GAME, host.play(ids[0], 0));
+		assertEquals(Connect4MoveMessage.YELLOW, host.getWinner(ids[99]));
+		
+		long id = host.createGame();
+		assertEquals(0, host.getMoveCount(id));
+		for (int m = 0; m < Connect4Model.ROWS; m++)
+			assertEquals(Connect4GameHost.PLAYED, host.play(id, 2));
+		assertEquals(Connect4GameHost.COLUMN_FULL, host.play(id, 2));
+		assertEquals(Connect4GameHost.BAD_COLUMN, host.play(id, -1));
+		assertEquals(Connect4GameHost.BAD_COLUMN, host.play(id, Connect4Model.COLUMNS));
+		assertEquals(Connect4Model.ROWS, host.getMoveCount(id));
+	}
+	
+	/**
+	 * Checks move, win and reset events, with and without batching.
+	 */
+	@Test
+	public void test_eventBus()
+	{
+		System.out.println("Test: eventBus");
+		Connect4Model model = new Connect4Model();
+		StringBuilder events = new StringBuilder();
+		Connect4GameListener listener = new Connect4GameListener()
+		{
+			@Override
+			public void moveMade(int row, int col, int color) { events.append("m" + col); }
+			@Override
+			public void gameWon(int color) { events.append("w" + color); }
+			@Override
+			public void gameReset() { events.append("r"); }
+		};
+		model.addListener(listener);
+		
+		model.getEventBus().setBatching(true);
+		for (int r = 5; r >= 2; r--)
+			model.setPosition(r, 1, Connect4MoveMessage.RED);
+		assertEquals("", events.toString());
+		model.getEventBus().flush();
+		assertEquals("m1m1m1m1w2", events.toString());
+		
+		model.getEventBus().setBatching(false);
+		model.reset();
+		model.setPosition(5, 0, Connect4MoveMessage.YELLOW);
+		assertEquals("m1m1m1m1w2rm0", events.toString());
+		assertEquals(Connect4Model.EMPTY, model.getWinner());
+		
+		model.removeListener(listener);
+		model.setPosition(5, 1, Connect4MoveMessage.YELLOW);
+		assertEquals(0, model.getEventBus().getListenerCount());
+		assertEquals("m1m1m1m1w2rm0", events.toString());
+	}
+	
+	/**
+	 * Plays connect-5 on an 8x9 board, checks a tampered configuration is
+	 * rejected when read back, and checks the wide bitboard against the
+	 * standard one on random 6x7 games.
+	 */
+	@Test
+	public void test_boardConfig() throws IOException, ClassNotFoundException
+	{
+		System.out.println("Test: boardConfig");
+		Connect4GameConfig config = new Connect4GameConfig(8, 9, 5);
+		controller = new Connect4Controller(config, Runnable::run);
+		for (int i = 0; i < 4; i++)
+			assertTrue(controller.humanTurn(Connect4MoveMessage.RED, 8));
+		assertFalse(controller.isGameOver()); // four is not enough
+		assertTrue(controller.humanTurn(Connect4MoveMessage.RED, 8));
+		assertEquals(Connect4MoveMessage.RED, controller.getWinner());
+		assertEquals(8, controller.getGridCopy().length);
+		assertEquals(9, controller.getGridCopy()[0].length);
+		assertThrows(IllegalArgumentException.class, () -> new Connect4GameConfig(6, 7, 8));
+		
+		// a config read from a stream gets the constructor's checks
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+		{
+			out.writeObject(config);
+		}
+		byte[] serialized = bytes.toByteArray();
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized)))
+		{
+			assertEquals(config, in.readObject());
+		}
+		// fields are written in name order: columns, connect, rows
+		ByteBuffer fields = ByteBuffer.wrap(serialized);
+		int at = 0;
+		while (fields.getInt(at) != 9 || fields.getInt(at + 4) != 5 || fields.getInt(at + 8) != 8)
+			at++;
+		fields.putInt(at + 4, 0);
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized)))
+		{
+			assertThrows(InvalidObjectException.class, in::readObject);
+		}
+		
+		// the engine plays the fifth disc of a row on the wide board
+		Connect4Board wide = Connect4Board.create(config);
+		for (int col : new int[] {2, 2, 3, 3, 4, 4, 5, 5})
+			wide.play(col);
+		Connect4Engine engine = new Connect4Engine();
+		assertTrue(Connect4Engine.isWinScore(engine.search(wide, 3)));
+		assertTrue(engine.getBestMove() == 1 || engine.getBestMove() == 6);
+		
+		// the same discs hash differently under a different N or width
+		Connect4Board connect4 = Connect4Board.create(new Connect4GameConfig(8, 9, 4));
+		Connect4Board wider = Connect4Board.create(new Connect4GameConfig(8, 10, 5));
+		for (int col : new int[] {2, 2, 3, 3, 4, 4, 5, 5})
+		{
+			connect4.play(col);
+			wider.play(col);
+		}
+		assertNotEquals(wide.hash(), connect4.hash());
+		assertNotEquals(wide.hash(), wider.hash());
+		
+		Connect4Bitboard standard = new Connect4Bitboard();
+		Connect4WideBitboard general = new Connect4WideBitboard(Connect4GameConfig.STANDARD);
+		Random random = new Random(37);
+		for (int game = 0; game < 200; game++)
+		{
+			standard.reset();
+			general.reset();
+			while (standard.getMoveCount() < Connect4Model.ROWS * Connect4Model.COLUMNS)
+			{
+				int col = random.nextInt(Connect4Model.COLUMNS);
+				if (!standard.canPlay(col))
+					continue;
+				assertEquals(standard.evaluate(), general.evaluate());
+				boolean wins = standard.isWinningMove(col);
+				assertEquals(wins, general.isWinningMove(col));
+				if (wins)
+					break;
+				standard.play(col);
+				general.play(col);
+			}
+		}
+	}
+	
+	/**
+	 * Checks timer wheel accuracy, cancellation and failing tasks, clock
+	 * increments, and that a stalled peer loses on time instead of blocking
+	 * the game, which is still journaled.
+	 */
+	@Test
+	public void test_gameClock(@TempDir Path dir) throws Exception
+	{
+		System.out.println("Test: gameClock");
+		Connect4TimerWheel wheel = new Connect4TimerWheel(1, 16);
+		long start = System.nanoTime();
+		CompletableFuture<Long> shortDelay = new CompletableFuture<Long>();
+		CompletableFuture<Long> longDelay = new CompletableFuture<Long>();
+		wheel.schedule(() -> shortDelay.complete(System.nanoTime() - start), 20, TimeUnit.MILLISECONDS);
+		// several turns of the 16 ms wheel
+		wheel.schedule(() -> longDelay.complete(System.nanoTime() - start), 100, TimeUnit.MILLISECONDS);
+		Connect4TimerWheel.Timeout cancelled = wheel.schedule(() -> fail("cancelled task ran"), 
+				50, TimeUnit.MILLISECONDS);
+		assertTrue(cancelled.cancel());
+		assertTrue(shortDelay.get(2, TimeUnit.SECONDS) >= TimeUnit.MILLISECONDS.toNanos(20));
+		assertTrue(longDelay.get(2, TimeUnit.SECONDS) >= TimeUnit.MILLISECONDS.toNanos(100));
+		assertTrue(cancelled.isCancelled());
+		assertEquals(0, wheel.getPendingCount());
+		
+		// a task that throws is counted and handed over, and the timer runs on
+		CompletableFuture<RuntimeException> failure = new CompletableFuture<RuntimeException>();
+		CompletableFuture<Boolean> after = new CompletableFuture<Boolean>();
+		wheel.setFailureHandler(failure::complete);
+		wheel.schedule(() -> { throw new IllegalStateException("task failed"); }, 5, TimeUnit.MILLISECONDS);
+		wheel.schedule(() -> after.complete(true), 10, TimeUnit.MILLISECONDS);
+		assertEquals("task failed", failure.get(2, TimeUnit.SECONDS).getMessage());
+		assertTrue(after.get(2, TimeUnit.SECONDS));
+		assertEquals(1, wheel.getFailedTaskCount());
+		
+		Connect4GameClock clock = new Connect4GameClock(new Connect4TimeControl(1000, 500), 
+				new Connect4TimeControl(1000, 500), wheel, color -> fail("flagged"));
+		clock.start(Connect4MoveMessage.YELLOW);
+		assertTrue(clock.moveMade(Connect4MoveMessage.YELLOW));
+		long yellowLeft = clock.getRemainingMillis(Connect4MoveMessage.YELLOW);
+		assertTrue(yellowLeft > 1400 && yellowLeft <= 1500);
+		assertEquals(Connect4MoveMessage.RED, clock.getRunningColor());
+		clock.stop();
+		wheel.stop();
+		
+		// red never replies; its clock runs out and the game ends
+		Connect4Transport[] ends = Connect4LoopbackTransport.createPair();
+		BlockingQueue<Runnable> updates = new LinkedBlockingQueue<Runnable>();
+		Connect4GameConfig timed = Connect4GameConfig.STANDARD.withTimeControl(new Connect4TimeControl(150, 0));
+		controller = new Connect4Controller(timed, updates::add);
+		controller.setTransport(ends[0]);
+		Connect4GameJournal journal = new Connect4GameJournal(dir, 4096);
+		assertTrue(journal.open());
+		controller.setJournal(journal);
+		controller.startClock();
+		assertTrue(controller.humanTurn(Connect4MoveMessage.YELLOW, 3));
+		Runnable flagged = updates.poll(2, TimeUnit.SECONDS);
+		assertNotNull(flagged);
+		flagged.run();
+		assertEquals(Connect4MoveMessage.RED, controller.getFlaggedColor());
+		assertEquals(Connect4MoveMessage.YELLOW, controller.getWinner());
+		assertTrue(controller.isGameOver());
+		assertFalse(controller.humanTurn(Connect4MoveMessage.YELLOW, 3));
+		// the game lost on time is journaled like any other
+		assertTrue(journal.close());
+		try (Connect4JournalReader reader = new Connect4JournalReader(Connect4GameJournal.listSegments(dir).get(0)))
+		{
+			assertTrue(reader.next());
+			assertEquals(Connect4MoveMessage.YELLOW, reader.getWinner());
+			assertTrue(reader.isTimeLoss());
+			assertEquals(1, reader.getMoveCount());
+			assertEquals(3, reader.getMove(0));
+			assertFalse(reader.next());
+		}
+		// and replays as a time loss, not as a corrupt entry
+		Connect4ReplayStats stats = new Connect4ReplayAnalyzer().analyze(dir);
+		assertEquals(1, stats.getYellowWins());
+		assertEquals(1, stats.getTimeLosses());
+		assertEquals(0, stats.getWinnerMismatches());
+	}
+	
+	/**
+	 * Scores a batch with duplicates and invalid entries, and checks results
+	 * come back in order and match a search without the shared table. The 
+	 * positions are close enough to the end to be searched exactly.
+	 */
+	@Test
+	public void test_batchEvaluator()
+	{
+		System.out.println("Test: batchEvaluator");
+		Random random = new Random(39);
+		List<String> lines = new ArrayList<String>();
+		while (lines.size() < 20)
+		{
+			Connect4Bitboard board = new Connect4Bitboard();
+			StringBuilder moves = new StringBuilder();
+			for (int tries = 0; tries < 500 && board.getMoveCount() < 34; tries++)
+			{
+				int col = random.nextInt(Connect4Model.COLUMNS);
+				if (board.canPlay(col) && !board.isWinningMove(col))
+				{
+					board.play(col);
+					moves.append(col + 1);
+				}
+			}
+			if (board.getMoveCount() == 34)
+				lines.add(moves.toString());
+		}
+		lines.addAll(lines.subList(0, 5));
+		lines.add("8");        // no such column
+		lines.add("4444444");  // column overfilled
+		
+		Connect4BatchEvaluator evaluator = new Connect4BatchEvaluator(2, 10, new Connect4TranspositionTable(4));
+		List<Connect4BatchResult> results = new ArrayList<Connect4BatchResult>();
+		Connect4BatchStats stats = evaluator.evaluateMoves(lines, Connect4GameConfig.STANDARD, results::add);
+		evaluator.shutdown();
+		
+		assertEquals(lines.size(), results.size());
+		assertEquals(20, stats.getUniquePositions());
+		assertEquals(2, stats.getInvalidPositions());
+		Connect4Engine engine = new Connect4Engine();
+		for (int i = 0; i < results.size(); i++)
+		{
+			Connect4BatchResult result = results.get(i);
+			assertEquals(i, result.getIndex());
+			assertEquals(i >= 20 && i < 25, result.isDuplicate());
+			assertEquals(i < 25, result.isValid());
+			if (result.isValid())
+			{
+				Connect4Board position = Connect4BatchEvaluator.parseMoves(lines.get(i), Connect4GameConfig.STANDARD);
+				assertEquals(engine.search(position, 10), result.getScore());
+			}
+		}
+	}
+	
+	/**
+	 * Drives the text engine protocol: a fixed-depth search reports every
+	 * depth, an immediate win is found, bad input is rejected, and stop ends
+	 * an infinite search at once, even when sent straight after go. Then
+	 * lets the computer player choose a controller's moves.
+	 */
+	@Test
+	public void test_engineProtocol() throws InterruptedException
+	{
+		System.out.println("Test: engineProtocol");
+		BlockingQueue<String> out = new LinkedBlockingQueue<String>();
+		Connect4EngineProtocol engine = new Connect4EngineProtocol(1, out::add);
+		
+		engine.handle("isready");
+		assertEquals("readyok", out.poll(1, TimeUnit.SECONDS));
+		engine.handle("position startpos moves 44");
+		engine.handle("go depth 6");
+		int depth = 0;
+		String line;
+		while (!(line = out.poll(10, TimeUnit.SECONDS)).startsWith("bestmove"))
+		{
+			if (line.contains(" pv "))
+				assertTrue(line.startsWith("info depth " + ++depth + " score "), line);
+		}
+		assertEquals(6, depth);
+		
+		engine.handle("position startpos moves 121212");
+		engine.handle("go depth 4");
+		engine.awaitSearch();
+		String last = null;
+		while ((line = out.poll()) != null)
+			last = line;
+		assertEquals("bestmove 1", last);
+		
+		engine.handle("position startpos moves 4444444");
+		assertTrue(out.poll(1, TimeUnit.SECONDS).startsWith("info string error"));
+		engine.handle("go sideways");
+		assertTrue(out.poll(1, TimeUnit.SECONDS).startsWith("info string error"));
+		
+		engine.handle("position startpos");
+		engine.handle("go infinite");
+		long stopped = System.nanoTime();
+		engine.handle("stop");
+		engine.awaitSearch();
+		assertTrue(System.nanoTime() - stopped < TimeUnit.MILLISECONDS.toNanos(100));
+		while ((line = out.poll()) != null)
+			last = line;
+		assertTrue(last.matches("bestmove [1-7]"), last);
+		// the stop may well be read before the search thread starts
+		for (int i = 0; i < 50; i++)
+		{
+			engine.handle("go infinite");
+			engine.handle("stop");
+			engine.awaitSearch();
+			while ((line = out.poll()) != null)
+				last = line;
+			assertTrue(last.matches("bestmove [1-7]"), last);
+		}
+		assertFalse(engine.handle("quit"));
+		
+		controller.setComputerPlayer(new Connect4ComputerPlayer(), 4, 0);
+		while (!controller.isGameOver())
+		{
+			assertTrue(controller.computerTurn(Connect4MoveMessage.RED));
+		}
+		assertEquals(Connect4MoveMessage.RED, controller.getWinner());
+	}
+	
+	/**
+	 * Generates self-play positions into small chunks and reads them back:
+	 * every position written is found, is legal and unfinished, and carries
+	 * the score the engine gives it.
+	 */
+	@Test
+	public void test_selfPlay(@TempDir Path dir) throws IOException
+	{
+		System.out.println("Test: selfPlay");
+		Connect4SelfPlay selfPlay = new Connect4SelfPlay(dir, 2, 4, 500);
+		assertTrue(selfPlay.generate(3000), selfPlay.getErrorMessage());
+		assertTrue(selfPlay.getPositions() >= 3000);
+		
+		Connect4Bitboard board = new Connect4Bitboard();
+		Connect4Engine engine = new Connect4Engine();
+		long total = 0;
+		int chunks = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "selfplay-*.bin.gz"))
+		{
+			for (Path file : files)
+			{
+				chunks++;
+				try (Connect4SelfPlayReader reader = new Connect4SelfPlayReader(file))
+				{
+					while (reader.next())
+					{
+						Connect4Snapshot snapshot = reader.getSnapshot();
+						assertEquals(reader.getMoveCount(), Long.bitCount(snapshot.getYellow() | snapshot.getRed()));
+						assertEquals(reader.getMoveCount() % 2 == 0 ? Connect4MoveMessage.YELLOW 
+								: Connect4MoveMessage.RED, reader.getPlayerToMove());
+						assertEquals(Connect4Model.EMPTY, snapshot.getWinner());
+						assertTrue(Math.abs(reader.getOutcome()) <= 1);
+						if (total++ % 50 == 0)
+						{
+							board.setPosition(snapshot, reader.getPlayerToMove());
+							assertEquals(engine.search(board, 4), reader.getScore());
+						}
+					}
+				}
+			}
+		}
+		assertEquals(selfPlay.getPositions(), total);
+		assertEquals(selfPlay.getChunks(), chunks);
+		assertTrue(chunks >= 6);
+	}
+	
+	/**
+	 * Checks bulk scores and threat counts against the scalar evaluator and a
+	 * window by window count, for game positions and for random disc 
+	 * patterns, in batches above and below the bulk threshold.
+	 */
+	@Test
+	public void test_bulkEvaluator()
+	{
+		System.out.println("Test: bulkEvaluator");
+		Random random = new Random(42);
+		Connect4Bitboard board = new Connect4Bitboard();
+		long boardMask = 0;
+		for (int c = 0; c < Connect4Model.COLUMNS; c++)
+			boardMask |= Connect4Bitboard.columnMask(c);
+		for (int size : new int[] {Connect4BulkEvaluator.MIN_BULK - 1, 3000})
+		{
+			Connect4BulkEvaluator bulk = new Connect4BulkEvaluator(8);
+			long[][] added = new long[size][];
+			for (int i = 0; i < size; i++)
+			{
+				if (i % 2 == 0)
+				{
+					board.reset();
+					int plies = random.nextInt(Connect4Model.ROWS * Connect4Model.COLUMNS);
+					for (int p = 0; p < plies; p++)
+					{
+						int col = random.nextInt(Connect4Model.COLUMNS);
+						if (board.canPlay(col))
+							board.play(col);
+					}
+					added[i] = new long[] {board.getCurrent(), board.getOpponent()};
+				}
+				else
+				{
+					// any split of any cells, wins and floating discs included
+					long cells = random.nextLong() & boardMask;
+					long own = cells & random.nextLong();
+					added[i] = new long[] {own, cells ^ own};
+				}
+				assertEquals(i, bulk.add(added[i][0], added[i][1]));
+			}
+			int[] scores = new int[size];
+			int[] ownThreats = new int[size];
+			int[] opponentThreats = new int[size];
+			bulk.evaluate(scores);
+			bulk.countThreats(ownThreats, opponentThreats);
+			for (int i = 0; i < size; i++)
+			{
+				long own = added[i][0];
+				long opponent = added[i][1];
+				assertEquals(Connect4Evaluator.evaluate(own, opponent), scores[i]);
+				int mine = 0;
+				int theirs = 0;
+				for (long window : Connect4Evaluator.WINDOWS)
+				{
+					if (Long.bitCount(own & window) == 3 && (opponent & window) == 0)
+						mine++;
+					if (Long.bitCount(opponent & window) == 3 && (own & window) == 0)
+						theirs++;
+				}
+				assertEquals(mine, ownThreats[i]);
+				assertEquals(theirs, opponentThreats[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Solves late-game positions with df-pn and checks each result against a
+	 * search to the end of the game, and each winning line by playing it.
+	 * Then solves with a store too small for the proofs, so it has to be
+	 * garbage collected.
+	 */
+	@Test
+	public void test_proofSolver()
+	{
+		System.out.println("Test: proofSolver");
+		Connect4ProofSolver solver = new Connect4ProofSolver();
+		Connect4Engine engine = new Connect4Engine();
+		int cells = Connect4Model.ROWS * Connect4Model.COLUMNS;
+		int proven = 0;
+		for (Connect4Bitboard position : Connect4ProofSolver.latePositions(40, 26, 32, 7))
+		{
+			int result = solver.solve(position, 0);
+			int score = engine.search(position, cells);
+			assertEquals(score > 0 && Connect4Engine.isWinScore(score), result == Connect4ProofSolver.PROVEN);
+			if (result != Connect4ProofSolver.PROVEN)
+			{
+				assertEquals(Connect4ProofSolver.DISPROVEN, result);
+				assertEquals(0, solver.getWinningLine().length);
+				continue;
+			}
+			proven++;
+			int[] line = solver.getWinningLine();
+			assertEquals(1, line.length % 2); // ends on the attacker's move
+			Connect4Board board = position.copy();
+			for (int i = 0; i < line.length - 1; i++)
+			{
+				assertTrue(board.canPlay(line[i]));
+				assertFalse(board.isWinningMove(line[i]));
+				board.play(line[i]);
+			}
+			assertTrue(board.isWinningMove(line[line.length - 1]));
+		}
+		assertTrue(proven > 0);
+		
+		Connect4ProofSolver small = new Connect4ProofSolver(1024);
+		for (Connect4Bitboard position : Connect4ProofSolver.latePositions(5, 20, 22, 11))
+		{
+			int result = small.solve(position, 2_000_000);
+			assertTrue(small.getStored() <= small.getCapacity());
+			if (result != Connect4ProofSolver.UNKNOWN)
+				assertEquals(solver.solve(position, 0), result);
+		}
+		assertTrue(small.getGcRuns() > 0);
+	}
+	
+	/**
+	 * Checks CLOCK eviction and the depth rule on a one-stripe hint cache, 
+	 * hammers a striped one from several threads, and has one controller's
+	 * search answer another's.
+	 */
+	@Test
+	public void test_hintCache() throws InterruptedException
+	{
+		System.out.println("Test: hintCache");
+		Connect4Bitboard[] boards = new Connect4Bitboard[5];
+		for (int i = 0; i < boards.length; i++)
+		{
+			boards[i] = new Connect4Bitboard();
+			boards[i].play(i);
+		}
+		Connect4HintCache cache = new Connect4HintCache(4, 1);
+		for (int i = 0; i < 4; i++)
+			cache.put(boards[i], 6, i, 10 * i - 15);
+		assertEquals(3, Connect4HintCache.move(cache.get(boards[3], 6)));
+		assertEquals(15, Connect4HintCache.score(cache.get(boards[3], 6)));
+		assertEquals(-15, Connect4HintCache.score(cache.get(boards[0], 6)));
+		assertEquals(Connect4HintCache.MISS, cache.get(boards[1], 7));
+		cache.put(boards[1], 4, 5, 0); // shallower, ignored
+		assertEquals(1, Connect4HintCache.move(cache.get(boards[1], 6)));
+		// 0, 1 and 3 have been used since they went in, so the hand passes them to 2
+		cache.put(boards[4], 6, 4, 0);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(Connect4HintCache.MISS, cache.get(boards[2], 1));
+		for (int i : new int[] {0, 1, 3, 4})
+			assertEquals(i, Connect4HintCache.move(cache.get(boards[i], 1)));
+		assertEquals(4, cache.size());
+		
+		Connect4HintCache striped = new Connect4HintCache(1024, 8);
+		AtomicInteger wrong = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++)
+		{
+			long seed = t;
+			threads[t] = new Thread(() -> {
+				Random random = new Random(seed);
+				Connect4Bitboard board = new Connect4Bitboard();
+				for (int i = 0; i < 20_000; i++)
+				{
+					board.reset();
+					for (int p = 0; p < 6; p++)
+						board.play(random.nextInt(Connect4Model.COLUMNS));
+					long hint = striped.get(board, 1);
+					if (hint == Connect4HintCache.MISS)
+						striped.put(board, 1, (int) (board.hash() & 7), 0);
+					else if (Connect4HintCache.move(hint) != (board.hash() & 7))
+						wrong.incrementAndGet();
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(0, wrong.get());
+		assertEquals(80_000, striped.getHits() + striped.getMisses());
+		assertTrue(striped.getHits() > 0 && striped.getEvictions() > 0);
+		assertTrue(striped.size() <= striped.getCapacity());
+		
+		Connect4HintCache shared = new Connect4HintCache(256, 4);
+		Connect4Controller first = new Connect4Controller(Runnable::run);
+		Connect4Controller second = new Connect4Controller(Runnable::run);
+		for (Connect4Controller c : new Connect4Controller[] {first, second})
+		{
+			c.setComputerPlayer(new Connect4ComputerPlayer(), 6, 0);
+			c.setHintCache(shared);
+		}
+		int col = first.chooseComputerColumn(Connect4MoveMessage.YELLOW);
+		assertEquals(0, shared.getHits());
+		assertEquals(col, second.chooseComputerColumn(Connect4MoveMessage.YELLOW));
+		assertEquals(1, shared.getHits());
+		assertEquals(0.5, shared.getHitRate());
+		
+		// a shallow hint must not answer for a player limited only by time
+		Connect4HintCache mixed = new Connect4HintCache(256, 4);
+		Connect4Controller weak = new Connect4Controller(Runnable::run);
+		Connect4Controller timed = new Connect4Controller(Runnable::run);
+		weak.setComputerPlayer(new Connect4ComputerPlayer(), 1, 0);
+		timed.setComputerPlayer(new Connect4ComputerPlayer(), 0, 200);
+		weak.setHintCache(mixed);
+		timed.setHintCache(mixed);
+		Connect4Bitboard start = new Connect4Bitboard();
+		weak.chooseComputerColumn(Connect4MoveMessage.YELLOW);
+		assertEquals(Connect4HintCache.MISS, mixed.get(start, 2));
+		timed.chooseComputerColumn(Connect4MoveMessage.YELLOW);
+		assertEquals(0, mixed.getHits());
+		// the timed search went deeper, and now answers depth-limited players
+		assertNotEquals(Connect4HintCache.MISS, mixed.get(start, 4));
+	}
+
+	/**
+	 * Plays moves, searches, a session and a lobby game with telemetry on and
+	 * a flight recording running, and checks the counters, the MBeans and the
+	 * recorded events.
+	 */
+	@Test
+	public void test_telemetry(@TempDir Path dir) throws Exception
+	{
+		System.out.println("Test: telemetry");
+		Connect4TelemetryMXBean telemetry = Connect4Telemetry.get();
+		Connect4Telemetry.enable();
+		telemetry.resetCounters();
+		Path file = dir.resolve("connect4.jfr");
+		try (Recording recording = new Recording())
+		{
+			for (String event : new String[] {"connect4.MoveApplied", "connect4.Search",
+					"connect4.NetworkMessage", "connect4.Session"})
+				recording.enable(event).withoutThreshold();
+			recording.start();
+
+			for (int col : new int[] {0, 1, 0, 1})
+				controller.humanTurn(Connect4MoveMessage.YELLOW, col);
+			new Connect4Engine().search(new Connect4Bitboard(), 5);
+			Connect4GameSession session = new Connect4GameSession(7, Runnable::run);
+			for (int i = 0; i < 7; i++)
+				session.play(i % 2 == 0 ? 3 : 4, i % 2 == 0 ? Connect4MoveMessage.YELLOW : Connect4MoveMessage.RED);
+			assertEquals(Connect4MoveMessage.YELLOW, session.getSnapshot().getWinner());
+
+			Connect4LobbyServer lobby = new Connect4LobbyServer(Connect4LobbyServer.PairingPolicy.FIFO, 100);
+			assertTrue(lobby.start(InetAddress.getLoopbackAddress(), 0));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName lobbyName = new ObjectName(lobby.metricsName());
+			Connect4Controller first = new Connect4Controller(Runnable::run);
+			Connect4Controller second = new Connect4Controller(Runnable::run);
+			CompletableFuture<Boolean> firstJoin = CompletableFuture.supplyAsync(
+					() -> first.joinLobby("localhost", lobby.getPort(), 1500));
+			assertFalse(second.joinLobby("localhost", lobby.getPort(), 1500));
+			assertFalse(firstJoin.get(5, TimeUnit.SECONDS));
+			Connect4Controller yellow = first.getAssignedColor() == Connect4MoveMessage.YELLOW ? first : second;
+			Connect4Controller red = yellow == first ? second : first;
+			assertTrue(yellow.humanTurn(Connect4MoveMessage.YELLOW, 3));
+			red.initiateListening();
+			assertEquals(1L, server.getAttribute(lobbyName, "SessionsStarted"));
+			yellow.closeNetwork();
+			red.closeNetwork();
+			lobby.stop();
+			assertFalse(server.isRegistered(lobbyName));
+
+			recording.stop();
+			recording.dump(file);
+		}
+		finally
+		{
+			Connect4Telemetry.disable();
+		}
+
+		assertTrue(telemetry.getMovesApplied() >= 6);
+		assertTrue(telemetry.getSearches() >= 1 && telemetry.getSearchNodes() > 0);
+		assertEquals(5, telemetry.getMaxSearchDepth());
+		assertTrue(telemetry.getMessagesWritten() >= 1 && telemetry.getMessagesRead() >= 1);
+		assertTrue(telemetry.getBytesWritten() > 0 && telemetry.getBytesRead() > 0);
+		assertTrue(telemetry.getSessionsStarted() >= 2);
+		assertEquals(1, telemetry.getSessionsFinished());
+		ObjectName name = new ObjectName(Connect4Telemetry.OBJECT_NAME);
+		assertEquals(telemetry.getSearches(),
+				ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Searches"));
+
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(file))
+			counts.merge(event.getEventType().getName(), 1, Integer::sum);
+		assertTrue(counts.getOrDefault("connect4.MoveApplied", 0) >= 6);
+		assertTrue(counts.getOrDefault("connect4.Search", 0) >= 1);
+		assertTrue(counts.getOrDefault("connect4.NetworkMessage", 0) >= 2);
+		assertTrue(counts.getOrDefault("connect4.Session", 0) >= 4);
+	}
+
+	/**
+	 * Checks the histogram's precision and interval differences, then runs
+	 * short load tests against single-game servers and a lobby, with a game
+	 * per connection.
+	 */
+	@Test
+	public void test_loadGenerator() throws Exception
+	{
+		System.out.println("Test: loadGenerator");
+		Connect4LatencyHistogram histogram = new Connect4LatencyHistogram(1_000_000);
+		for (int value = 1; value <= 100_000; value++)
+			histogram.record(value);
+		assertEquals(100_000, histogram.getTotalCount());
+		for (double percentile : new double[] {1, 50, 90, 99, 99.9, 100})
+		{
+			double exact = percentile * 1000;
+			assertEquals(exact, histogram.getValueAtPercentile(percentile), exact / 64);
+		}
+		assertEquals(50_000, histogram.getMean(), 50_000 / 64.0);
+		assertEquals(100, histogram.getValueAtPercentile(0.1));
+		Connect4LatencyHistogram before = histogram.copy();
+		histogram.record(5_000_000); // over the range, counted as the highest
+		Connect4LatencyHistogram interval = histogram.since(before);
+		assertEquals(1, interval.getTotalCount());
+		assertEquals(1_000_000, interval.getMax(), 1_000_000 / 64.0);
+
+		int base;
+		try (ServerSocket probe = new ServerSocket(0))
+		{
+			base = probe.getLocalPort();
+		}
+		List<String> lines = new CopyOnWriteArrayList<String>();
+		Connect4LoadGenerator direct = new Connect4LoadGenerator(
+				Connect4LoadGenerator.Target.DIRECT, "localhost", base, 2);
+		direct.setMoveRate(500);
+		direct.setReport(300, lines::add);
+		assertTrue(direct.run(1000));
+		assertEquals(0, direct.getConnectErrors());
+		assertEquals(0, direct.getDropped());
+		assertTrue(direct.getGames() > 0, lines.toString());
+		assertEquals(direct.getMoves(), direct.getLatency().getTotalCount());
+		assertTrue(lines.size() >= 3 && lines.get(lines.size() - 1).startsWith("total"));
+
+		Connect4LobbyServer lobby = new Connect4LobbyServer(Connect4LobbyServer.PairingPolicy.FIFO, 100);
+		assertTrue(lobby.start(InetAddress.getLoopbackAddress(), 0));
+		Connect4LoadGenerator viaLobby = new Connect4LoadGenerator(
+				Connect4LoadGenerator.Target.LOBBY, "localhost", lobby.getPort(), 4);
+		viaLobby.setEngineDepth(2);
+		assertTrue(viaLobby.run(1000));
+		assertEquals(0, viaLobby.getConnectErrors());
+		assertTrue(lobby.getMetrics().getSessionsStarted() >= 2);
+		assertTrue(viaLobby.getMoves() > 0);
+		assertEquals(0, viaLobby.getDropped());
+		lobby.stop();
+	}
+
+	/**
+	 * Applying moves to the model, with or without listeners and telemetry,
+	 * allocates nothing once warmed up.
+	 */
+	@Test
+	public void test_allocationFree_model()
+	{
+		System.out.println("Test: allocationFree_model");
+		Connect4Model model = new Connect4Model();
+		Runnable game = () -> fillModel(model);
+		assertEquals(0, allocatedPerRun(game, 5000), "bytes per game");
+		model.addListener((row, col, color) -> observed = true);
+		assertEquals(0, allocatedPerRun(game, 5000), "bytes per game with a listener");
+		Connect4Telemetry.enable();
+		try
+		{
+			assertEquals(0, allocatedPerRun(game, 5000), "bytes per game with telemetry");
+		}
+		finally
+		{
+			Connect4Telemetry.disable();
+		}
+		Connect4Model wide = new Connect4Model(new Connect4GameConfig(8, 9, 5));
+		assertEquals(0, allocatedPerRun(() -> fillModel(wide), 5000), "bytes per game on a wide board");
+	}
+
+	/**
+	 * Win detection allocates nothing on either bitboard.
+	 */
+	@Test
+	public void test_allocationFree_winDetection()
+	{
+		System.out.println("Test: allocationFree_winDetection");
+		int[] wins = new int[1];
+		for (Connect4Board board : new Connect4Board[] {new Connect4Bitboard(),
+				new Connect4WideBitboard(new Connect4GameConfig(8, 9, 5))})
+		{
+			int width = board.getConfig().getColumns();
+			Runnable scan = () ->
+			{
+				board.reset();
+				for (int ply = 0; ply < board.getConfig().getCells(); ply++)
+				{
+					int col = ply % width;
+					while (!board.canPlay(col))
+						col = (col + 1) % width;
+					for (int c = 0; c < width; c++)
+					{
+						if (board.canPlay(c) && board.isWinningMove(c))
+							wins[0]++;
+					}
+					board.play(col);
+				}
+			};
+			assertEquals(0, allocatedPerRun(scan, 5000), "bytes per game on " + board.getClass().getSimpleName());
+		}
+		assertTrue(wins[0] > 0);
+	}
+
+	/**
+	 * Generating legal moves allocates nothing.
+	 */
+	@Test
+	public void test_allocationFree_moveGeneration()
+	{
+		System.out.println("Test: allocationFree_moveGeneration");
+		Connect4Bitboard board = new Connect4Bitboard();
+		for (int col : new int[] {3, 3, 2, 4, 4, 3})
+			board.play(col);
+		long[] sink = new long[1];
+		Runnable generate = () ->
+		{
+			for (int i = 0; i < 100; i++)
+			{
+				long moves = board.possible();
+				while (moves != 0)
+				{
+					sink[0] += Long.numberOfTrailingZeros(moves);
+					moves &= moves - 1;
+				}
+				for (int c = 0; c < Connect4Bitboard.WIDTH; c++)
+				{
+					if (board.canPlay(c))
+						sink[0]++;
+				}
+			}
+		};
+		assertEquals(0, allocatedPerRun(generate, 5000), "bytes per 100 generations");
+		assertTrue(sink[0] > 0);
+	}
+
+	/**
+	 * Making and unmaking moves allocates nothing, and a search allocates
+	 * only its returned line however many positions it visits.
+	 */
+	@Test
+	public void test_allocationFree_engine()
+	{
+		System.out.println("Test: allocationFree_engine");
+		for (Connect4Board board : new Connect4Board[] {new Connect4Bitboard(),
+				new Connect4WideBitboard(new Connect4GameConfig(8, 9, 5))})
+		{
+			int width = board.getConfig().getColumns();
+			Runnable makeUnmake = () ->
+			{
+				for (int col = 0; col < width; col++)
+				{
+					board.play(col);
+					for (int reply = 0; reply < width; reply++)
+					{
+						board.play(reply);
+						board.undo(reply);
+					}
+					board.undo(col);
+				}
+			};
+			assertEquals(0, allocatedPerRun(makeUnmake, 20_000), "bytes per make/unmake round on "
+					+ board.getClass().getSimpleName());
+		}
+
+		Connect4Engine engine = new Connect4Engine();
+		Connect4Bitboard start = new Connect4Bitboard();
+		engine.search(start, 6);
+		long nodes = engine.getNodes();
+		long bytes = allocatedPerRun(() -> engine.search(start, 6), 200);
+		assertTrue(nodes > 1000);
+		// the principal variation copy: an int[] of at most 6 moves
+		assertTrue(bytes <= 48, bytes + " bytes per search of " + nodes + " positions");
+	}
+
+	/**
+	 * Builds a position store from a journal, growing it on the way, and
+	 * checks that mirror images share an entry and counts survive reopening.
+	 */
+	@Test
+	public void test_positionStore(@TempDir Path dir) throws IOException
+	{
+		System.out.println("Test: positionStore");
+		Connect4GameJournal journal = new Connect4GameJournal(dir.resolve("journal"), 1024);
+		assertTrue(journal.open());
+		journal.append(Connect4GameRecord.fromColumns(new int[] {0, 1, 0, 1, 0, 1, 0}, 7,
+				Connect4MoveMessage.YELLOW, 0, 0));
+		journal.append(Connect4GameRecord.fromColumns(new int[] {6, 5, 6, 5, 6, 5, 6}, 7,
+				Connect4MoveMessage.YELLOW, 0, 0));
+		journal.append(Connect4GameRecord.fromColumns(new int[] {0, 0, 0, 0, 0, 0, 0}, 7,
+				Connect4Model.EMPTY, 0, 0)); // illegal seventh disc
+		Set<Long> distinct = new HashSet<Long>();
+		Random random = new Random(3);
+		Connect4Bitboard board = new Connect4Bitboard();
+		Connect4Bitboard mirrored = new Connect4Bitboard();
+		int[] columns = new int[42];
+		for (int game = 0; game < 300; game++)
+		{
+			board.reset();
+			mirrored.reset();
+			int moves = 0;
+			int winner = Connect4Model.EMPTY;
+			distinct.add(Math.min(board.key(), mirrored.key()));
+			while (moves < 42 && winner == Connect4Model.EMPTY)
+			{
+				int col = random.nextInt(Connect4Model.COLUMNS);
+				if (!board.canPlay(col))
+					continue;
+				if (board.isWinningMove(col))
+					winner = board.getPlayerToMove();
+				board.play(col);
+				mirrored.play(Connect4Model.COLUMNS - 1 - col);
+				distinct.add(Math.min(board.key(), mirrored.key()));
+				columns[moves++] = col;
+			}
+			journal.append(Connect4GameRecord.fromColumns(columns, moves, winner, 0, 0));
+		}
+		assertTrue(journal.close());
+		board.reset();
+		mirrored.reset();
+		for (int col : new int[] {0, 1, 0, 1, 0, 1, 0})
+		{
+			board.play(col);
+			mirrored.play(Connect4Model.COLUMNS - 1 - col);
+			distinct.add(Math.min(board.key(), mirrored.key()));
+		}
+
+		Path file = dir.resolve("positions.db");
+		Connect4PositionStore store = new Connect4PositionStore(file);
+		assertTrue(store.open(16));
+		assertEquals(302, store.addJournal(dir.resolve("journal")));
+		assertEquals(distinct.size(), store.size());
+		assertTrue(store.capacity() > 16);
+		assertTrue(store.close());
+
+		store = new Connect4PositionStore(file);
+		assertTrue(store.open(16));
+		assertEquals(distinct.size(), store.size());
+		int start = store.find(0, 0);
+		assertEquals(302, store.getVisits(start));
+		Connect4Model model = new Connect4Model();
+		model.setPosition(Connect4Model.ROWS - 1, 0, Connect4MoveMessage.YELLOW);
+		model.setPosition(Connect4Model.ROWS - 1, 1, Connect4MoveMessage.RED);
+		int entry = store.find(model);
+		assertTrue(entry >= 0);
+		assertTrue(store.getYellowWins(entry) >= 2);
+		model.reset();
+		model.setPosition(Connect4Model.ROWS - 1, 6, Connect4MoveMessage.YELLOW);
+		model.setPosition(Connect4Model.ROWS - 1, 5, Connect4MoveMessage.RED);
+		assertEquals(entry, store.find(model));
+		assertTrue(store.close());
+	}
+
+	/**
+	 * Checkpoints a host through snapshots and the change log, abandons it
+	 * as a crash would, adds a torn batch, and checks the restored games.
+	 */
+	@Test
+	public void test_hostCheckpoint(@TempDir Path dir) throws IOException
+	{
+		System.out.println("Test: hostCheckpoint");
+		Connect4HostCheckpoint checkpoint = new Connect4HostCheckpoint(dir);
+		checkpoint.setSnapshotInterval(20_000, 60_000);
+		Connect4GameHost host = checkpoint.restore(16);
+		assertEquals(0, host.size());
+		assertTrue(checkpoint.open(host));
+		assertEquals(1, checkpoint.getGeneration());
+
+		Random random = new Random(5);
+		int games = 5000;
+		long[] ids = new long[games];
+		for (int g = 0; g < games; g++)
+		{
+			ids[g] = host.createGame();
+			int moves = random.nextInt(43);
+			for (int m = 0; m < moves; m++)
+				host.play(ids[g], random.nextInt(Connect4Model.COLUMNS));
+			if (g % 10 == 9)
+				host.removeGame(ids[g - 5]);
+		}
+		assertTrue(checkpoint.sync());
+		assertTrue(checkpoint.getGeneration() > 1); // automatic snapshots
+		assertTrue(checkpoint.checkpoint());
+		for (int g = 0; g < games; g += 7)
+			host.play(ids[g], 3);
+		assertTrue(checkpoint.sync());
+		// no close: the process dies here, with half a batch written after
+		Path log = dir.resolve(String.format("checkpoint-%08d.log", checkpoint.getGeneration()));
+		Files.write(log, new byte[] {0, 0, 0, 20, 2, 0, 0}, StandardOpenOption.APPEND);
+
+		long start = System.nanoTime();
+		Connect4HostCheckpoint reopened = new Connect4HostCheckpoint(dir);
+		Connect4GameHost restored = reopened.restore(games);
+		long millis = (System.nanoTime() - start) / 1_000_000;
+		assertTrue(millis < 1000, millis + " ms to restore");
+		assertEquals(host.size(), restored.size());
+		assertEquals(host.size(), reopened.getRestoredGames());
+		for (long id : ids)
+		{
+			assertEquals(host.contains(id), restored.contains(id));
+			if (!host.contains(id))
+				continue;
+			assertEquals(host.getMoveCount(id), restored.getMoveCount(id));
+			assertEquals(host.getWinner(id), restored.getWinner(id));
+			assertEquals(host.getSnapshot(id), restored.getSnapshot(id));
+		}
+		assertEquals(host.createGame(), restored.createGame());
+
+		// the restored host carries on as the next generation
+		assertTrue(reopened.open(restored));
+		restored.play(ids[0], 0);
+		assertTrue(reopened.close());
+		assertEquals(restored.getMoveCount(ids[0]), new Connect4HostCheckpoint(dir).restore(games).getMoveCount(ids[0]));
+		try (Stream<Path> files = Files.list(dir))
+		{
+			assertEquals(2, files.count()); // one snapshot and its log
+		}
+	}
+
+	private static final int ALLOCATION_ROUNDS = 3;
+
+	/**
+	 * Measures heap allocated by the current thread per run of a task, after
+	 * warming it up so the JIT has compiled it and removed allocations that
+	 * do not escape. Takes the least of a few rounds, so a one-off
+	 * allocation elsewhere in the JVM's bookkeeping is not blamed on the task.
+	 * @param task task to measure
+	 * @param runs runs per round
+	 * @return bytes per run, rounded down
+	 */
+	private static long allocatedPerRun(Runnable task, int runs)
+	{
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		for (int i = 0; i < runs * 3; i++)
+			task.run();
+		long least = Long.MAX_VALUE;
+		for (int round = 0; round < ALLOCATION_ROUNDS; round++)
+		{
+			long before = threads.getCurrentThreadAllocatedBytes();
+			for (int i = 0; i < runs; i++)
+				task.run();
+			least = Math.min(least, threads.getCurrentThreadAllocatedBytes() - before);
+		}
+		return least / runs;
+	}
+
+	/**
+	 * Fills a model's board column by column, alternating colors, from empty.
+	 */
+	private static void fillModel(Connect4Model model)
+	{
+		model.reset();
+		for (int col = 0; col < model.getColumns(); col++)
+		{
+			for (int row = model.getRows() - 1; row >= 0; row--)
+				model.setPosition(row, col, (row + col) % 2 == 0 ? Connect4MoveMessage.YELLOW : Connect4MoveMessage.RED);
+		}
+	}
+	
 	/**
 	 * TestView class that extends Connect4View for the purposes of checking the
-	 * Observer/Observable relationship.
+	 * model listener relationship.
 	 * 
 	 * @author Caroline O'Neill
 	 *
@@ -339,7 +1818,7 @@ public class Connect4Test
 	private class TestView extends Connect4View
 	{
 		@Override
-		public void update(Observable o, Object arg) 
+		public void moveMade(int row, int col, int color) 
 		{
 			observed = true;
 		}
@@ -0,0 +1,54 @@
+package connect4;
+
+import java.io.Serializable;
+
+/**
+ * A time control: each player starts with a base time and gains an 
+ * increment after every move they make. A player whose time runs out loses.
+ *
+ */
+public final class Connect4TimeControl implements Serializable 
+{
+	private static final long serialVersionUID = 1L;
+	
+	private final long baseMillis;
+	private final long incrementMillis;
+	
+	/**
+	 * Connect4TimeControl Constructor.
+	 * @param baseMillis time each player starts with, more than zero
+	 * @param incrementMillis time added after each move, zero or more
+	 * @throws IllegalArgumentException if a time is out of range
+	 */
+	public Connect4TimeControl(long baseMillis, long incrementMillis)
+	{
+		if (baseMillis <= 0 || incrementMillis < 0)
+			throw new IllegalArgumentException("Invalid time control: " + baseMillis + "+" + incrementMillis);
+		this.baseMillis = baseMillis;
+		this.incrementMillis = incrementMillis;
+	}
+	
+	public long getBaseMillis() { return baseMillis; }
+	public long getIncrementMillis() { return incrementMillis; }
+	
+	@Override
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof Connect4TimeControl))
+			return false;
+		Connect4TimeControl other = (Connect4TimeControl) o;
+		return baseMillis == other.baseMillis && incrementMillis == other.incrementMillis;
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return Long.hashCode(baseMillis * 31 + incrementMillis);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return (baseMillis / 1000.0) + "s+" + (incrementMillis / 1000.0) + "s";
+	}
+}
@@ -0,0 +1,355 @@
+package connect4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A hashed-wheel timer: one thread serves the timeouts of every game.
+ * 
+ * <p>Time is cut into ticks and the wheel has one bucket per tick, reused
+ * every turn of the wheel. A timeout goes into the bucket of the tick it
+ * falls due in, with a count of whole turns still to wait. Scheduling and
+ * cancelling are constant time and lock-free: both only hand the timeout to
+ * the timer thread through a {@link Connect4MpscQueue}, and the timer thread
+ * links it into, or unlinks it from, its bucket on the next tick. Each tick
+ * then visits one bucket, so the cost does not grow with the number of games
+ * waiting, only with the number of timeouts falling due.</p>
+ * 
+ * <p>A timeout never fires early and fires at most about one tick late.
+ * Tasks run on the timer thread and must be short; anything slow should be
+ * handed to another executor. A task that throws is counted and passed to
+ * the failure handler, and the timer carries on with the other tasks.</p>
+ *
+ */
+public final class Connect4TimerWheel 
+{
+	public static final long DEFAULT_TICK_MILLIS = 10;
+	public static final int DEFAULT_BUCKETS = 512;
+	
+	private static final int PENDING = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+	
+	private final long tickNanos;
+	private final Timeout[] buckets;      // head of each bucket's list
+	private final int mask;
+	private final Connect4MpscQueue<Timeout> added;
+	private final Connect4MpscQueue<Timeout> cancelled;
+	private final long startNanos;
+	private final Thread worker;
+	private volatile boolean running;
+	private long tick;                    // timer thread only
+	private volatile long pending;        // written by the timer thread only
+	private volatile long failedTasks;    // written by the timer thread only
+	private volatile Consumer<RuntimeException> failureHandler = e -> { };
+	
+	/**
+	 * A scheduled task, which may be cancelled until it runs.
+	 */
+	public static final class Timeout
+	{
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+				AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+		
+		private final Connect4TimerWheel wheel;
+		private final Runnable task;
+		private final long deadlineNanos; // relative to the wheel's start
+		private volatile int state;
+		
+		// linked into a bucket by the timer thread
+		private long rounds;
+		private int bucket = -1;
+		private Timeout prev;
+		private Timeout next;
+		
+		private Timeout(Connect4TimerWheel wheel, Runnable task, long deadlineNanos)
+		{
+			this.wheel = wheel;
+			this.task = task;
+			this.deadlineNanos = deadlineNanos;
+		}
+		
+		/**
+		 * Cancels the task if it has not run yet.
+		 * @return true if this call cancelled it
+		 */
+		public boolean cancel()
+		{
+			if (!STATE.compareAndSet(this, PENDING, CANCELLED))
+				return false;
+			wheel.cancelled.offer(this);
+			return true;
+		}
+		
+		/**
+		 * @return true if the task has been cancelled
+		 */
+		public boolean isCancelled()
+		{
+			return state == CANCELLED;
+		}
+		
+		/**
+		 * @return true if the task has run, or is running
+		 */
+		public boolean isExpired()
+		{
+			return state == EXPIRED;
+		}
+	}
+	
+	/**
+	 * Lazily started timer shared by all games in this process.
+	 */
+	private static final class Shared
+	{
+		static final Connect4TimerWheel INSTANCE = 
+				new Connect4TimerWheel(DEFAULT_TICK_MILLIS, DEFAULT_BUCKETS);
+	}
+	
+	/**
+	 * Gets the timer shared by every game in the process.
+	 * @return shared timer
+	 */
+	public static Connect4TimerWheel shared()
+	{
+		return Shared.INSTANCE;
+	}
+	
+	/**
+	 * Connect4TimerWheel Constructor. Starts the timer thread.
+	 * @param tickMillis length of a tick; the timer's resolution
+	 * @param buckets buckets in the wheel, rounded up to a power of two
+	 */
+	public Connect4TimerWheel(long tickMillis, int buckets)
+	{
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		int size = Integer.highestOneBit(Math.max(1, buckets - 1)) << 1;
+		this.buckets = new Timeout[size];
+		this.mask = size - 1;
+		this.added = new Connect4MpscQueue<Timeout>();
+		this.cancelled = new Connect4MpscQueue<Timeout>();
+		this.startNanos = System.nanoTime();
+		this.running = true;
+		this.worker = new Thread(this::run, "connect4-timer-wheel");
+		worker.setDaemon(true);
+		worker.start();
+	}
+	
+	/**
+	 * Schedules a task. May be called from any thread.
+	 * @param task task to run on the timer thread
+	 * @param delay delay before running the task
+	 * @param unit unit of the delay
+	 * @return handle for cancelling the task
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit)
+	{
+		long deadline = System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay));
+		Timeout timeout = new Timeout(this, task, deadline);
+		added.offer(timeout);
+		return timeout;
+	}
+	
+	/**
+	 * Stops the timer thread. Tasks not yet run never run.
+	 */
+	public void stop()
+	{
+		running = false;
+		LockSupport.unpark(worker);
+	}
+	
+	/**
+	 * Gets the number of timeouts linked into the wheel as of the last tick,
+	 * for monitoring.
+	 * @return waiting timeouts
+	 */
+	public long getPendingCount()
+	{
+		return pending;
+	}
+	
+	/**
+	 * Gets the number of tasks that threw, for monitoring.
+	 * @return failed tasks
+	 */
+	public long getFailedTaskCount()
+	{
+		return failedTasks;
+	}
+	
+	/**
+	 * Sets what is done with the exception of a task that throws. It runs on
+	 * the timer thread, so it must be short too. By default nothing is done
+	 * beyond counting the failure.
+	 * @param handler receives each exception
+	 */
+	public void setFailureHandler(Consumer<RuntimeException> handler)
+	{
+		failureHandler = handler;
+	}
+	
+	private void run()
+	{
+		while (running)
+		{
+			long tickEnd = (tick + 1) * tickNanos;
+			long now;
+			while (running && (now = System.nanoTime() - startNanos) < tickEnd)
+			{
+				LockSupport.parkNanos(tickEnd - now);
+			}
+			if (!running)
+				return;
+			unlinkCancelled();
+			linkAdded();
+			expire(buckets[(int) (tick & mask)], tickEnd);
+			tick++;
+		}
+	}
+	
+	/**
+	 * Places newly scheduled timeouts in their buckets. A timeout due in a
+	 * tick already passed goes in the current one.
+	 */
+	private void linkAdded()
+	{
+		Timeout timeout;
+		while ((timeout = added.poll()) != null)
+		{
+			if (timeout.state != PENDING)
+				continue;
+			long dueTick = Math.max(timeout.deadlineNanos / tickNanos, tick);
+			timeout.rounds = (dueTick - tick) / buckets.length;
+			int index = (int) (dueTick & mask);
+			timeout.bucket = index;
+			timeout.next = buckets[index];
+			if (timeout.next != null)
+				timeout.next.prev = timeout;
+			buckets[index] = timeout;
+			pending++;
+		}
+	}
+	
+	private void unlinkCancelled()
+	{
+		Timeout timeout;
+		while ((timeout = cancelled.poll()) != null)
+		{
+			if (timeout.bucket >= 0)
+				unlink(timeout);
+		}
+	}
+	
+	/**
+	 * Runs the timeouts of the current bucket that are due this turn of the
+	 * wheel; counts down the rounds of the rest.
+	 */
+	private void expire(Timeout timeout, long tickEnd)
+	{
+		while (timeout != null)
+		{
+			Timeout next = timeout.next;
+			if (timeout.rounds <= 0 && timeout.deadlineNanos <= tickEnd)
+			{
+				unlink(timeout);
+				if (Timeout.STATE.compareAndSet(timeout, PENDING, EXPIRED))
+					runTask(timeout.task);
+			}
+			else
+			{
+				timeout.rounds--;
+			}
+			timeout = next;
+		}
+	}
+	
+	private void unlink(Timeout timeout)
+	{
+		if (timeout.prev != null)
+			timeout.prev.next = timeout.next;
+		else
+			buckets[timeout.bucket] = timeout.next;
+		if (timeout.next != null)
+			timeout.next.prev = timeout.prev;
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.bucket = -1;
+		pending--;
+	}
+	
+	private void runTask(Runnable task)
+	{
+		try
+		{
+			task.run();
+		}
+		catch (RuntimeException e)
+		{
+			// one failing task must not stop the timer for every other game
+			failedTasks++;
+			reportFailure(e);
+		}
+	}
+	
+	private void reportFailure(RuntimeException e)
+	{
+		try
+		{
+			failureHandler.accept(e);
+		}
+		catch (RuntimeException ignored)
+		{
+			// a failing handler must not stop the timer either
+		}
+	}
+	
+	/**
+	 * Schedules timeouts for a number of simulated games, cancelling and
+	 * rescheduling as moves are made, and reports how late timeouts fired.
+	 * @param args number of games, default 50000
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static void main(String[] args) throws InterruptedException
+	{
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+		Connect4TimerWheel wheel = new Connect4TimerWheel(DEFAULT_TICK_MILLIS, DEFAULT_BUCKETS);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		AtomicLong totalLateNanos = new AtomicLong();
+		AtomicLong maxLateNanos = new AtomicLong();
+		CountDownLatch fired = new CountDownLatch(games);
+		
+		// every game moves a few times, each move cancelling its timeout
+		long start = System.nanoTime();
+		Timeout[] timeouts = new Timeout[games];
+		for (int move = 0; move < 5; move++)
+		{
+			for (int g = 0; g < games; g++)
+			{
+				if (timeouts[g] != null)
+					timeouts[g].cancel();
+				long delayMillis = 500 + random.nextInt(1500);
+				long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+				timeouts[g] = wheel.schedule(() -> {
+					long late = System.nanoTime() - due;
+					totalLateNanos.addAndGet(late);
+					maxLateNanos.accumulateAndGet(late, Math::max);
+					fired.countDown();
+				}, delayMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+		long scheduleNanos = System.nanoTime() - start;
+		fired.await();
+		wheel.stop();
+		System.out.printf("%d games, %d schedule+cancel in %.1f ms (%.0f ns each)%n", games, 5 * games,
+				scheduleNanos / 1e6, (double) scheduleNanos / (5 * games));
+		System.out.printf("timeouts fired late by %.2f ms on average, %.2f ms at most%n",
+				totalLateNanos.get() / 1e6 / games, maxLateNanos.get() / 1e6);
+	}
+}
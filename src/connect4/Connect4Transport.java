@@ -0,0 +1,56 @@
+package connect4;
+
+/**
+ * A channel that carries {@link Connect4MoveMessage}s between two Connect4
+ * instances.
+ * 
+ * <p>{@link Connect4Network} is the socket-backed implementation used for real
+ * games. {@link Connect4LoopbackTransport} connects two controllers in the same
+ * process, which lets tests and benchmarks play full games without a socket.</p>
+ * 
+ * <p>Error reporting follows {@link Connect4Network}: methods return a status
+ * (or null) instead of throwing, and the reason for the last failure can be
+ * retrieved by invoking {@link #getErrorMessage()}.</p>
+ *
+ */
+public interface Connect4Transport {
+    
+    /**
+     * Sends a {@link Connect4MoveMessage} to the other end of this transport.
+     * 
+     * @param message - the {@link Connect4MoveMessage} to transmit
+     * @return true if no error occurred, false otherwise
+     */
+    boolean writeMessage(Connect4MoveMessage message);
+    
+    /**
+     * Receives the next {@link Connect4MoveMessage}, blocking until one is
+     * available.
+     * 
+     * @return the <code>Connect4MoveMessage</code> read, or null if the
+     *         transport was closed or an error occurred
+     */
+    Connect4MoveMessage readMessage();
+    
+    /**
+     * Closes this transport. A reader blocked in {@link #readMessage()} on
+     * either end is released with null.
+     * 
+     * @return true if no error occurred, false otherwise
+     */
+    boolean closeConnection();
+    
+    /**
+     * Returns error status of transport startup.
+     * 
+     * @return True if there was an error during startup, false otherwise
+     */
+    boolean getStartError();
+    
+    /**
+     * Returns the message associated with the last transport error.
+     * 
+     * @return a <code>String</code> describing the last error
+     */
+    String getErrorMessage();
+}
@@ -0,0 +1,104 @@
+package connect4;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size table of search results, shared by any number of 
+ * {@link Connect4Engine}s searching on different threads.
+ * 
+ * <p>Each entry is two <code>long</code>s: the packed result, and the
+ * position hash XORed with it. A reader accepts an entry only if the two
+ * XOR back to the hash it is looking for, so an entry torn by two threads
+ * writing at once simply reads as a miss and no locking is needed. Entries
+ * are replaced when a different position maps to the slot or the new result
+ * is at least as deep.</p>
+ * 
+ * <p>A result packs the score, the depth it was searched to, whether the
+ * score is exact or a bound, and the best column.</p>
+ *
+ */
+public final class Connect4TranspositionTable 
+{
+	/** {@link #probe(long)} result when the position is not stored */
+	public static final long MISS = 0;
+	
+	public static final int EXACT = 1;
+	public static final int LOWER_BOUND = 2;
+	public static final int UPPER_BOUND = 3;
+	
+	private final long[] entries; // [2 * slot] = hash ^ data, [2 * slot + 1] = data
+	private final int mask;
+	
+	/**
+	 * Connect4TranspositionTable Constructor.
+	 * @param megabytes approximate size, rounded down to a power of two 
+	 *        number of 16 byte entries
+	 */
+	public Connect4TranspositionTable(int megabytes)
+	{
+		long slots = Long.highestOneBit(Math.max(1L, ((long) megabytes << 20) / 16));
+		slots = Math.min(slots, 1 << 29); // array length limit
+		this.entries = new long[(int) (2 * slots)];
+		this.mask = (int) slots - 1;
+	}
+	
+	/**
+	 * Looks up a position.
+	 * @param hash position hash, see {@link Connect4Board#hash()}
+	 * @return packed result, or {@link #MISS}
+	 */
+	public long probe(long hash)
+	{
+		int i = index(hash);
+		long data = entries[i + 1];
+		if (data == MISS || (entries[i] ^ data) != hash)
+			return MISS;
+		return data;
+	}
+	
+	/**
+	 * Stores a search result.
+	 * @param hash position hash
+	 * @param score score for the player to move
+	 * @param depth depth searched, 0 to 255
+	 * @param flag EXACT, LOWER_BOUND or UPPER_BOUND
+	 * @param move best column, -1 if none
+	 */
+	public void store(long hash, int score, int depth, int flag, int move)
+	{
+		int i = index(hash);
+		long old = entries[i + 1];
+		if (old != MISS && (entries[i] ^ old) == hash && depth(old) > depth)
+			return; // keep the deeper result for the same position
+		long data = (score & 0xFFFF_FFFFL) | ((long) depth << 32) | ((long) flag << 40) 
+				| ((long) (move + 1) << 42);
+		entries[i] = hash ^ data;
+		entries[i + 1] = data;
+	}
+	
+	/**
+	 * Empties the table.
+	 */
+	public void clear()
+	{
+		Arrays.fill(entries, 0);
+	}
+	
+	/**
+	 * @return number of entries
+	 */
+	public int capacity()
+	{
+		return mask + 1;
+	}
+	
+	public static int score(long data) { return (int) data; }
+	public static int depth(long data) { return (int) (data >>> 32) & 0xFF; }
+	public static int flag(long data) { return (int) (data >>> 40) & 0x3; }
+	public static int move(long data) { return (int) (data >>> 42) - 1; }
+	
+	private int index(long hash)
+	{
+		return ((int) (hash ^ (hash >>> 32)) & mask) << 1;
+	}
+}
@@ -1,55 +1,87 @@
 package connect4;
 
-import java.util.Observable;
-import java.util.Observer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.stage.Stage;
 import javafx.scene.*;
 import javafx.scene.layout.*;
-import javafx.scene.paint.*;
-import javafx.geometry.*;
-import javafx.scene.shape.Circle;
 import javafx.scene.control.*;
 import javafx.scene.control.Alert.AlertType;
+import javafx.geometry.Pos;
 
 /**
  * This class serves as the UI for the Connect4 program.
  * 
- * <p>This class is an {@link Observer} of the {@link Connect4Model} class.
+ * <p>This class is a {@link Connect4GameListener} of the {@link Connect4Model} class.
  * </p>
  * 
+ * <p>Model notifications only record the move; the board is repainted, the
+ * game checked and the next turn started once per frame by an
+ * {@link AnimationTimer}. However many moves arrive between frames, each
+ * frame does this work once against the latest state. The computer player
+ * chooses its move on a background thread and the frame that finds the
+ * choice ready plays it, so a fast engine can neither flood nor stall the
+ * JavaFX Application Thread.</p>
+ * 
+ * <p>While a game is in progress a {@link Connect4LiveAnalysis} scores every
+ * column and finds the best line in the background. The scores are shown
+ * above the board and the line below it.</p>
+ * 
+ * <p>The board, score row and analysis position are rebuilt whenever a game
+ * starts on a different {@link Connect4GameConfig} from the one shown. In a
+ * timed game both players' clocks are shown below the board.</p>
+ * 
  * @author Kristopher Rangel
  * 
  * @author Caroline O'Neill (integrating multi-threading from controller)
  *
  */
-public class Connect4View extends Application implements Observer{
+public class Connect4View extends Application implements Connect4GameListener{
 
-    private final int CIRCLE_RADIUS = 20;
-    private final int VGAP_PADDING = 8;
-    private final int HGAP_PADDING = 8;
-    private final int INSETS_PADDING = 4;
-    private final Color BACKGROUND_COLOR = Color.BLUE;
-    private final int COLUMNS = 7;
-    private final int ROWS = 6;
+    private final int LOBBY_RATING = 1500;
+    private final long NO_COMPUTER_MOVE = -1;
+    private final int ANALYSIS_DEPTH = 10;
+    private final long ANALYSIS_INTERVAL_MILLIS = 250;
 
     private Stage stage;
     private Scene scene;
     private VBox window;
-    private GridPane board;
+    private Connect4BoardCanvas board;
+    private Connect4GameConfig boardConfig; // configuration the board is drawn for
+    private Connect4GameConfig gameConfig;  // configuration chosen for new games
     private MenuBar menuBar;
     private Connect4Controller controller;
-    private Connect4MoveMessage message;
     
     private boolean isGameOver;
     private boolean inputEnabled;
     private String server;
     private int port;
     private boolean isServer;
+    private boolean isLobby;
     private boolean isHuman;
     private int color;
     
+    private AnimationTimer frameTimer;
+    private AtomicBoolean moveArrived; // set by moveMade, cleared by the next frame
+    private volatile int lastMoveColor;
+    private ExecutorService computerExecutor;
+    private volatile long computerMove; // (game generation << 32) | column
+    private boolean computerThinking;
+    private int gameGeneration;
+    
+    private Connect4LiveAnalysis analysis;
+    private Connect4Board analysisPosition;
+    private int analysisDiscs; // discs on the board in the analysed position
+    private HBox scoreRow;
+    private Label[] columnScoreLabels;
+    private Label bestLineLabel;
+    private Label clockLabel;
+    private long shownClockSeconds; // yellow * 2^32 + red, to redraw only on change
+    
     
     /**
      * <ul><b><i>start</i></b></ul>
@@ -79,6 +111,12 @@ public class Connect4View extends Application implements Observer{
             stage.setScene(scene);
             stage.show();
             this.stage = stage;
+            
+            frameTimer = new AnimationTimer() {
+                @Override
+                public void handle(long now) { onFrame(); }
+            };
+            frameTimer.start();
 
         }catch(Exception e) {
             e.printStackTrace();
@@ -99,10 +137,22 @@ public class Connect4View extends Application implements Observer{
      *
      */
     public void init() {
+        this.boardConfig = Connect4GameConfig.STANDARD;
+        this.gameConfig = Connect4GameConfig.STANDARD;
         initBoard();
-        createCircles();
+        clearBoard();
         initMenuBar();
-        this.window = new VBox(menuBar, board);
+        initAnalysisOverlay();
+        this.clockLabel = new Label();
+        this.window = new VBox(menuBar, scoreRow, board, bestLineLabel, clockLabel);
+        
+        this.moveArrived = new AtomicBoolean();
+        this.computerMove = NO_COMPUTER_MOVE;
+        this.computerExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "connect4-computer-player");
+            t.setDaemon(true);
+            return t;
+        });
         
         // default to human player server
         this.isServer = true;
@@ -120,12 +170,70 @@ public class Connect4View extends Application implements Observer{
      * @author Kristopher Rangel
      */
     public void stop() {
+        computerExecutor.shutdownNow();
+        analysis.shutdown();
+        
         //Network cleanup 
         boolean closedWithoutError = controller.closeNetwork();
         if(!closedWithoutError)
             showAlert(AlertType.ERROR, controller.getNetworkError());
     }
     
+    /**
+     * <ul><b><i>initAnalysisOverlay</i></b></ul>
+     * <ul><ul><p><code>private void initAnalysisOverlay () </code></p></ul>
+     *
+     * Sets up the row of column scores above the board, the best line label
+     * below it, and the background analysis that fills them in.
+     */
+    private void initAnalysisOverlay() {
+        scoreRow = new HBox();
+        initScoreLabels();
+        bestLineLabel = new Label();
+        
+        analysisPosition = Connect4Board.create(boardConfig);
+        analysis = new Connect4LiveAnalysis(ANALYSIS_DEPTH, ANALYSIS_INTERVAL_MILLIS, this::showAnalysis);
+    }
+    
+    /**
+     * <ul><b><i>initScoreLabels</i></b></ul>
+     * <ul><ul><p><code>private void initScoreLabels () </code></p></ul>
+     *
+     * Fills the score row with one label per column of the board.
+     */
+    private void initScoreLabels() {
+        double columnWidth = 2 * Connect4BoardCanvas.CIRCLE_RADIUS + Connect4BoardCanvas.GAP_PADDING;
+        columnScoreLabels = new Label[boardConfig.getColumns()];
+        for(int col = 0; col < columnScoreLabels.length; col++) {
+            columnScoreLabels[col] = new Label();
+            columnScoreLabels[col].setPrefWidth(columnWidth);
+            columnScoreLabels[col].setAlignment(Pos.CENTER);
+        }
+        scoreRow.getChildren().setAll(columnScoreLabels);
+    }
+    
+    /**
+     * <ul><b><i>resizeBoard</i></b></ul>
+     * <ul><ul><p><code>private void resizeBoard (Connect4GameConfig config) </code></p></ul>
+     *
+     * Rebuilds the board and analysis overlay for a configuration, if it
+     * differs from the one shown, and resizes the window to fit.
+     *
+     * @param config - the configuration of the game being played
+     */
+    private void resizeBoard(Connect4GameConfig config) {
+        if(config.sameBoard(boardConfig))
+            return;
+        boardConfig = config;
+        int index = window.getChildren().indexOf(board);
+        initBoard();
+        clearBoard();
+        window.getChildren().set(index, board);
+        initScoreLabels();
+        analysisPosition = Connect4Board.create(config);
+        stage.sizeToScene();
+    }
+    
     /**
      * <ul><b><i>initMenuBar</i></b></ul>
      * <ul><ul><p><code>private void initMenuBar () </code></p></ul>
@@ -158,10 +266,17 @@ public class Connect4View extends Application implements Observer{
         if(ns.userHitOK()) { // user hit okay to start new game
             
             // Getting user options
+            try {
+                gameConfig = ns.getGameConfig();
+            }catch(IllegalArgumentException e) {
+                showAlert(AlertType.ERROR, "Invalid board size: " + e.getMessage());
+                return;
+            }
             server = ns.getServer();
             port = ns.getPort();
             isHuman = ns.getPlayAsSelection();
             isServer = ns.getCreateModeSelection();
+            isLobby = ns.getLobbySelection();
             
             startNewGame();
         }
@@ -178,26 +293,43 @@ public class Connect4View extends Application implements Observer{
      * @author Caroline O'Neill
      */
     private void startNewGame() {
-    	controller = new Connect4Controller();
+    	controller = new Connect4Controller(gameConfig);
     	controller.setModelObserver(this);
-    	createCircles();
+    	resizeBoard(gameConfig);
+    	clearBoard();
+    	
+    	// results still being computed for the previous game are ignored
+    	gameGeneration++;
+    	computerThinking = false;
+    	computerMove = NO_COMPUTER_MOVE;
+    	lastMoveColor = Connect4Model.EMPTY;
+    	moveArrived.set(true);
           
-        boolean hasConnectionError = controller.buildNetwork(isServer, server, port);
+        boolean hasConnectionError;
+        if(isLobby) {
+            // the lobby decides who moves first; yellow plays like the server
+            hasConnectionError = controller.joinLobby(server, port, LOBBY_RATING);
+            isServer = controller.getAssignedColor() == Connect4MoveMessage.YELLOW;
+        }else {
+            hasConnectionError = controller.buildNetwork(isServer, server, port);
+        }
         if(hasConnectionError) {
+        	// no game to play - keep the next frame from starting one
+        	moveArrived.set(false);
+        	inputEnabled = false;
         	showAlert(AlertType.ERROR, controller.getNetworkError());
         } else {
+        	// a client, or red in the lobby, plays on the other player's board
+        	resizeBoard(controller.getConfig());
+        	controller.startClock();
+        	shownClockSeconds = -1;
         	if(isServer) {
         		color = Connect4MoveMessage.YELLOW;
-                stage.setTitle("Connect4 (Server)");
-                inputEnabled = true; // server takes first turn
-                if (!isHuman)
-                {
-                	// initiate computerTurn
-                	controller.computerTurn(this.color);
-                }
+                stage.setTitle(isLobby ? "Connect4 (Lobby - Yellow)" : "Connect4 (Server)");
+                inputEnabled = true; // server takes first turn, computer on next frame
         	} else {
                 color = Connect4MoveMessage.RED;
-                stage.setTitle("Connect4 (Client)");
+                stage.setTitle(isLobby ? "Connect4 (Lobby - Red)" : "Connect4 (Client)");
                 inputEnabled = false; // client waits for server
                 controller.initiateListening();
             }
@@ -208,23 +340,15 @@ public class Connect4View extends Application implements Observer{
      * <ul><b><i>initBoard</i></b></ul>
      * <ul><ul><p><code> private void initBoard () </code></p></ul>
      *
-     * A run-once function that sets the initial state of the Connect4 board.
+     * A run-once function that creates the Connect4 board.
      * 
-     * <p>This function sets the board background, alignment, and padding. Then it
-     * invokes the {@link #createCircles()} method.
+     * <p>The board is a single {@link Connect4BoardCanvas}, which paints only
+     * the cells that change instead of holding a node per cell.
      *
      * @author Kristopher Rangel
      */
     private void initBoard() {
-        board = new GridPane();
-        
-        BackgroundFill bgfill = new BackgroundFill(BACKGROUND_COLOR, CornerRadii.EMPTY, Insets.EMPTY);
-        Background bg = new Background(bgfill);
-        board.setBackground(bg);
-        board.setHgap(HGAP_PADDING);
-        board.setVgap(VGAP_PADDING);
-        board.setPadding(new Insets(INSETS_PADDING, INSETS_PADDING, INSETS_PADDING, INSETS_PADDING));
-        board.setAlignment(Pos.CENTER);
+        board = new Connect4BoardCanvas(boardConfig);
         board.setOnMouseClicked(e -> { if(inputEnabled) onClick(e.getX()); } );
     }
     
@@ -243,9 +367,7 @@ public class Connect4View extends Application implements Observer{
     private void onClick(double xCoord) {
         
         if(isHuman && inputEnabled) {
-            int position = (int) Math.ceil(xCoord); // Rounding up decimal to nearest integer
-            int column = (position - 5) / (HGAP_PADDING + 2 * CIRCLE_RADIUS); // Calculating column based on column width
-            column = (column >= COLUMNS) ? COLUMNS - 1 : column; // limiting to last column
+            int column = board.columnAt(xCoord); // Calculating column based on column width
             selectColumn(column);
         }
     }
@@ -272,21 +394,16 @@ public class Connect4View extends Application implements Observer{
 
     
     /**
-     * <ul><b><i>createCircles</i></b></ul>
-     * <ul><ul><p><code> private void createCircles () </code></p></ul>
+     * <ul><b><i>clearBoard</i></b></ul>
+     * <ul><ul><p><code> private void clearBoard () </code></p></ul>
      *
-     * Creates white circle objects and adds them to the board.
+     * Empties every cell of the board and repaints it.
      *
      * @author Kristopher Rangel
      */
-    private void createCircles() {
-        board.getChildren().clear();
-        for(int row = 0; row < ROWS; row++) {
-            for(int col = 0; col < COLUMNS; col++) {
-                Circle c = new Circle(CIRCLE_RADIUS, Color.WHITE);                
-                board.add(c, col, row);
-            }
-        }
+    private void clearBoard() {
+        board.clearBoard(0);
+        board.render();
     }
     
     /**
@@ -313,10 +430,12 @@ public class Connect4View extends Application implements Observer{
             if(controller.getWinner() == this.color) { msg = "You won!"; }
             else if(controller.getWinner() == otherPlayerColor) { msg = "You lost!"; }
             else { msg = "It's a tie!"; }
+            if(controller.getFlaggedColor() != Connect4Model.EMPTY) { msg += " (on time)"; }
             
             inputEnabled = false;
             
-            showAlert(AlertType.INFORMATION, msg);
+            // not showAndWait - this runs during a frame pulse
+            new Alert(AlertType.INFORMATION, msg).show();
         }     
     }
     
@@ -326,47 +445,178 @@ public class Connect4View extends Application implements Observer{
     }
     
     /**
-     * <ul><b><i>update</i></b></ul>
-     * <ul><ul><p><code> public void update (Observable o, Object arg) </code></p></ul>
+     * <ul><b><i>moveMade</i></b></ul>
+     * <ul><ul><p><code> public void moveMade (int row, int col, int color) </code></p></ul>
      *
-     * This updates the view based on changes to the observed {@link Connect4Model}
-     * object.
+     * This records a move made on the observed {@link Connect4Model} object.
+     * The changed cell is marked on the board and the rest of the work is
+     * left to the next frame, see {@link #onFrame()}.
      *
-     * @param o - the {@link Connect4Model} being observed
-     * @param arg - a {@link Connect4MoveMessage} with information related to the move
+     * @param row - the row of the disc
+     * @param col - the column of the disc
+     * @param color - the color of the disc
      * 
      * @author Kristopher Rangel 
      * @author Caroline O'Neill
      */
-    public void update(Observable o, Object arg) {
-        message = (Connect4MoveMessage) arg;
- 
-        int row = message.getRow();
-        int col = message.getColumn();
-        int color = message.getColor();
-        int index = (row*COLUMNS) + col;
-        Color paint = Color.WHITE;
-        
-        if(color == Connect4MoveMessage.YELLOW) { paint = Color.YELLOW; }
-        if(color == Connect4MoveMessage.RED)    { paint = Color.RED; }
+    @Override
+    public void moveMade(int row, int col, int color) {
+        board.setCell(0, row, col, color);
+        lastMoveColor = color;
+        moveArrived.set(true);
+    }
+    
+    /**
+     * <ul><b><i>gameWon</i></b></ul>
+     * <ul><ul><p><code> public void gameWon (int color) </code></p></ul>
+     *
+     * Wins by a move arrive with the move itself; this catches a win on time,
+     * which has no move, so the next frame ends the game.
+     *
+     * @param color - the color of the winner
+     */
+    @Override
+    public void gameWon(int color) {
+        moveArrived.set(true);
+    }
+    
+    /**
+     * <ul><b><i>onFrame</i></b></ul>
+     * <ul><ul><p><code> private void onFrame () </code></p></ul>
+     *
+     * Runs once per frame on the JavaFX Application Thread. Plays a computer
+     * move that has finished computing, repaints changed cells and, if any 
+     * moves arrived since the last frame, checks for the end of the game and 
+     * whose turn it is. Starts the computer player's next search when it is 
+     * its turn.
+     */
+    private void onFrame() {
+        long result = computerMove;
+        if(result != NO_COMPUTER_MOVE) {
+            computerMove = NO_COMPUTER_MOVE;
+            computerThinking = false;
+            if((int) (result >>> 32) == gameGeneration && inputEnabled)
+                controller.takeTurn((int) result, color);
+        }
         
-        Circle c = (Circle) board.getChildren().get(index);
-        c.fillProperty().set(paint);
+        board.render();
+        showClocks();
         
-        checkGameOver();
+        if(moveArrived.getAndSet(false)) {
+            checkGameOver();
+            inputEnabled = !isGameOver && isOurTurn();
+            restartAnalysis();
+        }
         
-        // switch inputEnabled on/off
-        if (inputEnabled)
-        	inputEnabled = false;
-        else
-        {
-        	inputEnabled = true;
-        	if (!isHuman && !controller.isGameOver())
-        	{
-        		// initiate computerTurn
-            	controller.computerTurn(this.color);
-        	}
-        }        
+        if(!isHuman && inputEnabled && !computerThinking)
+            requestComputerMove();
+    }
+    
+    /**
+     * <ul><b><i>showClocks</i></b></ul>
+     * <ul><ul><p><code> private void showClocks () </code></p></ul>
+     *
+     * Shows both players' time left in a timed game. The label is only
+     * changed when a displayed second changes.
+     */
+    private void showClocks() {
+        long yellow = controller.getRemainingMillis(Connect4MoveMessage.YELLOW);
+        if(yellow < 0) {
+            if(shownClockSeconds != 0) {
+                clockLabel.setText("");
+                shownClockSeconds = 0;
+            }
+            return;
+        }
+        long red = controller.getRemainingMillis(Connect4MoveMessage.RED);
+        long seconds = ((yellow + 999) / 1000 << 32) | ((red + 999) / 1000);
+        if(seconds == shownClockSeconds)
+            return;
+        shownClockSeconds = seconds;
+        clockLabel.setText("Yellow " + formatClock(yellow) + "    Red " + formatClock(red));
+    }
+    
+    private static String formatClock(long millis) {
+        long seconds = (millis + 999) / 1000;
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+    
+    /**
+     * <ul><b><i>restartAnalysis</i></b></ul>
+     * <ul><ul><p><code> private void restartAnalysis () </code></p></ul>
+     *
+     * Restarts the background analysis on the current position, or clears
+     * the overlay once the game is over.
+     */
+    private void restartAnalysis() {
+        if(isGameOver) {
+            analysis.clear();
+            showAnalysis(null);
+            return;
+        }
+        int otherColor = (color == Connect4MoveMessage.RED) ? Connect4MoveMessage.YELLOW : Connect4MoveMessage.RED;
+        controller.readPosition(analysisPosition, isOurTurn() ? color : otherColor);
+        analysisDiscs = analysisPosition.getMoveCount();
+        analysis.analyze(analysisPosition);
+    }
+    
+    /**
+     * <ul><b><i>showAnalysis</i></b></ul>
+     * <ul><ul><p><code> private void showAnalysis (Connect4Analysis result) </code></p></ul>
+     *
+     * Shows a batch of analysis results; null clears the overlay. Scores are
+     * for the player to move.
+     *
+     * @param result - the latest analysis, or null
+     */
+    private void showAnalysis(Connect4Analysis result) {
+        StringBuilder line = new StringBuilder();
+        if(result != null) {
+            line.append("Best line (depth ").append(result.getDepth()).append("):");
+            for(int i = 0; i < result.getBestLineLength(); i++)
+                line.append(' ').append(result.getBestLineMove(i) + 1);
+        }
+        bestLineLabel.setText(line.toString());
+        for(int col = 0; col < columnScoreLabels.length; col++) {
+            columnScoreLabels[col].setText(result == null ? "" 
+                    : Connect4Analysis.formatScore(result.getColumnScore(col), analysisDiscs));
+        }
+    }
+    
+    /**
+     * <ul><b><i>isOurTurn</i></b></ul>
+     * <ul><ul><p><code> private boolean isOurTurn () </code></p></ul>
+     *
+     * Yellow moves first; after that, it is our turn whenever the last move
+     * was the other player's.
+     *
+     * @return true if this player moves next
+     */
+    private boolean isOurTurn() {
+        int last = lastMoveColor;
+        if(last == Connect4Model.EMPTY)
+            return color == Connect4MoveMessage.YELLOW;
+        return last != color;
+    }
+    
+    /**
+     * <ul><b><i>requestComputerMove</i></b></ul>
+     * <ul><ul><p><code> private void requestComputerMove () </code></p></ul>
+     *
+     * Chooses the computer player's column on the background thread. The
+     * choice is tagged with the current game so a frame after a new game has
+     * started discards it.
+     */
+    private void requestComputerMove() {
+        computerThinking = true;
+        Connect4Controller game = controller;
+        int generation = gameGeneration;
+        int playAs = color;
+        computerExecutor.execute(() -> {
+            int col = game.chooseComputerColumn(playAs);
+            if(col >= 0)
+                computerMove = ((long) generation << 32) | col;
+        });
     }
     
 }
@@ -0,0 +1,346 @@
+package connect4;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A {@link Connect4Board} for any {@link Connect4GameConfig}, however many
+ * cells it has.
+ * 
+ * <p>The discs of each color are a bit set spread over as many 
+ * <code>long</code> words as the board needs, one bit per cell, column by
+ * column with the bottom row first. Column heights are kept alongside so a
+ * move is a single bit set and never allocates.</p>
+ * 
+ * <p>Rather than shifting whole multi-word sets, a move is checked for a win
+ * by counting the mover's discs outwards from the new disc, with a separate
+ * loop for each of the four directions. The cost depends on N only, not on
+ * the size of the board. The standard board uses {@link Connect4Bitboard}
+ * instead, where the same check is a few constant shifts.</p>
+ * 
+ * <p>A Zobrist hash of the discs and the player to move is updated with
+ * every move. The keys depend only on the bit index of a cell, so the board
+ * size and N are mixed into the empty board's hash; otherwise a table kept
+ * across configurations would match positions from a different game.</p>
+ *
+ */
+public final class Connect4WideBitboard implements Connect4Board 
+{
+	private static final int MAX_WINDOW_WEIGHT = 200;
+	
+	/** random key per side and cell */
+	private static final long[][] ZOBRIST = zobristKeys();
+	private static final long RED_TO_MOVE = 0x2545_F491_4F6C_DD1DL;
+	private static final long EMPTY_HASH = 0x9E37_79B9_7F4A_7C15L; // so the empty board does not hash to 0
+	private static final long CONFIG_HASH = 0xD6E8_FEB8_6659_FD93L;
+	
+	private final Connect4GameConfig config;
+	private final int rows;
+	private final int columns;
+	private final int connect;
+	private final long emptyHash;      // hash of the empty board of this config
+	private final int[] windows;        // evaluation windows, connect cells each
+	private final int[] windowWeights;
+	
+	private final long[][] discs;      // discs[side][word], side 0 is yellow
+	private final int[] heights;
+	private int moves;
+	private int toMove;
+	private long hash;
+	
+	/**
+	 * Connect4WideBitboard Constructor. Creates an empty board.
+	 * @param config board configuration
+	 */
+	public Connect4WideBitboard(Connect4GameConfig config)
+	{
+		this(config, windows(config), windowWeights(config.getConnect()));
+		reset();
+	}
+	
+	private Connect4WideBitboard(Connect4GameConfig config, int[] windows, int[] windowWeights)
+	{
+		this.config = config;
+		this.rows = config.getRows();
+		this.columns = config.getColumns();
+		this.connect = config.getConnect();
+		long size = (rows << 16) | (columns << 8) | connect;
+		this.emptyHash = EMPTY_HASH ^ (size * CONFIG_HASH);
+		this.windows = windows;
+		this.windowWeights = windowWeights;
+		int words = (config.getCells() + 63) >>> 6;
+		this.discs = new long[2][words];
+		this.heights = new int[columns];
+	}
+	
+	@Override
+	public Connect4GameConfig getConfig()
+	{
+		return config;
+	}
+	
+	@Override
+	public void reset()
+	{
+		Arrays.fill(discs[0], 0);
+		Arrays.fill(discs[1], 0);
+		Arrays.fill(heights, 0);
+		moves = 0;
+		toMove = Connect4MoveMessage.YELLOW;
+		hash = emptyHash;
+	}
+	
+	@Override
+	public void setPosition(int[][] grid, int colorToMove)
+	{
+		reset();
+		for (int c = 0; c < columns; c++)
+		{
+			for (int r = rows - 1; r >= 0 && grid[r][c] != Connect4Model.EMPTY; r--)
+			{
+				int side = side(grid[r][c]);
+				int bit = index(heights[c]++, c);
+				set(discs[side], bit);
+				hash ^= ZOBRIST[side][bit];
+				moves++;
+			}
+		}
+		toMove = colorToMove;
+		if (colorToMove == Connect4MoveMessage.RED)
+			hash ^= RED_TO_MOVE;
+	}
+	
+	@Override
+	public void copyFrom(Connect4Board other)
+	{
+		Connect4WideBitboard board = (Connect4WideBitboard) other;
+		System.arraycopy(board.discs[0], 0, discs[0], 0, discs[0].length);
+		System.arraycopy(board.discs[1], 0, discs[1], 0, discs[1].length);
+		System.arraycopy(board.heights, 0, heights, 0, columns);
+		moves = board.moves;
+		toMove = board.toMove;
+		hash = board.hash;
+	}
+	
+	@Override
+	public Connect4Board copy()
+	{
+		Connect4WideBitboard board = new Connect4WideBitboard(config, windows, windowWeights);
+		board.copyFrom(this);
+		return board;
+	}
+	
+	@Override
+	public boolean canPlay(int col)
+	{
+		return heights[col] < rows;
+	}
+	
+	@Override
+	public void play(int col)
+	{
+		int side = side(toMove);
+		int bit = index(heights[col]++, col);
+		set(discs[side], bit);
+		hash ^= ZOBRIST[side][bit] ^ RED_TO_MOVE;
+		moves++;
+		toMove ^= Connect4MoveMessage.YELLOW ^ Connect4MoveMessage.RED;
+	}
+	
+	@Override
+	public void undo(int col)
+	{
+		toMove ^= Connect4MoveMessage.YELLOW ^ Connect4MoveMessage.RED;
+		moves--;
+		int side = side(toMove);
+		int bit = index(--heights[col], col);
+		discs[side][bit >>> 6] &= ~(1L << bit);
+		hash ^= ZOBRIST[side][bit] ^ RED_TO_MOVE;
+	}
+	
+	@Override
+	public boolean isWinningMove(int col)
+	{
+		long[] own = discs[side(toMove)];
+		int row = heights[col];
+		int need = connect - 1;
+		
+		// vertical: only discs below can count
+		int run = 0;
+		for (int r = row - 1; r >= 0 && run < need && get(own, index(r, col)); r--)
+			run++;
+		if (run >= need)
+			return true;
+		
+		// horizontal
+		run = 0;
+		for (int c = col - 1; c >= 0 && run < need && get(own, index(row, c)); c--)
+			run++;
+		for (int c = col + 1; c < columns && run < need && get(own, index(row, c)); c++)
+			run++;
+		if (run >= need)
+			return true;
+		
+		// diagonal, rising to the right
+		run = 0;
+		for (int r = row - 1, c = col - 1; r >= 0 && c >= 0 && run < need && get(own, index(r, c)); r--, c--)
+			run++;
+		for (int r = row + 1, c = col + 1; r < rows && c < columns && run < need && get(own, index(r, c)); r++, c++)
+			run++;
+		if (run >= need)
+			return true;
+		
+		// diagonal, falling to the right
+		run = 0;
+		for (int r = row + 1, c = col - 1; r < rows && c >= 0 && run < need && get(own, index(r, c)); r++, c--)
+			run++;
+		for (int r = row - 1, c = col + 1; r >= 0 && c < columns && run < need && get(own, index(r, c)); r--, c++)
+			run++;
+		return run >= need;
+	}
+	
+	@Override
+	public long hash()
+	{
+		return hash;
+	}
+	
+	@Override
+	public int getMoveCount()
+	{
+		return moves;
+	}
+	
+	@Override
+	public int getPlayerToMove()
+	{
+		return toMove;
+	}
+	
+	/**
+	 * Scores live windows of N cells the same way {@link Connect4Evaluator}
+	 * scores windows of four.
+	 */
+	@Override
+	public int evaluate()
+	{
+		long[] own = discs[side(toMove)];
+		long[] opponent = discs[1 - side(toMove)];
+		int score = 0;
+		for (int w = 0; w < windows.length; w += connect)
+		{
+			int mine = 0;
+			int theirs = 0;
+			for (int i = w; i < w + connect; i++)
+			{
+				if (get(own, windows[i]))
+					mine++;
+				else if (get(opponent, windows[i]))
+					theirs++;
+			}
+			if (theirs == 0)
+				score += windowWeights[mine];
+			else if (mine == 0)
+				score -= windowWeights[theirs];
+		}
+		return score;
+	}
+	
+	/**
+	 * Gets the color of a cell.
+	 * @param row row index, counting up from the bottom
+	 * @param col column index
+	 * @return YELLOW, RED or EMPTY
+	 */
+	public int getColor(int row, int col)
+	{
+		int bit = index(row, col);
+		if (get(discs[0], bit))
+			return Connect4MoveMessage.YELLOW;
+		if (get(discs[1], bit))
+			return Connect4MoveMessage.RED;
+		return Connect4Model.EMPTY;
+	}
+	
+	private int index(int row, int col)
+	{
+		return col * rows + row;
+	}
+	
+	private static int side(int color)
+	{
+		return color == Connect4MoveMessage.YELLOW ? 0 : 1;
+	}
+	
+	private static boolean get(long[] words, int bit)
+	{
+		return (words[bit >>> 6] & (1L << bit)) != 0;
+	}
+	
+	private static void set(long[] words, int bit)
+	{
+		words[bit >>> 6] |= 1L << bit;
+	}
+	
+	private static long[][] zobristKeys()
+	{
+		SplittableRandom random = new SplittableRandom(0x43344E);
+		int cells = Connect4GameConfig.MAX_SIZE * Connect4GameConfig.MAX_SIZE;
+		long[][] keys = new long[2][cells];
+		for (int side = 0; side < 2; side++)
+		{
+			for (int i = 0; i < cells; i++)
+			{
+				keys[side][i] = random.nextLong();
+			}
+		}
+		return keys;
+	}
+	
+	/**
+	 * Every line of N cells on the board, flattened, as bit indexes.
+	 */
+	private static int[] windows(Connect4GameConfig config)
+	{
+		int h = config.getRows();
+		int w = config.getColumns();
+		int n = config.getConnect();
+		int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {-1, 1}}; // {dRow, dCol}
+		int[] result = new int[4 * w * h * n];
+		int length = 0;
+		for (int[] d : directions)
+		{
+			for (int r = 0; r < h; r++)
+			{
+				for (int c = 0; c < w; c++)
+				{
+					int endRow = r + (n - 1) * d[0];
+					int endCol = c + (n - 1) * d[1];
+					if (endRow < 0 || endRow >= h || endCol >= w)
+						continue;
+					for (int i = 0; i < n; i++)
+					{
+						result[length++] = (c + i * d[1]) * h + r + i * d[0];
+					}
+				}
+			}
+		}
+		return Arrays.copyOf(result, length);
+	}
+	
+	/**
+	 * {@link Connect4Evaluator#WINDOW_WEIGHTS} extended to N: each further
+	 * disc in a window is worth five times the last, up to a cap that keeps
+	 * the total well below {@link Connect4Engine#WIN_SCORE} on the largest
+	 * board. A full window is a win and is never scored.
+	 */
+	private static int[] windowWeights(int connect)
+	{
+		int[] weights = new int[connect + 1];
+		for (int k = 1; k < connect; k++)
+		{
+			weights[k] = k == 1 ? 1 : k == 2 ? 8 : Math.min(weights[k - 1] * 5, MAX_WINDOW_WEIGHT);
+		}
+		return weights;
+	}
+}